@@ -43,6 +43,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.metadata;
 import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.name;
 
 /**
@@ -208,17 +209,25 @@ public class SecretModel implements AutoCloseable {
 
     public List<ListVersionsView> listSecretVersions(String secretName, boolean decrypt) {
         SecretIdentifier secretIdentifier = new SecretIdentifier(secretName);
-        List<RawSecretEntry> entries = secretsGroup.stream()
-                .filter(name.eq(secretIdentifier))
-                .reverse()
-                .toList();
 
         if (decrypt) {
+            List<RawSecretEntry> entries = secretsGroup.stream()
+                    .filter(name.eq(secretIdentifier))
+                    .reverse()
+                    .toList();
+
             return entries.stream()
                     .map(e -> secretsGroup.decryptEvenIfNotActive(e, secretIdentifier, e.version))
                     .map(ListVersionsView::new)
                     .collect(Collectors.toList());
         } else {
+            // Only the metadata is shown, so there is no need to fetch the encrypted payloads
+            List<RawSecretEntry> entries = secretsGroup.stream()
+                    .filter(name.eq(secretIdentifier))
+                    .reverse()
+                    .project(metadata())
+                    .toList();
+
             return entries.stream().map(ListVersionsView::new).collect(Collectors.toList());
         }
     }
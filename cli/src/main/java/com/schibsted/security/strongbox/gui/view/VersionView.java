@@ -108,7 +108,7 @@ public class VersionView extends Pane {
     }
 
     ObservableList<Long> getSecretVersions(SecretsGroup sg, SecretIdentifier secret) {
-        List<Long> secretVersions = sg.stream().filter(name.eq(secret)).toJavaStream().map(i -> i.version).collect(Collectors.toList());
+        List<Long> secretVersions = sg.stream().filter(name.eq(secret)).project().toJavaStream().map(i -> i.version).collect(Collectors.toList());
 
         return FXCollections.observableArrayList(secretVersions);
     }
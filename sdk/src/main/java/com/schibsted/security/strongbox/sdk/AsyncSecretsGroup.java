@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk;
+
+import com.schibsted.security.strongbox.sdk.exceptions.PotentiallyMaliciousDataException;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking version of the read methods of {@link SecretsGroup}. The lookups are done on an {@code Executor},
+ * so that the calling thread, e.g. an event loop, is not held while the secrets are fetched and decrypted.
+ *
+ * The futures complete exceptionally with the same exceptions as the corresponding {@link SecretsGroup} methods,
+ * e.g. {@link PotentiallyMaliciousDataException} if the integrity of the data returned is compromised.
+ */
+public interface AsyncSecretsGroup extends AutoCloseable {
+    /**
+     * @see SecretsGroup#getLatestActiveVersion(SecretIdentifier)
+     *
+     * @param secretIdentifier identifier of the secret to retrieve
+     * @return the {@code SecretEntry} requested
+     */
+    CompletableFuture<Optional<SecretEntry>> getLatestActiveVersion(SecretIdentifier secretIdentifier);
+
+    /**
+     * @see SecretsGroup#getActive(SecretIdentifier, long)
+     *
+     * @param secretIdentifier identifier of the secret to retrieve
+     * @param version version of the entry to retrieve
+     * @return the {@code SecretEntry} requested
+     */
+    CompletableFuture<Optional<SecretEntry>> getActive(SecretIdentifier secretIdentifier, long version);
+
+    /**
+     * @see SecretsGroup#getAllActiveVersions(SecretIdentifier)
+     *
+     * @param secretIdentifier identifier of the secret to retrieve
+     * @return a list of {@code SecretEntry} matching the request
+     */
+    CompletableFuture<List<SecretEntry>> getAllActiveVersions(SecretIdentifier secretIdentifier);
+
+    /**
+     * @see SecretsGroup#getLatestActiveVersionOfAllSecrets()
+     *
+     * @return a list of {@code SecretEntry} matching the request
+     */
+    CompletableFuture<List<SecretEntry>> getLatestActiveVersionOfAllSecrets();
+
+    /**
+     * @see SecretsGroup#identifiers()
+     *
+     * @return The set of {@code SecretIdentifier} that are present in this Secret Group
+     */
+    CompletableFuture<Set<SecretIdentifier>> identifiers();
+
+    /**
+     * Close the underlying {@code SecretsGroup}, and the executor if it was created by this {@code AsyncSecretsGroup}
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk;
+
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+
+import java.util.Optional;
+
+/**
+ * Receives the latest active version of a watched secret, see {@link SecretsGroup#watch(SecretIdentifier, SecretListener)}
+ */
+@FunctionalInterface
+public interface SecretListener {
+    /**
+     * Called with the latest active version when the secret is first watched, and whenever that changes. The
+     * listener owns the entry, and should shred it when it is no longer needed.
+     *
+     * @param secretIdentifier the identifier of the watched secret
+     * @param latestActiveVersion the latest active version of the secret, or empty if there is none
+     */
+    void onChange(SecretIdentifier secretIdentifier, Optional<SecretEntry> latestActiveVersion);
+}
@@ -0,0 +1,16 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk;
+
+/**
+ * A secret that is being watched, see {@link SecretsGroup#watch(com.schibsted.security.strongbox.sdk.types.SecretIdentifier, SecretListener)}
+ */
+public interface SecretSubscription extends AutoCloseable {
+    /**
+     * Stop watching the secret. The listener may still be called once if a change is being delivered.
+     */
+    @Override
+    void close();
+}
@@ -7,6 +7,8 @@ package com.schibsted.security.strongbox.sdk;
 import com.schibsted.security.strongbox.sdk.exceptions.AlreadyExistsException;
 import com.schibsted.security.strongbox.sdk.exceptions.DoesNotExistException;
 import com.schibsted.security.strongbox.sdk.exceptions.PotentiallyMaliciousDataException;
+import com.schibsted.security.strongbox.sdk.internal.impl.ParallelDecryption;
+import com.schibsted.security.strongbox.sdk.internal.impl.SecretWatcher;
 import com.schibsted.security.strongbox.sdk.types.SRN;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.KVStream;
 import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
@@ -14,8 +16,13 @@ import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
 import com.schibsted.security.strongbox.sdk.types.SecretEntry;
 import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
 import com.schibsted.security.strongbox.sdk.types.SecretMetadata;
+import com.schibsted.security.strongbox.sdk.types.SecretWatchConfiguration;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -191,12 +198,42 @@ public interface SecretsGroup extends AutoCloseable {
      * @throws PotentiallyMaliciousDataException if the integrity of the data returned is compromised
      */
     default List<SecretEntry> getAllActiveVersions(SecretIdentifier secretIdentifier) {
-        return stream()
+        List<RawSecretEntry> entries = stream()
                 .filter(name.eq(secretIdentifier))
                 .filter(active())
+                .toList();
+        return ParallelDecryption.decrypt(entries, e -> decrypt(e, secretIdentifier, e.version));
+    }
+
+    /**
+     * Get the latest active version of several secrets at once, i.e. for each of the given secrets, the entry with
+     * the highest version that is active. The entries are found in a single pass over the store, and decrypted in
+     * parallel, which is considerably faster than calling {@link #getLatestActiveVersion(SecretIdentifier)} for
+     * each secret.
+     *
+     * Please see the top of the class for the definition of active.
+     *
+     * @param secretIdentifiers identifiers of the secrets to retrieve
+     * @return a map from {@code SecretIdentifier} to {@code SecretEntry}, without the secrets that have no active version
+     * @throws PotentiallyMaliciousDataException if the integrity of the data returned is compromised
+     */
+    default Map<SecretIdentifier, SecretEntry> getLatestActiveVersions(Collection<SecretIdentifier> secretIdentifiers) {
+        if (secretIdentifiers.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Set<SecretIdentifier> requested = new HashSet<>(secretIdentifiers);
+        List<RawSecretEntry> entries = stream()
+                .filter(active())
+                .reverse()
+                .uniquePrimaryKey()
                 .toJavaStream()
-                .map(e -> decrypt(e, secretIdentifier, e.version))
+                .filter(e -> requested.contains(e.secretIdentifier))
                 .collect(Collectors.toList());
+
+        return ParallelDecryption.decrypt(entries, e -> decrypt(e, e.secretIdentifier, e.version))
+                .stream()
+                .collect(Collectors.toMap(e -> e.secretIdentifier, e -> e));
     }
 
     /**
@@ -209,13 +246,12 @@ public interface SecretsGroup extends AutoCloseable {
      * @throws PotentiallyMaliciousDataException if the integrity of the data returned is compromised
      */
     default List<SecretEntry> getLatestActiveVersionOfAllSecrets() {
-        return stream()
+        List<RawSecretEntry> entries = stream()
                 .filter(active())
                 .reverse()
                 .uniquePrimaryKey()
-                .toJavaStream()
-                .map(e -> decrypt(e, e.secretIdentifier, e.version))
-                .collect(Collectors.toList());
+                .toList();
+        return ParallelDecryption.decrypt(entries, e -> decrypt(e, e.secretIdentifier, e.version));
     }
 
     /**
@@ -227,11 +263,42 @@ public interface SecretsGroup extends AutoCloseable {
      * @throws PotentiallyMaliciousDataException if the integrity of the data returned is compromised
      */
     default List<SecretEntry> getAllActiveVersions() {
-        return stream()
+        List<RawSecretEntry> entries = stream()
                 .filter(active())
-                .toJavaStream()
-                .map(e -> decrypt(e, e.secretIdentifier, e.version))
-                .collect(Collectors.toList());
+                .toList();
+        return ParallelDecryption.decrypt(entries, e -> decrypt(e, e.secretIdentifier, e.version));
+    }
+
+    /**
+     * Watch a secret for changes, polling every 30 seconds and calling the listener on a shared listener pool.
+     * See {@link #watch(SecretIdentifier, SecretListener, SecretWatchConfiguration)}.
+     *
+     * @param secretIdentifier identifier of the secret to watch
+     * @param listener called with the latest active version, initially and whenever it changes
+     * @return a {@code SecretSubscription} that stops the watch when closed
+     */
+    default SecretSubscription watch(SecretIdentifier secretIdentifier, SecretListener listener) {
+        return watch(secretIdentifier, listener, new SecretWatchConfiguration());
+    }
+
+    /**
+     * Watch a secret for changes. The listener is called with the latest active version when the watch starts,
+     * and again whenever the latest active version, or its state, not before or not after changes.
+     *
+     * Each poll only reads the metadata of the latest active version, and it is only decrypted when it has changed.
+     * As the comment and user data are encrypted, changing only those will not be detected.
+     *
+     * The watch stops when the returned subscription or this group is closed.
+     *
+     * Please see the top of the class for the definition of active.
+     *
+     * @param secretIdentifier identifier of the secret to watch
+     * @param listener called with the latest active version, initially and whenever it changes
+     * @param configuration the poll interval, and the executor to call the listener on
+     * @return a {@code SecretSubscription} that stops the watch when closed
+     */
+    default SecretSubscription watch(SecretIdentifier secretIdentifier, SecretListener listener, SecretWatchConfiguration configuration) {
+        return SecretWatcher.watch(this, secretIdentifier, listener, configuration);
     }
 
     /**
@@ -9,7 +9,9 @@ import com.schibsted.security.strongbox.sdk.types.Principal;
 import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
 import com.schibsted.security.strongbox.sdk.types.SecretsGroupInfo;
 
+import java.util.Collection;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * This class manages {@link SecretsGroup}s. It is intended to hide away the specifics of how encryption, storage
@@ -35,6 +37,11 @@ public interface SecretsGroupManager {
      * Get an instance of the {@code SecretsGroup}. The underlying implementation is responsible
      * for tracking the necessary resources needed to construct the object.
      *
+     * Each call sets up a new instance that is not shared, so e.g. a file backed group is read and decrypted
+     * again every time. Callers that get the same group repeatedly should use
+     * {@link com.schibsted.security.strongbox.sdk.impl.DefaultSecretsGroupManager#acquire(SecretsGroupIdentifier)}
+     * instead, which hands out handles to one shared instance.
+     *
      * @param group the identifier of the {@code SecretsGroup} to be retrieved
      * @return the desired {@code SecretsGroup}
      * @throws DoesNotExistException if the {@code SecretsGroup} does not exist
@@ -58,6 +65,17 @@ public interface SecretsGroupManager {
      */
     SecretsGroupInfo info(SecretsGroupIdentifier group);
 
+    /**
+     * Get information about many {@code SecretsGroup}s, like {@link #info(SecretsGroupIdentifier)} does for one.
+     * Implementations may look up the groups in parallel, and return them in the order they complete.
+     *
+     * @param groups the identifiers of the {@code SecretsGroup}s to get information about
+     * @return a {@code SecretsGroupInfo} for each distinct group, which should be closed if not fully consumed
+     */
+    default Stream<SecretsGroupInfo> infoAll(Collection<SecretsGroupIdentifier> groups) {
+        return groups.stream().distinct().map(this::info);
+    }
+
     /**
      * Delete a {@code SecretsGroup} and its underlying resources. This method will attempt to delete all
      * resources of the given (@code SecretsGroup}, and will simply ignore any resource that does not exists.
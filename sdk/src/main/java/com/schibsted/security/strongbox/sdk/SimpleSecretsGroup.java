@@ -9,7 +9,9 @@ import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
 import com.schibsted.security.strongbox.sdk.exceptions.EncodingException;
 import com.schibsted.security.strongbox.sdk.types.StringSecretEntry;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -57,6 +59,16 @@ public interface SimpleSecretsGroup {
      */
     Optional<String> getStringSecret(String secretIdentifier, long version);
 
+    /**
+     * Get the latest values of several secrets as {@code String}, fetched in one go, see
+     * {@link SecretsGroup#getLatestActiveVersions(Collection)}
+     *
+     * @param secretIdentifiers identifiers of the secrets to retrieve
+     * @return the secret values as {@code String}, without the secrets that have no active version
+     * @throws EncodingException if any of the secrets is not a {@code String}
+     */
+    Map<SecretIdentifier, String> getStringSecrets(Collection<SecretIdentifier> secretIdentifiers);
+
     /**
      * Get all latest active versions of String secrets
      *
@@ -102,6 +114,16 @@ public interface SimpleSecretsGroup {
      */
     Optional<byte[]> getBinarySecret(String secretIdentifier, long version);
 
+    /**
+     * Get the latest values of several secrets as {@code byte[]}, fetched in one go, see
+     * {@link SecretsGroup#getLatestActiveVersions(Collection)}
+     *
+     * @param secretIdentifiers identifiers of the secrets to retrieve
+     * @return the secret values as {@code byte[]}, without the secrets that have no active version
+     * @throws EncodingException if any of the secrets is not binary
+     */
+    Map<SecretIdentifier, byte[]> getBinarySecrets(Collection<SecretIdentifier> secretIdentifiers);
+
     /**
      * Get all latest active versions of byte secrets
      *
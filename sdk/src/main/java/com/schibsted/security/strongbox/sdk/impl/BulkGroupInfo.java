@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
+import com.amazonaws.services.kms.AWSKMS;
+import com.amazonaws.services.kms.model.AliasListEntry;
+import com.amazonaws.services.kms.model.ListAliasesRequest;
+import com.amazonaws.services.kms.model.ListAliasesResult;
+import com.schibsted.security.strongbox.sdk.exceptions.DoesNotExistException;
+import com.schibsted.security.strongbox.sdk.exceptions.SecretsGroupException;
+import com.schibsted.security.strongbox.sdk.internal.RegionLocalResourceName;
+import com.schibsted.security.strongbox.sdk.internal.access.AccessLevel;
+import com.schibsted.security.strongbox.sdk.internal.access.IAMPolicyManager;
+import com.schibsted.security.strongbox.sdk.internal.srn.SecretsGroupSRN;
+import com.schibsted.security.strongbox.sdk.types.Principal;
+import com.schibsted.security.strongbox.sdk.types.Region;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Gets the {@code SecretsGroupInfo} of many groups at once. Whatever can be listed in one go is listed up front: the
+ * IAM policies of all groups, and the KMS aliases and DynamoDB tables of each region. Only the principals attached
+ * to each policy are then looked up per group.
+ *
+ * The calls to each service are limited separately, and the limits are shared by all the managers in the process,
+ * so that a large number of groups, or several bulk lookups at once, do not get the account throttled.
+ */
+class BulkGroupInfo {
+    private static final int MAX_CONCURRENT_IAM_CALLS = 4;
+    private static final int MAX_CONCURRENT_KMS_CALLS = 8;
+    private static final int MAX_CONCURRENT_DYNAMODB_CALLS = 8;
+    private static final int MAX_ALIASES = 100;
+    private static final String ALIAS_PREFIX = "alias/";
+
+    private static final Semaphore iam = new Semaphore(MAX_CONCURRENT_IAM_CALLS);
+    private static final Semaphore kms = new Semaphore(MAX_CONCURRENT_KMS_CALLS);
+    private static final Semaphore dynamoDB = new Semaphore(MAX_CONCURRENT_DYNAMODB_CALLS);
+
+    private final IAMPolicyManager policyManager;
+    private final Function<Region, AWSKMS> kmsClients;
+    private final Function<Region, AmazonDynamoDB> dynamoDBClients;
+    private final Predicate<SecretsGroupIdentifier> isLocal;
+    private final Function<SecretsGroupIdentifier, Optional<String>> localStoreArn;
+    private final Function<SecretsGroupIdentifier, ReadWriteLock> readWriteLocks;
+
+    BulkGroupInfo(IAMPolicyManager policyManager,
+                  Function<Region, AWSKMS> kmsClients,
+                  Function<Region, AmazonDynamoDB> dynamoDBClients,
+                  Predicate<SecretsGroupIdentifier> isLocal,
+                  Function<SecretsGroupIdentifier, Optional<String>> localStoreArn,
+                  Function<SecretsGroupIdentifier, ReadWriteLock> readWriteLocks) {
+        this.policyManager = policyManager;
+        this.kmsClients = kmsClients;
+        this.dynamoDBClients = dynamoDBClients;
+        this.isLocal = isLocal;
+        this.localStoreArn = localStoreArn;
+        this.readWriteLocks = readWriteLocks;
+    }
+
+    /**
+     * List the shared resources, and then look up each group in parallel. Blocks until the listings are done, and
+     * returns the groups in the order they complete. Each lookup has its own timeout, so the time the caller spends
+     * on the groups returned so far does not count against the others. Closing the stream, or a lookup failing,
+     * cancels the lookups that have not completed.
+     */
+    Stream<SecretsGroupInfo> infoAll(Collection<SecretsGroupIdentifier> groups, FanOut fanOut) {
+        Set<SecretsGroupIdentifier> distinctGroups = new LinkedHashSet<>(groups);
+        Set<Region> regions = new HashSet<>();
+        Set<Region> dynamoDBRegions = new HashSet<>();
+        for (SecretsGroupIdentifier group : distinctGroups) {
+            regions.add(group.region);
+            if (!isLocal.test(group)) {
+                dynamoDBRegions.add(group.region);
+            }
+        }
+
+        Listings listings = list(fanOut, regions, dynamoDBRegions);
+
+        LinkedBlockingQueue<Future<SecretsGroupInfo>> completed = new LinkedBlockingQueue<>();
+        for (SecretsGroupIdentifier group : distinctGroups) {
+            fanOut.submit(() -> info(group, listings), completed::add);
+        }
+
+        return IntStream.range(0, distinctGroups.size())
+                .mapToObj(i -> next(completed, fanOut))
+                .onClose(fanOut::close);
+    }
+
+    private static class Listings {
+        final String account;
+        final Map<String, String> policyArns;
+        final Map<Region, Map<String, String>> keyIds;
+        final Map<Region, Set<String>> tables;
+
+        Listings(String account, Map<String, String> policyArns, Map<Region, Map<String, String>> keyIds, Map<Region, Set<String>> tables) {
+            this.account = account;
+            this.policyArns = policyArns;
+            this.keyIds = keyIds;
+            this.tables = tables;
+        }
+    }
+
+    private Listings list(FanOut fanOut, Set<Region> regions, Set<Region> dynamoDBRegions) {
+        Future<String> account = fanOut.submit(() -> limit(iam, policyManager::getAccount));
+        Future<Map<String, String>> policyArns = fanOut.submit(() -> limit(iam, policyManager::getPolicyArns));
+
+        Map<Region, Future<Map<String, String>>> keyIds = new HashMap<>();
+        for (Region region : regions) {
+            keyIds.put(region, fanOut.submit(() -> limit(kms, () -> listAliasTargets(kmsClients.apply(region)))));
+        }
+
+        Map<Region, Future<Set<String>>> tables = new HashMap<>();
+        for (Region region : dynamoDBRegions) {
+            tables.put(region, fanOut.submit(() -> limit(dynamoDB, () -> listTables(dynamoDBClients.apply(region)))));
+        }
+
+        try {
+            Map<Region, Map<String, String>> listedKeyIds = new HashMap<>();
+            for (Map.Entry<Region, Future<Map<String, String>>> entry : keyIds.entrySet()) {
+                listedKeyIds.put(entry.getKey(), fanOut.get(entry.getValue()));
+            }
+
+            Map<Region, Set<String>> listedTables = new HashMap<>();
+            for (Map.Entry<Region, Future<Set<String>>> entry : tables.entrySet()) {
+                listedTables.put(entry.getKey(), fanOut.get(entry.getValue()));
+            }
+
+            return new Listings(fanOut.get(account), fanOut.get(policyArns), listedKeyIds, listedTables);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            fanOut.close();
+            throw new RuntimeException("Failed to list the resources of the groups", e);
+        }
+    }
+
+    private SecretsGroupInfo info(SecretsGroupIdentifier group, Listings listings) throws InterruptedException {
+        ReadWriteLock readWriteLock = readWriteLocks.apply(group);
+        readWriteLock.readLock().lock();
+
+        try {
+            String resourceName = new RegionLocalResourceName(group).toString();
+
+            Optional<String> kmsArn = Optional.ofNullable(listings.keyIds.get(group.region).get(ALIAS_PREFIX + resourceName))
+                    .map(keyId -> String.format("arn:aws:kms:%s:%s:key/%s", group.region.getName(), listings.account, keyId));
+
+            Optional<String> storeArn;
+            if (isLocal.test(group)) {
+                storeArn = localStoreArn.apply(group);
+            } else if (listings.tables.get(group.region).contains(resourceName)) {
+                storeArn = Optional.of(String.format("arn:aws:dynamodb:%s:%s:table/%s", group.region.getName(), listings.account, resourceName));
+            } else {
+                storeArn = Optional.empty();
+            }
+
+            Optional<String> adminPolicyArn = Optional.ofNullable(listings.policyArns.get(policyManager.getPolicyName(group, AccessLevel.ADMIN)));
+            Optional<String> readOnlyPolicyArn = Optional.ofNullable(listings.policyArns.get(policyManager.getPolicyName(group, AccessLevel.READONLY)));
+
+            List<Principal> admin = adminPolicyArn.isPresent() ? limit(iam, () -> attached(() -> policyManager.listAttachedAdmin(group))) : new ArrayList<>();
+            List<Principal> readOnly = readOnlyPolicyArn.isPresent() ? limit(iam, () -> attached(() -> policyManager.listAttachedReadOnly(group))) : new ArrayList<>();
+
+            return new SecretsGroupInfo(new SecretsGroupSRN(listings.account, group), kmsArn, storeArn, adminPolicyArn, readOnlyPolicyArn, admin, readOnly);
+        } catch (RuntimeException e) {
+            throw new SecretsGroupException(group, "Error getting group information", e);
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+    }
+
+    private static List<Principal> attached(Callable<List<Principal>> listAttached) throws Exception {
+        try {
+            return listAttached.call();
+        } catch (DoesNotExistException e) {
+            // the policy was deleted after it was listed
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * The target key id of each alias in the region
+     */
+    private static Map<String, String> listAliasTargets(AWSKMS client) {
+        Map<String, String> keyIds = new HashMap<>();
+
+        Optional<String> marker = Optional.empty();
+        do {
+            ListAliasesRequest request = new ListAliasesRequest().withLimit(MAX_ALIASES);
+            marker.ifPresent(request::setMarker);
+            ListAliasesResult result = client.listAliases(request);
+
+            for (AliasListEntry alias : result.getAliases()) {
+                if (alias.getTargetKeyId() != null) {
+                    keyIds.put(alias.getAliasName(), alias.getTargetKeyId());
+                }
+            }
+
+            marker = Boolean.TRUE.equals(result.getTruncated()) ? Optional.ofNullable(result.getNextMarker()) : Optional.empty();
+        } while (marker.isPresent());
+
+        return keyIds;
+    }
+
+    private static Set<String> listTables(AmazonDynamoDB client) {
+        Set<String> tables = new HashSet<>();
+
+        Optional<String> lastTable = Optional.empty();
+        do {
+            ListTablesRequest request = new ListTablesRequest();
+            lastTable.ifPresent(request::setExclusiveStartTableName);
+            ListTablesResult result = client.listTables(request);
+
+            tables.addAll(result.getTableNames());
+            lastTable = Optional.ofNullable(result.getLastEvaluatedTableName());
+        } while (lastTable.isPresent());
+
+        return tables;
+    }
+
+    private static <T> T limit(Semaphore semaphore, Callable<T> call) throws InterruptedException {
+        semaphore.acquire();
+        try {
+            return call.call();
+        } catch (RuntimeException | InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    private static SecretsGroupInfo next(LinkedBlockingQueue<Future<SecretsGroupInfo>> completed, FanOut fanOut) {
+        try {
+            // Every call either completes or is interrupted at its deadline, so one is bound to arrive
+            return fanOut.get(completed.take());
+        } catch (ExecutionException e) {
+            fanOut.close();
+            if (e.getCause() instanceof SecretsGroupException) {
+                throw (SecretsGroupException) e.getCause();
+            }
+            throw new RuntimeException("Error getting group information", e.getCause());
+        } catch (InterruptedException | TimeoutException | CancellationException e) {
+            fanOut.close();
+            throw new RuntimeException("Error getting group information", e);
+        }
+    }
+}
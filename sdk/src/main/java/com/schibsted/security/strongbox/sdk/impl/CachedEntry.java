@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.schibsted.security.strongbox.sdk.internal.converter.FormattedTimestamp;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.State;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+/**
+ * A decrypted entry kept in memory. Guards against copying the entry while it is being shredded.
+ */
+final class CachedEntry {
+    private final SecretEntry secretEntry;
+    private boolean shredded = false;
+
+    CachedEntry(SecretEntry secretEntry) {
+        this.secretEntry = secretEntry;
+    }
+
+    synchronized Optional<SecretEntry> copyIfActive() {
+        if (shredded || !isActive()) {
+            return Optional.empty();
+        }
+        return Optional.of(secretEntry.copy());
+    }
+
+    synchronized void shred() {
+        shredded = true;
+        secretEntry.bestEffortShred();
+    }
+
+    private boolean isActive() {
+        ZonedDateTime now = FormattedTimestamp.now();
+        return secretEntry.state == State.ENABLED
+                && !(secretEntry.notAfter.isPresent() && secretEntry.notAfter.get().compareTo(now) < 0)
+                && !(secretEntry.notBefore.isPresent() && secretEntry.notBefore.get().compareTo(now) > 0);
+    }
+}
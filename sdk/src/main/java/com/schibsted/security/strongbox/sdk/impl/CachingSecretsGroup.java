@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.schibsted.security.strongbox.sdk.SecretsGroup;
+import com.schibsted.security.strongbox.sdk.exceptions.PotentiallyMaliciousDataException;
+import com.schibsted.security.strongbox.sdk.internal.impl.ParallelDecryption;
+import com.schibsted.security.strongbox.sdk.internal.impl.SecretWatcher;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.KVStream;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SRN;
+import com.schibsted.security.strongbox.sdk.types.SecretCacheConfiguration;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretMetadata;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.active;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.name;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.version;
+
+/**
+ * Keeps decrypted secrets in memory, so that repeated calls to {@link #getLatestActiveVersion(SecretIdentifier)},
+ * {@link #getLatestActiveVersions(Collection)} and {@link #getActive(SecretIdentifier, long)} neither query the store nor decrypt until the time to live expires.
+ *
+ * Decrypted entries are keyed on the identifier, version and SHA of the encrypted payload, so an entry that
+ * has been updated is never served from the cache once it has been read again from the store. Changes made through
+ * this {@code SecretsGroup} are visible immediately, while changes made elsewhere are visible within the time to live.
+ *
+ * Callers receive a copy of the cached entry, and the cached entry is shredded when it is evicted.
+ */
+public class CachingSecretsGroup implements SecretsGroup {
+    private final SecretsGroup secretsGroup;
+    private final Cache<EntryKey, CachedEntry> entries;
+    private final Cache<SecretIdentifier, EntryKey> latestVersions;
+    private final Cache<VersionKey, EntryKey> pinnedVersions;
+
+    public CachingSecretsGroup(SecretsGroup secretsGroup, SecretCacheConfiguration configuration) {
+        this(secretsGroup, configuration, Ticker.systemTicker());
+    }
+
+    CachingSecretsGroup(SecretsGroup secretsGroup, SecretCacheConfiguration configuration, Ticker ticker) {
+        this.secretsGroup = secretsGroup;
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maximumSize)
+                .expireAfterWrite(configuration.timeToLiveInSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .removalListener((RemovalNotification<EntryKey, CachedEntry> notification) -> notification.getValue().shred())
+                .build();
+        this.latestVersions = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maximumSize)
+                .expireAfterWrite(configuration.timeToLiveInSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .build();
+        this.pinnedVersions = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maximumSize)
+                .expireAfterWrite(configuration.timeToLiveInSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    @Override
+    public Optional<SecretEntry> getLatestActiveVersion(SecretIdentifier secretIdentifier) {
+        Optional<SecretEntry> cached = getCached(latestVersions.getIfPresent(secretIdentifier));
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        Optional<RawSecretEntry> entry = stream()
+                .filter(name.eq(secretIdentifier))
+                .filter(active())
+                .reverse()
+                .findFirst();
+        if (!entry.isPresent()) {
+            return Optional.empty();
+        }
+
+        EntryKey key = new EntryKey(entry.get());
+        SecretEntry secretEntry = decryptAndCache(key, entry.get(), secretIdentifier, entry.get().version);
+        latestVersions.put(secretIdentifier, key);
+
+        return Optional.of(secretEntry);
+    }
+
+    @Override
+    public Optional<SecretEntry> getActive(SecretIdentifier secretIdentifier, long targetVersion) {
+        VersionKey versionKey = new VersionKey(secretIdentifier, targetVersion);
+        Optional<SecretEntry> cached = getCached(pinnedVersions.getIfPresent(versionKey));
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        List<RawSecretEntry> entry = stream()
+                .filter(name.eq(secretIdentifier).AND(version.eq(targetVersion)))
+                .filter(active())
+                .toList();
+
+        if (entry.size() > 1) {
+            throw new PotentiallyMaliciousDataException(String.format(
+                    "Internal corruption: more than one entry for secret '%s' version '%d'",
+                    secretIdentifier.name, targetVersion));
+        }
+        if (entry.isEmpty()) {
+            return Optional.empty();
+        }
+
+        EntryKey key = new EntryKey(entry.get(0));
+        SecretEntry secretEntry = decryptAndCache(key, entry.get(0), secretIdentifier, targetVersion);
+        pinnedVersions.put(versionKey, key);
+
+        return Optional.of(secretEntry);
+    }
+
+    @Override
+    public Map<SecretIdentifier, SecretEntry> getLatestActiveVersions(Collection<SecretIdentifier> secretIdentifiers) {
+        Map<SecretIdentifier, SecretEntry> result = new HashMap<>();
+        Set<SecretIdentifier> missing = new HashSet<>();
+        for (SecretIdentifier secretIdentifier : secretIdentifiers) {
+            Optional<SecretEntry> cached = getCached(latestVersions.getIfPresent(secretIdentifier));
+            if (cached.isPresent()) {
+                result.put(secretIdentifier, cached.get());
+            } else {
+                missing.add(secretIdentifier);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        List<RawSecretEntry> entries = stream()
+                .filter(active())
+                .reverse()
+                .uniquePrimaryKey()
+                .toJavaStream()
+                .filter(e -> missing.contains(e.secretIdentifier))
+                .collect(Collectors.toList());
+
+        List<SecretEntry> secretEntries = ParallelDecryption.decrypt(entries, e -> decryptAndCache(new EntryKey(e), e, e.secretIdentifier, e.version));
+        for (int i = 0; i < entries.size(); i++) {
+            latestVersions.put(entries.get(i).secretIdentifier, new EntryKey(entries.get(i)));
+            result.put(entries.get(i).secretIdentifier, secretEntries.get(i));
+        }
+
+        return result;
+    }
+
+    private Optional<SecretEntry> getCached(EntryKey key) {
+        if (key == null) {
+            return Optional.empty();
+        }
+
+        CachedEntry cachedEntry = entries.getIfPresent(key);
+        return cachedEntry != null
+                ? cachedEntry.copyIfActive()
+                : Optional.empty();
+    }
+
+    private SecretEntry decryptAndCache(EntryKey key, RawSecretEntry rawSecretEntry, SecretIdentifier expectedSecretIdentifier, long expectedVersion) {
+        try {
+            Optional<SecretEntry> secretEntry = entries.get(key, () -> new CachedEntry(decrypt(rawSecretEntry, expectedSecretIdentifier, expectedVersion))).copyIfActive();
+            if (secretEntry.isPresent()) {
+                return secretEntry.get();
+            }
+        } catch (UncheckedExecutionException e) {
+            // Surface the original exception, e.g. PotentiallyMaliciousDataException
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(String.format("Failed to decrypt secret '%s' version '%d'", expectedSecretIdentifier.name, expectedVersion), e.getCause());
+        }
+
+        // The cached entry was evicted between loading and copying, or is no longer active
+        return decrypt(rawSecretEntry, expectedSecretIdentifier, expectedVersion);
+    }
+
+    /**
+     * Remove all cached entries for the given secret, shredding the decrypted values
+     *
+     * @param secretIdentifier the identifier of the secret to forget
+     */
+    public void invalidate(SecretIdentifier secretIdentifier) {
+        latestVersions.invalidate(secretIdentifier);
+        pinnedVersions.asMap().keySet().removeIf(k -> k.secretIdentifier.equals(secretIdentifier));
+        entries.asMap().keySet().removeIf(k -> k.secretIdentifier.equals(secretIdentifier));
+    }
+
+    /**
+     * Remove all cached entries, shredding the decrypted values
+     */
+    public void invalidateAll() {
+        latestVersions.invalidateAll();
+        pinnedVersions.invalidateAll();
+        entries.invalidateAll();
+    }
+
+    @Override
+    public RawSecretEntry create(NewSecretEntry newSecretEntry) {
+        try {
+            return secretsGroup.create(newSecretEntry);
+        } finally {
+            invalidate(newSecretEntry.secretIdentifier);
+        }
+    }
+
+    @Override
+    public RawSecretEntry addVersion(NewSecretEntry newSecretEntry) {
+        try {
+            return secretsGroup.addVersion(newSecretEntry);
+        } finally {
+            invalidate(newSecretEntry.secretIdentifier);
+        }
+    }
+
+    @Override
+    public RawSecretEntry update(SecretMetadata secretMetadata) {
+        try {
+            return secretsGroup.update(secretMetadata);
+        } finally {
+            invalidate(secretMetadata.secretIdentifier);
+        }
+    }
+
+    @Override
+    public Set<SecretIdentifier> identifiers() {
+        return secretsGroup.identifiers();
+    }
+
+    @Override
+    public void delete(SecretIdentifier secretIdentifier) {
+        try {
+            secretsGroup.delete(secretIdentifier);
+        } finally {
+            invalidate(secretIdentifier);
+        }
+    }
+
+    @Override
+    public KVStream<RawSecretEntry> stream() {
+        return secretsGroup.stream();
+    }
+
+    @Override
+    public SecretEntry decrypt(RawSecretEntry rawSecretEntry, SecretIdentifier expectedSecretIdentifier, long expectedVersion) {
+        return secretsGroup.decrypt(rawSecretEntry, expectedSecretIdentifier, expectedVersion);
+    }
+
+    @Override
+    public SecretEntry decryptEvenIfNotActive(RawSecretEntry rawSecretEntry, SecretIdentifier expectedSecretIdentifier, long expectedVersion) {
+        return secretsGroup.decryptEvenIfNotActive(rawSecretEntry, expectedSecretIdentifier, expectedVersion);
+    }
+
+    @Override
+    public SRN srn(SecretIdentifier secretIdentifier) {
+        return secretsGroup.srn(secretIdentifier);
+    }
+
+    @Override
+    public void close() {
+        try {
+            SecretWatcher.cancelWatches(this);
+            invalidateAll();
+        } finally {
+            secretsGroup.close();
+        }
+    }
+
+    private static final class EntryKey {
+        final SecretIdentifier secretIdentifier;
+        final long version;
+        final byte[] sha;
+
+        EntryKey(RawSecretEntry rawSecretEntry) {
+            this.secretIdentifier = rawSecretEntry.secretIdentifier;
+            this.version = rawSecretEntry.version;
+            this.sha = rawSecretEntry.sha1OfEncryptionPayload();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(secretIdentifier, version, Arrays.hashCode(sha));
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof EntryKey) {
+                final EntryKey other = (EntryKey) obj;
+                return Objects.equal(secretIdentifier, other.secretIdentifier)
+                        && version == other.version
+                        && Arrays.equals(sha, other.sha);
+            } else {
+                return false;
+            }
+        }
+    }
+
+    private static final class VersionKey {
+        final SecretIdentifier secretIdentifier;
+        final long version;
+
+        VersionKey(SecretIdentifier secretIdentifier, long version) {
+            this.secretIdentifier = secretIdentifier;
+            this.version = version;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(secretIdentifier, version);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof VersionKey) {
+                final VersionKey other = (VersionKey) obj;
+                return Objects.equal(secretIdentifier, other.secretIdentifier)
+                        && version == other.version;
+            } else {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.schibsted.security.strongbox.sdk.AsyncSecretsGroup;
+import com.schibsted.security.strongbox.sdk.SecretsGroup;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs the lookups of a {@code SecretsGroup} on an {@code Executor}. The storage and KMS clients are blocking,
+ * so the executor should be sized for blocking I/O rather than be an event loop or the common fork join pool.
+ *
+ * Wrap a {@link CachingSecretsGroup} to complete most lookups without waiting on AWS at all.
+ */
+public class DefaultAsyncSecretsGroup implements AsyncSecretsGroup {
+    private static final Logger log = LoggerFactory.getLogger(DefaultAsyncSecretsGroup.class);
+
+    private static final int MAX_THREADS = 16;
+    private static final long THREAD_KEEP_ALIVE_IN_SECONDS = 60;
+    private static final long CLOSE_TIMEOUT_IN_SECONDS = 30;
+
+    private final SecretsGroup secretsGroup;
+    private final Executor executor;
+    private final Optional<ExecutorService> ownedExecutor;
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    /**
+     * Use a pool of up to 16 daemon threads, lookups beyond that are queued, which is shut down on close
+     *
+     * @param secretsGroup the {@code SecretsGroup} to look up secrets in
+     */
+    public DefaultAsyncSecretsGroup(SecretsGroup secretsGroup) {
+        this(secretsGroup, newExecutor(), true);
+    }
+
+    /**
+     * @param secretsGroup the {@code SecretsGroup} to look up secrets in
+     * @param executor the executor to run the lookups on, which is left running on close
+     */
+    public DefaultAsyncSecretsGroup(SecretsGroup secretsGroup, Executor executor) {
+        this(secretsGroup, executor, false);
+    }
+
+    private DefaultAsyncSecretsGroup(SecretsGroup secretsGroup, Executor executor, boolean owned) {
+        this.secretsGroup = secretsGroup;
+        this.executor = executor;
+        this.ownedExecutor = owned ? Optional.of((ExecutorService) executor) : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Optional<SecretEntry>> getLatestActiveVersion(SecretIdentifier secretIdentifier) {
+        return supply(() -> secretsGroup.getLatestActiveVersion(secretIdentifier));
+    }
+
+    @Override
+    public CompletableFuture<Optional<SecretEntry>> getActive(SecretIdentifier secretIdentifier, long version) {
+        return supply(() -> secretsGroup.getActive(secretIdentifier, version));
+    }
+
+    @Override
+    public CompletableFuture<List<SecretEntry>> getAllActiveVersions(SecretIdentifier secretIdentifier) {
+        return supply(() -> secretsGroup.getAllActiveVersions(secretIdentifier));
+    }
+
+    @Override
+    public CompletableFuture<List<SecretEntry>> getLatestActiveVersionOfAllSecrets() {
+        return supply(secretsGroup::getLatestActiveVersionOfAllSecrets);
+    }
+
+    @Override
+    public CompletableFuture<Set<SecretIdentifier>> identifiers() {
+        return supply(secretsGroup::identifiers);
+    }
+
+    /**
+     * The lookup is added to the pending ones before checking whether the group is closed, so that either close
+     * waits for it, or it is rejected. An executor that rejects the lookup fails the returned future.
+     */
+    private <T> CompletableFuture<T> supply(Supplier<T> lookup) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        pending.add(future);
+        if (closed) {
+            pending.remove(future);
+            throw new IllegalStateException("The secrets group has been closed");
+        }
+        future.whenComplete((result, exception) -> pending.remove(future));
+
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(lookup.get());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Waits for the lookups that are still running before closing the wrapped {@code SecretsGroup}, as they are
+     * using it
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        List<CompletableFuture<?>> running = new ArrayList<>(pending);
+
+        try {
+            ownedExecutor.ifPresent(ExecutorService::shutdown);
+            CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[running.size()]))
+                    .get(CLOSE_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // the lookup failed, which was reported to whoever made it
+        } catch (TimeoutException e) {
+            log.warn("Closing the secrets group while {} lookups are still running after {} seconds",
+                    pending.size(), CLOSE_TIMEOUT_IN_SECONDS);
+            ownedExecutor.ifPresent(ExecutorService::shutdownNow);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ownedExecutor.ifPresent(ExecutorService::shutdownNow);
+        } finally {
+            secretsGroup.close();
+        }
+    }
+
+    private static ExecutorService newExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-async-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -7,6 +7,9 @@ package com.schibsted.security.strongbox.sdk.impl;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.schibsted.security.strongbox.sdk.internal.ClientRegistry;
 import com.schibsted.security.strongbox.sdk.internal.access.IAMPolicyManager;
 import com.schibsted.security.strongbox.sdk.internal.encryption.Encryptor;
 import com.schibsted.security.strongbox.sdk.internal.encryption.FileEncryptionContext;
@@ -34,6 +37,7 @@ import org.slf4j.LoggerFactory;
 import com.schibsted.security.strongbox.sdk.internal.types.store.StorageReference;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -41,11 +45,16 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 /**
  * @author stiankri
@@ -53,20 +62,33 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * @author torarvid
  * @author hawkaa
  */
-public class DefaultSecretsGroupManager implements SecretsGroupManager {
+public class DefaultSecretsGroupManager implements SecretsGroupManager, AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(DefaultSecretsGroupManager.class);
+    private static final long SCAN_THREAD_KEEP_ALIVE_IN_SECONDS = 60;
 
     private final AWSCredentialsProvider awsCredentials;
     private final IAMPolicyManager policyManager;
     private final UserConfig userConfig;
     private final EncryptionStrength encryptionStrength;
     private final ClientConfiguration clientConfiguration;
+    private final ClientRegistry clientRegistry;
 
     private final ConcurrentHashMap<SecretsGroupIdentifier, ReadWriteLock> readWriteLocks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SecretsGroupIdentifier, Striped<Lock>> secretLocks = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<SecretsGroupIdentifier, KMSEncryptor> encryptors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SecretsGroupIdentifier, DataKeyCacheConfiguration> dataKeyCacheConfigurations = new ConcurrentHashMap<>();
+
+    private final SecretsGroupCache groupCache = new SecretsGroupCache(this::get, new SecretsGroupCacheConfiguration());
+
+    private volatile FanOutConfiguration fanOutConfiguration = new FanOutConfiguration();
+    private volatile Optional<ParallelScanConfiguration> parallelScanConfiguration = Optional.empty();
+    private volatile Optional<FileStoreFormat> fileStoreFormat = Optional.empty();
+    private volatile Optional<Executor> scanExecutor = Optional.empty();
+    private final List<ExecutorService> ownedScanExecutors = new ArrayList<>();
+    private boolean closed = false;
 
     public DefaultSecretsGroupManager() {
-        this(new DefaultAWSCredentialsProviderChain());
+        this(DefaultAWSCredentialsProviderChain.getInstance());
     }
 
     public DefaultSecretsGroupManager(AWSCredentialsProvider awsCredentials) {
@@ -86,9 +108,23 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
         UserConfig userConfig,
         EncryptionStrength encryptionStrength,
         ClientConfiguration clientConfiguration) {
+        this(awsCredentials, userConfig, encryptionStrength, clientConfiguration, ClientRegistry.defaultRegistry());
+    }
+
+    /**
+     * @param clientRegistry where to get the AWS clients from, so that they can be shared with other managers and
+     *                       shut down together, see {@link ClientRegistry}
+     */
+    public DefaultSecretsGroupManager(
+        AWSCredentialsProvider awsCredentials,
+        UserConfig userConfig,
+        EncryptionStrength encryptionStrength,
+        ClientConfiguration clientConfiguration,
+        ClientRegistry clientRegistry) {
         this.awsCredentials = awsCredentials;
         this.clientConfiguration = clientConfiguration;
-        policyManager = IAMPolicyManager.fromCredentials(awsCredentials, this.clientConfiguration);
+        this.clientRegistry = clientRegistry;
+        policyManager = IAMPolicyManager.fromCredentials(clientRegistry, awsCredentials, this.clientConfiguration);
         this.userConfig = userConfig;
         this.encryptionStrength = encryptionStrength;
     }
@@ -125,27 +161,26 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
 
                 verifyThatNonOfTheResourcesExistsOrThrow(group, kmsEncryptor, localReadWriteLock, allowExistingPendingDeletedOrDisabledKey);
 
-                ExecutorService executor = Executors.newFixedThreadPool(6);
-                try {
-                    Future<Store> storeFuture = executor.submit(() -> {
+                try (FanOut fanOut = FanOut.forChanges(fanOutConfiguration)) {
+                    Future<Store> storeFuture = fanOut.submit(() -> {
                         Store store = createStore(group, storageReference, localReadWriteLock);
                         setLocalState(group, storageReference);
                         return  store;
                     });
 
-                    Future<Void> encryptorFuture = executor.submit((Callable<Void>) () -> {
+                    Future<Void> encryptorFuture = fanOut.submit((Callable<Void>) () -> {
                         kmsEncryptor.create(allowExistingPendingDeletedOrDisabledKey);
                         return null;
                     });
 
-                    encryptorFuture.get();
-                    final Store store = storeFuture.get();
+                    fanOut.get(encryptorFuture);
+                    final Store store = fanOut.get(storeFuture);
 
-                    Future<String> adminArnFuture = executor.submit(() -> policyManager.createAdminPolicy(group, kmsEncryptor, store));
-                    Future<String> readOnlyArnFuture = executor.submit(() -> policyManager.createReadOnlyPolicy(group, kmsEncryptor, store));
+                    Future<String> adminArnFuture = fanOut.submit(() -> policyManager.createAdminPolicy(group, kmsEncryptor, store));
+                    Future<String> readOnlyArnFuture = fanOut.submit(() -> policyManager.createReadOnlyPolicy(group, kmsEncryptor, store));
 
-                    String adminArn = adminArnFuture.get();
-                    String readOnlyArn = readOnlyArnFuture.get();
+                    String adminArn = fanOut.get(adminArnFuture);
+                    String readOnlyArn = fanOut.get(readOnlyArnFuture);
 
                     SecretsGroupSRN secretsGroupSRN = new SecretsGroupSRN(policyManager.getAccount(), group);
 
@@ -153,8 +188,8 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                             Optional.of(adminArn), Optional.of(readOnlyArn), new ArrayList<>(), new ArrayList<>());
                 } catch (InterruptedException | ExecutionException e) {
                     throw new SecretsGroupException(group, "Failed to create group: this might have left a partially constructed group, which can be deleted.", e);
-                } finally {
-                    executor.shutdownNow();
+                } catch (TimeoutException e) {
+                    throw new SecretsGroupException(group, "Timed out creating group: this might have left a partially constructed group, which can be deleted.", e);
                 }
             } finally {
                 readWriteLock.writeLock().unlock();
@@ -163,45 +198,45 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
     }
 
     private ReadWriteLock getReadWriteLock(SecretsGroupIdentifier group) {
-        ReadWriteLock newLock = new ReentrantReadWriteLock();
-        ReadWriteLock existingLock = readWriteLocks.putIfAbsent(group, new ReentrantReadWriteLock());
-        return existingLock != null ? existingLock : newLock;
+        return readWriteLocks.computeIfAbsent(group, g -> new ReentrantReadWriteLock());
+    }
+
+    private Striped<Lock> getSecretLocks(SecretsGroupIdentifier group) {
+        return secretLocks.computeIfAbsent(group, g -> DefaultSecretsGroup.newSecretLocks());
     }
 
     private void verifyThatNonOfTheResourcesExistsOrThrow(final SecretsGroupIdentifier group,
                                                           final KMSEncryptor encryptor,
                                                           final ReadWriteLock readWriteLock,
                                                           boolean allowExistingPendingDeletedOrDisabledKey) {
-        ExecutorService executor = Executors.newFixedThreadPool(4);
-
-        try {
-            Future<Optional<StorageType>> storageExistsFuture = executor.submit(() -> storageExists(group, readWriteLock));
-            Future<Boolean> encryptorExistsFuture = executor.submit(() -> encryptor.exists(allowExistingPendingDeletedOrDisabledKey));
-            Future<Boolean> adminPolicyExistsFuture = executor.submit(() -> policyManager.adminPolicyExists(group));
-            Future<Boolean> readOnlyPolicyExistsFuture = executor.submit(() -> policyManager.readOnlyPolicyExists(group));
+        try (FanOut fanOut = new FanOut(fanOutConfiguration)) {
+            Future<Optional<StorageType>> storageExistsFuture = fanOut.submit(() -> storageExists(group, readWriteLock));
+            Future<Boolean> encryptorExistsFuture = fanOut.submit(() -> encryptor.exists(allowExistingPendingDeletedOrDisabledKey));
+            Future<Boolean> adminPolicyExistsFuture = fanOut.submit(() -> policyManager.adminPolicyExists(group));
+            Future<Boolean> readOnlyPolicyExistsFuture = fanOut.submit(() -> policyManager.readOnlyPolicyExists(group));
 
-            Optional<StorageType> storageType = storageExistsFuture.get();
+            Optional<StorageType> storageType = fanOut.get(storageExistsFuture);
             if (storageType.isPresent()) {
                 throw new AlreadyExistsException(String.format("There already exists a storage backend for the group '%s' of type '%s'", group, storageType.get()));
             }
 
-            if (adminPolicyExistsFuture.get()) {
+            if (fanOut.get(adminPolicyExistsFuture)) {
                 throw new AlreadyExistsException(String.format("There already exists an admin policy for the group '%s'", group));
             }
 
-            if (readOnlyPolicyExistsFuture.get()) {
+            if (fanOut.get(readOnlyPolicyExistsFuture)) {
                 throw new AlreadyExistsException(String.format("There already exists a read only policy for the group '%s'", group));
             }
 
-            if (encryptorExistsFuture.get()) {
+            if (fanOut.get(encryptorExistsFuture)) {
                 throw new AlreadyExistsException(String.format("There already exists an encryptor backend for the group '%s'. Please note that it takes %d days for a key to be deleted. If you intend to reuse the key, use the '--allow-key-reuse' flag.", group, encryptor.pendingDeletionWindowInDays()));
             }
         } catch (AlreadyExistsException e) {
             throw new SecretsGroupException(group, "The group already exists", e);
         } catch (InterruptedException | ExecutionException e) {
             throw new SecretsGroupException(group, "Failed to verify if the group already exists", e);
-        } finally {
-            executor.shutdownNow();
+        } catch (TimeoutException e) {
+            throw new SecretsGroupException(group, "Timed out verifying if the group already exists", e);
         }
     }
 
@@ -210,10 +245,13 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
         if (userConfig.getLocalFilePath(group).isPresent()) {
             // TODO: load encryptor once
             final KMSEncryptor kmsEncryptor = getEncryptor(group);
-            return new File(userConfig.getLocalFilePath(group).get(), kmsEncryptor, new FileEncryptionContext(group), readWriteLock);
+            return new File(userConfig.getLocalFilePath(group).get(), kmsEncryptor, new FileEncryptionContext(group), readWriteLock, fileStoreFormat);
         }
         try {
-            DynamoDB dynamoDB = DynamoDB.fromCredentials(awsCredentials, clientConfiguration, group, readWriteLock);
+            DynamoDB dynamoDB = DynamoDB.fromCredentials(clientRegistry, awsCredentials, clientConfiguration, group, readWriteLock);
+            if (parallelScanConfiguration.isPresent()) {
+                dynamoDB.enableParallelScan(parallelScanConfiguration.get().totalSegments, scanExecutor.get());
+            }
             return dynamoDB;
         } catch (ResourceNotFoundException e) {
             throw new DoesNotExistException("No storage backend found!", e);
@@ -231,24 +269,24 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
     private Optional<StorageType> storageExists(SecretsGroupIdentifier group, ReadWriteLock readWriteLock) {
         if (userConfig.getLocalFilePath(group).isPresent()) {
             final KMSEncryptor kmsEncryptor = getEncryptor(group);
-            File file = new File(userConfig.getLocalFilePath(group).get(), kmsEncryptor, new FileEncryptionContext(group), readWriteLock);
+            File file = new File(userConfig.getLocalFilePath(group).get(), kmsEncryptor, new FileEncryptionContext(group), readWriteLock, fileStoreFormat);
 
             return file.exists() ? Optional.of(StorageType.FILE) : Optional.empty();
         } else {
-            DynamoDB dynamoDB = DynamoDB.fromCredentials(awsCredentials, clientConfiguration, group, readWriteLock);
+            DynamoDB dynamoDB = DynamoDB.fromCredentials(clientRegistry, awsCredentials, clientConfiguration, group, readWriteLock);
             return dynamoDB.exists() ? Optional.of(StorageType.DYNAMODB) : Optional.empty();
         }
     }
 
     private Store createStore(SecretsGroupIdentifier group, StorageReference storageReference, ReadWriteLock readWriteLock) {
         if (storageReference instanceof DynamoDBReference) {
-            DynamoDB store = DynamoDB.fromCredentials(awsCredentials, clientConfiguration, group, readWriteLock);
+            DynamoDB store = DynamoDB.fromCredentials(clientRegistry, awsCredentials, clientConfiguration, group, readWriteLock);
             store.create();
             return store;
         } else if (storageReference instanceof FileReference) {
             FileReference fileReference = (FileReference) storageReference;
             final KMSEncryptor kmsEncryptor = getEncryptor(group);
-            File store = new File(fileReference.path, kmsEncryptor, new FileEncryptionContext(group), readWriteLock);
+            File store = new File(fileReference.path, kmsEncryptor, new FileEncryptionContext(group), readWriteLock, fileStoreFormat);
             store.create();
             return store;
         } else {
@@ -258,7 +296,126 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
 
 
     private KMSEncryptor getEncryptor(SecretsGroupIdentifier group) {
-        return encryptors.computeIfAbsent(group, k -> KMSEncryptor.fromCredentials(awsCredentials, clientConfiguration, group, this.encryptionStrength));
+        return encryptors.computeIfAbsent(group, k -> KMSEncryptor.fromCredentials(clientRegistry, awsCredentials, clientConfiguration, group, this.encryptionStrength,
+                Optional.ofNullable(dataKeyCacheConfigurations.get(group))));
+    }
+
+    /**
+     * Reuse KMS data keys for the given group within the limits of the {@code configuration}, instead of
+     * calling KMS for every encrypt and decrypt. Only {@code SecretsGroup}s retrieved after this call are affected.
+     *
+     * The encryptor used by the group until now is closed, which drops the data keys it has cached.
+     *
+     * @param group the identifier of the {@code SecretsGroup} to enable data key caching for
+     * @param configuration limits for how long and how much a data key can be reused
+     */
+    public void enableDataKeyCaching(SecretsGroupIdentifier group, DataKeyCacheConfiguration configuration) {
+        dataKeyCacheConfigurations.put(group, configuration);
+        replaceEncryptor(group);
+    }
+
+    /**
+     * Call KMS for every encrypt and decrypt of the given group again, dropping the data keys cached since
+     * {@link #enableDataKeyCaching(SecretsGroupIdentifier, DataKeyCacheConfiguration)}. Only {@code SecretsGroup}s
+     * retrieved after this call are affected. Does nothing if data key caching is not enabled for the group.
+     *
+     * @param group the identifier of the {@code SecretsGroup} to disable data key caching for
+     */
+    public void disableDataKeyCaching(SecretsGroupIdentifier group) {
+        if (dataKeyCacheConfigurations.remove(group) != null) {
+            replaceEncryptor(group);
+        }
+    }
+
+    private void replaceEncryptor(SecretsGroupIdentifier group) {
+        KMSEncryptor previous = encryptors.remove(group);
+        groupCache.invalidate(group);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Scan DynamoDB backed groups in parallel segments whenever the whole table has to be read, e.g. for
+     * {@code getAllActiveVersions}, backup and migrate. Only {@code SecretsGroup}s retrieved after this call are affected.
+     *
+     * The segments are scanned on an executor owned by the manager. Executors replaced by a later call are kept
+     * until {@link #close()}, since groups retrieved earlier still scan on them, and their idle threads time out.
+     *
+     * @param configuration how many segments to split a scan into, and how many of them to scan at the same time
+     */
+    public synchronized void enableParallelScan(ParallelScanConfiguration configuration) {
+        if (closed) {
+            throw new IllegalStateException("The secrets group manager has been closed");
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(configuration.maxConcurrentSegments, configuration.maxConcurrentSegments,
+                SCAN_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-scan-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        ownedScanExecutors.add(executor);
+        enableParallelScan(configuration, executor);
+    }
+
+    /**
+     * Like {@link #enableParallelScan(ParallelScanConfiguration)}, but scan the segments on an executor owned by the
+     * caller, which must keep it running for as long as the groups retrieved after this call are used.
+     *
+     * @param configuration how many segments to split a scan into
+     * @param executor the executor to scan the segments on, which bounds how many segments are scanned at the same time
+     */
+    public synchronized void enableParallelScan(ParallelScanConfiguration configuration, Executor executor) {
+        scanExecutor = Optional.of(executor);
+        parallelScanConfiguration = Optional.of(configuration);
+        groupCache.invalidateAll();
+    }
+
+    /**
+     * Shut down the scan executors owned by the manager, and drop the cached data keys of the encryptors. Groups
+     * retrieved from the manager can no longer run parallel scans after this.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        ownedScanExecutors.forEach(ExecutorService::shutdown);
+        ownedScanExecutors.clear();
+        encryptors.values().forEach(KMSEncryptor::close);
+    }
+
+    /**
+     * Set how long a shared {@code SecretsGroup} instance handed out by {@link #acquire(SecretsGroupIdentifier)}
+     * is kept after its last handle has been closed
+     *
+     * @param configuration the idle timeout of the shared instances
+     */
+    public void configureGroupCache(SecretsGroupCacheConfiguration configuration) {
+        groupCache.configure(configuration);
+    }
+
+    /**
+     * Set where the parallel AWS calls of {@code create}, {@code info} and {@code delete} run, and how long each of
+     * these calls may run before it is interrupted. By default only the calls that read have a timeout.
+     *
+     * @param configuration the executor and timeout of the parallel calls
+     */
+    public void configureFanOut(FanOutConfiguration configuration) {
+        this.fanOutConfiguration = configuration;
+    }
+
+    /**
+     * Write file backed groups in the given format, converting existing files on their first change. By default
+     * existing files are kept in the format they are in, and new files are written in
+     * {@link FileStoreFormat#SINGLE_BLOB}, which every version of the SDK and CLI can read. Only groups retrieved after
+     * this call are affected.
+     *
+     * {@link FileStoreFormat#INDEXED_LOG} encrypts every entry separately, so it should be combined with
+     * {@link #enableDataKeyCaching(SecretsGroupIdentifier, DataKeyCacheConfiguration)} to avoid a KMS call per entry.
+     *
+     * @param format the format to write file backed groups in
+     */
+    public void configureFileStoreFormat(FileStoreFormat format) {
+        fileStoreFormat = Optional.of(format);
+        groupCache.invalidateAll();
     }
 
     public Encryptor encryptor(SecretsGroupIdentifier group) {
@@ -285,13 +442,26 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
         ReadWriteLock readWriteLock = getReadWriteLock(group);
         Store store = getCurrentStore(group, readWriteLock);
         KMSEncryptor encryptor = getEncryptor(group);
-        return new DefaultSecretsGroup(getAccount(), group, store, encryptor, readWriteLock);
+        return new DefaultSecretsGroup(getAccount(), group, store, encryptor, readWriteLock, getSecretLocks(group));
+    }
+
+    /**
+     * Get a handle to a long-lived {@code SecretsGroup} instance that is shared with all other handles to the same
+     * group, instead of setting up a new instance like {@link #get(SecretsGroupIdentifier)} does. Closing the handle
+     * releases it, and the instance is closed once it has been idle for a while. Handles are thread safe, and move
+     * on to a new instance when the group is deleted, migrated or restored.
+     *
+     * @param group the identifier of the {@code SecretsGroup} to be retrieved
+     * @return a handle to the shared {@code SecretsGroup}
+     * @throws DoesNotExistException if the {@code SecretsGroup} does not exist
+     */
+    public SecretsGroup acquire(SecretsGroupIdentifier group) {
+        return groupCache.acquire(group);
     }
 
     @Override
     public Set<SecretsGroupIdentifier> identifiers() {
         synchronized (readWriteLocks) {
-            IAMPolicyManager policyManager = IAMPolicyManager.fromCredentials(awsCredentials, clientConfiguration);
             return policyManager.getSecretsGroupIdentifiers();
         }
     }
@@ -301,11 +471,9 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
         ReadWriteLock readWriteLock = getReadWriteLock(group);
         readWriteLock.readLock().lock();
 
-        try {
-            ExecutorService executor = Executors.newFixedThreadPool(6);
-
+        try (FanOut fanOut = new FanOut(fanOutConfiguration)) {
             KMSEncryptor kmsEncryptor = getEncryptor(group);
-            Future<Optional<String>> kmsArnFuture = executor.submit(() -> {
+            Future<Optional<String>> kmsArnFuture = fanOut.submit(() -> {
                 if (kmsEncryptor.exists()) {
                     return Optional.of(kmsEncryptor.getArn());
                 } else {
@@ -313,7 +481,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                 }
             });
 
-            Future<Optional<String>> storeArnFuture = executor.submit(() -> {
+            Future<Optional<String>> storeArnFuture = fanOut.submit(() -> {
                 try {
                     Store store = getCurrentStore(group, readWriteLock);
                     if (store.exists()) {
@@ -326,7 +494,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                 }
             });
 
-            Future<Optional<String>> adminPolicyArnFuture = executor.submit(() -> {
+            Future<Optional<String>> adminPolicyArnFuture = fanOut.submit(() -> {
                 if (policyManager.adminPolicyExists(group)) {
                     return Optional.of(policyManager.getAdminPolicyArn(group));
                 } else {
@@ -334,7 +502,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                 }
             });
 
-            Future<Optional<String>> readOnlyPolicyArnFuture = executor.submit(() -> {
+            Future<Optional<String>> readOnlyPolicyArnFuture = fanOut.submit(() -> {
                 if (policyManager.readOnlyPolicyExists(group)) {
                     return Optional.of(policyManager.getReadOnlyArn(group));
                 } else {
@@ -342,7 +510,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                 }
             });
 
-            Future<List<Principal>> adminFuture = executor.submit(() -> {
+            Future<List<Principal>> adminFuture = fanOut.submit(() -> {
                 try {
                     return policyManager.listAttachedAdmin(group);
                 } catch (DoesNotExistException e) {
@@ -350,7 +518,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                 }
             });
 
-            Future<List<Principal>> readOnlyFuture = executor.submit(() -> {
+            Future<List<Principal>> readOnlyFuture = fanOut.submit(() -> {
                 try {
                     return policyManager.listAttachedReadOnly(group);
                 } catch (DoesNotExistException e) {
@@ -358,39 +526,68 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                 }
             });
 
-            executor.shutdown();
-
             try {
-                Optional<String> kmsArn = kmsArnFuture.get();
-                Optional<String> storeArn = storeArnFuture.get();
-                Optional<String> adminPolicyArn = adminPolicyArnFuture.get();
-                Optional<String> readOnlyPolicyArn = readOnlyPolicyArnFuture.get();
+                Optional<String> kmsArn = fanOut.get(kmsArnFuture);
+                Optional<String> storeArn = fanOut.get(storeArnFuture);
+                Optional<String> adminPolicyArn = fanOut.get(adminPolicyArnFuture);
+                Optional<String> readOnlyPolicyArn = fanOut.get(readOnlyPolicyArnFuture);
 
-                List<Principal> admin = adminFuture.get();
-                List<Principal> readOnly = readOnlyFuture.get();
+                List<Principal> admin = fanOut.get(adminFuture);
+                List<Principal> readOnly = fanOut.get(readOnlyFuture);
 
                 SecretsGroupSRN secretsGroupSRN = new SecretsGroupSRN(policyManager.getAccount(), group);
 
                 return new SecretsGroupInfo(secretsGroupSRN, kmsArn, storeArn, adminPolicyArn, readOnlyPolicyArn, admin, readOnly);
             } catch (InterruptedException | ExecutionException e) {
                 throw new SecretsGroupException(group, "Error getting group information", e);
+            } catch (TimeoutException e) {
+                throw new SecretsGroupException(group, "Timed out getting group information", e);
             }
         } finally {
             readWriteLock.readLock().unlock();
         }
     }
 
+    /**
+     * Get information about many groups at once. The IAM policies, KMS aliases and DynamoDB tables are listed once
+     * for all the groups instead of being looked up per group, and the remaining calls are made in parallel, with
+     * separate limits per AWS service. The timeout set with {@link #configureFanOut(FanOutConfiguration)} applies
+     * to each of these calls.
+     *
+     * @param groups the identifiers of the {@code SecretsGroup}s to get information about
+     * @return a {@code SecretsGroupInfo} for each distinct group, in the order they complete. Closing the stream
+     * cancels the lookups that have not completed.
+     */
+    @Override
+    public Stream<SecretsGroupInfo> infoAll(Collection<SecretsGroupIdentifier> groups) {
+        BulkGroupInfo bulkGroupInfo = new BulkGroupInfo(policyManager,
+                region -> clientRegistry.kms(awsCredentials, region.getName(), clientConfiguration),
+                region -> clientRegistry.dynamoDB(awsCredentials, region.getName(), clientConfiguration),
+                group -> userConfig.getLocalFilePath(group).isPresent(),
+                this::localStoreArn,
+                this::getReadWriteLock);
+        return bulkGroupInfo.infoAll(groups, new FanOut(fanOutConfiguration));
+    }
+
+    private Optional<String> localStoreArn(SecretsGroupIdentifier group) {
+        try {
+            Store store = getCurrentStore(group, getReadWriteLock(group));
+            return store.exists() ? Optional.of(store.getArn()) : Optional.empty();
+        } catch (DoesNotExistException e) {
+            return Optional.empty();
+        }
+    }
+
     @Override
     public void delete(SecretsGroupIdentifier group) {
         synchronized (readWriteLocks) {
             ReadWriteLock readWriteLock = getReadWriteLock(group);
             readWriteLock.readLock().lock();
 
-            try {
+            try (FanOut fanOut = FanOut.forChanges(fanOutConfiguration)) {
                 log.info("About to delete Secrets Group: {}", group.name);
-                ExecutorService executor = Executors.newFixedThreadPool(3);
 
-                executor.submit((Callable<Void>) () -> {
+                fanOut.submit((Callable<Void>) () -> {
                     try {
                         // We have already taken a global lock, and we want this thread to proceed independently
                         final ReadWriteLock localReadWriteLock = new ReentrantReadWriteLock();
@@ -404,7 +601,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                     return null;
                 });
 
-                executor.submit((Callable<Void>) () -> {
+                fanOut.submit((Callable<Void>) () -> {
                     try {
                         policyManager.detachAllPrincipals(group);
                         log.info("  Detached all Principals from the IAM Policies");
@@ -418,7 +615,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                     return null;
                 });
 
-                executor.submit((Callable<Void>) () -> {
+                fanOut.submit((Callable<Void>) () -> {
                     try {
                         KMSEncryptor kmsEncryptor = getEncryptor(group);
                         kmsEncryptor.delete();
@@ -429,18 +626,16 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                     return null;
                 });
 
-                executor.shutdown();
-
-                // TODO: make this more robust; when it times out or gets interrupted, the threads might still carry on in the background even though we release the lock
-                int timeoutValue = 2;
-                TimeUnit timeoutUnit = TimeUnit.MINUTES;
-                if (!executor.awaitTermination(timeoutValue, timeoutUnit)) {
-                    throw new InterruptedException(String.format("Timeout of %d %s was reached when deleting resources for the group '%s'. This might have left the system in a dirty state.", timeoutValue, timeoutUnit.name(), group.name));
+                for (ExecutionException failure : fanOut.awaitAll()) {
+                    log.warn("Failed to delete a resource of the group '{}'", group.name, failure.getCause());
                 }
+            } catch (TimeoutException e) {
+                throw new FailedToDeleteResourceException(String.format("Timed out deleting resources for the group '%s'. This might have left the system in a dirty state.", group.name), e);
             } catch (InterruptedException e) {
                 throw new FailedToDeleteResourceException(String.format("Deletion of group '%s' was interrupted, this might have left the resources in a dirty state.", group.name), e);
             } finally {
                 readWriteLock.readLock().unlock();
+                groupCache.invalidate(group);
             }
         }
     }
@@ -512,7 +707,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                 backupStore.delete();
             }
             backupStore.create();
-            currentStore.stream().forEach(backupStore::create);
+            backupStore.createAll(currentStore.stream().toJavaStream());
             backupStore.close();
         } finally {
             readWriteLock.writeLock().unlock();
@@ -532,10 +727,11 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                 currentStore.delete();
             }
             currentStore.create();
-            backupStore.stream().forEach(currentStore::create);
+            currentStore.createAll(backupStore.stream().toJavaStream());
             currentStore.close();
         } finally {
             readWriteLock.writeLock().unlock();
+            groupCache.invalidate(group);
         }
     }
 
@@ -551,7 +747,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
 
             Store currentStore = getCurrentStore(group, readWriteLock);
             try (Store newStore = createStore(group, newStorageReference, readWriteLock)) {
-                currentStore.stream().forEach(newStore::create);
+                newStore.createAll(currentStore.stream().toJavaStream());
             }
 
             if (newStorageReference instanceof FileReference) {
@@ -560,6 +756,7 @@ public class DefaultSecretsGroupManager implements SecretsGroupManager {
                 removeLocalState(group, currentStore);
             }
             currentStore.delete();
+            groupCache.invalidate(group);
 
             return info(group);
         } finally {
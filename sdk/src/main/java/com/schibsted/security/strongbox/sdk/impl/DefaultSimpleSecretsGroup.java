@@ -6,20 +6,25 @@ package com.schibsted.security.strongbox.sdk.impl;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
-import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
 import com.schibsted.security.strongbox.sdk.SecretsGroup;
 import com.schibsted.security.strongbox.sdk.SimpleSecretsGroup;
 import com.schibsted.security.strongbox.sdk.exceptions.EncodingException;
+import com.schibsted.security.strongbox.sdk.internal.ClientRegistry;
 import com.schibsted.security.strongbox.sdk.internal.SessionName;
 import com.schibsted.security.strongbox.sdk.types.ByteSecretEntry;
 import com.schibsted.security.strongbox.sdk.types.Encoding;
+import com.schibsted.security.strongbox.sdk.types.SecretCacheConfiguration;
 import com.schibsted.security.strongbox.sdk.types.SecretEntry;
 import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretRefreshConfiguration;
+import com.schibsted.security.strongbox.sdk.types.SecretSnapshotConfiguration;
 import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
 import com.schibsted.security.strongbox.sdk.types.StringSecretEntry;
 import com.schibsted.security.strongbox.sdk.types.arn.RoleARN;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -35,18 +40,83 @@ public class DefaultSimpleSecretsGroup implements SimpleSecretsGroup {
     }
 
     public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier) {
-        this(groupIdentifier, new DefaultAWSCredentialsProviderChain());
+        this(groupIdentifier, DefaultAWSCredentialsProviderChain.getInstance());
     }
 
     public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final RoleARN role) {
-        AWSCredentialsProvider assumedAWSCredentials = new STSAssumeRoleSessionCredentialsProvider.Builder(role.toArn(), SessionName.getSessionName("StrongboxSDK")).build();
-        DefaultSecretsGroupManager secretsGroupManager = new DefaultSecretsGroupManager(assumedAWSCredentials);
-        secretsGroup = secretsGroupManager.get(groupIdentifier);
+        this(groupIdentifier, assumeRole(role));
     }
 
     public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final AWSCredentialsProvider credentialsProvider) {
-        DefaultSecretsGroupManager secretsGroupManager = new DefaultSecretsGroupManager(credentialsProvider);
-        secretsGroup = secretsGroupManager.get(groupIdentifier);
+        this(new DefaultSecretsGroupManager(credentialsProvider).get(groupIdentifier));
+    }
+
+    /**
+     * Keep decrypted secrets in memory, within the limits of the {@code cacheConfiguration}
+     *
+     * @param groupIdentifier the identifier of the {@code SecretsGroup}
+     * @param cacheConfiguration how many secrets to keep, and for how long
+     */
+    public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final SecretCacheConfiguration cacheConfiguration) {
+        this(groupIdentifier, DefaultAWSCredentialsProviderChain.getInstance(), cacheConfiguration);
+    }
+
+    public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final RoleARN role, final SecretCacheConfiguration cacheConfiguration) {
+        this(groupIdentifier, assumeRole(role), cacheConfiguration);
+    }
+
+    public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final AWSCredentialsProvider credentialsProvider, final SecretCacheConfiguration cacheConfiguration) {
+        this(new CachingSecretsGroup(new DefaultSecretsGroupManager(credentialsProvider).get(groupIdentifier), cacheConfiguration));
+    }
+
+    /**
+     * Load all active secrets up front, serve them from memory and reload them in the background, see
+     * {@link RefreshingSecretsGroup}
+     *
+     * @param groupIdentifier the identifier of the {@code SecretsGroup}
+     * @param refreshConfiguration how often to reload, and how long to keep serving the secrets when reloading fails
+     */
+    public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final SecretRefreshConfiguration refreshConfiguration) {
+        this(groupIdentifier, DefaultAWSCredentialsProviderChain.getInstance(), refreshConfiguration);
+    }
+
+    public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final RoleARN role, final SecretRefreshConfiguration refreshConfiguration) {
+        this(groupIdentifier, assumeRole(role), refreshConfiguration);
+    }
+
+    public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final AWSCredentialsProvider credentialsProvider, final SecretRefreshConfiguration refreshConfiguration) {
+        this(new RefreshingSecretsGroup(new DefaultSecretsGroupManager(credentialsProvider).get(groupIdentifier), refreshConfiguration));
+    }
+
+    /**
+     * Start from a local snapshot of the encrypted secrets if there is a recent enough one, and revalidate it in
+     * the background, see {@link SnapshotSecretsGroup}
+     *
+     * @param groupIdentifier the identifier of the {@code SecretsGroup}
+     * @param snapshotConfiguration where to keep the snapshot, and how old it may be
+     */
+    public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final SecretSnapshotConfiguration snapshotConfiguration) {
+        this(groupIdentifier, DefaultAWSCredentialsProviderChain.getInstance(), snapshotConfiguration);
+    }
+
+    public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final RoleARN role, final SecretSnapshotConfiguration snapshotConfiguration) {
+        this(groupIdentifier, assumeRole(role), snapshotConfiguration);
+    }
+
+    public DefaultSimpleSecretsGroup(final SecretsGroupIdentifier groupIdentifier, final AWSCredentialsProvider credentialsProvider, final SecretSnapshotConfiguration snapshotConfiguration) {
+        this(snapshot(new DefaultSecretsGroupManager(credentialsProvider), groupIdentifier, snapshotConfiguration));
+    }
+
+    private static SecretsGroup snapshot(final DefaultSecretsGroupManager secretsGroupManager, final SecretsGroupIdentifier groupIdentifier, final SecretSnapshotConfiguration snapshotConfiguration) {
+        return new SnapshotSecretsGroup(secretsGroupManager.get(groupIdentifier), groupIdentifier, secretsGroupManager.encryptor(groupIdentifier), snapshotConfiguration);
+    }
+
+    /**
+     * The clients are keyed on the credentials provider instance, so the provider of each role is reused rather
+     * than creating new clients for every group. It lives as long as the default client registry.
+     */
+    private static AWSCredentialsProvider assumeRole(final RoleARN role) {
+        return ClientRegistry.defaultRegistry().assumeRole(role.toArn(), SessionName.getSessionName("StrongboxSDK"));
     }
 
     @Override
@@ -69,6 +139,15 @@ public class DefaultSimpleSecretsGroup implements SimpleSecretsGroup {
         return getStringSecret(new SecretIdentifier(secretIdentifier), version);
     }
 
+    @Override
+    public Map<SecretIdentifier, String> getStringSecrets(Collection<SecretIdentifier> secretIdentifiers) {
+        Map<SecretIdentifier, SecretEntry> secretEntries = secretsGroup.getLatestActiveVersions(secretIdentifiers);
+        secretEntries.values().forEach(e -> verifyEncodingOrThrow(Optional.of(e), Encoding.UTF8));
+        return secretEntries.entrySet()
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().secretValue.asString()));
+    }
+
     @Override
     public List<StringSecretEntry> getAllStringSecrets() {
         return secretsGroup.getLatestActiveVersionOfAllSecrets()
@@ -98,6 +177,15 @@ public class DefaultSimpleSecretsGroup implements SimpleSecretsGroup {
         return getBinarySecret(new SecretIdentifier(secretIdentifier), version);
     }
 
+    @Override
+    public Map<SecretIdentifier, byte[]> getBinarySecrets(Collection<SecretIdentifier> secretIdentifiers) {
+        Map<SecretIdentifier, SecretEntry> secretEntries = secretsGroup.getLatestActiveVersions(secretIdentifiers);
+        secretEntries.values().forEach(e -> verifyEncodingOrThrow(Optional.of(e), Encoding.BINARY));
+        return secretEntries.entrySet()
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().secretValue.asByteArray()));
+    }
+
     @Override
     public List<ByteSecretEntry> getAllBinarySecrets() {
         return secretsGroup.getLatestActiveVersionOfAllSecrets()
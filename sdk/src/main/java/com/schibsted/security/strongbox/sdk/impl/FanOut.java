@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.schibsted.security.strongbox.sdk.types.FanOutConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs the calls of one manager operation in parallel. Each call may run for the timeout, counted from when it
+ * starts running rather than from when it was submitted, so time spent queued behind the calls of other operations
+ * does not count. A call that is still running at its deadline is interrupted, which aborts in-flight AWS requests,
+ * and so is every call that is still running when the fan-out is closed.
+ *
+ * Unless an executor is configured, the calls run on a bounded pool shared by all managers, instead of a new pool
+ * per operation.
+ */
+class FanOut implements AutoCloseable {
+    private static final int SHARED_THREADS = 16;
+
+    private static final Executor sharedExecutor = sharedExecutor();
+    private static final ScheduledThreadPoolExecutor deadlines = deadlines();
+
+    private final Executor executor;
+    private final Optional<Long> timeoutInSeconds;
+    private final List<Call<?>> calls = new ArrayList<>();
+
+    /**
+     * Limit each call to the timeout of the configuration, for operations that only read
+     */
+    FanOut(FanOutConfiguration configuration) {
+        this(configuration, Optional.of(configuration.timeoutInSeconds));
+    }
+
+    private FanOut(FanOutConfiguration configuration, Optional<Long> timeoutInSeconds) {
+        this.executor = configuration.executor.orElse(sharedExecutor);
+        this.timeoutInSeconds = timeoutInSeconds;
+    }
+
+    /**
+     * Limit each call to the timeout of changes of the configuration, if any, for operations that create or delete
+     * resources
+     */
+    static FanOut forChanges(FanOutConfiguration configuration) {
+        return new FanOut(configuration, configuration.changeTimeoutInSeconds);
+    }
+
+    private static Executor sharedExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(SHARED_THREADS, SHARED_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-fan-out-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ScheduledThreadPoolExecutor deadlines() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-fan-out-deadline-%d").build());
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    <T> Future<T> submit(Callable<T> callable) {
+        return submit(callable, future -> {});
+    }
+
+    /**
+     * Submit a call, and hand it to {@code onDone} when it has completed, failed, timed out or been cancelled
+     */
+    <T> Future<T> submit(Callable<T> callable, Consumer<Future<T>> onDone) {
+        Call<T> call = new Call<>(callable, onDone);
+        calls.add(call);
+        executor.execute(call);
+        return call;
+    }
+
+    /**
+     * Wait for the result of a call submitted to this fan-out
+     *
+     * @throws TimeoutException if the call was interrupted at its deadline
+     */
+    <T> T get(Future<T> future) throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            if (((Call<T>) future).timedOut) {
+                throw new TimeoutException(String.format("The call did not complete within %d seconds", timeoutInSeconds.get()));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for all the calls, and collect the failures instead of stopping at the first one
+     */
+    List<ExecutionException> awaitAll() throws InterruptedException, TimeoutException {
+        List<ExecutionException> failures = new ArrayList<>();
+        for (Call<?> call : calls) {
+            try {
+                get(call);
+            } catch (ExecutionException e) {
+                failures.add(e);
+            }
+        }
+        return failures;
+    }
+
+    @Override
+    public void close() {
+        calls.forEach(call -> call.cancel(true));
+    }
+
+    private final class Call<T> extends FutureTask<T> {
+        private final Consumer<Future<T>> onDone;
+        private volatile ScheduledFuture<?> deadline;
+        private volatile boolean timedOut = false;
+
+        Call(Callable<T> callable, Consumer<Future<T>> onDone) {
+            super(callable);
+            this.onDone = onDone;
+        }
+
+        @Override
+        public void run() {
+            if (timeoutInSeconds.isPresent() && !isDone()) {
+                deadline = deadlines.schedule(this::timeOut, timeoutInSeconds.get(), TimeUnit.SECONDS);
+            }
+            super.run();
+        }
+
+        private void timeOut() {
+            timedOut = true;
+            cancel(true);
+        }
+
+        @Override
+        protected void done() {
+            ScheduledFuture<?> scheduled = deadline;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            onDone.accept(this);
+        }
+    }
+}
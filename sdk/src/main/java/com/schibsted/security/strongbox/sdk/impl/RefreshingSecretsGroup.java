@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.schibsted.security.strongbox.sdk.SecretsGroup;
+import com.schibsted.security.strongbox.sdk.internal.impl.SecretWatcher;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.KVStream;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SRN;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretMetadata;
+import com.schibsted.security.strongbox.sdk.types.SecretRefreshConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads all active secrets of the group up front, serves the convenience methods from memory, and reloads the
+ * secrets in the background on a fixed schedule. Readers keep getting the previously loaded secrets while a
+ * reload is running, and, if reloads fail, until the grace period after the last successful reload has passed.
+ * After that the reads go to the underlying {@code SecretsGroup} until a reload succeeds again.
+ *
+ * Entries that are not active yet when the secrets are loaded become visible with the next reload. Changes made
+ * through this {@code SecretsGroup} immediately reload the versions of the changed secret.
+ *
+ * Callers receive a copy of the loaded entry, and the loaded entries are shredded when they are replaced.
+ */
+public class RefreshingSecretsGroup implements SecretsGroup {
+    private static final Logger log = LoggerFactory.getLogger(RefreshingSecretsGroup.class);
+
+    private final SecretsGroup secretsGroup;
+    private final Ticker ticker;
+    private final long maximumAgeInNanos;
+    private final Optional<ScheduledExecutorService> scheduler;
+    private volatile Snapshot snapshot;
+
+    // guarded by this
+    private boolean closed = false;
+
+    /**
+     * Load the secrets, and schedule the reloads
+     *
+     * @param secretsGroup the {@code SecretsGroup} to load the secrets from
+     * @param configuration how often to reload, and how long to keep serving the secrets when reloading fails
+     */
+    public RefreshingSecretsGroup(SecretsGroup secretsGroup, SecretRefreshConfiguration configuration) {
+        this(secretsGroup, configuration, Ticker.systemTicker(), true);
+    }
+
+    RefreshingSecretsGroup(SecretsGroup secretsGroup, SecretRefreshConfiguration configuration, Ticker ticker, boolean schedule) {
+        this.secretsGroup = secretsGroup;
+        this.ticker = ticker;
+        this.maximumAgeInNanos = TimeUnit.SECONDS.toNanos(configuration.refreshIntervalInSeconds + configuration.gracePeriodInSeconds);
+        this.snapshot = load();
+
+        if (schedule) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-refresh-%d").build());
+            executor.scheduleWithFixedDelay(this::refresh, configuration.refreshIntervalInSeconds, configuration.refreshIntervalInSeconds, TimeUnit.SECONDS);
+            this.scheduler = Optional.of(executor);
+        } else {
+            this.scheduler = Optional.empty();
+        }
+    }
+
+    /**
+     * Reload all active secrets. If the reload fails, the previously loaded secrets are kept. Only one reload
+     * runs at a time, so that an older reload cannot replace the secrets loaded by a newer one.
+     *
+     * @return whether the secrets were reloaded, which they are not once this {@code SecretsGroup} is closed
+     */
+    public synchronized boolean refresh() {
+        if (closed) {
+            return false;
+        }
+
+        Snapshot next;
+        try {
+            next = load();
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh the secrets, keeping the secrets loaded {} seconds ago",
+                    TimeUnit.NANOSECONDS.toSeconds(ticker.read() - snapshot.loadedAt), e);
+            return false;
+        }
+
+        Snapshot previous = snapshot;
+        snapshot = next;
+        previous.shred();
+        return true;
+    }
+
+    /**
+     * Reload the active versions of a secret that was changed through this {@code SecretsGroup}, keeping the
+     * other secrets as they were loaded. If the reload fails, the previously loaded versions are kept.
+     */
+    private synchronized void refresh(SecretIdentifier secretIdentifier) {
+        if (closed) {
+            return;
+        }
+
+        NavigableMap<Long, CachedEntry> versions = new TreeMap<>();
+        try {
+            for (SecretEntry secretEntry : secretsGroup.getAllActiveVersions(secretIdentifier)) {
+                versions.put(secretEntry.version, new CachedEntry(secretEntry));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh the secret '{}', keeping the previously loaded versions", secretIdentifier.name, e);
+            return;
+        }
+
+        Snapshot previous = snapshot;
+        snapshot = previous.with(secretIdentifier, versions);
+        previous.shred(secretIdentifier);
+    }
+
+    private Snapshot load() {
+        long loadedAt = ticker.read();
+        Map<SecretIdentifier, NavigableMap<Long, CachedEntry>> entries = new HashMap<>();
+        for (SecretEntry secretEntry : secretsGroup.getAllActiveVersions()) {
+            entries.computeIfAbsent(secretEntry.secretIdentifier, k -> new TreeMap<>())
+                    .put(secretEntry.version, new CachedEntry(secretEntry));
+        }
+        return new Snapshot(entries, loadedAt);
+    }
+
+    /**
+     * Read from the loaded secrets, or from the underlying {@code SecretsGroup} if they are too old. If the secrets
+     * are reloaded during the read, the read is repeated, as the entries it saw may have been shredded.
+     */
+    private <T> T read(Function<Snapshot, T> fromSnapshot, Supplier<T> fromSecretsGroup) {
+        Snapshot current = snapshot;
+        while (true) {
+            if (ticker.read() - current.loadedAt > maximumAgeInNanos) {
+                return fromSecretsGroup.get();
+            }
+
+            T result = fromSnapshot.apply(current);
+            Snapshot after = snapshot;
+            if (after == current) {
+                return result;
+            }
+            current = after;
+        }
+    }
+
+    @Override
+    public Optional<SecretEntry> getLatestActiveVersion(SecretIdentifier secretIdentifier) {
+        return read(s -> s.latest(secretIdentifier),
+                () -> secretsGroup.getLatestActiveVersion(secretIdentifier));
+    }
+
+    @Override
+    public Optional<SecretEntry> getActive(SecretIdentifier secretIdentifier, long version) {
+        return read(s -> s.version(secretIdentifier, version),
+                () -> secretsGroup.getActive(secretIdentifier, version));
+    }
+
+    @Override
+    public List<SecretEntry> getAllActiveVersions(SecretIdentifier secretIdentifier) {
+        return read(s -> s.all(secretIdentifier),
+                () -> secretsGroup.getAllActiveVersions(secretIdentifier));
+    }
+
+    @Override
+    public Map<SecretIdentifier, SecretEntry> getLatestActiveVersions(Collection<SecretIdentifier> secretIdentifiers) {
+        return read(s -> s.latest(secretIdentifiers),
+                () -> secretsGroup.getLatestActiveVersions(secretIdentifiers));
+    }
+
+    @Override
+    public List<SecretEntry> getLatestActiveVersionOfAllSecrets() {
+        return read(Snapshot::latestOfAll, secretsGroup::getLatestActiveVersionOfAllSecrets);
+    }
+
+    @Override
+    public List<SecretEntry> getAllActiveVersions() {
+        return read(Snapshot::allOfAll, secretsGroup::getAllActiveVersions);
+    }
+
+    @Override
+    public RawSecretEntry create(NewSecretEntry newSecretEntry) {
+        try {
+            return secretsGroup.create(newSecretEntry);
+        } finally {
+            refresh(newSecretEntry.secretIdentifier);
+        }
+    }
+
+    @Override
+    public RawSecretEntry addVersion(NewSecretEntry newSecretEntry) {
+        try {
+            return secretsGroup.addVersion(newSecretEntry);
+        } finally {
+            refresh(newSecretEntry.secretIdentifier);
+        }
+    }
+
+    @Override
+    public RawSecretEntry update(SecretMetadata secretMetadata) {
+        try {
+            return secretsGroup.update(secretMetadata);
+        } finally {
+            refresh(secretMetadata.secretIdentifier);
+        }
+    }
+
+    @Override
+    public Set<SecretIdentifier> identifiers() {
+        return secretsGroup.identifiers();
+    }
+
+    @Override
+    public void delete(SecretIdentifier secretIdentifier) {
+        try {
+            secretsGroup.delete(secretIdentifier);
+        } finally {
+            refresh(secretIdentifier);
+        }
+    }
+
+    @Override
+    public KVStream<RawSecretEntry> stream() {
+        return secretsGroup.stream();
+    }
+
+    @Override
+    public SecretEntry decrypt(RawSecretEntry rawSecretEntry, SecretIdentifier expectedSecretIdentifier, long expectedVersion) {
+        return secretsGroup.decrypt(rawSecretEntry, expectedSecretIdentifier, expectedVersion);
+    }
+
+    @Override
+    public SecretEntry decryptEvenIfNotActive(RawSecretEntry rawSecretEntry, SecretIdentifier expectedSecretIdentifier, long expectedVersion) {
+        return secretsGroup.decryptEvenIfNotActive(rawSecretEntry, expectedSecretIdentifier, expectedVersion);
+    }
+
+    @Override
+    public SRN srn(SecretIdentifier secretIdentifier) {
+        return secretsGroup.srn(secretIdentifier);
+    }
+
+    /**
+     * Stop the reloads and shred the loaded secrets. Holds the same lock as the reloads, so a reload that is
+     * running completes first, and none start afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            SecretWatcher.cancelWatches(this);
+            scheduler.ifPresent(ScheduledExecutorService::shutdownNow);
+            snapshot.shred();
+        } finally {
+            secretsGroup.close();
+        }
+    }
+
+    private static final class Snapshot {
+        final Map<SecretIdentifier, NavigableMap<Long, CachedEntry>> entries;
+        final long loadedAt;
+
+        Snapshot(Map<SecretIdentifier, NavigableMap<Long, CachedEntry>> entries, long loadedAt) {
+            this.entries = entries;
+            this.loadedAt = loadedAt;
+        }
+
+        Optional<SecretEntry> latest(SecretIdentifier secretIdentifier) {
+            NavigableMap<Long, CachedEntry> versions = entries.getOrDefault(secretIdentifier, Collections.emptyNavigableMap());
+            for (CachedEntry cachedEntry : versions.descendingMap().values()) {
+                Optional<SecretEntry> secretEntry = cachedEntry.copyIfActive();
+                if (secretEntry.isPresent()) {
+                    return secretEntry;
+                }
+            }
+            return Optional.empty();
+        }
+
+        Map<SecretIdentifier, SecretEntry> latest(Collection<SecretIdentifier> secretIdentifiers) {
+            Map<SecretIdentifier, SecretEntry> result = new HashMap<>();
+            for (SecretIdentifier secretIdentifier : secretIdentifiers) {
+                latest(secretIdentifier).ifPresent(secretEntry -> result.put(secretIdentifier, secretEntry));
+            }
+            return result;
+        }
+
+        Optional<SecretEntry> version(SecretIdentifier secretIdentifier, long version) {
+            CachedEntry cachedEntry = entries.getOrDefault(secretIdentifier, Collections.emptyNavigableMap()).get(version);
+            return cachedEntry != null ? cachedEntry.copyIfActive() : Optional.empty();
+        }
+
+        List<SecretEntry> all(SecretIdentifier secretIdentifier) {
+            List<SecretEntry> result = new ArrayList<>();
+            for (CachedEntry cachedEntry : entries.getOrDefault(secretIdentifier, Collections.emptyNavigableMap()).values()) {
+                cachedEntry.copyIfActive().ifPresent(result::add);
+            }
+            return result;
+        }
+
+        List<SecretEntry> latestOfAll() {
+            List<SecretEntry> result = new ArrayList<>();
+            for (SecretIdentifier secretIdentifier : entries.keySet()) {
+                latest(secretIdentifier).ifPresent(result::add);
+            }
+            return result;
+        }
+
+        List<SecretEntry> allOfAll() {
+            List<SecretEntry> result = new ArrayList<>();
+            for (SecretIdentifier secretIdentifier : entries.keySet()) {
+                result.addAll(all(secretIdentifier));
+            }
+            return result;
+        }
+
+        /**
+         * The same secrets, with the versions of one secret replaced. The other secrets share their entries with
+         * this snapshot.
+         */
+        Snapshot with(SecretIdentifier secretIdentifier, NavigableMap<Long, CachedEntry> versions) {
+            Map<SecretIdentifier, NavigableMap<Long, CachedEntry>> replaced = new HashMap<>(entries);
+            if (versions.isEmpty()) {
+                replaced.remove(secretIdentifier);
+            } else {
+                replaced.put(secretIdentifier, versions);
+            }
+            return new Snapshot(replaced, loadedAt);
+        }
+
+        void shred() {
+            entries.values().forEach(versions -> versions.values().forEach(CachedEntry::shred));
+        }
+
+        void shred(SecretIdentifier secretIdentifier) {
+            entries.getOrDefault(secretIdentifier, Collections.emptyNavigableMap()).values().forEach(CachedEntry::shred);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.schibsted.security.strongbox.sdk.SecretsGroup;
+import com.schibsted.security.strongbox.sdk.internal.impl.SecretWatcher;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.KVStream;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SRN;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretMetadata;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupCacheConfiguration;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Keeps one {@code SecretsGroup} instance per group, shared by all the handles acquired for it, so that the store
+ * is only set up once, e.g. a file backed group is only read and decrypted once.
+ *
+ * Each handle holds a reference to the instance until it is closed, and each call through a handle holds another
+ * one while it runs. An instance without references is closed when it has been idle for the configured timeout.
+ * An invalidated instance is no longer handed out, and the handles still holding it move on to a new instance on
+ * their next call. It is closed in the same way as an idle instance, rather than as soon as it has no references,
+ * since a lazy stream returned by an earlier call may still be reading from it.
+ *
+ * Idle instances are closed by a single pending eviction per cache, which is rescheduled for the next instance
+ * to become idle, so releasing handles at a high rate does not queue up evictions.
+ */
+class SecretsGroupCache {
+    private static final Logger log = LoggerFactory.getLogger(SecretsGroupCache.class);
+
+    static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-group-eviction-%d").build());
+
+    static {
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Function<SecretsGroupIdentifier, SecretsGroup> loader;
+    private final Map<SecretsGroupIdentifier, Instance> instances = new HashMap<>();
+    private final Set<Instance> invalidated = new HashSet<>();
+    private volatile SecretsGroupCacheConfiguration configuration;
+
+    // guarded by this
+    private ScheduledFuture<?> pendingEviction;
+
+    SecretsGroupCache(Function<SecretsGroupIdentifier, SecretsGroup> loader, SecretsGroupCacheConfiguration configuration) {
+        this.loader = loader;
+        this.configuration = configuration;
+    }
+
+    void configure(SecretsGroupCacheConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    SecretsGroup acquire(SecretsGroupIdentifier group) {
+        return new Handle(group, retain(group));
+    }
+
+    private Instance retain(SecretsGroupIdentifier group) {
+        Instance instance;
+        synchronized (this) {
+            instance = instances.computeIfAbsent(group, Instance::new);
+            instance.references++;
+        }
+
+        try {
+            instance.load(loader);
+            return instance;
+        } catch (RuntimeException e) {
+            release(instance);
+            throw e;
+        }
+    }
+
+    /**
+     * Take another reference to an instance that the caller already holds a reference to, so it cannot be closed
+     */
+    private synchronized void retain(Instance instance) {
+        instance.references++;
+    }
+
+    private synchronized void release(Instance instance) {
+        instance.references--;
+        instance.idleSince = System.nanoTime();
+        if (instance.references == 0) {
+            scheduleEviction(TimeUnit.SECONDS.toNanos(configuration.idleTimeoutInSeconds));
+        }
+    }
+
+    /**
+     * Make sure an eviction runs within the delay, keeping the pending one if it runs sooner
+     */
+    private synchronized void scheduleEviction(long delayInNanos) {
+        if (pendingEviction != null) {
+            if (pendingEviction.getDelay(TimeUnit.NANOSECONDS) <= delayInNanos) {
+                return;
+            }
+            pendingEviction.cancel(false);
+        }
+        pendingEviction = scheduler.schedule(this::runPendingEviction, delayInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void runPendingEviction() {
+        synchronized (this) {
+            pendingEviction = null;
+        }
+        evictIdle();
+    }
+
+    /**
+     * Stop handing out the current instance of the group, e.g. because its resources have been deleted or moved
+     */
+    synchronized void invalidate(SecretsGroupIdentifier group) {
+        Instance instance = instances.remove(group);
+        if (instance == null) {
+            return;
+        }
+        // An instance without references already has an eviction pending, the others get one when released
+        instance.invalidated = true;
+        invalidated.add(instance);
+    }
+
+    void invalidateAll() {
+        List<SecretsGroupIdentifier> groups;
+        synchronized (this) {
+            groups = new ArrayList<>(instances.keySet());
+        }
+        groups.forEach(this::invalidate);
+    }
+
+    /**
+     * Close the instances, current or invalidated, that have had no references for longer than the idle timeout,
+     * and schedule the next eviction for the remaining instances without references
+     */
+    void evictIdle() {
+        long idleTimeout = TimeUnit.SECONDS.toNanos(configuration.idleTimeoutInSeconds);
+        long now = System.nanoTime();
+
+        List<Instance> evicted = new ArrayList<>();
+        synchronized (this) {
+            long next = Math.min(
+                    evict(instances.values().iterator(), now, idleTimeout, evicted),
+                    evict(invalidated.iterator(), now, idleTimeout, evicted));
+            if (next != Long.MAX_VALUE) {
+                scheduleEviction(next);
+            }
+        }
+        evicted.forEach(Instance::close);
+    }
+
+    /**
+     * @return the nanoseconds until the next remaining instance without references has been idle for the timeout,
+     * or {@code Long.MAX_VALUE} if there is none
+     */
+    private static long evict(Iterator<Instance> iterator, long now, long idleTimeout, List<Instance> evicted) {
+        long next = Long.MAX_VALUE;
+        while (iterator.hasNext()) {
+            Instance instance = iterator.next();
+            if (instance.references > 0) {
+                continue;
+            }
+
+            long idle = now - instance.idleSince;
+            if (idle >= idleTimeout) {
+                iterator.remove();
+                instance.invalidated = true;
+                evicted.add(instance);
+            } else {
+                next = Math.min(next, idleTimeout - idle);
+            }
+        }
+        return next;
+    }
+
+    synchronized int size() {
+        return instances.size();
+    }
+
+    private static final class Instance {
+        private final SecretsGroupIdentifier group;
+        private SecretsGroup secretsGroup;
+
+        // guarded by the cache
+        int references = 0;
+        long idleSince;
+        volatile boolean invalidated = false;
+
+        Instance(SecretsGroupIdentifier group) {
+            this.group = group;
+        }
+
+        synchronized SecretsGroup load(Function<SecretsGroupIdentifier, SecretsGroup> loader) {
+            if (secretsGroup == null) {
+                secretsGroup = loader.apply(group);
+            }
+            return secretsGroup;
+        }
+
+        synchronized SecretsGroup get() {
+            return secretsGroup;
+        }
+
+        synchronized void close() {
+            if (secretsGroup != null) {
+                try {
+                    secretsGroup.close();
+                } catch (RuntimeException e) {
+                    log.warn("Failed to close the secrets group '{}'", group, e);
+                }
+                secretsGroup = null;
+            }
+        }
+    }
+
+    /**
+     * A handle to the shared instance of a group, closing it releases the reference to the instance
+     */
+    private final class Handle implements SecretsGroup {
+        private final SecretsGroupIdentifier group;
+        private Instance instance;
+        private boolean closed = false;
+
+        Handle(SecretsGroupIdentifier group, Instance instance) {
+            this.group = group;
+            this.instance = instance;
+        }
+
+        /**
+         * Take a reference to the current instance for the duration of a call, so that the instance is not closed
+         * while the call is running, even if the handle moves on to a new instance meanwhile
+         */
+        private synchronized Instance use() {
+            if (closed) {
+                throw new IllegalStateException(String.format("The handle to the secrets group '%s' has been closed", group));
+            }
+
+            if (instance.invalidated) {
+                Instance previous = instance;
+                instance = retain(group);
+                release(previous);
+            }
+            retain(instance);
+            return instance;
+        }
+
+        private <T> T call(Function<SecretsGroup, T> call) {
+            Instance used = use();
+            try {
+                return call.apply(used.get());
+            } finally {
+                release(used);
+            }
+        }
+
+        @Override
+        public KVStream<RawSecretEntry> stream() {
+            return call(SecretsGroup::stream);
+        }
+
+        @Override
+        public Set<SecretIdentifier> identifiers() {
+            return call(SecretsGroup::identifiers);
+        }
+
+        @Override
+        public RawSecretEntry create(NewSecretEntry newSecretEntry) {
+            return call(secretsGroup -> secretsGroup.create(newSecretEntry));
+        }
+
+        @Override
+        public RawSecretEntry addVersion(NewSecretEntry newSecretEntry) {
+            return call(secretsGroup -> secretsGroup.addVersion(newSecretEntry));
+        }
+
+        @Override
+        public RawSecretEntry update(SecretMetadata secretMetadata) {
+            return call(secretsGroup -> secretsGroup.update(secretMetadata));
+        }
+
+        @Override
+        public void delete(SecretIdentifier secretIdentifier) {
+            call(secretsGroup -> {
+                secretsGroup.delete(secretIdentifier);
+                return null;
+            });
+        }
+
+        @Override
+        public SecretEntry decrypt(RawSecretEntry rawSecretEntry, SecretIdentifier expectedSecretIdentifier, long expectedVersion) {
+            return call(secretsGroup -> secretsGroup.decrypt(rawSecretEntry, expectedSecretIdentifier, expectedVersion));
+        }
+
+        @Override
+        public SecretEntry decryptEvenIfNotActive(RawSecretEntry rawSecretEntry, SecretIdentifier expectedSecretIdentifier, long expectedVersion) {
+            return call(secretsGroup -> secretsGroup.decryptEvenIfNotActive(rawSecretEntry, expectedSecretIdentifier, expectedVersion));
+        }
+
+        @Override
+        public SRN srn(SecretIdentifier secretIdentifier) {
+            return call(secretsGroup -> secretsGroup.srn(secretIdentifier));
+        }
+
+        @Override
+        public void close() {
+            Instance released;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                released = instance;
+            }
+            SecretWatcher.cancelWatches(this);
+            release(released);
+        }
+    }
+}
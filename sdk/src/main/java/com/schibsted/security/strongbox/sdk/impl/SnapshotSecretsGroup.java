@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.schibsted.security.strongbox.sdk.SecretsGroup;
+import com.schibsted.security.strongbox.sdk.exceptions.SerializationException;
+import com.schibsted.security.strongbox.sdk.internal.converter.Encoder;
+import com.schibsted.security.strongbox.sdk.internal.encryption.Encryptor;
+import com.schibsted.security.strongbox.sdk.internal.encryption.FileEncryptionContext;
+import com.schibsted.security.strongbox.sdk.internal.impl.SecretWatcher;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.File;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.KVStream;
+import com.schibsted.security.strongbox.sdk.types.FileStoreFormat;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SRN;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretMetadata;
+import com.schibsted.security.strongbox.sdk.types.SecretSnapshotConfiguration;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Starts from a local snapshot of the encrypted entries of the group, so that a new process can serve secrets
+ * without reading the whole group from the store first. The snapshot is revalidated against the store in the
+ * background, and from then on all reads go to the store.
+ *
+ * The snapshot is kept in the format of the file backend, so the entries are stored as they are in the store, and
+ * the file is encrypted with the key of the group. Next to it is a marker with a digest of the entries, which is
+ * used to tell whether the group has changed since the snapshot was written, without decrypting the snapshot.
+ *
+ * A snapshot that is older than the maximum age is not used, but is replaced when the store has been read.
+ */
+public class SnapshotSecretsGroup implements SecretsGroup {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotSecretsGroup.class);
+
+    private final SecretsGroup secretsGroup;
+    private final SecretsGroupIdentifier groupIdentifier;
+    private final Encryptor encryptor;
+    private final Path path;
+    private final Path markerPath;
+    private final Optional<ScheduledExecutorService> scheduler;
+    private final AtomicReference<Optional<File>> snapshot;
+    private Optional<byte[]> marker;
+
+    /**
+     * Start from the snapshot if there is a recent enough one, and revalidate it in the background
+     *
+     * @param secretsGroup the {@code SecretsGroup} to revalidate the snapshot against
+     * @param groupIdentifier the identifier of the {@code SecretsGroup}
+     * @param encryptor the encryptor of the {@code SecretsGroup}, used to encrypt the snapshot file
+     * @param configuration where to keep the snapshot, and how old it may be
+     */
+    public SnapshotSecretsGroup(SecretsGroup secretsGroup, SecretsGroupIdentifier groupIdentifier, Encryptor encryptor, SecretSnapshotConfiguration configuration) {
+        this(secretsGroup, groupIdentifier, encryptor, configuration, true);
+    }
+
+    SnapshotSecretsGroup(SecretsGroup secretsGroup, SecretsGroupIdentifier groupIdentifier, Encryptor encryptor, SecretSnapshotConfiguration configuration, boolean schedule) {
+        this.secretsGroup = secretsGroup;
+        this.groupIdentifier = groupIdentifier;
+        this.encryptor = encryptor;
+        this.path = configuration.path.toPath().toAbsolutePath();
+        this.markerPath = path.resolveSibling(path.getFileName() + ".marker");
+        Optional<byte[]> recentMarker = readMarker(configuration.maximumAgeInSeconds);
+        this.snapshot = new AtomicReference<>(recentMarker.isPresent() ? open() : Optional.empty());
+        this.marker = snapshot.get().isPresent() ? recentMarker : Optional.empty();
+
+        if (schedule) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-snapshot-%d").build());
+            executor.scheduleWithFixedDelay(() -> {
+                if (revalidate()) {
+                    executor.shutdown();
+                }
+            }, 0, configuration.retryIntervalInSeconds, TimeUnit.SECONDS);
+            this.scheduler = Optional.of(executor);
+        } else {
+            this.scheduler = Optional.empty();
+        }
+    }
+
+    private Optional<byte[]> readMarker(long maximumAgeInSeconds) {
+        try {
+            if (!Files.exists(path) || !Files.exists(markerPath)) {
+                return Optional.empty();
+            }
+
+            long ageInMillis = System.currentTimeMillis() - Files.getLastModifiedTime(markerPath).toMillis();
+            if (ageInMillis > TimeUnit.SECONDS.toMillis(maximumAgeInSeconds)) {
+                log.info("Not using the secret snapshot '{}', as it is {} seconds old", path, TimeUnit.MILLISECONDS.toSeconds(ageInMillis));
+                return Optional.empty();
+            }
+
+            return Optional.of(Files.readAllBytes(markerPath));
+        } catch (IOException e) {
+            log.warn("Failed to read the secret snapshot marker '{}'", markerPath, e);
+            return Optional.empty();
+        }
+    }
+
+    private Optional<File> open() {
+        try {
+            return Optional.of(new File(path.toFile(), encryptor, new FileEncryptionContext(groupIdentifier), new ReentrantReadWriteLock()));
+        } catch (RuntimeException e) {
+            log.warn("Failed to open the secret snapshot '{}'", path, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Read all the entries from the store, and replace the snapshot if they have changed since it was written. From
+     * then on, all reads go to the store. If the store cannot be read, the snapshot is kept.
+     *
+     * @return whether the snapshot was revalidated
+     */
+    public synchronized boolean revalidate() {
+        try {
+            List<RawSecretEntry> entries = secretsGroup.stream().toList();
+            byte[] current = digest(entries);
+
+            if (!marker.isPresent() || !Arrays.equals(marker.get(), current)) {
+                write(entries);
+            }
+            replace(markerPath, current);
+            marker = Optional.of(current);
+            closeSnapshot();
+
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Failed to revalidate the secret snapshot '{}'", path, e);
+            return false;
+        }
+    }
+
+    /**
+     * Write the snapshot next to the current one, and move it into place, so that a process starting meanwhile
+     * sees either the old or the new snapshot
+     */
+    private void write(List<RawSecretEntry> entries) {
+        Path temporary = path.resolveSibling(path.getFileName() + ".new");
+        try {
+            Files.deleteIfExists(temporary);
+            // A single blob is encrypted once, where the indexed format would call KMS for every entry. The
+            // entries are only written when the store is closed.
+            try (File store = new File(temporary.toFile(), encryptor, new FileEncryptionContext(groupIdentifier), new ReentrantReadWriteLock(), Optional.of(FileStoreFormat.SINGLE_BLOB))) {
+                store.createAll(entries.stream());
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new SerializationException(String.format("Failed to write the secret snapshot '%s'", path), e);
+        }
+    }
+
+    private static void replace(Path target, byte[] content) {
+        Path temporary = target.resolveSibling(target.getFileName() + ".new");
+        try {
+            Files.write(temporary, content);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new SerializationException(String.format("Failed to write the secret snapshot marker '%s'", target), e);
+        }
+    }
+
+    /**
+     * A digest of the keys, metadata and encrypted payloads of all the entries, in key order
+     */
+    private static byte[] digest(List<RawSecretEntry> entries) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            entries.stream()
+                    .sorted(Comparator.comparing((RawSecretEntry e) -> e.secretIdentifier.name).thenComparing(e -> e.version))
+                    .forEach(e -> {
+                        byte[] name = Encoder.asUTF8(e.secretIdentifier.name);
+                        messageDigest.update(ByteBuffer.allocate(4 + name.length + 8 + 1 + 8 + 8 + 4)
+                                .putInt(name.length)
+                                .put(name)
+                                .putLong(e.version)
+                                .put(e.state.asByte())
+                                .putLong(e.notBefore.map(ZonedDateTime::toEpochSecond).orElse(Long.MIN_VALUE))
+                                .putLong(e.notAfter.map(ZonedDateTime::toEpochSecond).orElse(Long.MIN_VALUE))
+                                .putInt(e.encryptedPayload.length)
+                                .array());
+                        messageDigest.update(e.encryptedPayload);
+                    });
+            return messageDigest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to compute the digest of the secret snapshot", e);
+        }
+    }
+
+    @Override
+    public KVStream<RawSecretEntry> stream() {
+        Optional<File> current = snapshot.get();
+        return current.isPresent() ? current.get().stream() : secretsGroup.stream();
+    }
+
+    @Override
+    public Set<SecretIdentifier> identifiers() {
+        Optional<File> current = snapshot.get();
+        return current.isPresent() ? current.get().keySet() : secretsGroup.identifiers();
+    }
+
+    @Override
+    public RawSecretEntry create(NewSecretEntry newSecretEntry) {
+        try {
+            return secretsGroup.create(newSecretEntry);
+        } finally {
+            afterWrite();
+        }
+    }
+
+    @Override
+    public RawSecretEntry addVersion(NewSecretEntry newSecretEntry) {
+        try {
+            return secretsGroup.addVersion(newSecretEntry);
+        } finally {
+            afterWrite();
+        }
+    }
+
+    @Override
+    public RawSecretEntry update(SecretMetadata secretMetadata) {
+        try {
+            return secretsGroup.update(secretMetadata);
+        } finally {
+            afterWrite();
+        }
+    }
+
+    @Override
+    public void delete(SecretIdentifier secretIdentifier) {
+        try {
+            secretsGroup.delete(secretIdentifier);
+        } finally {
+            afterWrite();
+        }
+    }
+
+    /**
+     * The snapshot no longer reflects the store, so stop reading from it, and remove its marker so that the next
+     * process starts from the store and writes a new snapshot. Rewriting it here would read the whole group on
+     * every write.
+     */
+    private void afterWrite() {
+        closeSnapshot();
+        removeMarker();
+    }
+
+    private synchronized void removeMarker() {
+        marker = Optional.empty();
+        try {
+            Files.deleteIfExists(markerPath);
+        } catch (IOException e) {
+            log.warn("Failed to remove the secret snapshot marker '{}'", markerPath, e);
+        }
+    }
+
+    private void closeSnapshot() {
+        snapshot.getAndSet(Optional.empty()).ifPresent(File::close);
+    }
+
+    @Override
+    public SecretEntry decrypt(RawSecretEntry rawSecretEntry, SecretIdentifier expectedSecretIdentifier, long expectedVersion) {
+        return secretsGroup.decrypt(rawSecretEntry, expectedSecretIdentifier, expectedVersion);
+    }
+
+    @Override
+    public SecretEntry decryptEvenIfNotActive(RawSecretEntry rawSecretEntry, SecretIdentifier expectedSecretIdentifier, long expectedVersion) {
+        return secretsGroup.decryptEvenIfNotActive(rawSecretEntry, expectedSecretIdentifier, expectedVersion);
+    }
+
+    @Override
+    public SRN srn(SecretIdentifier secretIdentifier) {
+        return secretsGroup.srn(secretIdentifier);
+    }
+
+    @Override
+    public void close() {
+        try {
+            SecretWatcher.cancelWatches(this);
+            scheduler.ifPresent(ScheduledExecutorService::shutdownNow);
+            closeSnapshot();
+        } finally {
+            secretsGroup.close();
+        }
+    }
+}
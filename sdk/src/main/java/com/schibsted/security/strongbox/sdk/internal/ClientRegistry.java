@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal;
+
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
+import com.amazonaws.services.kms.AWSKMS;
+import com.amazonaws.services.kms.AWSKMSClientBuilder;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+import com.google.common.base.Objects;
+import com.schibsted.security.strongbox.sdk.types.ClientConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationHelper.transformAndVerifyOrThrow;
+import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationHelper.verifyOrThrow;
+
+/**
+ * Hands out AWS clients that are shared by all the groups and managers using the registry, so that they share
+ * connection pools and threads. The AWS clients are thread safe.
+ *
+ * Clients are keyed on the credentials provider instance, the region and the {@code ClientConfiguration}, so
+ * callers should reuse their credentials provider, e.g. {@code DefaultAWSCredentialsProviderChain.getInstance()},
+ * as the registry keeps every client it has built until it is closed.
+ *
+ * Closing a registry shuts down its clients and the credentials providers of the roles it has assumed, after which
+ * it must not be used. This also holds for the {@link #defaultRegistry() default registry}, which lives until it is
+ * closed, e.g. when an application is undeployed, and is then replaced by a new one for later callers.
+ */
+public final class ClientRegistry implements AutoCloseable {
+    private static ClientRegistry defaultRegistry = new ClientRegistry();
+
+    private final ConcurrentHashMap<ClientKey, Object> clients = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, STSAssumeRoleSessionCredentialsProvider> assumedRoles = new ConcurrentHashMap<>();
+    // Lookups hold the read lock, so that close cannot miss a client that is being built
+    private final ReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+
+    /**
+     * The registry used by the factory methods that do not take one. If it has been closed, a new one takes its
+     * place.
+     */
+    public static synchronized ClientRegistry defaultRegistry() {
+        if (defaultRegistry.closed) {
+            defaultRegistry = new ClientRegistry();
+        }
+        return defaultRegistry;
+    }
+
+    public AmazonDynamoDB dynamoDB(AWSCredentialsProvider awsCredentials, String region, ClientConfiguration clientConfiguration) {
+        return get(AmazonDynamoDB.class, awsCredentials, region, clientConfiguration, () -> AmazonDynamoDBClientBuilder.standard()
+                .withCredentials(awsCredentials)
+                .withClientConfiguration(verifyOrThrow(transformAndVerifyOrThrow(clientConfiguration)))
+                .withRegion(region)
+                .build());
+    }
+
+    public AWSKMS kms(AWSCredentialsProvider awsCredentials, String region, ClientConfiguration clientConfiguration) {
+        return get(AWSKMS.class, awsCredentials, region, clientConfiguration, () -> AWSKMSClientBuilder.standard()
+                .withCredentials(awsCredentials)
+                .withClientConfiguration(transformAndVerifyOrThrow(clientConfiguration))
+                .withRegion(region)
+                .build());
+    }
+
+    public AmazonIdentityManagement iam(AWSCredentialsProvider awsCredentials, String region, ClientConfiguration clientConfiguration) {
+        return get(AmazonIdentityManagement.class, awsCredentials, region, clientConfiguration, () -> AmazonIdentityManagementClientBuilder.standard()
+                .withCredentials(awsCredentials)
+                .withClientConfiguration(transformAndVerifyOrThrow(clientConfiguration))
+                .withRegion(region)
+                .build());
+    }
+
+    public AWSSecurityTokenService sts(AWSCredentialsProvider awsCredentials, String region, ClientConfiguration clientConfiguration) {
+        return get(AWSSecurityTokenService.class, awsCredentials, region, clientConfiguration, () -> AWSSecurityTokenServiceClientBuilder.standard()
+                .withCredentials(awsCredentials)
+                .withClientConfiguration(transformAndVerifyOrThrow(clientConfiguration))
+                .withRegion(region)
+                .build());
+    }
+
+    /**
+     * Credentials of the role, shared by everyone assuming it through this registry, so that the clients keyed on
+     * them are shared too
+     */
+    public AWSCredentialsProvider assumeRole(String roleArn, String sessionName) {
+        return get(() -> assumedRoles.computeIfAbsent(roleArn, arn -> new STSAssumeRoleSessionCredentialsProvider.Builder(arn, sessionName).build()));
+    }
+
+    private <T> T get(Class<T> type, AWSCredentialsProvider awsCredentials, String region, ClientConfiguration clientConfiguration, Supplier<T> builder) {
+        return get(() -> type.cast(clients.computeIfAbsent(new ClientKey(type, awsCredentials, region, clientConfiguration), key -> builder.get())));
+    }
+
+    private <T> T get(Supplier<T> lookup) {
+        lifecycleLock.readLock().lock();
+
+        try {
+            if (closed) {
+                throw new IllegalStateException("The client registry has been closed");
+            }
+
+            return lookup.get();
+        } finally {
+            lifecycleLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Shut down all the clients and assumed role credentials handed out by this registry
+     */
+    @Override
+    public void close() {
+        List<Object> shutdown;
+        List<STSAssumeRoleSessionCredentialsProvider> roles;
+        lifecycleLock.writeLock().lock();
+
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            shutdown = new ArrayList<>(clients.values());
+            roles = new ArrayList<>(assumedRoles.values());
+            clients.clear();
+            assumedRoles.clear();
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+
+        for (Object client : shutdown) {
+            if (client instanceof AmazonWebServiceClient) {
+                ((AmazonWebServiceClient) client).shutdown();
+            }
+        }
+        roles.forEach(STSAssumeRoleSessionCredentialsProvider::close);
+    }
+
+    private static final class ClientKey {
+        final Class<?> type;
+        final AWSCredentialsProvider awsCredentials;
+        final String region;
+        final ClientConfiguration clientConfiguration;
+
+        ClientKey(Class<?> type, AWSCredentialsProvider awsCredentials, String region, ClientConfiguration clientConfiguration) {
+            this.type = type;
+            this.awsCredentials = awsCredentials;
+            this.region = region;
+            this.clientConfiguration = clientConfiguration;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(type, System.identityHashCode(awsCredentials), region, clientConfiguration);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof ClientKey) {
+                final ClientKey other = (ClientKey) obj;
+                return type == other.type
+                        && awsCredentials == other.awsCredentials
+                        && Objects.equal(region, other.region)
+                        && Objects.equal(clientConfiguration, other.clientConfiguration);
+            } else {
+                return false;
+            }
+        }
+    }
+}
@@ -6,14 +6,14 @@ package com.schibsted.security.strongbox.sdk.internal.access;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
-import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
 import com.amazonaws.services.identitymanagement.model.*;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
 import com.amazonaws.services.securitytoken.model.GetCallerIdentityRequest;
 import com.amazonaws.services.securitytoken.model.GetCallerIdentityResult;
+import com.google.common.base.Ticker;
 import com.schibsted.security.strongbox.sdk.exceptions.DoesNotExistException;
 import com.schibsted.security.strongbox.sdk.exceptions.UnsupportedTypeException;
+import com.schibsted.security.strongbox.sdk.internal.ClientRegistry;
 import com.schibsted.security.strongbox.sdk.internal.RegionResolver;
 import com.schibsted.security.strongbox.sdk.internal.encryption.KMSEncryptor;
 import com.schibsted.security.strongbox.sdk.internal.IAMPolicyName;
@@ -25,10 +25,10 @@ import com.schibsted.security.strongbox.sdk.types.PrincipalType;
 import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
-import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationHelper.transformAndVerifyOrThrow;
-
 /**
  * @author stiankri
  * @author kvlees
@@ -36,34 +36,52 @@ import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationH
  */
 public class IAMPolicyManager {
     public static final String PATH_PREFIX = "/" + AWSResourceNameSerialization.GLOBAL_PREFIX + "/";
+    private static final int MAX_ITEMS = 1000;
+    private static final long GROUP_IDENTIFIERS_TTL_IN_NANOS = TimeUnit.SECONDS.toNanos(60);
 
     private final AmazonIdentityManagement client;
     private final AWSCredentialsProvider awsCredentials;
     private final ClientConfiguration clientConfiguration;
+    private final ClientRegistry clientRegistry;
+    private final Ticker ticker;
 
     private Optional<String> account = Optional.empty();
 
+    private final Object groupIdentifiersLock = new Object();
+    private volatile Optional<CachedGroupIdentifiers> groupIdentifiers = Optional.empty();
+    private final AtomicLong groupIdentifiersGeneration = new AtomicLong();
+
     public IAMPolicyManager(AmazonIdentityManagement client, AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration) {
+        this(client, awsCredentials, clientConfiguration, ClientRegistry.defaultRegistry());
+    }
+
+    public IAMPolicyManager(AmazonIdentityManagement client, AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration, ClientRegistry clientRegistry) {
+        this(client, awsCredentials, clientConfiguration, clientRegistry, Ticker.systemTicker());
+    }
+
+    IAMPolicyManager(AmazonIdentityManagement client, AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration, ClientRegistry clientRegistry, Ticker ticker) {
         this.awsCredentials = awsCredentials;
         this.client = client;
         this.clientConfiguration = clientConfiguration;
+        this.clientRegistry = clientRegistry;
+        this.ticker = ticker;
     }
 
     public static IAMPolicyManager fromCredentials(AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration) {
-        AmazonIdentityManagement client = AmazonIdentityManagementClientBuilder.standard()
-            .withCredentials(awsCredentials)
-            .withClientConfiguration(transformAndVerifyOrThrow(clientConfiguration))
-            .withRegion(RegionResolver.getRegion())
-            .build();
-        return new IAMPolicyManager(client, awsCredentials, clientConfiguration);
+        return fromCredentials(ClientRegistry.defaultRegistry(), awsCredentials, clientConfiguration);
+    }
+
+    public static IAMPolicyManager fromCredentials(ClientRegistry clientRegistry, AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration) {
+        AmazonIdentityManagement client = clientRegistry.iam(awsCredentials, RegionResolver.getRegion(), clientConfiguration);
+        return new IAMPolicyManager(client, awsCredentials, clientConfiguration, clientRegistry);
     }
 
     public static String getAccount(AWSCredentialsProvider awsCredentialsProvider, ClientConfiguration clientConfiguration) {
-        AWSSecurityTokenService client = AWSSecurityTokenServiceClientBuilder.standard()
-            .withCredentials(awsCredentialsProvider)
-            .withClientConfiguration(transformAndVerifyOrThrow(clientConfiguration))
-            .withRegion(RegionResolver.getRegion())
-            .build();
+        return getAccount(ClientRegistry.defaultRegistry(), awsCredentialsProvider, clientConfiguration);
+    }
+
+    public static String getAccount(ClientRegistry clientRegistry, AWSCredentialsProvider awsCredentialsProvider, ClientConfiguration clientConfiguration) {
+        AWSSecurityTokenService client = clientRegistry.sts(awsCredentialsProvider, RegionResolver.getRegion(), clientConfiguration);
         GetCallerIdentityRequest request = new GetCallerIdentityRequest();
         GetCallerIdentityResult result = client.getCallerIdentity(request);
 
@@ -72,7 +90,7 @@ public class IAMPolicyManager {
 
     public String getAccount() {
         if (!account.isPresent()) {
-            account = Optional.of(getAccount(awsCredentials, clientConfiguration));
+            account = Optional.of(getAccount(clientRegistry, awsCredentials, clientConfiguration));
         }
         return account.get();
     }
@@ -200,17 +218,26 @@ public class IAMPolicyManager {
     private List<Principal> listEntities(SecretsGroupIdentifier group, AccessLevel accessLevel) {
         String arn = getArn(group, accessLevel);
         try {
-            ListEntitiesForPolicyRequest request = new ListEntitiesForPolicyRequest();
-            request.withPolicyArn(arn);
+            List<Principal> groups = new ArrayList<>();
+            List<Principal> users = new ArrayList<>();
+            List<Principal> roles = new ArrayList<>();
 
-            ListEntitiesForPolicyResult result = client.listEntitiesForPolicy(request);
+            Optional<String> marker = Optional.empty();
+            do {
+                ListEntitiesForPolicyRequest request = new ListEntitiesForPolicyRequest();
+                request.withPolicyArn(arn);
+                marker.ifPresent(request::setMarker);
 
-            List<Principal> all = new ArrayList<>();
+                ListEntitiesForPolicyResult result = client.listEntitiesForPolicy(request);
+
+                result.getPolicyGroups().stream().map(g -> new Principal(PrincipalType.GROUP, g.getGroupName())).forEach(groups::add);
+                result.getPolicyUsers().stream().map(u -> new Principal(PrincipalType.USER, u.getUserName())).forEach(users::add);
+                result.getPolicyRoles().stream().map(r -> new Principal(PrincipalType.ROLE, r.getRoleName())).forEach(roles::add);
 
-            List<Principal> groups = result.getPolicyGroups().stream().map(g -> new Principal(PrincipalType.GROUP, g.getGroupName())).collect(Collectors.toList());
-            List<Principal> users = result.getPolicyUsers().stream().map(u -> new Principal(PrincipalType.USER, u.getUserName())).collect(Collectors.toList());
-            List<Principal> roles = result.getPolicyRoles().stream().map(r -> new Principal(PrincipalType.ROLE, r.getRoleName())).collect(Collectors.toList());
+                marker = nextMarker(result.getIsTruncated(), result.getMarker());
+            } while (marker.isPresent());
 
+            List<Principal> all = new ArrayList<>();
             all.addAll(groups);
             all.addAll(users);
             all.addAll(roles);
@@ -221,15 +248,93 @@ public class IAMPolicyManager {
         }
     }
 
+    /**
+     * List the groups that have a policy, following all the pages of the listing. The result is cached for a short
+     * while, and concurrent callers share one listing. Creating or deleting a policy through this class clears the
+     * cache, but changes made by others may take until the cache expires to show up.
+     */
     public Set<SecretsGroupIdentifier> getSecretsGroupIdentifiers() {
-        ListPoliciesRequest request = new ListPoliciesRequest();
-        request.setMaxItems(1000);
-        request.setPathPrefix(PATH_PREFIX);
-        ListPoliciesResult result = client.listPolicies(request);
+        Optional<CachedGroupIdentifiers> cached = groupIdentifiers;
+        if (cached.isPresent() && !cached.get().isExpired(ticker)) {
+            return cached.get().identifiers;
+        }
 
-        return result.getPolicies().stream()
-                .map(p -> IAMPolicyName.fromString(p.getPolicyName()).group).distinct().collect(Collectors.toSet());
+        synchronized (groupIdentifiersLock) {
+            cached = groupIdentifiers;
+            if (cached.isPresent() && !cached.get().isExpired(ticker)) {
+                return cached.get().identifiers;
+            }
+
+            long generation = groupIdentifiersGeneration.get();
+            Set<SecretsGroupIdentifier> identifiers = Collections.unmodifiableSet(listSecretsGroupIdentifiers());
+            if (generation == groupIdentifiersGeneration.get()) {
+                groupIdentifiers = Optional.of(new CachedGroupIdentifiers(identifiers, ticker));
+            }
+            return identifiers;
+        }
+    }
 
+    /**
+     * Make the next call to {@link #getSecretsGroupIdentifiers()} list the policies again
+     */
+    public void invalidateSecretsGroupIdentifiers() {
+        groupIdentifiersGeneration.incrementAndGet();
+        groupIdentifiers = Optional.empty();
+    }
+
+    private Set<SecretsGroupIdentifier> listSecretsGroupIdentifiers() {
+        return listPolicies().stream()
+                .map(p -> IAMPolicyName.fromString(p.getPolicyName()).group)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * The ARNs of all the policies managed by Strongbox, by policy name, listed with as few calls as possible
+     */
+    public Map<String, String> getPolicyArns() {
+        return listPolicies().stream().collect(Collectors.toMap(Policy::getPolicyName, Policy::getArn, (a, b) -> a));
+    }
+
+    public String getPolicyName(SecretsGroupIdentifier group, AccessLevel accessLevel) {
+        return new IAMPolicyName(group, accessLevel).toString();
+    }
+
+    private List<Policy> listPolicies() {
+        List<Policy> policies = new ArrayList<>();
+
+        Optional<String> marker = Optional.empty();
+        do {
+            ListPoliciesRequest request = new ListPoliciesRequest();
+            request.setMaxItems(MAX_ITEMS);
+            request.setPathPrefix(PATH_PREFIX);
+            marker.ifPresent(request::setMarker);
+            ListPoliciesResult result = client.listPolicies(request);
+
+            policies.addAll(result.getPolicies());
+
+            marker = nextMarker(result.getIsTruncated(), result.getMarker());
+        } while (marker.isPresent());
+
+        return policies;
+    }
+
+    private static Optional<String> nextMarker(Boolean isTruncated, String marker) {
+        return Boolean.TRUE.equals(isTruncated) ? Optional.ofNullable(marker) : Optional.empty();
+    }
+
+    private static class CachedGroupIdentifiers {
+        final Set<SecretsGroupIdentifier> identifiers;
+        final long expires;
+
+        CachedGroupIdentifiers(Set<SecretsGroupIdentifier> identifiers, Ticker ticker) {
+            this.identifiers = identifiers;
+            this.expires = ticker.read() + GROUP_IDENTIFIERS_TTL_IN_NANOS;
+        }
+
+        boolean isExpired(Ticker ticker) {
+            // Compare the difference, as the ticker may overflow
+            return ticker.read() - expires >= 0;
+        }
     }
 
     private String getArn(SecretsGroupIdentifier group, AccessLevel accessLevel) {
@@ -331,6 +436,7 @@ public class IAMPolicyManager {
 
         request.withPolicyName(name.toString()).withDescription(description).withPolicyDocument(policy).withPath(PATH_PREFIX);
         CreatePolicyResult result = client.createPolicy(request);
+        invalidateSecretsGroupIdentifiers();
         return result.getPolicy().getArn();
     }
 
@@ -349,6 +455,10 @@ public class IAMPolicyManager {
         DeletePolicyRequest request = new DeletePolicyRequest();
         request.withPolicyArn(arn);
 
-        client.deletePolicy(request);
+        try {
+            client.deletePolicy(request);
+        } finally {
+            invalidateSecretsGroupIdentifiers();
+        }
     }
 }
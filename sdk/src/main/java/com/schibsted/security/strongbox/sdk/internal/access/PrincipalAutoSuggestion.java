@@ -6,9 +6,9 @@ package com.schibsted.security.strongbox.sdk.internal.access;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
-import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
 import com.amazonaws.services.identitymanagement.model.ListRolesRequest;
 import com.amazonaws.services.identitymanagement.model.ListRolesResult;
+import com.schibsted.security.strongbox.sdk.internal.ClientRegistry;
 import com.schibsted.security.strongbox.sdk.internal.RegionResolver;
 import com.schibsted.security.strongbox.sdk.types.ClientConfiguration;
 import com.schibsted.security.strongbox.sdk.types.Principal;
@@ -18,8 +18,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
-import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationHelper.transformAndVerifyOrThrow;
-
 /**
  * @author stiankri
  * @author hawkaa
@@ -32,13 +30,7 @@ public class PrincipalAutoSuggestion {
     }
 
     public static PrincipalAutoSuggestion fromCredentials(AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration) {
-
-        AmazonIdentityManagement client = AmazonIdentityManagementClientBuilder.standard()
-                .withCredentials(awsCredentials)
-                .withClientConfiguration(transformAndVerifyOrThrow(clientConfiguration))
-                .withRegion(RegionResolver.getRegion())
-                .build();
-
+        AmazonIdentityManagement client = ClientRegistry.defaultRegistry().iam(awsCredentials, RegionResolver.getRegion(), clientConfiguration);
         return new PrincipalAutoSuggestion(client);
     }
 
@@ -86,4 +86,12 @@ public class Converters {
     public <T> Class<?> getConvertedType(Class<?> targetType) {
         return map.get(targetType).getConvertedType();
     }
+
+    public <T> Converter<T> getConverter(Class<T> type) {
+        Converter<T> converter = (Converter<T>) map.get(type);
+        if (converter == null) {
+            throw new IllegalArgumentException(String.format("No converter for type '%s'", type.getName()));
+        }
+        return converter;
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.encryption;
+
+import com.amazonaws.encryptionsdk.caching.CryptoMaterialsCache;
+import com.amazonaws.encryptionsdk.model.DecryptionMaterials;
+import com.amazonaws.encryptionsdk.model.EncryptionMaterials;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delegating crypto materials cache that keeps track of how many lookups were served from the cache
+ */
+public class CountingCryptoMaterialsCache implements CryptoMaterialsCache {
+    private final CryptoMaterialsCache delegate;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CountingCryptoMaterialsCache(CryptoMaterialsCache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public EncryptCacheEntry getEntryForEncrypt(byte[] cacheId, UsageStats usageIncrement) {
+        return count(delegate.getEntryForEncrypt(cacheId, usageIncrement));
+    }
+
+    @Override
+    public EncryptCacheEntry putEntryForEncrypt(byte[] cacheId, EncryptionMaterials encryptionMaterials, CacheHint hint, UsageStats initialUsage) {
+        return delegate.putEntryForEncrypt(cacheId, encryptionMaterials, hint, initialUsage);
+    }
+
+    @Override
+    public DecryptCacheEntry getEntryForDecrypt(byte[] cacheId) {
+        return count(delegate.getEntryForDecrypt(cacheId));
+    }
+
+    @Override
+    public void putEntryForDecrypt(byte[] cacheId, DecryptionMaterials decryptionMaterials, CacheHint hint) {
+        delegate.putEntryForDecrypt(cacheId, decryptionMaterials, hint);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private <T> T count(T entry) {
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return entry;
+    }
+}
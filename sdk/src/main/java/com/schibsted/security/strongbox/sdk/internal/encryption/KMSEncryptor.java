@@ -8,42 +8,58 @@ import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.encryptionsdk.AwsCrypto;
 import com.amazonaws.encryptionsdk.CommitmentPolicy;
 import com.amazonaws.encryptionsdk.CryptoAlgorithm;
+import com.amazonaws.encryptionsdk.CryptoMaterialsManager;
 import com.amazonaws.encryptionsdk.CryptoResult;
+import com.amazonaws.encryptionsdk.caching.CachingCryptoMaterialsManager;
+import com.amazonaws.encryptionsdk.caching.LocalCryptoMaterialsCache;
 import com.amazonaws.encryptionsdk.exception.AwsCryptoException;
-import com.amazonaws.encryptionsdk.kms.KmsMasterKey;
 import com.amazonaws.encryptionsdk.kms.KmsMasterKeyProvider;
-import com.amazonaws.services.kms.AWSKMSClient;
-import com.amazonaws.services.kms.AWSKMSClientBuilder;
 import com.schibsted.security.strongbox.sdk.exceptions.UnlimitedEncryptionNotSetException;
+import com.schibsted.security.strongbox.sdk.internal.ClientRegistry;
 import com.schibsted.security.strongbox.sdk.internal.interfaces.ManagedResource;
 import com.schibsted.security.strongbox.sdk.types.ClientConfiguration;
+import com.schibsted.security.strongbox.sdk.types.DataKeyCacheConfiguration;
 import com.schibsted.security.strongbox.sdk.types.EncryptionStrength;
 import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
 
 import java.util.Map;
 import java.util.Optional;
-
-import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationHelper.transformAndVerifyOrThrow;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author stiankri
  * @author kvlees
  * @author torarvid
  */
-public class KMSEncryptor implements Encryptor, ManagedResource {
+public class KMSEncryptor implements Encryptor, ManagedResource, AutoCloseable {
     private final AwsCrypto crypto;
     private final KMSManager kmsManager;
     private final AWSCredentialsProvider awsCredentials;
     private final SecretsGroupIdentifier groupIdentifier;
     private final ClientConfiguration clientConfiguration;
+    private final ClientRegistry clientRegistry;
+    private final Optional<DataKeyCacheConfiguration> dataKeyCacheConfiguration;
     private Optional<KmsMasterKeyProvider> prov = Optional.empty();
+    private Optional<CryptoMaterialsManager> materialsManager = Optional.empty();
+    private Optional<CountingCryptoMaterialsCache> dataKeyCache = Optional.empty();
+    private Optional<LocalCryptoMaterialsCache> cachedDataKeys = Optional.empty();
     private Optional<String> keyArn = Optional.empty();
 
     public KMSEncryptor(KMSManager kmsManager, AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration, SecretsGroupIdentifier groupIdentifier, AwsCrypto awsCrypto, EncryptionStrength encryptionStrength) {
+        this(kmsManager, awsCredentials, clientConfiguration, groupIdentifier, awsCrypto, encryptionStrength, Optional.empty());
+    }
+
+    public KMSEncryptor(KMSManager kmsManager, AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration, SecretsGroupIdentifier groupIdentifier, AwsCrypto awsCrypto, EncryptionStrength encryptionStrength, Optional<DataKeyCacheConfiguration> dataKeyCacheConfiguration) {
+        this(kmsManager, awsCredentials, clientConfiguration, groupIdentifier, awsCrypto, encryptionStrength, dataKeyCacheConfiguration, ClientRegistry.defaultRegistry());
+    }
+
+    public KMSEncryptor(KMSManager kmsManager, AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration, SecretsGroupIdentifier groupIdentifier, AwsCrypto awsCrypto, EncryptionStrength encryptionStrength, Optional<DataKeyCacheConfiguration> dataKeyCacheConfiguration, ClientRegistry clientRegistry) {
         this.awsCredentials = awsCredentials;
         this.clientConfiguration = clientConfiguration;
+        this.clientRegistry = clientRegistry;
         this.groupIdentifier = groupIdentifier;
         this.kmsManager = kmsManager;
+        this.dataKeyCacheConfiguration = dataKeyCacheConfiguration;
 
         if (encryptionStrength.equals(EncryptionStrength.AES_128)) {
             awsCrypto.setEncryptionAlgorithm(CryptoAlgorithm.ALG_AES_128_GCM_IV12_TAG16_HKDF_SHA256_ECDSA_P256);
@@ -60,14 +76,31 @@ public class KMSEncryptor implements Encryptor, ManagedResource {
                                                ClientConfiguration clientConfiguration,
                                                SecretsGroupIdentifier groupIdentifier,
                                                EncryptionStrength encryptionStrength) {
-        KMSManager manager = KMSManager.fromCredentials(awsCredentials, clientConfiguration, groupIdentifier);
+        return fromCredentials(awsCredentials, clientConfiguration, groupIdentifier, encryptionStrength, Optional.empty());
+    }
+
+    public static KMSEncryptor fromCredentials(AWSCredentialsProvider awsCredentials,
+                                               ClientConfiguration clientConfiguration,
+                                               SecretsGroupIdentifier groupIdentifier,
+                                               EncryptionStrength encryptionStrength,
+                                               Optional<DataKeyCacheConfiguration> dataKeyCacheConfiguration) {
+        return fromCredentials(ClientRegistry.defaultRegistry(), awsCredentials, clientConfiguration, groupIdentifier, encryptionStrength, dataKeyCacheConfiguration);
+    }
+
+    public static KMSEncryptor fromCredentials(ClientRegistry clientRegistry,
+                                               AWSCredentialsProvider awsCredentials,
+                                               ClientConfiguration clientConfiguration,
+                                               SecretsGroupIdentifier groupIdentifier,
+                                               EncryptionStrength encryptionStrength,
+                                               Optional<DataKeyCacheConfiguration> dataKeyCacheConfiguration) {
+        KMSManager manager = KMSManager.fromCredentials(clientRegistry, awsCredentials, clientConfiguration, groupIdentifier);
 
         AwsCrypto awsCrypto = AwsCrypto.builder()
                 .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
                 .withMaxEncryptedDataKeys(1)
                 .build();
 
-        return new KMSEncryptor(manager, awsCredentials, clientConfiguration, groupIdentifier, awsCrypto, encryptionStrength);
+        return new KMSEncryptor(manager, awsCredentials, clientConfiguration, groupIdentifier, awsCrypto, encryptionStrength, dataKeyCacheConfiguration, clientRegistry);
     }
 
     /**
@@ -75,12 +108,17 @@ public class KMSEncryptor implements Encryptor, ManagedResource {
      */
     @Override
     public String encrypt(String plaintext, EncryptionContext context) {
+        if (dataKeyCacheConfiguration.isPresent()) {
+            return crypto.encryptString(getMaterialsManager(), plaintext, context.toMap()).getResult();
+        }
         return crypto.encryptString(getProvider(), plaintext, context.toMap()).getResult();
     }
 
     @Override
     public String decrypt(String ciphertext, EncryptionContext context) {
-        final CryptoResult<String, KmsMasterKey> decryptResult = crypto.decryptString(getProvider(), ciphertext);
+        final CryptoResult<String, ?> decryptResult = dataKeyCacheConfiguration.isPresent()
+                ? crypto.decryptString(getMaterialsManager(), ciphertext)
+                : crypto.decryptString(getProvider(), ciphertext);
 
         verify(decryptResult, context);
 
@@ -94,6 +132,9 @@ public class KMSEncryptor implements Encryptor, ManagedResource {
     @Override
     public byte[] encrypt(byte[] plaintext, EncryptionContext context) {
         try {
+            if (dataKeyCacheConfiguration.isPresent()) {
+                return crypto.encryptData(getMaterialsManager(), plaintext, context.toMap()).getResult();
+            }
             return crypto.encryptData(getProvider(), plaintext, context.toMap()).getResult();
         } catch (AwsCryptoException e) {
             if (isInvalidKeyException(e)) {
@@ -107,7 +148,9 @@ public class KMSEncryptor implements Encryptor, ManagedResource {
     @Override
     public byte[] decrypt(byte[] ciphertext, EncryptionContext context) {
         try {
-            final CryptoResult<byte[], KmsMasterKey> decryptResult = crypto.decryptData(getProvider(), ciphertext);
+            final CryptoResult<byte[], ?> decryptResult = dataKeyCacheConfiguration.isPresent()
+                    ? crypto.decryptData(getMaterialsManager(), ciphertext)
+                    : crypto.decryptData(getProvider(), ciphertext);
 
             verify(decryptResult, context);
 
@@ -121,7 +164,7 @@ public class KMSEncryptor implements Encryptor, ManagedResource {
         }
     }
 
-    private void verify(CryptoResult<?, KmsMasterKey> decryptResult, EncryptionContext context) {
+    private void verify(CryptoResult<?, ?> decryptResult, EncryptionContext context) {
         if (!decryptResult.getMasterKeyIds().get(0).equals(getKeyArn())) {
             throw new IllegalStateException("Wrong key id!");
         }
@@ -133,6 +176,20 @@ public class KMSEncryptor implements Encryptor, ManagedResource {
         }
     }
 
+    /**
+     * @return number of data key lookups served from the cache, always 0 if data key caching is disabled
+     */
+    public long getDataKeyCacheHits() {
+        return dataKeyCache.map(CountingCryptoMaterialsCache::getHits).orElse(0L);
+    }
+
+    /**
+     * @return number of data key lookups that had to go to KMS, always 0 if data key caching is disabled
+     */
+    public long getDataKeyCacheMisses() {
+        return dataKeyCache.map(CountingCryptoMaterialsCache::getMisses).orElse(0L);
+    }
+
     public byte[] generateRandom(Integer numberOfBytes) {
         return kmsManager.generateRandom(numberOfBytes);
     }
@@ -181,13 +238,8 @@ public class KMSEncryptor implements Encryptor, ManagedResource {
 
     protected KmsMasterKeyProvider getProvider() {
         if (!prov.isPresent()) {
-            AWSKMSClientBuilder kmsClientBuilder = AWSKMSClient.builder()
-                    .withCredentials(awsCredentials)
-                    .withRegion(groupIdentifier.region.getName())
-                    .withClientConfiguration(transformAndVerifyOrThrow(clientConfiguration));
-
             KmsMasterKeyProvider provider = KmsMasterKeyProvider.builder()
-                    .withClientBuilder(kmsClientBuilder)
+                    .withCustomClientFactory(region -> clientRegistry.kms(awsCredentials, region, clientConfiguration))
                     .withDefaultRegion(groupIdentifier.region.getName())
                     .buildStrict(getKeyArn());
 
@@ -196,6 +248,39 @@ public class KMSEncryptor implements Encryptor, ManagedResource {
         return prov.get();
     }
 
+    protected synchronized CryptoMaterialsManager getMaterialsManager() {
+        if (!materialsManager.isPresent()) {
+            DataKeyCacheConfiguration configuration = dataKeyCacheConfiguration.get();
+            LocalCryptoMaterialsCache localCache = new LocalCryptoMaterialsCache(configuration.capacity);
+            CountingCryptoMaterialsCache cache = new CountingCryptoMaterialsCache(localCache);
+
+            CryptoMaterialsManager manager = CachingCryptoMaterialsManager.newBuilder()
+                    .withMasterKeyProvider(getProvider())
+                    .withCache(cache)
+                    .withMaxAge(configuration.maxAgeInSeconds, TimeUnit.SECONDS)
+                    .withMessageUseLimit(configuration.maxMessagesPerKey)
+                    .withByteUseLimit(configuration.maxBytesPerKey)
+                    .build();
+
+            cachedDataKeys = Optional.of(localCache);
+            dataKeyCache = Optional.of(cache);
+            materialsManager = Optional.of(manager);
+        }
+        return materialsManager.get();
+    }
+
+    /**
+     * Drop the cached data keys, so they are not kept in memory once the encryptor has been replaced. An encryptor
+     * that is still used afterwards sets up a new data key cache.
+     */
+    @Override
+    public synchronized void close() {
+        cachedDataKeys.ifPresent(LocalCryptoMaterialsCache::clear);
+        cachedDataKeys = Optional.empty();
+        dataKeyCache = Optional.empty();
+        materialsManager = Optional.empty();
+    }
+
     protected String getKeyArn() {
         if (!keyArn.isPresent()) {
             keyArn = Optional.of(kmsManager.getArn());
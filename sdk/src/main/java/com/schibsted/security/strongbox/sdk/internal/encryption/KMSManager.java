@@ -6,11 +6,11 @@ package com.schibsted.security.strongbox.sdk.internal.encryption;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.kms.AWSKMS;
-import com.amazonaws.services.kms.AWSKMSClientBuilder;
 import com.amazonaws.services.kms.model.*;
 import com.schibsted.security.strongbox.sdk.internal.access.IAMPolicyManager;
 import com.schibsted.security.strongbox.sdk.exceptions.DoesNotExistException;
 import com.schibsted.security.strongbox.sdk.exceptions.UnexpectedStateException;
+import com.schibsted.security.strongbox.sdk.internal.ClientRegistry;
 import com.schibsted.security.strongbox.sdk.internal.RegionLocalResourceName;
 import com.schibsted.security.strongbox.sdk.internal.interfaces.ManagedResource;
 import com.schibsted.security.strongbox.sdk.types.ClientConfiguration;
@@ -20,8 +20,6 @@ import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
-import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationHelper.transformAndVerifyOrThrow;
-
 /**
  * @author stiankri
  * @author kvlees
@@ -38,9 +36,15 @@ public class KMSManager implements ManagedResource {
     private final SecretsGroupIdentifier group;
     private final AWSCredentialsProvider awsCredentials;
     private final ClientConfiguration clientConfiguration;
+    private final ClientRegistry clientRegistry;
 
     public KMSManager(AWSKMS client, AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration, SecretsGroupIdentifier groupIdentifier) {
+        this(client, awsCredentials, clientConfiguration, groupIdentifier, ClientRegistry.defaultRegistry());
+    }
+
+    public KMSManager(AWSKMS client, AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration, SecretsGroupIdentifier groupIdentifier, ClientRegistry clientRegistry) {
         this.kms = client;
+        this.clientRegistry = clientRegistry;
         this.awsCredentials = awsCredentials;
         this.clientConfiguration = clientConfiguration;
         this.group = groupIdentifier;
@@ -52,12 +56,15 @@ public class KMSManager implements ManagedResource {
     public static KMSManager fromCredentials(AWSCredentialsProvider awsCredentials,
                                              ClientConfiguration clientConfiguration,
                                              SecretsGroupIdentifier groupIdentifier) {
-        AWSKMS client = AWSKMSClientBuilder.standard()
-            .withCredentials(awsCredentials)
-            .withClientConfiguration(transformAndVerifyOrThrow(clientConfiguration))
-            .withRegion(groupIdentifier.region.getName())
-            .build();
-        return new KMSManager(client, awsCredentials, clientConfiguration, groupIdentifier);
+        return fromCredentials(ClientRegistry.defaultRegistry(), awsCredentials, clientConfiguration, groupIdentifier);
+    }
+
+    public static KMSManager fromCredentials(ClientRegistry clientRegistry,
+                                             AWSCredentialsProvider awsCredentials,
+                                             ClientConfiguration clientConfiguration,
+                                             SecretsGroupIdentifier groupIdentifier) {
+        AWSKMS client = clientRegistry.kms(awsCredentials, groupIdentifier.region.getName(), clientConfiguration);
+        return new KMSManager(client, awsCredentials, clientConfiguration, groupIdentifier, clientRegistry);
     }
 
     public String create(boolean allowExistingPendingDeletedOrDisabledKey) {
@@ -218,7 +225,7 @@ public class KMSManager implements ManagedResource {
     }
 
     public String getAliasArn() {
-        return String.format("arn:aws:kms:%s:%s:%s", group.region.getName(), IAMPolicyManager.getAccount(awsCredentials, clientConfiguration), aliasKeyName);
+        return String.format("arn:aws:kms:%s:%s:%s", group.region.getName(), IAMPolicyManager.getAccount(clientRegistry, awsCredentials, clientConfiguration), aliasKeyName);
     }
 
     private Optional<KeyMetadata> describeKey() {
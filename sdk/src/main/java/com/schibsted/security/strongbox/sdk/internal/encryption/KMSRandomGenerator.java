@@ -7,14 +7,12 @@ package com.schibsted.security.strongbox.sdk.internal.encryption;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.kms.AWSKMS;
-import com.amazonaws.services.kms.AWSKMSClientBuilder;
 import com.amazonaws.services.kms.model.GenerateRandomRequest;
 import com.amazonaws.services.kms.model.GenerateRandomResult;
+import com.schibsted.security.strongbox.sdk.internal.ClientRegistry;
 import com.schibsted.security.strongbox.sdk.internal.RegionResolver;
 import com.schibsted.security.strongbox.sdk.types.ClientConfiguration;
 
-import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationHelper.transformAndVerifyOrThrow;
-
 /**
  * @author stiankri
  */
@@ -22,15 +20,11 @@ public class KMSRandomGenerator implements RandomGenerator {
     private final AWSKMS client;
 
     public KMSRandomGenerator(AWSCredentialsProvider awsCredentials, ClientConfiguration clientConfiguration) {
-        this.client = AWSKMSClientBuilder.standard()
-                .withCredentials(awsCredentials)
-                .withClientConfiguration(transformAndVerifyOrThrow(clientConfiguration))
-                .withRegion(RegionResolver.getRegion())
-                .build();
+        this.client = ClientRegistry.defaultRegistry().kms(awsCredentials, RegionResolver.getRegion(), clientConfiguration);
     }
 
     public KMSRandomGenerator() {
-        this(new DefaultAWSCredentialsProviderChain(), new ClientConfiguration());
+        this(DefaultAWSCredentialsProviderChain.getInstance(), new ClientConfiguration());
     }
 
     public byte[] generateRandom(Integer numberOfBytes) {
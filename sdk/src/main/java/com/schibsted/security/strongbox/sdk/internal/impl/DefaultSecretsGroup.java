@@ -4,6 +4,7 @@
 
 package com.schibsted.security.strongbox.sdk.internal.impl;
 
+import com.google.common.util.concurrent.Striped;
 import com.schibsted.security.strongbox.sdk.exceptions.AlreadyExistsException;
 import com.schibsted.security.strongbox.sdk.exceptions.StateCorruptionException;
 import com.schibsted.security.strongbox.sdk.internal.encryption.BestEffortShredder;
@@ -30,6 +31,7 @@ import com.schibsted.security.strongbox.sdk.types.UserAlias;
 
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.name;
@@ -40,22 +42,42 @@ import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Confi
  * @author kvlees
  */
 public class DefaultSecretsGroup implements SecretsGroup {
+    private static final int SECRET_LOCK_STRIPES = 64;
+
     private final Store store;
     private final Encryptor encryptor;
     private final SecretsGroupIdentifier groupIdentifier;
     private final String account;
     private final ReadWriteLock readWriteLock;
+    private final Striped<Lock> secretLocks;
 
     public DefaultSecretsGroup(String account,
                                SecretsGroupIdentifier groupIdentifier,
                                Store store,
                                Encryptor encryptor,
                                ReadWriteLock readWriteLock) {
+        this(account, groupIdentifier, store, encryptor, readWriteLock, newSecretLocks());
+    }
+
+    /**
+     * @param secretLocks serialize the changes to each secret, and should be shared by all instances for the group
+     */
+    public DefaultSecretsGroup(String account,
+                               SecretsGroupIdentifier groupIdentifier,
+                               Store store,
+                               Encryptor encryptor,
+                               ReadWriteLock readWriteLock,
+                               Striped<Lock> secretLocks) {
         this.store = store;
         this.encryptor = encryptor;
         this.groupIdentifier = groupIdentifier;
         this.account = account;
         this.readWriteLock = readWriteLock;
+        this.secretLocks = secretLocks;
+    }
+
+    public static Striped<Lock> newSecretLocks() {
+        return Striped.lock(SECRET_LOCK_STRIPES);
     }
 
     @Override
@@ -65,44 +87,61 @@ public class DefaultSecretsGroup implements SecretsGroup {
 
     @Override
     public RawSecretEntry create(NewSecretEntry newSecretEntry) {
-        readWriteLock.writeLock().lock();
+        RawSecretEntry entry = createEntry(newSecretEntry, 1);
+
+        Lock lock = secretLocks.get(newSecretEntry.secretIdentifier);
+        lock.lock();
 
         try {
-            RawSecretEntry entry = createEntry(newSecretEntry, 1);
             store.create(entry);
 
             return entry;
         } catch (AlreadyExistsException e) {
             throw new AlreadyExistsException(String.format("A secret named '%s' already exists", newSecretEntry.secretIdentifier.name), e);
         } finally {
-            readWriteLock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
+    /**
+     * The entry is encrypted for the next version before the lock is taken, as the version is part of the
+     * encryption context. If another version was added in the meantime, the entry is encrypted again.
+     */
     @Override
     public RawSecretEntry addVersion(NewSecretEntry newSecretEntry) {
-        readWriteLock.writeLock().lock();
+        while (true) {
+            long version = latestVersion(newSecretEntry.secretIdentifier) + 1;
+            RawSecretEntry entry = createEntry(newSecretEntry, version);
 
-        try {
-            Optional<RawSecretEntry> last = store.stream().filter(name.eq(newSecretEntry.secretIdentifier)).reverse().findFirst();
+            Lock lock = secretLocks.get(newSecretEntry.secretIdentifier);
+            lock.lock();
 
-            // TODO sanity check on last?
-            if (last.isPresent()) {
-                // TODO: check for overflow?
-                long version = last.get().version + 1;
+            try {
+                if (latestVersion(newSecretEntry.secretIdentifier) + 1 == version) {
+                    store.create(entry);
+
+                    return entry;
+                }
+            } finally {
+                lock.unlock();
+            }
 
-                RawSecretEntry entry = createEntry(newSecretEntry, version);
-                store.create(entry);
+            entry.bestEffortShred();
+        }
+    }
 
-                last.get().bestEffortShred();
+    private long latestVersion(SecretIdentifier secretIdentifier) {
+        // Only the version is needed. Entries returned by the file store are the ones it keeps in memory,
+        // so they must not be shredded here.
+        Optional<RawSecretEntry> last = store.stream().filter(name.eq(secretIdentifier)).reverse().project().findFirst();
 
-                return entry;
-            } else {
-                throw new DoesNotExistException(String.format(
-                        "Secret with name '%s' does not exist", newSecretEntry.secretIdentifier.name));
-            }
-        } finally {
-            readWriteLock.writeLock().unlock();
+        // TODO sanity check on last?
+        if (last.isPresent()) {
+            // TODO: check for overflow?
+            return last.get().version;
+        } else {
+            throw new DoesNotExistException(String.format(
+                    "Secret with name '%s' does not exist", secretIdentifier.name));
         }
     }
 
@@ -165,17 +204,15 @@ public class DefaultSecretsGroup implements SecretsGroup {
         }
     }
 
+    /**
+     * The entry is decrypted and encrypted again before the lock is taken. If the entry was updated in the meantime,
+     * the update is applied to the new entry instead.
+     */
     @Override
     public RawSecretEntry update(SecretMetadata metadata) {
-        readWriteLock.writeLock().lock();
-
-        try {
-            Optional<RawSecretEntry> existingEntry = stream().filter(name.eq(metadata.secretIdentifier).AND(version.eq(metadata.version))).findFirst();
-            if (!existingEntry.isPresent()) {
-                throw new DoesNotExistException(String.format(
-                        "Secret with name=%s,version=%s does not exist", metadata.secretIdentifier.name, metadata.version));
-            }
-            SecretEntry current = decryptEvenIfNotActive(existingEntry.get(), metadata.secretIdentifier, metadata.version);
+        while (true) {
+            RawSecretEntry existingEntry = existingEntry(metadata);
+            SecretEntry current = decryptEvenIfNotActive(existingEntry, metadata.secretIdentifier, metadata.version);
 
             NewSecretEntry newSecretEntry = new NewSecretEntry(metadata.secretIdentifier,
                     current.secretValue,
@@ -189,16 +226,36 @@ public class DefaultSecretsGroup implements SecretsGroup {
 
             RawSecretEntry entry = createEntry(newSecretEntry, current.version, current.created, FormattedTimestamp.now(), metadata.modifiedBy);
 
-            store.update(entry, existingEntry.get());
-
-            existingEntry.get().bestEffortShred();
             current.bestEffortShred();
             newSecretEntry.bestEffortShred();
 
-            return entry;
-        } finally {
-            readWriteLock.writeLock().unlock();
+            Lock lock = secretLocks.get(metadata.secretIdentifier);
+            lock.lock();
+
+            try {
+                RawSecretEntry latestEntry = existingEntry(metadata);
+                if (latestEntry.equals(existingEntry)) {
+                    store.update(entry, latestEntry);
+
+                    existingEntry.bestEffortShred();
+
+                    return entry;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            entry.bestEffortShred();
+        }
+    }
+
+    private RawSecretEntry existingEntry(SecretMetadata metadata) {
+        Optional<RawSecretEntry> existingEntry = stream().filter(name.eq(metadata.secretIdentifier).AND(version.eq(metadata.version))).findFirst();
+        if (!existingEntry.isPresent()) {
+            throw new DoesNotExistException(String.format(
+                    "Secret with name=%s,version=%s does not exist", metadata.secretIdentifier.name, metadata.version));
         }
+        return existingEntry.get();
     }
 
     @Override
@@ -208,7 +265,14 @@ public class DefaultSecretsGroup implements SecretsGroup {
 
     @Override
     public void delete(SecretIdentifier secretIdentifier) {
-        store.delete(secretIdentifier);
+        Lock lock = secretLocks.get(secretIdentifier);
+        lock.lock();
+
+        try {
+            store.delete(secretIdentifier);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -218,6 +282,7 @@ public class DefaultSecretsGroup implements SecretsGroup {
 
     @Override
     public void close() {
+        SecretWatcher.cancelWatches(this);
         readWriteLock.writeLock().lock();
 
         try {
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Decrypts several entries at once, to overlap the round trips to KMS. The decryptions of all callers share a small
+ * pool of daemon threads, which bounds the number of concurrent requests to KMS from this process.
+ */
+public final class ParallelDecryption {
+    static final int MAX_CONCURRENT_DECRYPTIONS = 8;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_DECRYPTIONS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-decrypt-%d").build());
+
+    private ParallelDecryption() {
+    }
+
+    /**
+     * Decrypt the entries, keeping their order. If any decryption fails, the ones that have not started are skipped,
+     * every entry that was or is still being decrypted is shredded, and the original exception is thrown.
+     *
+     * @param rawSecretEntries the entries to decrypt
+     * @param decrypt decrypts and verifies a single entry
+     * @return the decrypted entries, in the same order
+     */
+    public static List<SecretEntry> decrypt(List<RawSecretEntry> rawSecretEntries, Function<RawSecretEntry, SecretEntry> decrypt) {
+        if (rawSecretEntries.size() <= 1) {
+            return rawSecretEntries.stream()
+                    .map(decrypt)
+                    .collect(Collectors.toList());
+        }
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<CompletableFuture<SecretEntry>> decryptions = new ArrayList<>(rawSecretEntries.size());
+        for (RawSecretEntry rawSecretEntry : rawSecretEntries) {
+            decryptions.add(CompletableFuture.supplyAsync(() -> {
+                if (failed.get()) {
+                    throw new CancellationException();
+                }
+                return decrypt.apply(rawSecretEntry);
+            }, executor));
+        }
+
+        try {
+            return decryptions.stream()
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.toList());
+        } catch (CompletionException e) {
+            // Cancelling a CompletableFuture does not interrupt its task, and would drop the entry of a decryption
+            // that is running, so let those finish and shred the entries as they complete instead
+            failed.set(true);
+            decryptions.forEach(decryption -> decryption.thenAccept(SecretEntry::bestEffortShred));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
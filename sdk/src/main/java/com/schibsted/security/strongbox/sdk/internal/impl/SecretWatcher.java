@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.impl;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.schibsted.security.strongbox.sdk.SecretListener;
+import com.schibsted.security.strongbox.sdk.SecretSubscription;
+import com.schibsted.security.strongbox.sdk.SecretsGroup;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretWatchConfiguration;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.active;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.name;
+
+/**
+ * Polls watched secrets for changes. Each poll only reads the keys and metadata of the latest active version,
+ * and the entry is only fetched and decrypted when the version or its metadata has changed.
+ *
+ * The comment and user data are stored in the encrypted payload, so changing only those is not detected.
+ *
+ * The polls run on a small shared pool, and listeners are called on a separate pool unless the configuration
+ * provides an executor, so that a slow listener does not hold up the polls. Each watch calls its listener in
+ * the order the changes were seen.
+ *
+ * The watches of a group are cancelled when the group is closed, see {@link #cancelWatches(SecretsGroup)}.
+ */
+public final class SecretWatcher {
+    private static final Logger log = LoggerFactory.getLogger(SecretWatcher.class);
+
+    private static final int POLL_THREADS = 2;
+    private static final int MAX_LISTENER_THREADS = 4;
+    private static final long LISTENER_THREAD_KEEP_ALIVE_IN_SECONDS = 60;
+
+    private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(POLL_THREADS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-watch-%d").build());
+    private static final ThreadPoolExecutor listenerExecutor = newListenerExecutor();
+    private static final ConcurrentHashMap<SecretsGroup, Set<Watch>> watches = new ConcurrentHashMap<>();
+
+    static {
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    private SecretWatcher() {
+    }
+
+    public static SecretSubscription watch(SecretsGroup secretsGroup, SecretIdentifier secretIdentifier,
+                                           SecretListener listener, SecretWatchConfiguration configuration) {
+        Watch watch = new Watch(secretsGroup, secretIdentifier, listener, configuration.listenerExecutor.orElse(listenerExecutor));
+        watches.compute(secretsGroup, (group, groupWatches) -> {
+            Set<Watch> updated = (groupWatches != null) ? groupWatches : ConcurrentHashMap.newKeySet();
+            updated.add(watch);
+            return updated;
+        });
+        watch.start(configuration.pollIntervalInSeconds);
+        return () -> stop(watch);
+    }
+
+    /**
+     * Cancel all watches of a group. Called by the groups when they are closed, as the polls would otherwise
+     * keep reading from a closed group.
+     *
+     * @param secretsGroup the group being closed
+     */
+    public static void cancelWatches(SecretsGroup secretsGroup) {
+        Set<Watch> groupWatches = watches.remove(secretsGroup);
+        if (groupWatches != null) {
+            groupWatches.forEach(Watch::cancel);
+        }
+    }
+
+    static boolean isWatched(SecretsGroup secretsGroup) {
+        return watches.containsKey(secretsGroup);
+    }
+
+    private static void stop(Watch watch) {
+        watch.cancel();
+        watches.computeIfPresent(watch.secretsGroup, (group, groupWatches) -> {
+            groupWatches.remove(watch);
+            return groupWatches.isEmpty() ? null : groupWatches;
+        });
+    }
+
+    private static ThreadPoolExecutor newListenerExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_LISTENER_THREADS, MAX_LISTENER_THREADS,
+                LISTENER_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-watch-listener-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static final class Watch {
+        private final SecretsGroup secretsGroup;
+        private final SecretIdentifier secretIdentifier;
+        private final SecretListener listener;
+        private final Executor listenerExecutor;
+
+        // Only accessed by the polls, which never run concurrently
+        private boolean polled = false;
+        private Optional<Fingerprint> last = Optional.empty();
+        private CompletableFuture<Void> delivered = CompletableFuture.completedFuture(null);
+
+        // Guarded by this
+        private ScheduledFuture<?> future = null;
+
+        private volatile boolean cancelled = false;
+
+        Watch(SecretsGroup secretsGroup, SecretIdentifier secretIdentifier, SecretListener listener, Executor listenerExecutor) {
+            this.secretsGroup = secretsGroup;
+            this.secretIdentifier = secretIdentifier;
+            this.listener = listener;
+            this.listenerExecutor = listenerExecutor;
+        }
+
+        synchronized void start(long pollIntervalInSeconds) {
+            if (!cancelled) {
+                future = scheduler.scheduleWithFixedDelay(this::poll, 0, pollIntervalInSeconds, TimeUnit.SECONDS);
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * A failed poll is retried with the next one, as an exception would cancel the scheduled polls
+         */
+        void poll() {
+            if (cancelled) {
+                return;
+            }
+
+            try {
+                Optional<Fingerprint> current = secretsGroup.stream()
+                        .filter(name.eq(secretIdentifier))
+                        .filter(active())
+                        .reverse()
+                        .project(Config.metadata())
+                        .findFirst()
+                        .map(Fingerprint::new);
+
+                if (polled && last.equals(current)) {
+                    return;
+                }
+
+                Optional<SecretEntry> latestActiveVersion = current.isPresent()
+                        ? secretsGroup.getActive(secretIdentifier, current.get().version)
+                        : Optional.empty();
+                if (current.isPresent() && !latestActiveVersion.isPresent()) {
+                    // The version stopped being active after it was read, so the next poll finds the one replacing it
+                    return;
+                }
+                polled = true;
+                last = current;
+
+                // Chained on the previous delivery, so a listener sees the changes in order even on a pool
+                delivered = delivered
+                        .exceptionally(e -> null)
+                        .thenRunAsync(() -> deliver(latestActiveVersion), listenerExecutor);
+            } catch (RuntimeException e) {
+                log.warn("Failed to check secret '{}' for changes", secretIdentifier.name, e);
+            }
+        }
+
+        private void deliver(Optional<SecretEntry> latestActiveVersion) {
+            if (cancelled) {
+                latestActiveVersion.ifPresent(SecretEntry::bestEffortShred);
+                return;
+            }
+            try {
+                listener.onChange(secretIdentifier, latestActiveVersion);
+            } catch (RuntimeException e) {
+                log.warn("The listener of secret '{}' failed", secretIdentifier.name, e);
+            }
+        }
+    }
+
+    private static final class Fingerprint {
+        final long version;
+        final State state;
+        final Optional<ZonedDateTime> notBefore;
+        final Optional<ZonedDateTime> notAfter;
+
+        Fingerprint(RawSecretEntry rawSecretEntry) {
+            this.version = rawSecretEntry.version;
+            this.state = rawSecretEntry.state;
+            this.notBefore = rawSecretEntry.notBefore;
+            this.notAfter = rawSecretEntry.notAfter;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(version, state, notBefore, notAfter);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof Fingerprint) {
+                final Fingerprint other = (Fingerprint) obj;
+                return version == other.version
+                        && Objects.equal(state, other.state)
+                        && Objects.equal(notBefore, other.notBefore)
+                        && Objects.equal(notAfter, other.notAfter);
+            } else {
+                return false;
+            }
+        }
+    }
+}
@@ -47,6 +47,13 @@ public class Config {
                 .AND(notAfter.isNotPresent().OR(notAfter.get().ge(now)));
     }
 
+    /**
+     * @return the positions of the attributes needed to list entries, i.e. everything but the encrypted payload
+     */
+    public static int[] metadata() {
+        return new int[]{STATE, NOT_BEFORE, NOT_AFTER};
+    }
+
     public static RSEF.AttributeCondition disabled() {
         ZonedDateTime now = FormattedTimestamp.now();
         return state.eq(State.DISABLED)
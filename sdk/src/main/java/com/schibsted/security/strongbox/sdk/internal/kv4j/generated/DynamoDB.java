@@ -6,7 +6,7 @@ package com.schibsted.security.strongbox.sdk.internal.kv4j.generated;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.schibsted.security.strongbox.sdk.internal.ClientRegistry;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.dynamodb.GenericDynamoDB;
 import com.schibsted.security.strongbox.sdk.types.ClientConfiguration;
 import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
@@ -15,9 +15,6 @@ import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
 
 import java.util.concurrent.locks.ReadWriteLock;
 
-import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationHelper.verifyOrThrow;
-import static com.schibsted.security.strongbox.sdk.internal.ClientConfigurationHelper.transformAndVerifyOrThrow;
-
 /**
  * @author stiankri
  * @author kvlees
@@ -36,11 +33,15 @@ public class DynamoDB extends GenericDynamoDB<RawSecretEntry, SecretIdentifier>
                                            ClientConfiguration clientConfiguration,
                                            SecretsGroupIdentifier groupIdentifier,
                                            ReadWriteLock readWriteLock) {
-        AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard()
-            .withCredentials(awsCredentials)
-            .withClientConfiguration(verifyOrThrow(transformAndVerifyOrThrow(clientConfiguration)))
-            .withRegion(groupIdentifier.region.getName())
-            .build();
+        return fromCredentials(ClientRegistry.defaultRegistry(), awsCredentials, clientConfiguration, groupIdentifier, readWriteLock);
+    }
+
+    public static DynamoDB fromCredentials(ClientRegistry clientRegistry,
+                                           AWSCredentialsProvider awsCredentials,
+                                           ClientConfiguration clientConfiguration,
+                                           SecretsGroupIdentifier groupIdentifier,
+                                           ReadWriteLock readWriteLock) {
+        AmazonDynamoDB client = clientRegistry.dynamoDB(awsCredentials, groupIdentifier.region.getName(), clientConfiguration);
         return new DynamoDB(client, awsCredentials, clientConfiguration, groupIdentifier, readWriteLock);
     }
 }
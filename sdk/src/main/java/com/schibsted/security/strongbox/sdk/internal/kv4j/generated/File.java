@@ -7,9 +7,11 @@ package com.schibsted.security.strongbox.sdk.internal.kv4j.generated;
 import com.schibsted.security.strongbox.sdk.internal.encryption.EncryptionContext;
 import com.schibsted.security.strongbox.sdk.internal.encryption.Encryptor;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.file.GenericFile;
+import com.schibsted.security.strongbox.sdk.types.FileStoreFormat;
 import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
 import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
 
+import java.util.Optional;
 import java.util.concurrent.locks.ReadWriteLock;
 
 /**
@@ -19,4 +21,8 @@ public class File extends GenericFile<RawSecretEntry, SecretIdentifier, Long> im
     public File(java.io.File path, Encryptor encryptor, EncryptionContext encryptionContext, ReadWriteLock readWriteLock) {
         super(path, Config.converters, encryptor, encryptionContext, RawSecretEntry.class, readWriteLock);
     }
+
+    public File(java.io.File path, Encryptor encryptor, EncryptionContext encryptionContext, ReadWriteLock readWriteLock, Optional<FileStoreFormat> targetFormat) {
+        super(path, Config.converters, encryptor, encryptionContext, RawSecretEntry.class, readWriteLock, targetFormat);
+    }
 }
@@ -10,12 +10,14 @@ import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
 import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
 
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * @author stiankri
  */
 public interface Store extends AutoCloseable, ManagedResource {
     void create(RawSecretEntry entry);
+    void createAll(Stream<RawSecretEntry> entries);
     void update(RawSecretEntry entry, RawSecretEntry existingEntry);
     void delete(SecretIdentifier secretIdentifier);
     Set<SecretIdentifier> keySet();
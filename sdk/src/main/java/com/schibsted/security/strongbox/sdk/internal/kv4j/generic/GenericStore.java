@@ -7,12 +7,21 @@ package com.schibsted.security.strongbox.sdk.internal.kv4j.generic;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.KVStream;
 
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * @author stiankri
  */
 public interface GenericStore<T, R> {
     void create(T entry);
+
+    /**
+     * Create many entries at once, e.g. when restoring or migrating a store. Existing entries with the same keys
+     * are not detected and might be overwritten, so this should only be used on a store that is known to be empty.
+     *
+     * @param entries the entries to create
+     */
+    void createAll(Stream<T> entries);
     void update(T entry, T existingEntry);
     void delete(R partitionKey);
     Set<R> keySet();
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.schibsted.security.strongbox.sdk.internal.converter.Converters;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.QueryShape;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.RSEF;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The expressions generated for a {@link QueryShape}, with placeholders for the literals. The expressions only
+ * depend on the shape, so they are generated once, and the literals of each query are bound to the placeholders.
+ */
+class ExpressionTemplate {
+    final Optional<String> keyConditionExpression;
+    final Optional<String> filterExpression;
+    final Map<String, String> expressionAttributeNames;
+
+    private final List<String> keyPlaceholders;
+    private final List<String> filterPlaceholders;
+
+    private ExpressionTemplate(Optional<String> keyConditionExpression, Optional<String> filterExpression,
+                               Map<String, String> expressionAttributeNames,
+                               List<String> keyPlaceholders, List<String> filterPlaceholders) {
+        this.keyConditionExpression = keyConditionExpression;
+        this.filterExpression = filterExpression;
+        this.expressionAttributeNames = Collections.unmodifiableMap(expressionAttributeNames);
+        this.keyPlaceholders = keyPlaceholders;
+        this.filterPlaceholders = filterPlaceholders;
+    }
+
+    static <Entry> ExpressionTemplate forQuery(RSEF.ParsedKeyCondition<Entry> keyCondition,
+                                               Optional<RSEF.ParsedAttributeCondition<Entry>> attributeCondition,
+                                               Converters converters) {
+        KeyExpressionGenerator keyExpressionGenerator = new KeyExpressionGenerator();
+        KeyExpressionGenerator.KeyCondition keyExpression = keyExpressionGenerator.process(keyCondition, converters);
+        Map<String, String> expressionAttributeNames = keyExpression.expressionAttributeNames;
+        List<String> keyPlaceholders = placeholders(0, keyExpressionGenerator.count);
+
+        if (!attributeCondition.isPresent()) {
+            return new ExpressionTemplate(Optional.of(keyExpression.keyConditionExpression), Optional.empty(),
+                    expressionAttributeNames, keyPlaceholders, Collections.emptyList());
+        }
+
+        int startCount = keyExpression.expressionAttributeValues.size() + 1;
+        FilterGenerator filterGenerator = new FilterGenerator(startCount);
+        FilterGenerator.Filter generated = filterGenerator.process(attributeCondition.get(), converters);
+
+        return new ExpressionTemplate(Optional.of(keyExpression.keyConditionExpression), Optional.of(generated.filterExpression),
+                FilterGenerator.merge(expressionAttributeNames, generated.expressionAttributeNames),
+                keyPlaceholders, placeholders(startCount, filterGenerator.count));
+    }
+
+    static <Entry> ExpressionTemplate forScan(RSEF.ParsedAttributeCondition<Entry> attributeCondition, Converters converters) {
+        FilterGenerator filterGenerator = new FilterGenerator();
+        FilterGenerator.Filter generated = filterGenerator.process(attributeCondition, converters);
+
+        return new ExpressionTemplate(Optional.empty(), Optional.of(generated.filterExpression),
+                generated.expressionAttributeNames, Collections.emptyList(), placeholders(0, filterGenerator.count));
+    }
+
+    /**
+     * @param keyLiterals the literals of the key condition, in the order of {@link QueryShape#literals}
+     * @param filterLiterals the literals of the attribute condition, in the order of {@link QueryShape#literals}
+     * @return the expression attribute values of the query
+     */
+    Map<String, AttributeValue> bind(List<Object> keyLiterals, List<Object> filterLiterals, Converters converters) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        for (int i = 0; i < keyPlaceholders.size(); ++i) {
+            expressionAttributeValues.put(keyPlaceholders.get(i), KeyExpressionGenerator.toAttributeValue(keyLiterals.get(i), converters));
+        }
+        for (int i = 0; i < filterPlaceholders.size(); ++i) {
+            expressionAttributeValues.put(filterPlaceholders.get(i), FilterGenerator.toAttributeValue(filterLiterals.get(i), converters));
+        }
+        return expressionAttributeValues;
+    }
+
+    private static List<String> placeholders(int from, int to) {
+        List<String> placeholders = new ArrayList<>();
+        for (int i = from; i < to; ++i) {
+            placeholders.add(String.format(":%s", FilterGenerator.convertNumberToLetters(i)));
+        }
+        return Collections.unmodifiableList(placeholders);
+    }
+}
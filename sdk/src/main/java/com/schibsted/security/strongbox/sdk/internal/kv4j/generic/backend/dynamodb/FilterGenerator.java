@@ -111,17 +111,8 @@ public class FilterGenerator {
             RSEF.TypedLiteral<T> current = (RSEF.TypedLiteral<T>) typedTerm;
 
             String placeHolderName = String.format(":%s", convertNumberToLetters(count++));
-            Object value = converters.toObject(current.value);
             Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
-            AttributeValue attributeValue = new AttributeValue();
-
-            // FIXME do not hardcode
-            if (value instanceof Byte || value instanceof Long) {
-                attributeValue.setN(value.toString());
-            } else {
-                attributeValue.setS((String)value);
-            }
-            expressionAttributeValues.put(placeHolderName, attributeValue);
+            expressionAttributeValues.put(placeHolderName, toAttributeValue(current.value, converters));
 
             return new Filter(placeHolderName, expressionAttributeValues);
         } else {
@@ -129,6 +120,19 @@ public class FilterGenerator {
         }
     }
 
+    public static AttributeValue toAttributeValue(Object literal, Converters converters) {
+        Object value = converters.toObject(literal);
+        AttributeValue attributeValue = new AttributeValue();
+
+        // FIXME do not hardcode
+        if (value instanceof Byte || value instanceof Long) {
+            attributeValue.setN(value.toString());
+        } else {
+            attributeValue.setS((String)value);
+        }
+        return attributeValue;
+    }
+
     public static String getOperator(RSEF.BinaryOpType binaryOpType) {
         switch (binaryOpType) {
             case EQ:
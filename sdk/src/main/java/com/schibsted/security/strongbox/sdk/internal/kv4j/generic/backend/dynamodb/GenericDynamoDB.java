@@ -8,18 +8,24 @@ import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AmazonDynamoDBException;
 import com.amazonaws.services.dynamodbv2.model.AttributeAction;
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
 import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
 import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
 import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
@@ -29,16 +35,27 @@ import com.amazonaws.services.dynamodbv2.model.ScanResult;
 import com.amazonaws.services.dynamodbv2.model.TableDescription;
 import com.amazonaws.services.dynamodbv2.model.TableStatus;
 import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.schibsted.security.strongbox.sdk.internal.access.IAMPolicyManager;
 import com.schibsted.security.strongbox.sdk.exceptions.PotentiallyMaliciousDataException;
-import com.schibsted.security.strongbox.sdk.exceptions.FieldAccessException;
+import com.schibsted.security.strongbox.sdk.exceptions.FailedToCreateResourceException;
 import com.schibsted.security.strongbox.sdk.exceptions.ParseException;
 import com.schibsted.security.strongbox.sdk.exceptions.UnexpectedStateException;
 import com.schibsted.security.strongbox.sdk.internal.converter.Encoder;
 import com.schibsted.security.strongbox.sdk.internal.RegionLocalResourceName;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.GenericStore;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec.EntryCodec;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec.FieldCodec;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.ConditionCompiler;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.KVStream;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.QueryShape;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.RSEF;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.SecretEventStream;
 import com.schibsted.security.strongbox.sdk.internal.converter.Converters;
@@ -48,25 +65,36 @@ import com.schibsted.security.strongbox.sdk.exceptions.DoesNotExistException;
 import com.schibsted.security.strongbox.sdk.types.ClientConfiguration;
 import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
 import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
-import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.annotation.Attribute;
-import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.annotation.PartitionKey;
-import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.annotation.SortKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -80,6 +108,18 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
     private static final Logger log = LoggerFactory.getLogger(GenericDynamoDB.class);
     private static final int SLEEP_TIME = 5000;
     private static final int MAX_RETRIES = 30;
+    private static final int BATCH_WRITE_SIZE = 25;
+    private static final int MAX_PARALLEL_BATCHES = 4;
+    private static final int MAX_BATCH_RETRIES = 10;
+    private static final int BATCH_RETRY_BASE_SLEEP_TIME = 50;
+    private static final String ACCESS_DENIED_ERROR_CODE = "AccessDeniedException";
+    private static final int MAX_EXPRESSION_TEMPLATES = 256;
+    private static final long BATCH_WRITE_THREAD_KEEP_ALIVE_IN_SECONDS = 60;
+
+    /**
+     * Shared by all stores, so that bulk loads do not each start their own threads
+     */
+    private static final ExecutorService batchWriteExecutor = newBatchWriteExecutor();
 
     private AmazonDynamoDB client;
     private AWSCredentialsProvider awsCredentials;
@@ -95,6 +135,8 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
     private final String OPTIMISTIC_LOCK_FIELD_NAME = "optimisticLock";
 
     Class<Entry> clazz;
+    EntryCodec<Entry> codec;
+    Map<String, FieldCodec<Entry>> fieldsByAttributeName = new HashMap<>();
     Map<Integer, String> attributeMappings = new HashMap<>();
     Map<Integer, String> partitionKeyMapping = new HashMap<>();
     Integer partitionKeyName;
@@ -103,13 +145,27 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
 
     private RSEF.PartitionKey<Entry, Primary> partitionKeyRef;
 
+    private int totalSegments = 1;
+    private Optional<Executor> scanExecutor = Optional.empty();
+
+    /**
+     * The generated expressions by the shape of the query, see {@link QueryShape}
+     */
+    private final Cache<String, ExpressionTemplate> expressionTemplates = CacheBuilder.newBuilder()
+            .maximumSize(MAX_EXPRESSION_TEMPLATES)
+            .build();
+
+    // Read only policies created before GetItem was used only allow Query and Scan
+    private volatile boolean getItemAllowed = true;
+
     public GenericDynamoDB(AmazonDynamoDB client, AWSCredentialsProvider awsCredentials,
                            ClientConfiguration clientConfiguration,
                            SecretsGroupIdentifier groupIdentifier, Class<Entry> clazz, Converters converters,
                            ReadWriteLock readWriteLock) {
         this.clazz = clazz;
-        buildMappings();
         this.converters = converters;
+        this.codec = EntryCodec.forClass(clazz, converters);
+        buildMappings();
         this.awsCredentials = awsCredentials;
         this.clientConfiguration = clientConfiguration;
         this.client = client;
@@ -239,6 +295,7 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
                 "        \"Sid\": \"DynamoDB\",\n" +
                 "        \"Effect\": \"Allow\",\n" +
                 "        \"Action\": [\n" +
+                "            \"dynamodb:GetItem\",\n" +
                 "            \"dynamodb:Query\",\n" +
                 "            \"dynamodb:Scan\"\n" +
                 "        ],\n" +
@@ -273,35 +330,28 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
     }
 
     private void buildMappings() {
-        Field[] fields = clazz.getDeclaredFields();
-        for (Field field : fields) {
-            Attribute[] attributes = field.getAnnotationsByType(Attribute.class);
-            PartitionKey[] partitionKey = field.getAnnotationsByType(PartitionKey.class);
-            SortKey[] sortKey = field.getAnnotationsByType(SortKey.class);
+        for (FieldCodec<Entry> field : codec.attributes.values()) {
+            attributeMappings.put(field.position, field.name);
+            fieldsByAttributeName.put(String.valueOf(field.position), field);
+        }
 
-            if (attributes.length > 0) {
-                int position = attributes[0].position();
-                attributeMappings.put(position, field.getName());
-            }
+        partitionKeyName = codec.partitionKey.position;
+        partitionKeyMapping.put(partitionKeyName, codec.partitionKey.name);
+        partitionKeyRef = new RSEF.PartitionKey<>(partitionKeyName);
+        fieldsByAttributeName.put(partitionKeyName.toString(), codec.partitionKey);
 
-            if (partitionKey.length > 0) {
-                int position = partitionKey[0].position();
-                partitionKeyMapping.put(position, field.getName());
-                this.partitionKeyName = position;
-                this.partitionKeyRef = new RSEF.PartitionKey<>(position);
-            }
-
-            if (sortKey.length > 0) {
-                int name = sortKey[0].position();
-                sortKeyMapping.put(name, field.getName());
-                this.sortKeyName = name;
-            }
-        }
+        sortKeyName = codec.sortKey.position;
+        sortKeyMapping.put(sortKeyName, codec.sortKey.name);
+        fieldsByAttributeName.put(sortKeyName.toString(), codec.sortKey);
     }
 
+    /**
+     * The write is conditional, so concurrent writes of different entries only need to exclude changes to the
+     * table itself, and take the read lock
+     */
     @Override
     public void create(Entry entry) {
-        readWriteLock.writeLock().lock();
+        readWriteLock.readLock().lock();
 
         try {
             Map<String, AttributeValue> keys = createKey(entry);
@@ -314,13 +364,98 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
                 throw new AlreadyExistsException("DynamoDB store entry already exists:" + keys.toString());
             }
         } finally {
+            readWriteLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void createAll(Stream<Entry> entries) {
+        readWriteLock.writeLock().lock();
+
+        List<Future<Void>> submitted = new ArrayList<>();
+        try {
+            CompletionService<Void> completionService = new ExecutorCompletionService<>(batchWriteExecutor);
+            Iterator<List<Entry>> batches = Iterators.partition(entries.iterator(), BATCH_WRITE_SIZE);
+
+            // Keep at most MAX_PARALLEL_BATCHES in flight, so that the entries are not all read into memory up front
+            int inFlight = 0;
+            while (batches.hasNext()) {
+                if (inFlight == MAX_PARALLEL_BATCHES) {
+                    completionService.take().get();
+                    inFlight--;
+                }
+
+                List<WriteRequest> writeRequests = batches.next().stream()
+                        .map(entry -> new WriteRequest().withPutRequest(new PutRequest().withItem(createItem(entry))))
+                        .collect(Collectors.toList());
+                submitted.add(completionService.submit(() -> {
+                    executeBatchWrite(writeRequests);
+                    return null;
+                }));
+                inFlight++;
+            }
+
+            for (; inFlight > 0; inFlight--) {
+                completionService.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FailedToCreateResourceException("Interrupted while writing entries to DynamoDB", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new FailedToCreateResourceException("Failed to write entries to DynamoDB", e.getCause());
+        } finally {
+            // Stop the batches that are still running if one of them failed
+            submitted.forEach(future -> future.cancel(true));
             readWriteLock.writeLock().unlock();
         }
     }
 
+    private static ExecutorService newBatchWriteExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_BATCHES, MAX_PARALLEL_BATCHES,
+                BATCH_WRITE_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("strongbox-batch-write-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void executeBatchWrite(List<WriteRequest> writeRequests) throws InterruptedException {
+        Map<String, List<WriteRequest>> requestItems = new HashMap<>();
+        requestItems.put(tableName, writeRequests);
+
+        for (int retry = 0; ; retry++) {
+            BatchWriteItemResult result = client.batchWriteItem(new BatchWriteItemRequest().withRequestItems(requestItems));
+            requestItems = result.getUnprocessedItems();
+
+            if (requestItems == null || requestItems.isEmpty()) {
+                return;
+            }
+
+            if (retry == MAX_BATCH_RETRIES) {
+                throw new FailedToCreateResourceException(String.format(
+                        "Failed to write %d entries to DynamoDB after %d retries", requestItems.get(tableName).size(), MAX_BATCH_RETRIES));
+            }
+
+            // Exponential backoff with jitter, as unprocessed items are usually caused by throttling
+            long maxSleepTime = Math.min(SLEEP_TIME, BATCH_RETRY_BASE_SLEEP_TIME * (1L << retry));
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxSleepTime / 2, maxSleepTime + 1));
+        }
+    }
+
+    private Map<String, AttributeValue> createItem(Entry entry) {
+        Map<String, AttributeValue> item = createKey(entry);
+        createAttributes(entry).forEach((name, update) -> item.put(name, update.getValue()));
+        return item;
+    }
+
+    /**
+     * The write is conditional on the existing entry, so like {@link #create(Object)} it only takes the read lock
+     */
     @Override
     public void update(Entry entry, Entry existingEntry) {
-        readWriteLock.writeLock().lock();
+        readWriteLock.readLock().lock();
 
         try {
             Map<String, AttributeValue> keys = createKey(entry);
@@ -333,7 +468,7 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
                 throw new DoesNotExistException("Precondition to update entry in DynamoDB failed:" + keys.toString());
             }
         } finally {
-            readWriteLock.writeLock().unlock();
+            readWriteLock.readLock().unlock();
         }
 
     }
@@ -384,11 +519,11 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
                 .withAction(AttributeAction.PUT)
                 .withValue(new AttributeValue().withS(sha(entry))));
 
-        for (Map.Entry<Integer, String> e : attributeMappings.entrySet()) {
+        for (FieldCodec<Entry> field : codec.attributes.values()) {
 
-            Object value = getValue(entry, e.getValue());
+            Object value = field.getConverted(entry);
             if (value != null) {
-                attributes.put(e.getKey().toString(),
+                attributes.put(String.valueOf(field.position),
                         new AttributeValueUpdate()
                                 .withAction(AttributeAction.PUT)
                                 .withValue(getAttribute(value)));
@@ -418,47 +553,15 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
     }
 
     private String getPartitionKeyValue(Entry entry) {
-        return getValue(entry, partitionKeyMapping.get(partitionKeyName)).toString();
+        return codec.partitionKey.getConverted(entry).toString();
     }
 
     private Primary getUnconvertedPartitionKeyValue(Entry entry) {
-        Field field = getField(entry, partitionKeyMapping.get(partitionKeyName));
-        try {
-            return (Primary) field.get(entry);
-        } catch (IllegalAccessException e) {
-            throw new FieldAccessException(field.getName(), entry.getClass().getName(), e);
-        }
+        return (Primary) codec.partitionKey.get(entry);
     }
 
     private String getSortKeyValue(Entry entry) {
-        return getValue(entry, sortKeyMapping.get(sortKeyName)).toString();
-    }
-
-    private Object getValue(Entry entry, String fieldName) {
-        try {
-            Field field = getField(entry, fieldName);
-            return converters.toObject(field.get(entry));
-        } catch (IllegalAccessException e) {
-            throw new FieldAccessException(fieldName, entry.getClass().getName(), e);
-        }
-    }
-
-    private Field getField(Entry entry, String fieldName) {
-        try {
-            return entry.getClass().getField(fieldName);
-        } catch (NoSuchFieldException e) {
-            throw new FieldAccessException(fieldName, entry.getClass().getName(), e);
-        }
-    }
-
-    private String getFieldName(String attributeName) {
-        if (attributeName.equals(partitionKeyName.toString())) {
-            return partitionKeyMapping.get(partitionKeyName);
-        } else if (attributeName.endsWith(sortKeyName.toString())) {
-            return sortKeyMapping.get(sortKeyName);
-        } else {
-            return attributeMappings.get(Integer.valueOf(attributeName));
-        }
+        return codec.sortKey.getConverted(entry).toString();
     }
 
     @Override
@@ -482,6 +585,7 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
         try {
             return stream()
                     .uniquePrimaryKey()
+                    .project()
                     .toJavaStream()
                     .map(this::getUnconvertedPartitionKeyValue)
                     .collect(Collectors.toSet());
@@ -490,6 +594,22 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
         }
     }
 
+    /**
+     * Split scans into {@code totalSegments} segments that are scanned in parallel on the {@code executor}.
+     * Queries, i.e. streams with a partition key condition, are not affected. Each segment reads at most
+     * {@value ParallelScanSpliterator#PAGES_AHEAD} pages of up to 1 MB ahead of the consumer of the stream.
+     *
+     * @param totalSegments number of segments to split a scan into, 1 disables parallel scans
+     * @param executor executor to scan the segments on, which bounds how many segments are scanned at the same time
+     */
+    public void enableParallelScan(int totalSegments, Executor executor) {
+        if (totalSegments < 1) {
+            throw new IllegalArgumentException(String.format("The number of scan segments must be at least 1, but was %d", totalSegments));
+        }
+        this.totalSegments = totalSegments;
+        this.scanExecutor = Optional.of(executor);
+    }
+
     @Override
     public KVStream<Entry> stream() {
         return new KVStream<>(new DynamoDBExecutor(readWriteLock));
@@ -509,42 +629,19 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
 
         @Override
         public Stream<Entry> toJavaStream(SecretEventStream.Filter<Entry> filter) {
-            readWriteLock.readLock().lock();
-
-            try {
-                Stream<Entry> s = stream(filter);
-
-                // TODO: performance? If we do not look at all the elements at this point, we might throw away the ones that are malicious without knowing later
-                List<Entry> copy = s.collect(Collectors.toList());
-
-                // Perform local checks to verify that the server is not visibly misbehaving
-                if (filter.parsedKeyCondition.isPresent()) {
-                    copy.forEach(entry -> {
-                        if (!filter.parsedKeyCondition.get().evaluate(entry)) {
-                            throw new PotentiallyMaliciousDataException(
-                                    "The data returned from the server does not match the search expression!");
-                        }});
-                }
-
-                if (filter.parsedAttributeCondition.isPresent()) {
-                    copy.forEach(entry -> {
-                        if (!filter.parsedAttributeCondition.get().evaluate(entry)) {
-                            throw new PotentiallyMaliciousDataException(
-                                    "The data returned from the server does not match the search expression!");
-                        }});
-                }
-
+            // The conditions are compiled once for the query, and reused for every page and entry
+            Stream<Entry> result = stream(filter, ConditionCompiler.compile(filter, codec));
 
-                Stream<Entry> result = copy.stream();
-
-                if (filter.unique) {
-                    result = result.filter(distinctByKey(e -> getPartitionKeyValue(e)));
-                }
+            if (filter.unique) {
+                result = result.filter(distinctByKey(e -> getPartitionKeyValue(e)));
+            }
 
-                return result;
-            } finally {
-                readWriteLock.readLock().unlock();
+            if (filter.limit.isPresent()) {
+                // Stops fetching pages once enough entries have been found
+                result = result.limit(filter.limit.get());
             }
+
+            return result;
         }
 
         private <T> Predicate<T> distinctByKey(Function<? super T,Object> keyExtractor) {
@@ -552,177 +649,335 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
             return t -> seen.putIfAbsent(keyExtractor.apply(t), Boolean.TRUE) == null;
         }
 
-        private Stream<Entry> stream(SecretEventStream.Filter<Entry> filter) {
+        private Stream<Entry> stream(SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled) {
+            if (getItemAllowed && filter.parsedKeyCondition.isPresent() && filter.parsedKeyCondition.get() instanceof RSEF.KeyAND) {
+                RSEF.KeyAND<Entry> keyCondition = (RSEF.KeyAND<Entry>) filter.parsedKeyCondition.get();
+                Optional<?> sortKey = keyCondition.exactSortKey();
+
+                if (sortKey.isPresent()) {
+                    Optional<Stream<Entry>> entry = getItem(filter, compiled, keyCondition.left.right.value, sortKey.get());
+                    if (entry.isPresent()) {
+                        return entry.get();
+                    }
+                }
+            }
+
             if (filter.parsedKeyCondition.isPresent()) {
-                return query(filter);
+                return query(filter, compiled);
             } else if (filter.parsedAttributeCondition.isPresent()) {
-                return scan(filter, converters);
+                return scan(filter, compiled, converters);
             } else {
-                return all();
+                return all(filter, compiled);
             }
         }
 
-        private Stream<Entry> query(SecretEventStream.Filter<Entry> filter) {
-            QueryRequest queryRequest = new QueryRequest();
-            queryRequest.withTableName(tableName);
-            queryRequest.withConsistentRead(true);
-
-            if (filter.reverse) {
-                queryRequest.setScanIndexForward(false);
+        /**
+         * Converts a page of items and performs local checks to verify that the server is not visibly misbehaving.
+         * The checks are done for the whole page before any of its entries are handed out, so that a malicious
+         * entry is detected before the caller acts on the other entries of the same page.
+         */
+        private List<Entry> toVerifiedEntries(List<Map<String, AttributeValue>> items, SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled) {
+            boolean verifyOptimisticLock = !isPartial(filter);
+            List<Entry> entries = items.stream().map(item -> fromMap(item, verifyOptimisticLock)).collect(Collectors.toList());
+
+            if (compiled.keyCondition.isPresent()) {
+                Predicate<Entry> keyCondition = compiled.keyCondition.get();
+                entries.forEach(entry -> {
+                    if (!keyCondition.test(entry)) {
+                        throw new PotentiallyMaliciousDataException(
+                                "The data returned from the server does not match the search expression!");
+                    }});
             }
 
-            KeyExpressionGenerator keyExpressionGenerator = new KeyExpressionGenerator();
+            if (compiled.attributeCondition.isPresent()) {
+                Predicate<Entry> attributeCondition = compiled.attributeCondition.get();
+                entries.forEach(entry -> {
+                    if (!attributeCondition.test(entry)) {
+                        throw new PotentiallyMaliciousDataException(
+                                "The data returned from the server does not match the search expression!");
+                    }});
+            }
 
-            KeyExpressionGenerator.KeyCondition keyExpression = keyExpressionGenerator.process(filter.parsedKeyCondition.get(), converters);
-            Map<String, String> expressionAttributeNames = keyExpression.expressionAttributeNames;
-            Map<String, AttributeValue> expressionAttributeValues = keyExpression.expressionAttributeValues;
+            return entries;
+        }
 
-            if (filter.parsedAttributeCondition.isPresent()) {
-                FilterGenerator filterGenerator = new FilterGenerator(expressionAttributeValues.size()+1);
-                FilterGenerator.Filter generated = filterGenerator.process(filter.parsedAttributeCondition.get(), converters);
+        /**
+         * Fetch a single entry by its keys, which costs one read instead of a query.
+         *
+         * @return the entry, if it matches the attribute condition, or empty if GetItem is not allowed by the
+         * policy of the caller, in which case the caller should fall back to a query
+         */
+        private Optional<Stream<Entry>> getItem(SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled, Object partitionKey, Object sortKey) {
+            Map<String, AttributeValue> key = new HashMap<>();
+            key.put(partitionKeyName.toString(), toAttributeValue(partitionKey));
+            key.put(sortKeyName.toString(), toAttributeValue(sortKey));
+
+            GetItemRequest getItemRequest = new GetItemRequest()
+                    .withTableName(tableName)
+                    .withConsistentRead(true)
+                    .withKey(key);
+
+            if (filter.projection.isPresent()) {
+                Collection<String> filterAttributeNames = filter.parsedAttributeCondition.isPresent()
+                        ? scanTemplate(filter.parsedAttributeCondition.get()).expressionAttributeNames.values()
+                        : new ArrayList<>();
+                Map<String, String> projectionAttributeNames = projectionAttributeNames(filter, filterAttributeNames);
+                getItemRequest.withExpressionAttributeNames(projectionAttributeNames);
+                getItemRequest.withProjectionExpression(projectionExpression(projectionAttributeNames));
+            }
 
-                if(!generated.expressionAttributeNames.isEmpty()) {
-                    expressionAttributeNames = FilterGenerator.merge(expressionAttributeNames, generated.expressionAttributeNames);
+            GetItemResult result;
+            try {
+                result = withReadLock(() -> client.getItem(getItemRequest));
+            } catch (AmazonDynamoDBException e) {
+                if (ACCESS_DENIED_ERROR_CODE.equals(e.getErrorCode())) {
+                    log.debug("Not allowed to use GetItem on '{}', falling back to queries", tableName);
+                    getItemAllowed = false;
+                    return Optional.empty();
                 }
+                throw e;
+            }
 
-                if (!generated.expressionAttributeValues.isEmpty()) {
-                    expressionAttributeValues = FilterGenerator.merge(expressionAttributeValues, generated.expressionAttributeValues);
-                }
+            if (result.getItem() == null) {
+                return Optional.of(Stream.empty());
+            }
 
-                queryRequest.withFilterExpression(generated.filterExpression);
+            Entry entry = fromMap(result.getItem(), !isPartial(filter));
+            if (!compiled.keyCondition.get().test(entry)) {
+                throw new PotentiallyMaliciousDataException(
+                        "The data returned from the server does not match the search expression!");
             }
 
-            queryRequest.withExpressionAttributeNames(expressionAttributeNames);
-            queryRequest.withExpressionAttributeValues(expressionAttributeValues);
-            queryRequest.withKeyConditionExpression(keyExpression.keyConditionExpression);
+            // GetItem does not take a filter expression, so the attribute condition is evaluated here instead
+            if (compiled.attributeCondition.isPresent() && !compiled.attributeCondition.get().test(entry)) {
+                return Optional.of(Stream.empty());
+            }
+
+            return Optional.of(Stream.of(entry));
+        }
 
-            QueryResult result = client.query(queryRequest);
+        private AttributeValue toAttributeValue(Object value) {
+            String converted = converters.to(value);
+            return value instanceof Long
+                    ? new AttributeValue().withN(converted)
+                    : new AttributeValue().withS(converted);
+        }
+
+        private Stream<Entry> query(SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled) {
+            QueryRequest queryRequest = new QueryRequest();
+            queryRequest.withTableName(tableName);
+            queryRequest.withConsistentRead(true);
 
-            List<Map<String, AttributeValue>> results = new ArrayList<>();
+            if (filter.reverse) {
+                queryRequest.setScanIndexForward(false);
+            }
+
+            // The limit is applied before the filter expression, so a page may come back with fewer matching entries,
+            // or none, in which case the next page is fetched
+            if (filter.limit.isPresent()) {
+                queryRequest.withLimit(filter.limit.get());
+            }
 
-            results.addAll(result.getItems());
+            QueryShape keyShape = QueryShape.of(filter.parsedKeyCondition.get());
+            Optional<QueryShape> attributeShape = filter.parsedAttributeCondition.map(QueryShape::of);
+            ExpressionTemplate template = expressionTemplate(
+                    "query " + keyShape.key + attributeShape.map(shape -> " filter " + shape.key).orElse(""),
+                    () -> ExpressionTemplate.forQuery(filter.parsedKeyCondition.get(), filter.parsedAttributeCondition, converters));
 
-            while (result.getLastEvaluatedKey() != null) {
-                queryRequest = queryRequest.withExclusiveStartKey(result.getLastEvaluatedKey());
+            Map<String, String> expressionAttributeNames = template.expressionAttributeNames;
+            Map<String, AttributeValue> expressionAttributeValues = template.bind(keyShape.literals,
+                    attributeShape.map(shape -> shape.literals).orElse(Collections.emptyList()), converters);
 
-                result = client.query(queryRequest);
+            if (template.filterExpression.isPresent()) {
+                queryRequest.withFilterExpression(template.filterExpression.get());
+            }
 
-                results.addAll(result.getItems());
+            if (filter.projection.isPresent()) {
+                Map<String, String> projectionAttributeNames = projectionAttributeNames(filter, expressionAttributeNames.values());
+                expressionAttributeNames = FilterGenerator.merge(expressionAttributeNames, projectionAttributeNames);
+                queryRequest.withProjectionExpression(projectionExpression(projectionAttributeNames));
             }
 
-            return results.stream().map(this::fromMap);
+            queryRequest.withExpressionAttributeNames(expressionAttributeNames);
+            queryRequest.withExpressionAttributeValues(expressionAttributeValues);
+            queryRequest.withKeyConditionExpression(template.keyConditionExpression.get());
+
+            return PageSpliterator.stream(exclusiveStartKey -> {
+                QueryResult result = withReadLock(() -> client.query(queryRequest.withExclusiveStartKey(exclusiveStartKey)));
+                return new PageSpliterator.Page<>(toVerifiedEntries(result.getItems(), filter, compiled), result.getLastEvaluatedKey());
+            });
         }
 
-        private Stream<Entry> scan(SecretEventStream.Filter<Entry> filter, Converters converters) {
+        private Stream<Entry> scan(SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled, Converters converters) {
             ScanRequest scanRequest = new ScanRequest();
             scanRequest.withConsistentRead(true);
             scanRequest.withTableName(tableName);
 
-            FilterGenerator filterGenerator = new FilterGenerator();
-            FilterGenerator.Filter generated = filterGenerator.process(filter.parsedAttributeCondition.get(), converters);
+            QueryShape attributeShape = QueryShape.of(filter.parsedAttributeCondition.get());
+            ExpressionTemplate template = expressionTemplate("scan " + attributeShape.key,
+                    () -> ExpressionTemplate.forScan(filter.parsedAttributeCondition.get(), converters));
 
-            if(!generated.expressionAttributeNames.isEmpty()) {
-                scanRequest.withExpressionAttributeNames(generated.expressionAttributeNames);
+            Map<String, String> expressionAttributeNames = template.expressionAttributeNames;
+            Map<String, AttributeValue> expressionAttributeValues = template.bind(Collections.emptyList(), attributeShape.literals, converters);
+            if (filter.projection.isPresent()) {
+                Map<String, String> projectionAttributeNames = projectionAttributeNames(filter, expressionAttributeNames.values());
+                expressionAttributeNames = FilterGenerator.merge(expressionAttributeNames, projectionAttributeNames);
+                scanRequest.withProjectionExpression(projectionExpression(projectionAttributeNames));
             }
 
-            if (!generated.expressionAttributeValues.isEmpty()) {
-                scanRequest.withExpressionAttributeValues(generated.expressionAttributeValues);
+            if(!expressionAttributeNames.isEmpty()) {
+                scanRequest.withExpressionAttributeNames(expressionAttributeNames);
             }
 
-            scanRequest.withFilterExpression(generated.filterExpression);
-
-            ScanResult result = client.scan(scanRequest);
-
-            List<Map<String, AttributeValue>> results = new ArrayList<>();
-            results.addAll(result.getItems());
-
-            while (result.getLastEvaluatedKey() != null) {
-                scanRequest = scanRequest.withExclusiveStartKey(result.getLastEvaluatedKey());
-
-                result = client.scan(scanRequest);
-
-                results.addAll(result.getItems());
+            if (!expressionAttributeValues.isEmpty()) {
+                scanRequest.withExpressionAttributeValues(expressionAttributeValues);
             }
 
-            Stream<Entry> typedResult = results.stream().map(this::fromMap);
+            scanRequest.withFilterExpression(template.filterExpression.get());
+
+            Stream<Entry> typedResult = scanPages(scanRequest, filter, compiled);
 
             if (filter.reverse) {
-                typedResult = Lists.reverse(typedResult.collect(Collectors.toCollection(LinkedList::new))).stream();
+                // A scan has no order to reverse page by page, so all the pages have to be read
+                typedResult = Lists.reverse(typedResult.collect(Collectors.toList())).stream();
             }
 
             return typedResult;
         }
 
-        private Stream<Entry> all() {
+        private ExpressionTemplate scanTemplate(RSEF.ParsedAttributeCondition<Entry> attributeCondition) {
+            return expressionTemplate("scan " + QueryShape.of(attributeCondition).key,
+                    () -> ExpressionTemplate.forScan(attributeCondition, converters));
+        }
+
+        private ExpressionTemplate expressionTemplate(String shape, Callable<ExpressionTemplate> generator) {
+            try {
+                return expressionTemplates.get(shape, generator);
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new IllegalStateException("Failed to generate the expressions for " + shape, e.getCause());
+            }
+        }
+
+        private Stream<Entry> all(SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled) {
             ScanRequest scanRequest = new ScanRequest();
             scanRequest.withConsistentRead(true);
             scanRequest.withTableName(tableName);
 
-            ScanResult result = client.scan(scanRequest);
-
-            List<Map<String, AttributeValue>> results = new ArrayList<>();
-            results.addAll(result.getItems());
+            if (filter.projection.isPresent()) {
+                Map<String, String> projectionAttributeNames = projectionAttributeNames(filter, new ArrayList<>());
+                scanRequest.withExpressionAttributeNames(projectionAttributeNames);
+                scanRequest.withProjectionExpression(projectionExpression(projectionAttributeNames));
+            }
 
-            while (result.getLastEvaluatedKey() != null) {
-                scanRequest = scanRequest.withExclusiveStartKey(result.getLastEvaluatedKey());
+            // Parallel scans read all the segments anyway, so a limit would only add requests
+            if (filter.limit.isPresent() && totalSegments == 1) {
+                scanRequest.withLimit(filter.limit.get());
+            }
 
-                result = client.scan(scanRequest);
+            return scanPages(scanRequest, filter, compiled);
+        }
 
-                results.addAll(result.getItems());
+        /**
+         * The keys, the projected attributes and the attributes referenced by the filter are fetched, as the filter
+         * is also evaluated locally to verify the response. The optimistic lock is only fetched if all the
+         * attributes are, as it can not be verified without the encrypted payload.
+         */
+        private Map<String, String> projectionAttributeNames(SecretEventStream.Filter<Entry> filter, Collection<String> filterAttributeNames) {
+            Set<String> attributeNames = new TreeSet<>(filterAttributeNames);
+            attributeNames.add(partitionKeyName.toString());
+            attributeNames.add(sortKeyName.toString());
+            filter.projection.get().forEach(position -> attributeNames.add(position.toString()));
+
+            if (!isPartial(filter)) {
+                attributeNames.add(OPTIMISTIC_LOCK_FIELD_NAME);
             }
 
+            Map<String, String> expressionAttributeNames = new LinkedHashMap<>();
+            attributeNames.forEach(attributeName -> expressionAttributeNames.put("#p" + attributeName, attributeName));
+            return expressionAttributeNames;
+        }
 
-            return results.stream().map(this::fromMap);
+        private String projectionExpression(Map<String, String> projectionAttributeNames) {
+            return String.join(", ", projectionAttributeNames.keySet());
         }
 
-        private Entry fromMap(Map<String, AttributeValue> map) {
-            String optimisticLock = "";
+        private boolean isPartial(SecretEventStream.Filter<Entry> filter) {
+            return filter.projection.isPresent() && !filter.projection.get().containsAll(attributeMappings.keySet());
+        }
 
-            try {
-                Entry result = clazz.newInstance();
-
-                // TODO: need to loop over spec, not what was returned
-                for (Map.Entry<String, AttributeValue> entry : map.entrySet()) {
-                    if (entry.getKey().equals(SCHEMA_VERSION_FIELD_NAME)) {
-                        if (!entry.getValue().getN().equals(SCHEMA_VERSION)) {
-                            throw new IllegalArgumentException(String.format("Expected version %s got version %s", SCHEMA_VERSION, entry.getValue().getS()));
-                        }
-                        continue;
-                    }
-                    if (entry.getKey().equals(OPTIMISTIC_LOCK_FIELD_NAME)) {
-                        optimisticLock = entry.getValue().getS();
-                        continue;
-                    }
+        private Stream<Entry> scanPages(ScanRequest scanRequest, SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled) {
+            if (totalSegments > 1) {
+                return parallelScanPages(scanRequest, filter, compiled);
+            }
 
-                    String fieldName = getFieldName(entry.getKey());
-                    try {
+            return PageSpliterator.stream(exclusiveStartKey -> withReadLock(() -> scanPage(scanRequest, filter, compiled, exclusiveStartKey)));
+        }
 
-                        Field field = clazz.getField(fieldName);
+        private PageSpliterator.Page<Entry> scanPage(ScanRequest scanRequest, SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled, Map<String, AttributeValue> exclusiveStartKey) {
+            ScanResult result = client.scan(scanRequest.withExclusiveStartKey(exclusiveStartKey));
+            return new PageSpliterator.Page<>(toVerifiedEntries(result.getItems(), filter, compiled), result.getLastEvaluatedKey());
+        }
 
-                        AttributeValue v = entry.getValue();
+        /**
+         * Scan all the segments in parallel and concatenate them in segment order. All the entries with the same
+         * partition key are in the same segment, ordered by sort key, so reversing the result still yields the
+         * entries of each partition key in descending order.
+         *
+         * The segments are read lazily, a few pages ahead of the consumer, see {@link ParallelScanSpliterator}.
+         */
+        private Stream<Entry> parallelScanPages(ScanRequest scanRequest, SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled) {
+            List<Function<Map<String, AttributeValue>, PageSpliterator.Page<Entry>>> segments = new ArrayList<>(totalSegments);
+            for (int segment = 0; segment < totalSegments; segment++) {
+                ScanRequest segmentRequest = scanRequest.clone()
+                        .withSegment(segment)
+                        .withTotalSegments(totalSegments);
+                segments.add(exclusiveStartKey -> scanPage(segmentRequest, filter, compiled, exclusiveStartKey));
+            }
 
-                        String value = getValueAsString(v);
+            return ParallelScanSpliterator.stream(segments, scanExecutor.get(), readWriteLock.readLock());
+        }
+
+        private <T> T withReadLock(Supplier<T> request) {
+            readWriteLock.readLock().lock();
+
+            try {
+                return request.get();
+            } finally {
+                readWriteLock.readLock().unlock();
+            }
+        }
 
-                        Object fieldValue;
-                        if (field.getType().equals(Optional.class)) {
-                            ParameterizedType type = (ParameterizedType) field.getGenericType();
-                            Class<?> unpackedFieldType = (Class<?>) type.getActualTypeArguments()[0];
-                            fieldValue = getFieldValue(value, unpackedFieldType, true);
-                        } else {
-                            fieldValue = getFieldValue(value, field.getType(), false);
-                        }
+        private Entry fromMap(Map<String, AttributeValue> map, boolean verifyOptimisticLock) {
+            String optimisticLock = "";
 
-                        field.set(result, fieldValue);
-                    } catch (NoSuchFieldException | IllegalAccessException e) {
-                        throw new FieldAccessException(fieldName, entry.getClass().getName(), e);
+            Entry result = codec.newInstance();
+
+            // TODO: need to loop over spec, not what was returned
+            for (Map.Entry<String, AttributeValue> entry : map.entrySet()) {
+                if (entry.getKey().equals(SCHEMA_VERSION_FIELD_NAME)) {
+                    if (!entry.getValue().getN().equals(SCHEMA_VERSION)) {
+                        throw new IllegalArgumentException(String.format("Expected version %s got version %s", SCHEMA_VERSION, entry.getValue().getS()));
                     }
+                    continue;
+                }
+                if (entry.getKey().equals(OPTIMISTIC_LOCK_FIELD_NAME)) {
+                    optimisticLock = entry.getValue().getS();
+                    continue;
                 }
+
+                FieldCodec<Entry> field = fieldsByAttributeName.get(entry.getKey());
+                if (field == null) {
+                    throw new ParseException(String.format("Unrecognized attribute '%s'", entry.getKey()));
+                }
+
+                String value = getValueAsString(entry.getValue());
+                field.set(result, getFieldValue(value, field));
+            }
+            if (verifyOptimisticLock) {
                 verify(result, optimisticLock);
-                return result;
-            } catch (InstantiationException | IllegalAccessException e) {
-                throw new ParseException("Failed to instantiate class", e);
             }
-
+            return result;
         }
 
         void verify(Entry entry, String optimisticLock) {
@@ -731,27 +986,23 @@ public class GenericDynamoDB<Entry, Primary> implements GenericStore<Entry, Prim
             }
         }
 
-        private Object getFieldValue(Object value, Class<?> type, boolean isOptional) {
-            Class<?> clz = converters.getConvertedType(type);
+        private Object getFieldValue(String value, FieldCodec<Entry> field) {
+            Class<?> clz = field.convertedType;
 
             Object v;
             if (clz.equals(String.class)) {
                 v = value;
             } else if (clz.equals(Long.class)) {
-                v = Long.valueOf((String)value);
+                v = Long.valueOf(value);
             } else if (clz.equals(Byte.class)) {
-                v = Byte.valueOf((String) value);
+                v = Byte.valueOf(value);
             } else if (clz.equals(byte[].class)) {
-                v = Encoder.base64decode((String)value);
+                v = Encoder.base64decode(value);
             } else {
-                throw new IllegalArgumentException(String.format("Unrecognized type '%s'", type.getName()));
+                throw new IllegalArgumentException(String.format("Unrecognized type '%s'", field.type.getName()));
             }
 
-            if (isOptional) {
-                return converters.fromOptionalObject(v, type);
-            } else {
-                return converters.fromObject(v, type);
-            }
+            return field.fromConverted(v);
         }
 
         private String getValueAsString(AttributeValue attributeValue) {
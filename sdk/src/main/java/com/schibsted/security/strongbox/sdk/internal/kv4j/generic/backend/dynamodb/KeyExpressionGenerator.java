@@ -83,16 +83,8 @@ public class KeyExpressionGenerator {
             RSEF.TypedLiteral<T> current = (RSEF.TypedLiteral<T>) typedTerm;
 
             String placeHolderName = String.format(":%s", FilterGenerator.convertNumberToLetters(count++));
-            String value = converters.to(current.value);
             Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
-            AttributeValue attributeValue = new AttributeValue();
-
-            if (current.value instanceof Long) {
-                attributeValue.setN(value);
-            } else {
-                attributeValue.setS(value);
-            }
-            expressionAttributeValues.put(placeHolderName, attributeValue);
+            expressionAttributeValues.put(placeHolderName, toAttributeValue(current.value, converters));
 
             return new KeyCondition(placeHolderName, expressionAttributeValues);
         } else {
@@ -100,6 +92,18 @@ public class KeyExpressionGenerator {
         }
     }
 
+    public static AttributeValue toAttributeValue(Object literal, Converters converters) {
+        String value = converters.to(literal);
+        AttributeValue attributeValue = new AttributeValue();
+
+        if (literal instanceof Long) {
+            attributeValue.setN(value);
+        } else {
+            attributeValue.setS(value);
+        }
+        return attributeValue;
+    }
+
     public static class KeyCondition {
         public final Map<String, String> expressionAttributeNames;
         public final Map<String, AttributeValue> expressionAttributeValues;
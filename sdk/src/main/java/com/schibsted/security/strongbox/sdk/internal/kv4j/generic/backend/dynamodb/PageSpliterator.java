@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the items of a paginated DynamoDB query or scan, fetching the next page only when
+ * the items of the current page have been consumed
+ */
+class PageSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+    private final Function<Map<String, AttributeValue>, Page<T>> fetchPage;
+    private Iterator<T> current = Collections.emptyIterator();
+    private Map<String, AttributeValue> lastEvaluatedKey = null;
+    private boolean hasMorePages = true;
+
+    /**
+     * @param fetchPage fetches the page starting after the given key, which is {@code null} for the first page
+     */
+    PageSpliterator(Function<Map<String, AttributeValue>, Page<T>> fetchPage) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.fetchPage = fetchPage;
+    }
+
+    static <T> Stream<T> stream(Function<Map<String, AttributeValue>, Page<T>> fetchPage) {
+        return StreamSupport.stream(new PageSpliterator<>(fetchPage), false);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (!current.hasNext()) {
+            if (!hasMorePages) {
+                return false;
+            }
+
+            Page<T> page = fetchPage.apply(lastEvaluatedKey);
+            current = page.items.iterator();
+            lastEvaluatedKey = page.lastEvaluatedKey;
+            hasMorePages = lastEvaluatedKey != null;
+        }
+
+        action.accept(current.next());
+        return true;
+    }
+
+    static class Page<T> {
+        final List<T> items;
+        final Map<String, AttributeValue> lastEvaluatedKey;
+
+        Page(List<T> items, Map<String, AttributeValue> lastEvaluatedKey) {
+            this.items = items;
+            this.lastEvaluatedKey = lastEvaluatedKey;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the items of a parallel DynamoDB scan, one segment after the other in segment order. The segments
+ * are scanned concurrently on the executor, but each segment only fetches up to {@link #PAGES_AHEAD} pages that
+ * have not been consumed yet, so at most {@code segments * PAGES_AHEAD} pages are held in memory at a time.
+ *
+ * A segment only fetches its next page once the previous one has arrived, so the executor never has a thread
+ * waiting on the consumer. Closing the stream stops the segments from fetching more pages, and a stream that is
+ * abandoned without being closed stops fetching once the pages ahead are full.
+ */
+class ParallelScanSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+    static final int PAGES_AHEAD = 2;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final Executor executor;
+    private final Lock readLock;
+
+    private volatile boolean closed = false;
+    private boolean started = false;
+    private int currentSegment = 0;
+    private Iterator<T> current = Collections.emptyIterator();
+
+    /**
+     * @param segments fetches the page of each segment starting after the given key, which is {@code null} for the first page
+     * @param executor executor to fetch the pages on
+     * @param readLock lock held by the consumer while it waits for a page, but not by the threads fetching them, as
+     *                 they would deadlock with a writer queued behind a consumer that already holds it
+     */
+    ParallelScanSpliterator(List<Function<Map<String, AttributeValue>, PageSpliterator.Page<T>>> segments, Executor executor, Lock readLock) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        segments.forEach(fetchPage -> this.segments.add(new Segment(fetchPage)));
+        this.executor = executor;
+        this.readLock = readLock;
+    }
+
+    static <T> Stream<T> stream(List<Function<Map<String, AttributeValue>, PageSpliterator.Page<T>>> segments, Executor executor, Lock readLock) {
+        ParallelScanSpliterator<T> spliterator = new ParallelScanSpliterator<>(segments, executor, readLock);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (!started) {
+            started = true;
+            segments.forEach(Segment::fetchAhead);
+        }
+
+        while (!current.hasNext()) {
+            if (closed || currentSegment == segments.size()) {
+                return false;
+            }
+
+            Segment segment = segments.get(currentSegment);
+            Fetched fetched = next(segment);
+            current = fetched.page.items.iterator();
+            if (fetched.last) {
+                currentSegment++;
+            }
+        }
+
+        action.accept(current.next());
+        return true;
+    }
+
+    private Fetched next(Segment segment) {
+        readLock.lock();
+
+        try {
+            return segment.next();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while waiting for the scan", e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Stop fetching pages. Requests that are already running complete, but their pages are dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        segments.forEach(Segment::clear);
+    }
+
+    private final class Segment {
+        private final Function<Map<String, AttributeValue>, PageSpliterator.Page<T>> fetchPage;
+        private final BlockingQueue<Fetched> fetched = new LinkedBlockingQueue<>();
+
+        // Guarded by this
+        private Map<String, AttributeValue> nextKey = null;
+        private boolean fetching = false;
+        private boolean done = false;
+        private int ahead = 0;
+
+        Segment(Function<Map<String, AttributeValue>, PageSpliterator.Page<T>> fetchPage) {
+            this.fetchPage = fetchPage;
+        }
+
+        /**
+         * Fetch the next page, unless one is already being fetched or enough pages are waiting to be consumed
+         */
+        synchronized void fetchAhead() {
+            if (closed || done || fetching || ahead >= PAGES_AHEAD) {
+                return;
+            }
+
+            fetching = true;
+            Map<String, AttributeValue> exclusiveStartKey = nextKey;
+            try {
+                executor.execute(() -> fetch(exclusiveStartKey));
+            } catch (RejectedExecutionException e) {
+                fail(e);
+            }
+        }
+
+        private void fetch(Map<String, AttributeValue> exclusiveStartKey) {
+            if (closed) {
+                return;
+            }
+
+            PageSpliterator.Page<T> page;
+            try {
+                page = fetchPage.apply(exclusiveStartKey);
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+
+            synchronized (this) {
+                fetching = false;
+                nextKey = page.lastEvaluatedKey;
+                done = nextKey == null;
+                ahead++;
+                fetched.add(new Fetched(page, done, null));
+            }
+            fetchAhead();
+        }
+
+        private synchronized void fail(RuntimeException e) {
+            fetching = false;
+            done = true;
+            fetched.add(new Fetched(null, true, e));
+        }
+
+        Fetched next() throws InterruptedException {
+            Fetched next = fetched.take();
+            if (next.failure != null) {
+                throw next.failure;
+            }
+
+            synchronized (this) {
+                ahead--;
+            }
+            fetchAhead();
+            return next;
+        }
+
+        void clear() {
+            fetched.clear();
+        }
+    }
+
+    private final class Fetched {
+        final PageSpliterator.Page<T> page;
+        final boolean last;
+        final RuntimeException failure;
+
+        Fetched(PageSpliterator.Page<T> page, boolean last, RuntimeException failure) {
+            this.page = page;
+            this.last = last;
+            this.failure = failure;
+        }
+    }
+}
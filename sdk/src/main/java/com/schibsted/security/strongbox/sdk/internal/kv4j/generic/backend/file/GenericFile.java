@@ -4,56 +4,92 @@
 
 package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.file;
 
-import com.google.common.collect.Lists;
 import com.schibsted.security.strongbox.sdk.internal.encryption.BestEffortShredder;
 import com.schibsted.security.strongbox.sdk.internal.encryption.EncryptionContext;
 import com.schibsted.security.strongbox.sdk.internal.encryption.Encryptor;
 import com.schibsted.security.strongbox.sdk.exceptions.AlreadyExistsException;
 import com.schibsted.security.strongbox.sdk.exceptions.DoesNotExistException;
-import com.schibsted.security.strongbox.sdk.exceptions.FieldAccessException;
-import com.schibsted.security.strongbox.sdk.exceptions.NoFieldMatchingAnnotationException;
 import com.schibsted.security.strongbox.sdk.exceptions.ParseException;
+import com.schibsted.security.strongbox.sdk.exceptions.PotentiallyMaliciousDataException;
 import com.schibsted.security.strongbox.sdk.exceptions.SerializationException;
 import com.schibsted.security.strongbox.sdk.exceptions.StateCorruptionException;
 import com.schibsted.security.strongbox.sdk.exceptions.UnexpectedStateException;
 import com.schibsted.security.strongbox.sdk.exceptions.UnsupportedTypeException;
 import com.schibsted.security.strongbox.sdk.internal.converter.Encoder;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.GenericStore;
-import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.annotation.PartitionKey;
-import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.annotation.Attribute;
-import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.annotation.SortKey;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec.EntryCodec;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec.FieldCodec;
 import com.schibsted.security.strongbox.sdk.internal.converter.Converters;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.ConditionCompiler;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.KVStream;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.RSEF;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.SecretEventStream;
 import com.schibsted.security.strongbox.sdk.internal.interfaces.ManagedResource;
+import com.schibsted.security.strongbox.sdk.types.FileStoreFormat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Manage files and store/retrieve data entries
  *
+ * Version 1 files hold all the entries in a single encrypted blob. Version 2 files are an append-only log of
+ * individually encrypted records: a snapshot of all the entries, followed by one record per change made since.
+ * Version 3 files replace the snapshot with one encrypted record per entry and an encrypted index of the keys and
+ * the offsets of those records. Opening a version 3 file only decrypts the index and the records appended after
+ * it; the file is memory mapped and an entry is decrypted the first time a query needs more than its keys.
+ * As every entry is encrypted separately, writing a version 3 snapshot costs an encryption per entry, and so does
+ * decrypting the entries, i.e. a KMS call each unless the encryptor caches data keys.
+ *
+ * The log is compacted into a new snapshot when it has more records than there are entries.
+ *
+ * Files are written in the format they were read in, and new files in version 1, which every version of the SDK
+ * and CLI can read. A file is only converted when a {@link FileStoreFormat} is given, on its first change.
+ * Changes to version 2 and 3 files are written as they are made, while version 1 files, which have to be
+ * re-encrypted and rewritten as a whole, are only written on {@link #close()}.
+ *
  * @author stiankri
  * @author kvlees
  */
 public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Secondary>> implements GenericStore<Entry, Primary>, AutoCloseable, ManagedResource {
-    Map<Primary, Map<Secondary, Entry>> store = new HashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(GenericFile.class);
+    private static final byte LOG_SERIALIZATION_VERSION = 2;
+    private static final byte INDEXED_SERIALIZATION_VERSION = 3;
+    private static final byte SNAPSHOT_RECORD = 0;
+    private static final byte PUT_RECORD = 1;
+    private static final byte DELETE_RECORD = 2;
+    private static final byte ENTRY_RECORD = 3;
+    private static final byte INDEX_RECORD = 4;
+    private static final int HEADER_SIZE = 1 + 4;
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 64;
+
+    // Both maps are concurrent, so lazy streams can iterate over them after the executor releases the read lock.
+    // The versions are ordered by sort key.
+    volatile Map<Primary, NavigableMap<Secondary, Slot>> store = new ConcurrentHashMap<>();
     Converters converters;
     Class<Entry> clazz;
     File file;
@@ -61,8 +97,16 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
     private final byte SERIALIZATION_VERSION = 1;
     private final byte VERSION = 1;
 
-    List<String> fieldNames = new ArrayList<>();
-    Map<String, Integer> padding = new HashMap<>();
+    EntryCodec<Entry> codec;
+
+    private final Optional<FileStoreFormat> targetFormat;
+    private FileStoreFormat format = FileStoreFormat.SINGLE_BLOB;
+
+    // Whether changes can be appended to the file, i.e. it is a complete version 2 or 3 log in the format to write
+    private boolean appendable = false;
+    private int recordsSinceSnapshot = 0;
+    // Whether there are changes that have not been written, which only happens for version 1 files
+    private boolean modified = false;
 
     private Encryptor encryptor;
     private EncryptionContext encryptionContext;
@@ -73,39 +117,33 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
                        EncryptionContext encryptionContext,
                        Class<Entry> clazz,
                        ReadWriteLock readWriteLock) {
+        this(path, converters, encryptor, encryptionContext, clazz, readWriteLock, Optional.empty());
+    }
+
+    /**
+     * @param targetFormat the format to write the file in, converting it on its first change if it is in another
+     *                     format. If empty, the file is kept in the format it is in, and a new file is written in
+     *                     {@link FileStoreFormat#SINGLE_BLOB}.
+     */
+    public GenericFile(java.io.File path,
+                       Converters converters,
+                       Encryptor encryptor,
+                       EncryptionContext encryptionContext,
+                       Class<Entry> clazz,
+                       ReadWriteLock readWriteLock,
+                       Optional<FileStoreFormat> targetFormat) {
         this.file = path;
+        this.targetFormat = targetFormat;
         this.converters = converters;
         this.clazz = clazz;
         this.readWriteLock = readWriteLock;
         this.encryptor = encryptor;
         this.encryptionContext = encryptionContext;
-        buildMappings();
+        this.codec = EntryCodec.forClass(clazz, converters);
 
         open();
     }
 
-    private void buildMappings() {
-        Field[] fields = clazz.getDeclaredFields();
-        for (Field field : fields) {
-            Attribute[] attributes = field.getAnnotationsByType(Attribute.class);
-            PartitionKey[] partitionKey = field.getAnnotationsByType(PartitionKey.class);
-            SortKey[] sortKey = field.getAnnotationsByType(SortKey.class);
-
-            if (attributes.length > 0) {
-                fieldNames.add(field.getName());
-            }
-
-            if (partitionKey.length > 0) {
-                fieldNames.add(field.getName());
-                padding.put(field.getName(), partitionKey[0].padding());
-            }
-
-            if (sortKey.length > 0) {
-                fieldNames.add(field.getName());
-            }
-        }
-    }
-
     public List<Entry> fromByteArray(byte[] payload) {
         ByteBuffer byteBuffer = ByteBuffer.wrap(payload);
 
@@ -125,48 +163,22 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
                 throw new IllegalArgumentException(String.format("The schema version should be %d but was %d", VERSION, schemaVersion));
             }
 
-            try {
-                Entry result = clazz.newInstance();
-                for (String fieldName : fieldNames) {
-
-                    Field field = clazz.getField(fieldName);
-                    Object fieldValue = getFieldValue(byteBuffer, fieldName);
-                    field.set(result, fieldValue);
-                }
-
-                list.add(result);
-            } catch (InstantiationException | IllegalAccessException | NoSuchFieldException e) {
-                throw new RuntimeException("Failed create Entry", e);
+            Entry result = codec.newInstance();
+            for (FieldCodec<Entry> field : codec.fields) {
+                field.set(result, getFieldValue(byteBuffer, field));
             }
-        }
-        return list;
-    }
 
-    private Class<?> getType(String fieldName) {
-        try {
-            Field field = clazz.getField(fieldName);
-            return field.getType();
-        } catch (NoSuchFieldException e) {
-            throw new FieldAccessException(fieldName, clazz.getName());
-        }
-    }
-
-    private Class<?> getTypeOfOptional(String fieldName) {
-        try {
-            Field field = clazz.getField(fieldName);
-            ParameterizedType type = (ParameterizedType) field.getGenericType();
-            return (Class<?>) type.getActualTypeArguments()[0];
-        } catch (NoSuchFieldException e) {
-            throw new FieldAccessException(fieldName, clazz.getName());
+            list.add(result);
         }
+        return list;
     }
 
-    private Object getFieldValue(ByteBuffer byteBuffer, String fieldName) {
-        Class<?> clz = getConvertedType(fieldName);
+    private Object getFieldValue(ByteBuffer byteBuffer, FieldCodec<Entry> field) {
+        Class<?> clz = field.convertedType;
 
         Object v = null;
         boolean present = true;
-        if (isOptional(fieldName)) {
+        if (field.optional) {
             byte p = byteBuffer.get();
             if (p == 0) {
                 present = false;
@@ -190,15 +202,14 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
             v = null;
         }
 
-        if (isOptional(fieldName)) {
-            return converters.fromOptionalObject(v, getTypeOfOptional(fieldName));
-        } else {
-            return converters.fromObject(v, getType(fieldName));
-        }
+        return field.fromConverted(v);
     }
 
     public byte[] toByteArray() {
-        List<Entry> entries = stream().toList();
+        return toByteArray(stream().toList());
+    }
+
+    private byte[] toByteArray(List<Entry> entries) {
         Size size = computeLength(entries);
 
         int headerSize = 1 + 4 + 8;
@@ -211,12 +222,12 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
         for (Entry entry : entries) {
             byteBuffer.put((byte)1); // version
 
-            for (String fieldName : fieldNames) {
-                Object value = getValue(entry, fieldName);
-                Class<?> clz = getConvertedType(fieldName);
-                int padding = getPadding(fieldName);
+            for (FieldCodec<Entry> field : codec.fields) {
+                Object value = field.getConverted(entry);
+                Class<?> clz = field.convertedType;
+                int padding = field.padding;
 
-                if (isOptional(fieldName)) {
+                if (field.optional) {
                     if (value == null) {
                         byteBuffer.put((byte)0);
                     } else {
@@ -238,15 +249,6 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
         return byteBuffer.array();
     }
 
-    private int getPadding(String fieldName) {
-        Integer padding = this.padding.get(fieldName);
-        if (padding != null) {
-            return padding;
-        } else {
-            return 0;
-        }
-    }
-
     private void write(Class<?> type, Object value, ByteBuffer byteBuffer, int padding) {
         if (type.equals(String.class)) {
             byte[] v = Encoder.asUTF8((String)value);
@@ -295,12 +297,12 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
         }
     }
 
-    private Size computeLength(Entry entry, String fieldName) {
-        int padding = getPadding(fieldName);
-        Class<?> type = getConvertedType(fieldName);
-        int size = getBaseSize(type, entry, fieldName);
+    private Size computeLength(Entry entry, FieldCodec<Entry> field) {
+        int padding = field.padding;
+        Class<?> type = field.convertedType;
+        int size = getBaseSize(type, field.getConverted(entry));
 
-        int optional = (isOptional(fieldName)) ? 1 : 0;
+        int optional = (field.optional) ? 1 : 0;
 
 
         if (padding > 0) {
@@ -328,9 +330,7 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
         throw new RuntimeException("illegal state");
     }
 
-    private int getBaseSize(Class<?> type, Entry entry, String fieldName) {
-        Object value = getValue(entry, fieldName);
-
+    private int getBaseSize(Class<?> type, Object value) {
         if (value != null) {
             if (type.equals(String.class)) {
                 byte[] v = Encoder.asUTF8((String) value);
@@ -363,8 +363,8 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
 
         for (Entry entry : entries) {
             totalSize++; // version
-            for (String fieldName : fieldNames) {
-                Size entrySize = computeLength(entry, fieldName);
+            for (FieldCodec<Entry> field : codec.fields) {
+                Size entrySize = computeLength(entry, field);
                 totalSize += entrySize.totalSize;
                 padding += entrySize.padding;
             }
@@ -373,48 +373,6 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
         return new Size(totalSize, padding);
     }
 
-    private Object getValue(Entry entry, String fieldName) {
-        try {
-            Field field = getField(entry, fieldName);
-            return converters.toObject(field.get(entry));
-        } catch (IllegalAccessException e) {
-            throw new FieldAccessException(fieldName, entry.getClass().getName(), e);
-        }
-    }
-
-    private boolean isOptional(String fieldName) {
-        try {
-            Field field = clazz.getField(fieldName);
-            return field.getType().equals(Optional.class);
-        } catch (NoSuchFieldException e) {
-            throw new FieldAccessException(fieldName, clazz.getName());
-        }
-    }
-
-    private Class<?> getConvertedType(String fieldName) {
-        try {
-            Field field = clazz.getField(fieldName);
-
-            if (field.getType().equals(Optional.class)) {
-                ParameterizedType type = (ParameterizedType) field.getGenericType();
-                return converters.getConvertedType((Class<?>) type.getActualTypeArguments()[0]);
-            } else {
-                return converters.getConvertedType(field.getType());
-            }
-        } catch (NoSuchFieldException e) {
-            throw new FieldAccessException(fieldName, clazz.getName());
-        }
-
-    }
-
-    private Field getField(Entry entry, String fieldName) {
-        try {
-            return entry.getClass().getField(fieldName);
-        } catch (NoSuchFieldException e) {
-            throw new FieldAccessException(fieldName, entry.getClass().getName(), e);
-        }
-    }
-
     @Override
     public String create() {
         readWriteLock.writeLock().lock();
@@ -423,7 +381,7 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
             if (file.exists()) {
                 throw new AlreadyExistsException(String.format("The file backend '%s' already exists", file.getAbsolutePath()));
             }
-            close();
+            compact();
 
             return file.getAbsolutePath();
         } finally {
@@ -440,7 +398,9 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
                 throw new DoesNotExistException(String.format("The file backend '%s' does not exists", file.getAbsolutePath()));
             }
 
-            store = new HashMap<>();
+            store = new ConcurrentHashMap<>();
+            appendable = false;
+            modified = false;
             if (file.exists() && !file.delete()) {
                 throw new UnexpectedStateException(file.getPath(), "EXISTS", "DELETED", "File store deletion failed");
             }
@@ -486,18 +446,34 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
         readWriteLock.writeLock().lock();
 
         try {
-            Primary name = getPartitionKey(entry);
-            Secondary version = getSortKey(entry);
+            put(entry);
+            persist(PUT_RECORD, () -> toByteArray(Collections.singletonList(entry)));
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
 
-            if (!store.containsKey(name)) {
-                store.put(name, new HashMap<>());
-            }
+    private void put(Entry entry) {
+        Primary name = getPartitionKey(entry);
+        Secondary version = getSortKey(entry);
+
+        if (store.computeIfAbsent(name, k -> new ConcurrentSkipListMap<>()).putIfAbsent(version, new Slot(entry)) != null) {
+            throw new AlreadyExistsException(String.format(
+                    "File store entry already exists for name=%s,version=%s", name, version));
+        }
+    }
+
+    @Override
+    public void createAll(Stream<Entry> entries) {
+        readWriteLock.writeLock().lock();
 
-            if (!store.get(name).containsKey(version)) {
-                store.get(name).put(version, entry);
+        try {
+            // A single snapshot is cheaper than a record per entry
+            entries.forEach(this::put);
+            if (format == FileStoreFormat.SINGLE_BLOB) {
+                modified = true;
             } else {
-                throw new AlreadyExistsException(String.format(
-                        "File store entry already exists for name=%s,version=%s", name, version));
+                compact();
             }
         } finally {
             readWriteLock.writeLock().unlock();
@@ -512,11 +488,12 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
             Primary name = getPartitionKey(entry);
             Secondary version = getSortKey(entry);
 
-            if (!store.containsKey(name) || store.get(name).containsKey(version)) {
+            if (!store.containsKey(name) || !store.get(name).containsKey(version)) {
                 throw new DoesNotExistException(String.format(
                         "File store entry does not exist for: name=%s,version=%s,file=%s ", name, version, file.getPath()));
             } else {
-                store.get(name).put(version, entry);
+                store.get(name).put(version, new Slot(entry));
+                persist(PUT_RECORD, () -> toByteArray(Collections.singletonList(entry)));
             }
         } finally {
             readWriteLock.writeLock().unlock();
@@ -525,33 +502,346 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
 
     private void open() {
         try {
+            FileStoreFormat existingFormat = FileStoreFormat.SINGLE_BLOB;
             if (file.exists()) {
-                byte[] ciphertext = Files.readAllBytes(file.toPath());
-                List<Entry> list = fromByteArray(encryptor.decrypt(verifyAndRemoveVersion(ciphertext), encryptionContext));
-                list.forEach(this::create);
+                ByteBuffer mapped = map(file.toPath());
+                byte formatVersion = (mapped.limit() > 0) ? mapped.get(0) : 0;
+
+                if (formatVersion == INDEXED_SERIALIZATION_VERSION) {
+                    existingFormat = FileStoreFormat.INDEXED_LOG;
+                    readIndexed(mapped);
+                } else if (formatVersion == LOG_SERIALIZATION_VERSION) {
+                    existingFormat = FileStoreFormat.APPEND_LOG;
+                    mapped.position(1);
+                    readLog(mapped);
+                } else {
+                    byte[] ciphertext = new byte[mapped.limit()];
+                    mapped.get(ciphertext);
+                    List<Entry> list = fromByteArray(encryptor.decrypt(verifyAndRemoveVersion(ciphertext), encryptionContext));
+                    list.forEach(this::put);
+                }
             }
+
+            format = targetFormat.orElse(existingFormat);
+            // A file in another format is rewritten on the first change instead of being appended to
+            appendable = appendable && format == existingFormat;
         } catch (IOException e) {
             throw new ParseException("Failed to deserialize file: " + file.getPath(), e);
         }
     }
 
-    @Override
-    public void close() {
-        readWriteLock.writeLock().lock();
+    private ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Read the index of a version 3 file, leaving the entries it points to encrypted in the mapped file, and then
+     * apply the records that have been appended after the index
+     */
+    private void readIndexed(ByteBuffer mapped) {
+        ByteBuffer byteBuffer = mapped.duplicate();
+        byteBuffer.position(1);
+        byteBuffer.position(byteBuffer.getInt());
 
+        byte[] plaintext = encryptor.decrypt(readArray(byteBuffer), encryptionContext);
         try {
-            byte[] plaintext = toByteArray();
-            byte[] ciphertext = encryptor.encrypt(plaintext, encryptionContext);
+            ByteBuffer index = ByteBuffer.wrap(plaintext);
+            if (index.get() != INDEX_RECORD) {
+                throw new ParseException(String.format("Expected an index record in file: %s", file.getPath()));
+            }
+
+            int numEntries = index.getInt();
+            for (int i = 0; i < numEntries; i++) {
+                Primary partitionKey = readKey(index);
+                Secondary sortKey = (Secondary) codec.sortKey.fromString(Encoder.fromUTF8(readArray(index)));
+                int offset = index.getInt();
+
+                store.computeIfAbsent(partitionKey, k -> new ConcurrentSkipListMap<>()).put(sortKey, new Slot(partitionKey, sortKey, mapped, offset));
+            }
+        } finally {
+            BestEffortShredder.shred(plaintext);
+        }
 
-            if (plaintext != ciphertext) {
+        readLog(byteBuffer);
+    }
+
+    private void readLog(ByteBuffer byteBuffer) {
+        appendable = true;
+
+        while (byteBuffer.remaining() > 0) {
+            if (byteBuffer.remaining() < 4 || byteBuffer.getInt(byteBuffer.position()) > byteBuffer.remaining() - 4) {
+                // The last append was interrupted, so rewrite the file before appending to it again
+                log.warn("Ignoring incomplete record at the end of '{}'", file.getPath());
+                appendable = false;
+                return;
+            }
+
+            byte[] plaintext = encryptor.decrypt(readArray(byteBuffer), encryptionContext);
+            try {
+                applyRecord(ByteBuffer.wrap(plaintext));
+            } finally {
                 BestEffortShredder.shred(plaintext);
-            } else {
-                throw new StateCorruptionException("Internal error (file a bug): clearing the plaintext would corrupt the ciphertext!");
             }
+        }
+    }
+
+    private void applyRecord(ByteBuffer record) {
+        byte recordType = record.get();
+        byte[] payload = new byte[record.remaining()];
+        record.get(payload);
+
+        switch (recordType) {
+            case SNAPSHOT_RECORD:
+                store = new ConcurrentHashMap<>();
+                recordsSinceSnapshot = 0;
+                fromByteArray(payload).forEach(this::put);
+                break;
+            case PUT_RECORD:
+                fromByteArray(payload).forEach(entry -> {
+                    store.computeIfAbsent(getPartitionKey(entry), k -> new ConcurrentSkipListMap<>()).put(getSortKey(entry), new Slot(entry));
+                });
+                recordsSinceSnapshot++;
+                break;
+            case DELETE_RECORD:
+                store.remove(readKey(ByteBuffer.wrap(payload)));
+                recordsSinceSnapshot++;
+                break;
+            default:
+                throw new ParseException(String.format("Unrecognized record type %d in file: %s", recordType, file.getPath()));
+        }
+        BestEffortShredder.shred(payload);
+    }
+
+    private byte[] toKey(Primary partitionKey) {
+        // Pad the key like in the other records, to not reveal the length of the name
+        byte[] key = Encoder.asUTF8(codec.partitionKey.toString(partitionKey));
+        byte[] filler = new byte[Math.max(0, codec.partitionKey.padding - key.length)];
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(4 + key.length + 4 + filler.length);
+        writeArray(byteBuffer, key);
+        writeArray(byteBuffer, filler);
+        return byteBuffer.array();
+    }
+
+    private Primary readKey(ByteBuffer byteBuffer) {
+        byte[] key = readArray(byteBuffer);
+        readArray(byteBuffer);
+        return (Primary) codec.partitionKey.fromString(Encoder.fromUTF8(key));
+    }
+
+    /**
+     * Append a record for a change that has already been applied to the entries in memory, or write a new
+     * snapshot if the file can not be appended to or the log has grown too long. Changes to version 1 files are
+     * left for {@link #close()}, as every write re-encrypts all the entries.
+     */
+    private void persist(byte recordType, Supplier<byte[]> payload) {
+        if (format == FileStoreFormat.SINGLE_BLOB) {
+            modified = true;
+            return;
+        }
+
+        if (!appendable) {
+            compact();
+            return;
+        }
+
+        byte[] ciphertext = encryptRecord(recordType, payload.get());
+        ByteBuffer record = ByteBuffer.allocate(4 + ciphertext.length);
+        writeArray(record, ciphertext);
+        record.flip();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new SerializationException(String.format("Failed to append to file: '%s'", file.getPath()), e);
+        }
+
+        recordsSinceSnapshot++;
+        if (recordsSinceSnapshot > Math.max(MIN_RECORDS_BEFORE_COMPACTION, numEntries())) {
+            compact();
+        }
+    }
 
-            Files.write(file.toPath(), prependVersion(ciphertext));
+    /**
+     * @return the number of versions of all the keys, i.e. the number of entries a snapshot holds
+     */
+    private int numEntries() {
+        return store.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Replace the file with a snapshot of all the entries in the format to write. The snapshot is written to a
+     * temporary file that is moved into place, so the old file is left intact if the write fails.
+     */
+    private void compact() {
+        switch (format) {
+            case SINGLE_BLOB:
+                writeSingleBlob();
+                break;
+            case APPEND_LOG:
+                writeLogSnapshot();
+                break;
+            case INDEXED_LOG:
+                writeIndexed();
+                break;
+            default:
+                throw new IllegalStateException(String.format("Unrecognized file store format %s", format));
+        }
+
+        appendable = format != FileStoreFormat.SINGLE_BLOB;
+        recordsSinceSnapshot = 0;
+        modified = false;
+    }
+
+    private void writeSingleBlob() {
+        byte[] ciphertext = encryptRecord(toByteArray(loadAll()));
+        writeAtomically(ByteBuffer.wrap(prependVersion(ciphertext)));
+    }
+
+    private void writeLogSnapshot() {
+        byte[] ciphertext = encryptRecord(SNAPSHOT_RECORD, toByteArray(loadAll()));
+        ByteBuffer byteBuffer = ByteBuffer.allocate(1 + 4 + ciphertext.length);
+        byteBuffer.put(LOG_SERIALIZATION_VERSION);
+        writeArray(byteBuffer, ciphertext);
+        byteBuffer.flip();
+        writeAtomically(byteBuffer);
+    }
+
+    private List<Entry> loadAll() {
+        return store.values().stream()
+                .flatMap(versions -> versions.values().stream())
+                .map(Slot::get)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Write a record per entry followed by the index. Entries that have not been decrypted are copied over as they are.
+     */
+    private void writeIndexed() {
+        List<Slot> slots = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> sortKeys = new ArrayList<>();
+        int length = HEADER_SIZE;
+        int indexLength = 1 + 4;
+
+        for (Map.Entry<Primary, NavigableMap<Secondary, Slot>> versions : store.entrySet()) {
+            byte[] key = toKey(versions.getKey());
+            for (Slot slot : versions.getValue().values()) {
+                byte[] record = slot.isLoaded()
+                        ? encryptRecord(ENTRY_RECORD, toByteArray(Collections.singletonList(slot.get())))
+                        : slot.ciphertext();
+                byte[] sortKey = Encoder.asUTF8(codec.sortKey.toString(slot.sortKey));
+
+                slots.add(slot);
+                records.add(record);
+                keys.add(key);
+                sortKeys.add(sortKey);
+                length += 4 + record.length;
+                indexLength += key.length + 4 + sortKey.length + 4;
+            }
+        }
+
+        int[] offsets = new int[slots.size()];
+        ByteBuffer index = ByteBuffer.allocate(indexLength);
+        index.put(INDEX_RECORD);
+        index.putInt(slots.size());
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < slots.size(); i++) {
+            offsets[i] = offset;
+            offset += 4 + records.get(i).length;
+
+            index.put(keys.get(i));
+            writeArray(index, sortKeys.get(i));
+            index.putInt(offsets[i]);
+        }
+        byte[] indexCiphertext = encryptRecord(index.array());
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(length + 4 + indexCiphertext.length);
+        byteBuffer.put(INDEXED_SERIALIZATION_VERSION);
+        byteBuffer.putInt(length);
+        for (byte[] record : records) {
+            writeArray(byteBuffer, record);
+        }
+        writeArray(byteBuffer, indexCiphertext);
+        byteBuffer.flip();
+
+        Path path = writeAtomically(byteBuffer);
+        try {
+            remap(map(path), slots, offsets);
+        } catch (IOException e) {
+            throw new SerializationException(String.format("Failed to map file: '%s'", file.getPath()), e);
+        }
+    }
+
+    private Path writeAtomically(ByteBuffer byteBuffer) {
+        Path path = file.toPath().toAbsolutePath();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                channel.force(false);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return path;
         } catch (IOException e) {
             throw new SerializationException(String.format("Failed to serialize to file: '%s'", file.getPath()), e);
+        }
+    }
+
+    /**
+     * Point the entries that have not been decrypted to their records in the new file, in new maps so that streams
+     * that are still iterating over the old ones are not affected
+     */
+    private void remap(ByteBuffer mapped, List<Slot> slots, int[] offsets) {
+        Map<Primary, NavigableMap<Secondary, Slot>> remapped = new ConcurrentHashMap<>();
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            remapped.computeIfAbsent(slot.partitionKey, k -> new ConcurrentSkipListMap<>()).put(slot.sortKey, slot.isLoaded() ? slot : new Slot(slot.partitionKey, slot.sortKey, mapped, offsets[i]));
+        }
+        store = remapped;
+    }
+
+    private byte[] encryptRecord(byte recordType, byte[] payload) {
+        byte[] plaintext = new byte[1 + payload.length];
+        plaintext[0] = recordType;
+        System.arraycopy(payload, 0, plaintext, 1, payload.length);
+        BestEffortShredder.shred(payload);
+
+        return encryptRecord(plaintext);
+    }
+
+    private byte[] encryptRecord(byte[] plaintext) {
+        byte[] ciphertext = encryptor.encrypt(plaintext, encryptionContext);
+
+        if (plaintext != ciphertext) {
+            BestEffortShredder.shred(plaintext);
+        } else {
+            throw new StateCorruptionException("Internal error (file a bug): clearing the plaintext would corrupt the ciphertext!");
+        }
+
+        return ciphertext;
+    }
+
+    /**
+     * Write the changes made to a version 1 file. Changes to the other formats have already been written, so for
+     * them this only compacts the log if it has grown since the last snapshot.
+     */
+    @Override
+    public void close() {
+        readWriteLock.writeLock().lock();
+
+        try {
+            if (modified || (appendable && recordsSinceSnapshot > 0 && recordsSinceSnapshot >= numEntries())) {
+                compact();
+            }
         } finally {
             readWriteLock.writeLock().unlock();
         }
@@ -580,7 +870,9 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
         readWriteLock.writeLock().lock();
 
         try {
-            store.remove(secretIdentifier);
+            if (store.remove(secretIdentifier) != null) {
+                persist(DELETE_RECORD, () -> toKey(secretIdentifier));
+            }
         } finally {
             readWriteLock.writeLock().unlock();
         }
@@ -614,76 +906,210 @@ public class GenericFile<Entry, Primary, Secondary extends Comparable<? super Se
             readWriteLock.readLock().lock();
 
             try {
-                // TODO: optimize fetch record (i.e. both hash and range key is set to equal, nothing else)
-                Stream<Entry> all = (filter.keyCondition.isPresent()) ? get(filter.parsedKeyCondition.get()) : all();
-
-                if (filter.parsedAttributeCondition.isPresent()) {
-                    RSEF.ParsedAttributeCondition<Entry> condition = filter.parsedAttributeCondition.get();
-                    all = all.filter(condition::evaluate);
+                // The conditions are compiled once for the query, and reused for every entry
+                ConditionCompiler.CompiledFilter<Entry> compiled = ConditionCompiler.compile(filter, codec);
+                Stream<Slot> all = (filter.keyCondition.isPresent())
+                        ? matching(get(filter.parsedKeyCondition.get(), compiled.keyCondition.get(), filter.reverse), filter, compiled)
+                        : store.values().stream().flatMap(versions -> matching(ordered(versions, filter.reverse).values().stream(), filter, compiled));
+
+                if (filter.limit.isPresent()) {
+                    all = all.limit(filter.limit.get());
                 }
 
-                if (filter.reverse) {
-                    all = Lists.reverse(all.collect(Collectors.toCollection(LinkedList::new))).stream();
+                if (filter.projection.isPresent()) {
+                    Set<Integer> projection = filter.projection.get();
+                    if (Collections.disjoint(projection, codec.attributes.keySet())) {
+                        // The keys are known without decrypting the entry
+                        return all.map(Slot::keys);
+                    }
+                    return all.map(slot -> project(slot.get(), projection));
                 }
 
-                return all;
+                return all.map(Slot::get);
             } finally {
                 readWriteLock.readLock().unlock();
             }
         }
 
-        private Stream<Entry> all() {
-            return store.values().stream()
-                    .flatMap(e -> e.values().stream());
+        /**
+         * Copy the keys and the projected attributes, so that the file backend returns the same partial entries
+         * as the other backends and callers do not come to depend on attributes they did not ask for
+         */
+        private Entry project(Entry entry, Set<Integer> projection) {
+            Entry result = codec.newInstance();
+            for (FieldCodec<Entry> field : codec.fields) {
+                if (field.kind != FieldCodec.Kind.ATTRIBUTE || projection.contains(field.position)) {
+                    field.set(result, field.get(entry));
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Apply the attribute condition and uniqueness to the ordered versions of a single partition key
+         */
+        private Stream<Slot> matching(Stream<Slot> versions, SecretEventStream.Filter<Entry> filter, ConditionCompiler.CompiledFilter<Entry> compiled) {
+            if (compiled.attributeCondition.isPresent()) {
+                Predicate<Entry> condition = compiled.attributeCondition.get();
+                versions = versions.filter(slot -> condition.test(slot.get()));
+            }
+
+            if (filter.unique) {
+                versions = versions.limit(1);
+            }
+
+            return versions;
         }
 
-        Stream<Entry> get(RSEF.ParsedKeyCondition<Entry> keyCondition) {
+        private NavigableMap<Secondary, Slot> ordered(NavigableMap<Secondary, Slot> versions, boolean reverse) {
+            return reverse ? versions.descendingMap() : versions;
+        }
+
+        Stream<Slot> get(RSEF.ParsedKeyCondition<Entry> keyCondition, Predicate<Entry> compiledKeyCondition, boolean reverse) {
             if (keyCondition instanceof RSEF.KeyAND) {
                 RSEF.KeyAND<Entry> current = (RSEF.KeyAND<Entry>) keyCondition;
                 RSEF.PartitionKeyEqualityOperator<Entry, Primary> e = (RSEF.PartitionKeyEqualityOperator<Entry, Primary>) current.left;
 
-                // TODO extract version filter and iterate over
-                Map<Secondary, Entry> f = store.get(e.right.value);
+                NavigableMap<Secondary, Slot> f = store.get(e.right.value);
+                if (f == null) {
+                    return Stream.empty();
+                }
+
+                Optional<?> sortKey = current.exactSortKey();
+                if (sortKey.isPresent()) {
+                    Slot slot = f.get(sortKey.get());
+                    return (slot != null) ? Stream.of(slot) : Stream.empty();
+                }
 
                 RSEF.SortKeyComparisonOperator<Entry, Secondary> sortKeyComparisonOperator = (RSEF.SortKeyComparisonOperator<Entry, Secondary>) current.right;
+                Optional<NavigableMap<Secondary, Slot>> range = range(f, sortKeyComparisonOperator);
+                if (range.isPresent()) {
+                    return ordered(range.get(), reverse).values().stream();
+                }
 
-                return f.values().stream().filter(sortKeyComparisonOperator::evaluate);
+                return ordered(f, reverse).values().stream().filter(slot -> compiledKeyCondition.test(slot.keys()));
             } else if (keyCondition instanceof RSEF.PartitionKeyEqualityOperator) {
                 RSEF.PartitionKeyEqualityOperator<Entry, Primary> current = (RSEF.PartitionKeyEqualityOperator<Entry, Primary>) keyCondition;
-                return store.get(current.right.value).values().stream();
+                NavigableMap<Secondary, Slot> f = store.get(current.right.value);
+                return (f != null) ? ordered(f, reverse).values().stream() : Stream.empty();
             } else {
                 throw new UnsupportedTypeException(keyCondition.getClass().getName());
             }
         }
+
+        /**
+         * @return a view of the versions matching a comparison of the sort key with a literal, or empty if the
+         * comparison does not correspond to a range, in which case the versions have to be filtered
+         */
+        private Optional<NavigableMap<Secondary, Slot>> range(NavigableMap<Secondary, Slot> versions, RSEF.SortKeyComparisonOperator<Entry, Secondary> condition) {
+            if (!(condition.left instanceof RSEF.TypedSortKeyReference) || !(condition.right instanceof RSEF.TypedLiteral)) {
+                return Optional.empty();
+            }
+
+            Secondary value = ((RSEF.TypedLiteral<Secondary>) condition.right).value;
+            switch (condition.binaryOpType) {
+                case GE:
+                    return Optional.of(versions.tailMap(value, true));
+                case GT:
+                    return Optional.of(versions.tailMap(value, false));
+                case LE:
+                    return Optional.of(versions.headMap(value, true));
+                case LT:
+                    return Optional.of(versions.headMap(value, false));
+                default:
+                    return Optional.empty();
+            }
+        }
     }
 
-    private Primary getPartitionKey(Entry entry) {
-        Field[] fields = entry.getClass().getDeclaredFields();
-        for (Field field : fields) {
-            try {
-                PartitionKey[] partitionKey = field.getAnnotationsByType(PartitionKey.class);
-                if (partitionKey.length > 0) {
-                    return (Primary) field.get(entry);
+    /**
+     * A version of an entry, which is either held in memory or is still encrypted in the mapped file
+     */
+    private class Slot {
+        final Primary partitionKey;
+        final Secondary sortKey;
+        private final ByteBuffer mapped;
+        private final int offset;
+        private volatile Entry entry;
+
+        Slot(Entry entry) {
+            this.partitionKey = getPartitionKey(entry);
+            this.sortKey = getSortKey(entry);
+            this.mapped = null;
+            this.offset = -1;
+            this.entry = entry;
+        }
+
+        Slot(Primary partitionKey, Secondary sortKey, ByteBuffer mapped, int offset) {
+            this.partitionKey = partitionKey;
+            this.sortKey = sortKey;
+            this.mapped = mapped;
+            this.offset = offset;
+        }
+
+        boolean isLoaded() {
+            return entry != null;
+        }
+
+        /**
+         * @return the entry, which is decrypted and kept in memory the first time it is needed
+         */
+        Entry get() {
+            Entry result = entry;
+            if (result == null) {
+                synchronized (this) {
+                    if (entry == null) {
+                        entry = decrypt();
+                    }
+                    result = entry;
                 }
-            } catch (IllegalAccessException e) {
-                throw new FieldAccessException(field.getName(), entry.getClass().getName(), e);
             }
+            return result;
         }
-        throw new NoFieldMatchingAnnotationException(PartitionKey.class.getName(), entry.getClass().getName());
-    }
 
-    private Secondary getSortKey(Entry entry) {
-        Field[] fields = entry.getClass().getDeclaredFields();
-        for (Field field : fields) {
+        /**
+         * @return an entry with only the keys set
+         */
+        Entry keys() {
+            Entry result = codec.newInstance();
+            codec.partitionKey.set(result, partitionKey);
+            codec.sortKey.set(result, sortKey);
+            return result;
+        }
+
+        byte[] ciphertext() {
+            ByteBuffer byteBuffer = mapped.duplicate();
+            byteBuffer.position(offset);
+            return readArray(byteBuffer);
+        }
+
+        private Entry decrypt() {
+            byte[] plaintext = encryptor.decrypt(ciphertext(), encryptionContext);
             try {
-                SortKey[] sortKey = field.getAnnotationsByType(SortKey.class);
-                if (sortKey.length > 0) {
-                    return (Secondary) field.get(entry);
+                if (plaintext[0] != ENTRY_RECORD) {
+                    throw new ParseException(String.format("Expected an entry record at offset %d in file: %s", offset, file.getPath()));
                 }
-            } catch (IllegalAccessException e) {
-                throw new FieldAccessException(field.getName(), entry.getClass().getName(), e);
+
+                byte[] payload = Arrays.copyOfRange(plaintext, 1, plaintext.length);
+                Entry result = fromByteArray(payload).get(0);
+                BestEffortShredder.shred(payload);
+
+                if (!partitionKey.equals(getPartitionKey(result)) || sortKey.compareTo(getSortKey(result)) != 0) {
+                    throw new PotentiallyMaliciousDataException(String.format(
+                            "The entry at offset %d in file '%s' does not match the index", offset, file.getPath()));
+                }
+                return result;
+            } finally {
+                BestEffortShredder.shred(plaintext);
             }
         }
-        throw new NoFieldMatchingAnnotationException(SortKey.class.getName(), entry.getClass().getName());
+    }
+
+    private Primary getPartitionKey(Entry entry) {
+        return (Primary) codec.partitionKey.get(entry);
+    }
+
+    private Secondary getSortKey(Entry entry) {
+        return (Secondary) codec.sortKey.get(entry);
     }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec;
+
+import com.schibsted.security.strongbox.sdk.exceptions.FieldAccessException;
+import com.schibsted.security.strongbox.sdk.exceptions.NoFieldMatchingAnnotationException;
+import com.schibsted.security.strongbox.sdk.internal.converter.Converter;
+import com.schibsted.security.strongbox.sdk.internal.converter.Converters;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.annotation.Attribute;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.annotation.PartitionKey;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.annotation.SortKey;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates entries and accesses their {@link PartitionKey}, {@link SortKey} and {@link Attribute} fields
+ * through method handles. The annotations, generic types and converters are only looked up once per entry class
+ * and converters, instead of for every field of every entry that is read or written.
+ */
+public final class EntryCodec<Entry> {
+    private static final ConcurrentMap<CodecKey, EntryCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    public final Class<Entry> clazz;
+
+    /**
+     * The annotated fields in the order they are declared
+     */
+    public final List<FieldCodec<Entry>> fields;
+    public final FieldCodec<Entry> partitionKey;
+    public final FieldCodec<Entry> sortKey;
+
+    /**
+     * The attribute fields by position
+     */
+    public final Map<Integer, FieldCodec<Entry>> attributes;
+
+    private final Converters converters;
+    private final MethodHandle constructor;
+    private final Map<String, FieldCodec<Entry>> fieldsByName;
+
+    /**
+     * Codecs are cached per entry class and {@link Converters} instance, and are never evicted, so callers should
+     * share one long lived instance such as {@code Config.converters} rather than creating new ones.
+     *
+     * @return the codec for the entry class and converters, which is built the first time it is requested
+     */
+    public static <Entry> EntryCodec<Entry> forClass(Class<Entry> clazz, Converters converters) {
+        return (EntryCodec<Entry>) codecs.computeIfAbsent(new CodecKey(clazz, converters), key -> new EntryCodec<>(clazz, converters));
+    }
+
+    private EntryCodec(Class<Entry> clazz, Converters converters) {
+        this.clazz = clazz;
+        this.converters = converters;
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            this.constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException(String.format("The class '%s' needs a public no-argument constructor", clazz.getName()), e);
+        }
+
+        List<FieldCodec<Entry>> fields = new ArrayList<>();
+        Map<Integer, FieldCodec<Entry>> attributes = new HashMap<>();
+        Map<String, FieldCodec<Entry>> fieldsByName = new HashMap<>();
+        FieldCodec<Entry> partitionKey = null;
+        FieldCodec<Entry> sortKey = null;
+
+        for (Field field : clazz.getDeclaredFields()) {
+            Attribute[] attribute = field.getAnnotationsByType(Attribute.class);
+            PartitionKey[] partitionKeyAnnotation = field.getAnnotationsByType(PartitionKey.class);
+            SortKey[] sortKeyAnnotation = field.getAnnotationsByType(SortKey.class);
+
+            FieldCodec<Entry> fieldCodec;
+            if (attribute.length > 0) {
+                fieldCodec = fieldCodec(lookup, field, FieldCodec.Kind.ATTRIBUTE, attribute[0].position(), 0);
+                attributes.put(fieldCodec.position, fieldCodec);
+            } else if (partitionKeyAnnotation.length > 0) {
+                fieldCodec = fieldCodec(lookup, field, FieldCodec.Kind.PARTITION_KEY, partitionKeyAnnotation[0].position(), partitionKeyAnnotation[0].padding());
+                partitionKey = fieldCodec;
+            } else if (sortKeyAnnotation.length > 0) {
+                fieldCodec = fieldCodec(lookup, field, FieldCodec.Kind.SORT_KEY, sortKeyAnnotation[0].position(), 0);
+                sortKey = fieldCodec;
+            } else {
+                continue;
+            }
+
+            fields.add(fieldCodec);
+            fieldsByName.put(fieldCodec.name, fieldCodec);
+        }
+
+        if (partitionKey == null) {
+            throw new NoFieldMatchingAnnotationException(PartitionKey.class.getName(), clazz.getName());
+        }
+        if (sortKey == null) {
+            throw new NoFieldMatchingAnnotationException(SortKey.class.getName(), clazz.getName());
+        }
+
+        this.fields = Collections.unmodifiableList(fields);
+        this.attributes = Collections.unmodifiableMap(attributes);
+        this.fieldsByName = fieldsByName;
+        this.partitionKey = partitionKey;
+        this.sortKey = sortKey;
+    }
+
+    private FieldCodec<Entry> fieldCodec(MethodHandles.Lookup lookup, Field field, FieldCodec.Kind kind, int position, int padding) {
+        boolean optional = field.getType().equals(Optional.class);
+        Class<?> type = optional
+                ? (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0]
+                : field.getType();
+
+        try {
+            MethodHandle getter = lookup.unreflectGetter(field)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            MethodHandle setter = lookup.unreflectSetter(field)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+
+            return new FieldCodec<>(field.getName(), kind, position, padding, type, optional,
+                    (Converter<Object>) converters.getConverter(type), clazz.getName(), getter, setter);
+        } catch (IllegalAccessException e) {
+            throw new FieldAccessException(field.getName(), clazz.getName(), e);
+        }
+    }
+
+    public Entry newInstance() {
+        try {
+            return (Entry) (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(String.format("Failed to create an instance of '%s'", clazz.getName()), e);
+        }
+    }
+
+    public FieldCodec<Entry> field(String name) {
+        FieldCodec<Entry> field = fieldsByName.get(name);
+        if (field == null) {
+            throw new FieldAccessException(name, clazz.getName());
+        }
+        return field;
+    }
+
+    /**
+     * Compares the converters by identity, as they do not implement equals
+     */
+    private static final class CodecKey {
+        private final Class<?> clazz;
+        private final Converters converters;
+
+        CodecKey(Class<?> clazz, Converters converters) {
+            this.clazz = clazz;
+            this.converters = converters;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CodecKey)) {
+                return false;
+            }
+            CodecKey other = (CodecKey) obj;
+            return clazz.equals(other.clazz) && converters == other.converters;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * clazz.hashCode() + System.identityHashCode(converters);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec;
+
+import com.schibsted.security.strongbox.sdk.exceptions.FieldAccessException;
+import com.schibsted.security.strongbox.sdk.internal.converter.Converter;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Optional;
+
+/**
+ * Reads, writes and converts a single annotated field of an entry, using method handles resolved once when the
+ * {@link EntryCodec} is built
+ */
+public final class FieldCodec<Entry> {
+    public enum Kind {
+        PARTITION_KEY, SORT_KEY, ATTRIBUTE
+    }
+
+    public final String name;
+    public final Kind kind;
+    public final int position;
+    public final int padding;
+
+    /**
+     * The type of the field, or the type of the value if the field is an {@link Optional}
+     */
+    public final Class<?> type;
+    public final boolean optional;
+
+    /**
+     * The type the value is stored as: String, Long, Byte or byte[]
+     */
+    public final Class<?> convertedType;
+
+    private final String className;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    private final Converter<Object> converter;
+
+    FieldCodec(String name, Kind kind, int position, int padding, Class<?> type, boolean optional,
+               Converter<Object> converter, String className, MethodHandle getter, MethodHandle setter) {
+        this.name = name;
+        this.kind = kind;
+        this.position = position;
+        this.padding = padding;
+        this.type = type;
+        this.optional = optional;
+        this.converter = converter;
+        this.convertedType = converter.getConvertedType();
+        this.className = className;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    /**
+     * @return the value of the field as it is declared
+     */
+    public Object get(Entry entry) {
+        try {
+            return (Object) getter.invokeExact((Object) entry);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new FieldAccessException(name, className, e);
+        }
+    }
+
+    public void set(Entry entry, Object value) {
+        try {
+            setter.invokeExact((Object) entry, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new FieldAccessException(name, className, e);
+        }
+    }
+
+    /**
+     * @return the value of the field in the converted type, or null if it is an empty {@link Optional}
+     */
+    public Object getConverted(Entry entry) {
+        Object value = get(entry);
+        if (optional) {
+            Optional<?> present = (Optional<?>) value;
+            return present.isPresent() ? converter.toObject(present.get()) : null;
+        }
+        return converter.toObject(value);
+    }
+
+    /**
+     * Set the field from a value in the converted type, where null means an empty {@link Optional}
+     */
+    public void setConverted(Entry entry, Object value) {
+        set(entry, fromConverted(value));
+    }
+
+    public Object fromConverted(Object value) {
+        if (optional) {
+            return (value == null) ? Optional.empty() : Optional.of(converter.fromObject(value));
+        }
+        return converter.fromObject(value);
+    }
+
+    public String toString(Object value) {
+        return converter.toString(value);
+    }
+
+    public Object fromString(String value) {
+        return converter.fromString(value);
+    }
+}
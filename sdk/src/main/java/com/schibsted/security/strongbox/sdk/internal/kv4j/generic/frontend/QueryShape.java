@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend;
+
+import com.schibsted.security.strongbox.sdk.exceptions.UnsupportedTypeException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shape of a parsed condition, i.e. the condition with its literals replaced by placeholders, together with
+ * the values of the literals. Conditions with the same shape can share the expressions generated for them, and
+ * only need to bind their own literal values.
+ *
+ * The literals are listed in the order the backends visit them when generating expressions: left before right,
+ * and terms from left to right.
+ */
+public final class QueryShape {
+    public final String key;
+    public final List<Object> literals;
+
+    private QueryShape(String key, List<Object> literals) {
+        this.key = key;
+        this.literals = literals;
+    }
+
+    public static QueryShape of(RSEF.ParsedKeyCondition<?> keyCondition) {
+        StringBuilder key = new StringBuilder();
+        List<Object> literals = new ArrayList<>();
+        visit(keyCondition, key, literals);
+        return new QueryShape(key.toString(), literals);
+    }
+
+    public static QueryShape of(RSEF.ParsedAttributeCondition<?> attributeCondition) {
+        StringBuilder key = new StringBuilder();
+        List<Object> literals = new ArrayList<>();
+        visit(attributeCondition, key, literals);
+        return new QueryShape(key.toString(), literals);
+    }
+
+    private static void visit(RSEF.ParsedKeyCondition<?> keyCondition, StringBuilder key, List<Object> literals) {
+        if (keyCondition instanceof RSEF.KeyAND) {
+            RSEF.KeyAND<?> current = (RSEF.KeyAND<?>) keyCondition;
+            key.append('(');
+            visit(current.left, key, literals);
+            key.append('&');
+            visit(current.right, key, literals);
+            key.append(')');
+        } else if (keyCondition instanceof RSEF.PartitionKeyEqualityOperator) {
+            RSEF.PartitionKeyEqualityOperator<?, ?> current = (RSEF.PartitionKeyEqualityOperator<?, ?>) keyCondition;
+            visit(current.left, key, literals);
+            key.append(RSEF.BinaryOpType.EQ);
+            visit(current.right, key, literals);
+        } else if (keyCondition instanceof RSEF.SortKeyComparisonOperator) {
+            RSEF.SortKeyComparisonOperator<?, ?> current = (RSEF.SortKeyComparisonOperator<?, ?>) keyCondition;
+            visit(current.left, key, literals);
+            key.append(current.binaryOpType);
+            visit(current.right, key, literals);
+        } else {
+            throw new UnsupportedTypeException(keyCondition.getClass().getName());
+        }
+    }
+
+    private static void visit(RSEF.ParsedAttributeCondition<?> attributeCondition, StringBuilder key, List<Object> literals) {
+        if (attributeCondition instanceof RSEF.AndOperator) {
+            RSEF.AndOperator<?> current = (RSEF.AndOperator<?>) attributeCondition;
+            key.append('(');
+            visit(current.left, key, literals);
+            key.append('&');
+            visit(current.right, key, literals);
+            key.append(')');
+        } else if (attributeCondition instanceof RSEF.OrOperator) {
+            RSEF.OrOperator<?> current = (RSEF.OrOperator<?>) attributeCondition;
+            key.append('(');
+            visit(current.left, key, literals);
+            key.append('|');
+            visit(current.right, key, literals);
+            key.append(')');
+        } else if (attributeCondition instanceof RSEF.NotOperator) {
+            RSEF.NotOperator<?> current = (RSEF.NotOperator<?>) attributeCondition;
+            key.append("!(");
+            visit(current.left, key, literals);
+            key.append(')');
+        } else if (attributeCondition instanceof RSEF.ComparisonOperator) {
+            RSEF.ComparisonOperator<?, ?> current = (RSEF.ComparisonOperator<?, ?>) attributeCondition;
+            visit(current.left, key, literals);
+            key.append(current.binaryOpType);
+            visit(current.right, key, literals);
+        } else if (attributeCondition instanceof RSEF.ExistsOperator) {
+            key.append("exists ");
+            visit(((RSEF.ExistsOperator<?, ?>) attributeCondition).reference, key, literals);
+        } else if (attributeCondition instanceof RSEF.NotExistsOperator) {
+            key.append("not_exists ");
+            visit(((RSEF.NotExistsOperator<?, ?>) attributeCondition).reference, key, literals);
+        } else {
+            throw new UnsupportedTypeException(attributeCondition.getClass().getName());
+        }
+    }
+
+    private static void visit(RSEF.TypedTerm<?> term, StringBuilder key, List<Object> literals) {
+        if (term instanceof RSEF.TypedLiteral) {
+            Object value = ((RSEF.TypedLiteral<?>) term).value;
+            // The type decides how the value is sent, e.g. as a number or a string
+            key.append('?').append(value.getClass().getName()).append(' ');
+            literals.add(value);
+        } else if (term instanceof RSEF.TypedAttributeReference) {
+            key.append('a').append(((RSEF.TypedAttributeReference<?>) term).position).append(' ');
+        } else if (term instanceof RSEF.TypedOptionalAttributeReference) {
+            key.append('o').append(((RSEF.TypedOptionalAttributeReference<?>) term).position).append(' ');
+        } else if (term instanceof RSEF.TypedPartitionKeyReference) {
+            key.append('p').append(((RSEF.TypedPartitionKeyReference<?>) term).position).append(' ');
+        } else if (term instanceof RSEF.TypedSortKeyReference) {
+            key.append('s').append(((RSEF.TypedSortKeyReference<?>) term).position).append(' ');
+        } else {
+            throw new UnsupportedTypeException(term.getClass().getName());
+        }
+    }
+}
@@ -137,6 +137,18 @@ public class RSEF {
         public boolean evaluate(S entry) {
             return left.evaluate(entry) & right.evaluate(entry);
         }
+
+        /**
+         * @return the sort key value if the condition matches at most one entry, i.e. both keys are compared for equality
+         */
+        public Optional<?> exactSortKey() {
+            if (right.binaryOpType == BinaryOpType.EQ
+                    && right.left instanceof TypedSortKeyReference
+                    && right.right instanceof TypedLiteral) {
+                return Optional.of(((TypedLiteral<?>) right.right).value);
+            }
+            return Optional.empty();
+        }
     }
 
     public static class SortKeyComparisonOperator<S, T extends Comparable<? super T>> extends SortKeyCondition implements ParsedKeyCondition<S> {
@@ -7,8 +7,10 @@ package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend;
 import com.schibsted.security.strongbox.sdk.types.State;
 import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -84,14 +86,24 @@ public class SecretEventStream {
         public Optional<RSEF.ParsedKeyCondition<S>> parsedKeyCondition;
         public boolean reverse;
         public boolean unique;
+        // positions of the attributes to fetch in addition to the keys, all attributes are fetched if empty
+        public Optional<Set<Integer>> projection;
+        // maximum number of entries to return, which the back ends may use to fetch fewer entries
+        public Optional<Integer> limit;
 
         public Filter(Optional<RSEF.KeyCondition> keyCondition, Optional<RSEF.ParsedKeyCondition<S>> parsedKeyCondition, Optional<RSEF.AttributeCondition> attributeFilter, Optional<RSEF.ParsedAttributeCondition<S>> parsedAttributeCondition, boolean reverse, boolean unique) {
+            this(keyCondition, parsedKeyCondition, attributeFilter, parsedAttributeCondition, reverse, unique, Optional.empty(), Optional.empty());
+        }
+
+        public Filter(Optional<RSEF.KeyCondition> keyCondition, Optional<RSEF.ParsedKeyCondition<S>> parsedKeyCondition, Optional<RSEF.AttributeCondition> attributeFilter, Optional<RSEF.ParsedAttributeCondition<S>> parsedAttributeCondition, boolean reverse, boolean unique, Optional<Set<Integer>> projection, Optional<Integer> limit) {
             this.keyCondition = keyCondition;
             this.parsedKeyCondition = parsedKeyCondition;
             this.attributeFilter = attributeFilter;
             this.parsedAttributeCondition = parsedAttributeCondition;
             this.reverse = reverse;
             this.unique = unique;
+            this.projection = projection;
+            this.limit = limit;
         }
     }
 
@@ -102,6 +114,8 @@ public class SecretEventStream {
         protected Optional<RSEF.ParsedKeyCondition<S>> parsedKeyCondition = Optional.empty();
         protected boolean reverse = false;
         protected boolean unique = false;
+        protected Optional<Set<Integer>> projection = Optional.empty();
+        protected Optional<Integer> limit = Optional.empty();
 
         private Executor<S> executor;
 
@@ -110,8 +124,35 @@ public class SecretEventStream {
         }
 
         public Stream<S> toJavaStream() {
-            parse();
-            return executor.toJavaStream(new Filter<S>(keyCondition, parsedKeyCondition, attributeCondition, parsedAttributeCondition, reverse, unique));
+            return execute(limit);
+        }
+
+        /**
+         * Only fetch the keys and the attributes at the given positions, e.g. to list entries without transferring
+         * their values. The other attributes of the returned entries may be left unset, so such entries must not
+         * be decrypted or used to update the store.
+         *
+         * @param attributePositions positions of the attributes to fetch in addition to the keys
+         * @return this stream
+         */
+        public EntryStreamUnique<S> project(int... attributePositions) {
+            projection = Optional.of(Arrays.stream(attributePositions).boxed().collect(Collectors.toSet()));
+            return this;
+        }
+
+        /**
+         * Return at most {@code maxSize} entries, e.g. {@code reverse().limit(1)} for the latest version. The back ends
+         * use the limit to stop reading as soon as enough entries have been found.
+         *
+         * @param maxSize maximum number of entries to return
+         * @return this stream
+         */
+        public EntryStreamUnique<S> limit(int maxSize) {
+            if (maxSize < 1) {
+                throw new IllegalArgumentException(String.format("The limit must be at least 1, but was %d", maxSize));
+            }
+            limit = Optional.of(maxSize);
+            return this;
         }
 
         // TODO: implement collector instead? or only Set?
@@ -120,13 +161,18 @@ public class SecretEventStream {
         }
 
         public Optional<S> findFirst() {
-            return toJavaStream().findFirst();
+            return execute(Optional.of(1)).findFirst();
         }
 
         public void forEach(Consumer<? super S> action) {
             toJavaStream().forEach(action);
         }
 
+        private Stream<S> execute(Optional<Integer> limit) {
+            parse();
+            return executor.toJavaStream(new Filter<S>(keyCondition, parsedKeyCondition, attributeCondition, parsedAttributeCondition, reverse, unique, projection, limit));
+        }
+
         private void parse() {
             if (keyCondition.isPresent()) {
                 parsedKeyCondition = Optional.of(Parser.createAST(keyCondition.get()));
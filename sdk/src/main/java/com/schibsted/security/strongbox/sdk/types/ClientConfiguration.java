@@ -4,6 +4,8 @@
 
 package com.schibsted.security.strongbox.sdk.types;
 
+import com.google.common.base.Objects;
+
 import java.util.List;
 import java.util.Optional;
 
@@ -21,6 +23,21 @@ public class ClientConfiguration {
         this.proxy = Optional.of(proxy);
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(proxy);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if(obj instanceof ClientConfiguration){
+            final ClientConfiguration other = (ClientConfiguration) obj;
+            return Objects.equal(proxy, other.proxy);
+        } else {
+            return false;
+        }
+    }
+
     public static class Proxy {
         public final Optional<String> proxyUsername;
         public final Optional<String> proxyPassword;
@@ -35,5 +52,24 @@ public class ClientConfiguration {
             this.proxyHost = proxyHost;
             this.proxyPort = proxyPort;
         }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(proxyUsername, proxyPassword, nonProxyHosts, proxyHost, proxyPort);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(obj instanceof Proxy){
+                final Proxy other = (Proxy) obj;
+                return Objects.equal(proxyUsername, other.proxyUsername)
+                        && Objects.equal(proxyPassword, other.proxyPassword)
+                        && Objects.equal(nonProxyHosts, other.nonProxyHosts)
+                        && Objects.equal(proxyHost, other.proxyHost)
+                        && proxyPort == other.proxyPort;
+            } else {
+                return false;
+            }
+        }
     }
 }
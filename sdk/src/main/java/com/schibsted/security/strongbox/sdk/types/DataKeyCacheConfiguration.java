@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.types;
+
+/**
+ * Limits for reusing KMS data keys across encrypt and decrypt calls. A cached data key is
+ * discarded as soon as one of the limits is reached.
+ */
+public class DataKeyCacheConfiguration {
+    private static final int DEFAULT_CAPACITY = 100;
+    private static final long DEFAULT_MAX_AGE_IN_SECONDS = 300;
+    private static final long DEFAULT_MAX_MESSAGES_PER_KEY = 100;
+    private static final long DEFAULT_MAX_BYTES_PER_KEY = 10L * 1024 * 1024;
+
+    public final int capacity;
+    public final long maxAgeInSeconds;
+    public final long maxMessagesPerKey;
+    public final long maxBytesPerKey;
+
+    public DataKeyCacheConfiguration() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_AGE_IN_SECONDS, DEFAULT_MAX_MESSAGES_PER_KEY, DEFAULT_MAX_BYTES_PER_KEY);
+    }
+
+    public DataKeyCacheConfiguration(int capacity, long maxAgeInSeconds, long maxMessagesPerKey, long maxBytesPerKey) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(String.format("The data key cache capacity must be at least 1, but was %d", capacity));
+        }
+
+        if (maxAgeInSeconds < 1) {
+            throw new IllegalArgumentException(String.format("The data key max age must be at least 1 second, but was %d", maxAgeInSeconds));
+        }
+
+        if (maxMessagesPerKey < 1) {
+            throw new IllegalArgumentException(String.format("The max number of messages per data key must be at least 1, but was %d", maxMessagesPerKey));
+        }
+
+        if (maxBytesPerKey < 1) {
+            throw new IllegalArgumentException(String.format("The max number of bytes per data key must be at least 1, but was %d", maxBytesPerKey));
+        }
+
+        this.capacity = capacity;
+        this.maxAgeInSeconds = maxAgeInSeconds;
+        this.maxMessagesPerKey = maxMessagesPerKey;
+        this.maxBytesPerKey = maxBytesPerKey;
+    }
+}
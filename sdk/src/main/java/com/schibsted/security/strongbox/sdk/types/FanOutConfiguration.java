@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.types;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+/**
+ * Where the manager runs the AWS calls it makes in parallel, e.g. to create, describe or delete the resources of a
+ * group, and how long each call may run once it has started. By default the calls run on a small pool shared by all
+ * managers. Calls that are still running when their timeout is reached are interrupted.
+ *
+ * Creating and deleting a group wait for the DynamoDB table to become active or be deleted, which can take minutes,
+ * and interrupting them leaves the group half created or deleted. So by default those calls are not interrupted,
+ * and only the calls that read, e.g. to describe a group, have a timeout.
+ */
+public class FanOutConfiguration {
+    private static final long DEFAULT_TIMEOUT_IN_SECONDS = 120;
+
+    public final Optional<Executor> executor;
+    public final long timeoutInSeconds;
+    public final Optional<Long> changeTimeoutInSeconds;
+
+    public FanOutConfiguration() {
+        this(DEFAULT_TIMEOUT_IN_SECONDS);
+    }
+
+    public FanOutConfiguration(long timeoutInSeconds) {
+        this(Optional.empty(), timeoutInSeconds, Optional.empty());
+    }
+
+    public FanOutConfiguration(Executor executor, long timeoutInSeconds) {
+        this(Optional.of(executor), timeoutInSeconds, Optional.empty());
+    }
+
+    /**
+     * @param executor the executor to run the calls on, or empty for the shared pool
+     * @param timeoutInSeconds how long each call that reads may run
+     * @param changeTimeoutInSeconds how long each call that creates or deletes resources may run, or empty to wait
+     *                               for them however long they take
+     */
+    public FanOutConfiguration(Optional<Executor> executor, long timeoutInSeconds, Optional<Long> changeTimeoutInSeconds) {
+        if (timeoutInSeconds < 1) {
+            throw new IllegalArgumentException(String.format("The fan-out timeout must be at least 1 second, but was %d", timeoutInSeconds));
+        }
+        if (changeTimeoutInSeconds.isPresent() && changeTimeoutInSeconds.get() < 1) {
+            throw new IllegalArgumentException(String.format("The fan-out timeout of changes must be at least 1 second, but was %d", changeTimeoutInSeconds.get()));
+        }
+
+        this.executor = executor;
+        this.timeoutInSeconds = timeoutInSeconds;
+        this.changeTimeoutInSeconds = changeTimeoutInSeconds;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.types;
+
+/**
+ * The layout file backed groups are written in. Every version of the SDK reads {@link #SINGLE_BLOB}, while the
+ * other formats can only be read by versions of the SDK and CLI that support them, so only choose one of those if
+ * every client sharing the file has been upgraded.
+ */
+public enum FileStoreFormat {
+    /**
+     * All the entries in a single encrypted blob, which is rewritten on every change
+     */
+    SINGLE_BLOB((byte) 1),
+
+    /**
+     * A snapshot of all the entries followed by an individually encrypted record per change
+     */
+    APPEND_LOG((byte) 2),
+
+    /**
+     * A record per entry and an index of their keys, followed by a record per change, so that entries are only
+     * decrypted when needed. As every entry is encrypted separately, writing a snapshot costs a KMS call per entry,
+     * and so does reading each entry for the first time, unless data key caching is enabled for the group.
+     */
+    INDEXED_LOG((byte) 3);
+
+    public final byte version;
+
+    FileStoreFormat(byte version) {
+        this.version = version;
+    }
+
+    public static FileStoreFormat fromVersion(byte version) {
+        for (FileStoreFormat format : values()) {
+            if (format.version == version) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unrecognized file store format version %d", version));
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.types;
+
+/**
+ * How to split full table scans of DynamoDB backed groups into segments that are scanned in parallel
+ */
+public class ParallelScanConfiguration {
+    private static final int DEFAULT_TOTAL_SEGMENTS = 4;
+    private static final int DEFAULT_MAX_CONCURRENT_SEGMENTS = 4;
+
+    public final int totalSegments;
+    public final int maxConcurrentSegments;
+
+    public ParallelScanConfiguration() {
+        this(DEFAULT_TOTAL_SEGMENTS, DEFAULT_MAX_CONCURRENT_SEGMENTS);
+    }
+
+    public ParallelScanConfiguration(int totalSegments, int maxConcurrentSegments) {
+        if (totalSegments < 1) {
+            throw new IllegalArgumentException(String.format("The number of scan segments must be at least 1, but was %d", totalSegments));
+        }
+
+        if (maxConcurrentSegments < 1) {
+            throw new IllegalArgumentException(String.format("The number of concurrently scanned segments must be at least 1, but was %d", maxConcurrentSegments));
+        }
+
+        this.totalSegments = totalSegments;
+        this.maxConcurrentSegments = maxConcurrentSegments;
+    }
+}
@@ -141,7 +141,10 @@ public final class RawSecretEntry implements BestEffortShred {
 
     @Override
     public void bestEffortShred() {
-        BestEffortShredder.shred(encryptedPayload);
+        // The payload is not set for entries fetched without it, see EntryStreamUnique.project
+        if (encryptedPayload != null) {
+            BestEffortShredder.shred(encryptedPayload);
+        }
 
         // Strings are immutable
         secretIdentifier = null;
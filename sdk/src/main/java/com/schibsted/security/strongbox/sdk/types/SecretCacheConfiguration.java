@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.types;
+
+/**
+ * Limits for keeping decrypted secrets in memory. An entry is discarded, and shredded, when it has been
+ * cached for longer than the time to live, or when the cache grows beyond its maximum size.
+ */
+public class SecretCacheConfiguration {
+    private static final long DEFAULT_MAXIMUM_SIZE = 1000;
+    private static final long DEFAULT_TIME_TO_LIVE_IN_SECONDS = 60;
+
+    public final long maximumSize;
+    public final long timeToLiveInSeconds;
+
+    public SecretCacheConfiguration() {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_IN_SECONDS);
+    }
+
+    public SecretCacheConfiguration(long maximumSize, long timeToLiveInSeconds) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException(String.format("The secret cache maximum size must be at least 1, but was %d", maximumSize));
+        }
+
+        if (timeToLiveInSeconds < 1) {
+            throw new IllegalArgumentException(String.format("The secret cache time to live must be at least 1 second, but was %d", timeToLiveInSeconds));
+        }
+
+        this.maximumSize = maximumSize;
+        this.timeToLiveInSeconds = timeToLiveInSeconds;
+    }
+}
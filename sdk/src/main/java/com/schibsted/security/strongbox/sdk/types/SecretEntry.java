@@ -9,6 +9,7 @@ import com.schibsted.security.strongbox.sdk.internal.encryption.BestEffortShred;
 import com.schibsted.security.strongbox.sdk.internal.encryption.EncryptionPayload;
 
 import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.Optional;
 
 /**
@@ -70,6 +71,25 @@ public class SecretEntry implements BestEffortShred {
         this.userData = userData;
     }
 
+    /**
+     * @return a deep copy of this entry, so that shredding one of them leaves the other intact
+     */
+    public SecretEntry copy() {
+        byte[] value = secretValue.asByteArray();
+        return new SecretEntry(secretIdentifier,
+                version,
+                new SecretValue(Arrays.copyOf(value, value.length), secretValue.encoding, secretValue.type),
+                created,
+                modified,
+                createdBy,
+                modifiedBy,
+                state,
+                notBefore,
+                notAfter,
+                comment.map(c -> new Comment(Arrays.copyOf(c.asByteArray(), c.asByteArray().length))),
+                userData.map(u -> new UserData(Arrays.copyOf(u.asByteArray(), u.asByteArray().length))));
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.types;
+
+/**
+ * How often to reload all active secrets of a group in the background, and for how long to keep serving the
+ * secrets that were last loaded when the reloads fail.
+ */
+public class SecretRefreshConfiguration {
+    private static final long DEFAULT_REFRESH_INTERVAL_IN_SECONDS = 60;
+    private static final long DEFAULT_GRACE_PERIOD_IN_SECONDS = 900;
+
+    public final long refreshIntervalInSeconds;
+    public final long gracePeriodInSeconds;
+
+    public SecretRefreshConfiguration() {
+        this(DEFAULT_REFRESH_INTERVAL_IN_SECONDS, DEFAULT_GRACE_PERIOD_IN_SECONDS);
+    }
+
+    public SecretRefreshConfiguration(long refreshIntervalInSeconds, long gracePeriodInSeconds) {
+        if (refreshIntervalInSeconds < 1) {
+            throw new IllegalArgumentException(String.format("The secret refresh interval must be at least 1 second, but was %d", refreshIntervalInSeconds));
+        }
+
+        if (gracePeriodInSeconds < 0) {
+            throw new IllegalArgumentException(String.format("The secret refresh grace period cannot be negative, but was %d", gracePeriodInSeconds));
+        }
+
+        this.refreshIntervalInSeconds = refreshIntervalInSeconds;
+        this.gracePeriodInSeconds = gracePeriodInSeconds;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.types;
+
+import java.io.File;
+
+/**
+ * Where to keep a local snapshot of the encrypted entries of a group, and how old the snapshot may be for a new
+ * process to start from it.
+ */
+public class SecretSnapshotConfiguration {
+    private static final long DEFAULT_MAXIMUM_AGE_IN_SECONDS = 86400;
+    private static final long DEFAULT_RETRY_INTERVAL_IN_SECONDS = 30;
+
+    public final File path;
+    public final long maximumAgeInSeconds;
+    public final long retryIntervalInSeconds;
+
+    public SecretSnapshotConfiguration(File path) {
+        this(path, DEFAULT_MAXIMUM_AGE_IN_SECONDS, DEFAULT_RETRY_INTERVAL_IN_SECONDS);
+    }
+
+    public SecretSnapshotConfiguration(File path, long maximumAgeInSeconds, long retryIntervalInSeconds) {
+        if (path == null) {
+            throw new IllegalArgumentException("The secret snapshot path must be set");
+        }
+
+        if (maximumAgeInSeconds < 0) {
+            throw new IllegalArgumentException(String.format("The secret snapshot maximum age cannot be negative, but was %d", maximumAgeInSeconds));
+        }
+
+        if (retryIntervalInSeconds < 1) {
+            throw new IllegalArgumentException(String.format("The secret snapshot retry interval must be at least 1 second, but was %d", retryIntervalInSeconds));
+        }
+
+        this.path = path;
+        this.maximumAgeInSeconds = maximumAgeInSeconds;
+        this.retryIntervalInSeconds = retryIntervalInSeconds;
+    }
+}
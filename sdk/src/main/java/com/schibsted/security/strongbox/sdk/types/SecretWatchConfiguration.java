@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.types;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+/**
+ * How often to check a watched secret for changes, and where to call its listener. By default the listener is
+ * called on a small pool of daemon threads shared by all watches, which is kept apart from the threads that check
+ * for changes.
+ */
+public class SecretWatchConfiguration {
+    private static final long DEFAULT_POLL_INTERVAL_IN_SECONDS = 30;
+
+    public final long pollIntervalInSeconds;
+    public final Optional<Executor> listenerExecutor;
+
+    public SecretWatchConfiguration() {
+        this(DEFAULT_POLL_INTERVAL_IN_SECONDS);
+    }
+
+    public SecretWatchConfiguration(long pollIntervalInSeconds) {
+        this(pollIntervalInSeconds, Optional.empty());
+    }
+
+    public SecretWatchConfiguration(long pollIntervalInSeconds, Executor listenerExecutor) {
+        this(pollIntervalInSeconds, Optional.of(listenerExecutor));
+    }
+
+    private SecretWatchConfiguration(long pollIntervalInSeconds, Optional<Executor> listenerExecutor) {
+        if (pollIntervalInSeconds < 1) {
+            throw new IllegalArgumentException(String.format("The secret poll interval must be at least 1 second, but was %d", pollIntervalInSeconds));
+        }
+
+        this.pollIntervalInSeconds = pollIntervalInSeconds;
+        this.listenerExecutor = listenerExecutor;
+    }
+}
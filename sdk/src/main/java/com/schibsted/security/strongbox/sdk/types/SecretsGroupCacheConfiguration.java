@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.types;
+
+/**
+ * How long a shared {@code SecretsGroup} instance is kept after the last handle to it has been closed
+ */
+public class SecretsGroupCacheConfiguration {
+    private static final long DEFAULT_IDLE_TIMEOUT_IN_SECONDS = 300;
+
+    public final long idleTimeoutInSeconds;
+
+    public SecretsGroupCacheConfiguration() {
+        this(DEFAULT_IDLE_TIMEOUT_IN_SECONDS);
+    }
+
+    public SecretsGroupCacheConfiguration(long idleTimeoutInSeconds) {
+        if (idleTimeoutInSeconds < 0) {
+            throw new IllegalArgumentException(String.format("The secrets group idle timeout cannot be negative, but was %d", idleTimeoutInSeconds));
+        }
+
+        this.idleTimeoutInSeconds = idleTimeoutInSeconds;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
+import com.amazonaws.services.kms.AWSKMS;
+import com.amazonaws.services.kms.model.AliasListEntry;
+import com.amazonaws.services.kms.model.ListAliasesRequest;
+import com.amazonaws.services.kms.model.ListAliasesResult;
+import com.schibsted.security.strongbox.sdk.exceptions.SecretsGroupException;
+import com.schibsted.security.strongbox.sdk.internal.RegionLocalResourceName;
+import com.schibsted.security.strongbox.sdk.internal.access.AccessLevel;
+import com.schibsted.security.strongbox.sdk.internal.access.IAMPolicyManager;
+import com.schibsted.security.strongbox.sdk.types.FanOutConfiguration;
+import com.schibsted.security.strongbox.sdk.types.Principal;
+import com.schibsted.security.strongbox.sdk.types.PrincipalType;
+import com.schibsted.security.strongbox.sdk.types.Region;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupInfo;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BulkGroupInfoTest {
+    private static final String ACCOUNT = "1234";
+
+    SecretsGroupIdentifier first = new SecretsGroupIdentifier(Region.EU_WEST_1, "first.group");
+    SecretsGroupIdentifier second = new SecretsGroupIdentifier(Region.EU_WEST_1, "second.group");
+    SecretsGroupIdentifier local = new SecretsGroupIdentifier(Region.US_WEST_1, "local.group");
+    Principal principal = new Principal(PrincipalType.ROLE, "my-role");
+
+    IAMPolicyManager policyManager;
+    AWSKMS kms;
+    AmazonDynamoDB dynamoDB;
+    Set<SecretsGroupIdentifier> localGroups;
+    ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        policyManager = mock(IAMPolicyManager.class);
+        when(policyManager.getAccount()).thenReturn(ACCOUNT);
+        when(policyManager.getPolicyName(any(), any())).thenCallRealMethod();
+        when(policyManager.listAttachedAdmin(any())).thenReturn(Collections.singletonList(principal));
+
+        kms = mock(AWSKMS.class);
+        when(kms.listAliases(any(ListAliasesRequest.class))).thenReturn(new ListAliasesResult().withAliases(
+                new AliasListEntry().withAliasName("alias/" + resourceName(first)).withTargetKeyId("first-key"),
+                new AliasListEntry().withAliasName("alias/" + resourceName(second)).withTargetKeyId("second-key"),
+                new AliasListEntry().withAliasName("alias/" + resourceName(local)).withTargetKeyId("local-key")));
+
+        dynamoDB = mock(AmazonDynamoDB.class);
+        when(dynamoDB.listTables(any(ListTablesRequest.class))).thenReturn(new ListTablesResult().withTableNames(resourceName(first)));
+
+        localGroups = new HashSet<>();
+        executor = Executors.newFixedThreadPool(16);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static String resourceName(SecretsGroupIdentifier group) {
+        return new RegionLocalResourceName(group).toString();
+    }
+
+    private void withAdminPolicies(SecretsGroupIdentifier... groups) {
+        Map<String, String> policyArns = new HashMap<>();
+        for (SecretsGroupIdentifier group : groups) {
+            String policyName = policyManager.getPolicyName(group, AccessLevel.ADMIN);
+            policyArns.put(policyName, "arn:aws:iam::1234:policy/strongbox/" + policyName);
+        }
+        when(policyManager.getPolicyArns()).thenReturn(policyArns);
+    }
+
+    private Stream<SecretsGroupInfo> infoAll(SecretsGroupIdentifier... groups) {
+        BulkGroupInfo bulkGroupInfo = new BulkGroupInfo(policyManager,
+                region -> kms,
+                region -> dynamoDB,
+                localGroups::contains,
+                group -> Optional.of("arn:file:" + group.name),
+                group -> new ReentrantReadWriteLock());
+        return bulkGroupInfo.infoAll(Arrays.asList(groups), new FanOut(new FanOutConfiguration(executor, 10)));
+    }
+
+    @Test
+    public void groups_are_looked_up_from_shared_listings() {
+        withAdminPolicies(first);
+
+        Map<SecretsGroupIdentifier, SecretsGroupInfo> infos;
+        try (Stream<SecretsGroupInfo> stream = infoAll(first, second, first)) {
+            infos = stream.collect(Collectors.toMap(info -> info.srn.groupIdentifier, info -> info));
+        }
+
+        assertThat(infos.size(), is(2));
+        SecretsGroupInfo firstInfo = infos.get(first);
+        assertThat(firstInfo.encryptorArn, is(Optional.of("arn:aws:kms:eu-west-1:1234:key/first-key")));
+        assertThat(firstInfo.storageArn, is(Optional.of("arn:aws:dynamodb:eu-west-1:1234:table/" + resourceName(first))));
+        assertThat(firstInfo.adminPolicyArn.isPresent(), is(true));
+        assertThat(firstInfo.readOnlyPolicyArn.isPresent(), is(false));
+        assertThat(firstInfo.admin, is(Collections.singletonList(principal)));
+
+        SecretsGroupInfo secondInfo = infos.get(second);
+        assertThat(secondInfo.encryptorArn, is(Optional.of("arn:aws:kms:eu-west-1:1234:key/second-key")));
+        assertThat(secondInfo.storageArn, is(Optional.empty()));
+        assertThat(secondInfo.adminPolicyArn, is(Optional.empty()));
+        assertThat(secondInfo.admin.isEmpty(), is(true));
+
+        verify(kms, times(1)).listAliases(any(ListAliasesRequest.class));
+        verify(dynamoDB, times(1)).listTables(any(ListTablesRequest.class));
+        verify(policyManager, times(1)).getPolicyArns();
+        verify(policyManager, times(1)).listAttachedAdmin(first);
+        verify(policyManager, never()).listAttachedAdmin(second);
+    }
+
+    @Test
+    public void local_groups_do_not_list_tables() {
+        withAdminPolicies();
+        localGroups.add(local);
+
+        List<SecretsGroupInfo> infos;
+        try (Stream<SecretsGroupInfo> stream = infoAll(local)) {
+            infos = stream.collect(Collectors.toList());
+        }
+
+        assertThat(infos.size(), is(1));
+        assertThat(infos.get(0).storageArn, is(Optional.of("arn:file:local.group")));
+        assertThat(infos.get(0).encryptorArn, is(Optional.of("arn:aws:kms:us-west-1:1234:key/local-key")));
+        verify(dynamoDB, never()).listTables(any(ListTablesRequest.class));
+    }
+
+    @Test
+    public void groups_are_returned_in_the_order_they_complete() throws Exception {
+        SecretsGroupIdentifier slow = new SecretsGroupIdentifier(Region.EU_WEST_1, "slow.group");
+        withAdminPolicies(slow, first);
+        CountDownLatch released = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            released.await();
+            return new ArrayList<>();
+        }).when(policyManager).listAttachedAdmin(slow);
+
+        try (Stream<SecretsGroupInfo> stream = infoAll(slow, first)) {
+            Iterator<SecretsGroupInfo> infos = stream.iterator();
+
+            assertThat(infos.next().srn.groupIdentifier, is(first));
+            released.countDown();
+            assertThat(infos.next().srn.groupIdentifier, is(slow));
+        }
+    }
+
+    @Test
+    public void concurrent_iam_calls_are_limited() {
+        List<SecretsGroupIdentifier> groups = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            groups.add(new SecretsGroupIdentifier(Region.EU_WEST_1, "group" + i));
+        }
+        withAdminPolicies(groups.toArray(new SecretsGroupIdentifier[groups.size()]));
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(policyManager.listAttachedAdmin(any())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            running.decrementAndGet();
+            return new ArrayList<>();
+        });
+
+        try (Stream<SecretsGroupInfo> stream = infoAll(groups.toArray(new SecretsGroupIdentifier[groups.size()]))) {
+            assertThat(stream.collect(Collectors.toList()).size(), is(12));
+        }
+
+        assertThat(maxRunning.get(), is(greaterThan(1)));
+        assertThat(maxRunning.get(), is(lessThanOrEqualTo(4)));
+    }
+
+    @Test
+    public void a_failed_lookup_cancels_the_others() throws Exception {
+        SecretsGroupIdentifier failing = new SecretsGroupIdentifier(Region.EU_WEST_1, "failing.group");
+        withAdminPolicies(failing, first, second);
+
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch interrupted = new CountDownLatch(2);
+        when(policyManager.listAttachedAdmin(any())).thenAnswer(invocation -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return new ArrayList<>();
+        });
+        doAnswer(invocation -> {
+            started.await();
+            throw new IllegalStateException("failed");
+        }).when(policyManager).listAttachedAdmin(failing);
+
+        // The stream is deliberately not closed, as the failure alone should cancel the other lookups
+        Iterator<SecretsGroupInfo> infos = infoAll(failing, first, second).iterator();
+        try {
+            infos.next();
+            throw new AssertionError("Expected the lookup to fail");
+        } catch (SecretsGroupException e) {
+            // expected
+        }
+
+        assertThat(interrupted.await(10, TimeUnit.SECONDS), is(true));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.google.common.base.Ticker;
+import com.schibsted.security.strongbox.sdk.internal.encryption.DummyEncryptor;
+import com.schibsted.security.strongbox.sdk.internal.impl.DefaultSecretsGroup;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.Region;
+import com.schibsted.security.strongbox.sdk.types.SecretCacheConfiguration;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretType;
+import com.schibsted.security.strongbox.sdk.types.SecretValue;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.schibsted.security.strongbox.sdk.internal.encryption.SecretsGroupTestHelpers.newFileSecretsGroup;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CachingSecretsGroupTest {
+    private static class FakeTicker extends Ticker {
+        AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    }
+
+    SecretsGroupIdentifier group = new SecretsGroupIdentifier(Region.EU_WEST_1, "my.group");
+    SecretIdentifier secretIdentifier = new SecretIdentifier("MySecret");
+
+    DummyEncryptor encryptor;
+    FakeTicker ticker;
+    CachingSecretsGroup secretsGroup;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        encryptor = new DummyEncryptor();
+        ticker = new FakeTicker();
+        DefaultSecretsGroup defaultSecretsGroup = newFileSecretsGroup(group, encryptor);
+
+        secretsGroup = new CachingSecretsGroup(defaultSecretsGroup, new SecretCacheConfiguration(10, 60), ticker);
+        secretsGroup.create(new NewSecretEntry(secretIdentifier, new SecretValue("value1", SecretType.OPAQUE), State.ENABLED));
+    }
+
+    @Test
+    public void repeated_lookups_decrypt_once() {
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value1"));
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value1"));
+        assertThat(secretsGroup.getActive(secretIdentifier, 1).get().secretValue.asString(), is("value1"));
+        assertThat(secretsGroup.getActive(secretIdentifier, 1).get().secretValue.asString(), is("value1"));
+
+        assertThat(encryptor.decryptions.get(), is(1));
+    }
+
+    @Test
+    public void expired_entries_are_decrypted_again() {
+        secretsGroup.getLatestActiveVersion(secretIdentifier);
+        ticker.nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        secretsGroup.getLatestActiveVersion(secretIdentifier);
+
+        assertThat(encryptor.decryptions.get(), is(2));
+    }
+
+    @Test
+    public void new_versions_are_visible_immediately() {
+        secretsGroup.getLatestActiveVersion(secretIdentifier);
+        secretsGroup.addVersion(new NewSecretEntry(secretIdentifier, new SecretValue("value2", SecretType.OPAQUE), State.ENABLED));
+
+        SecretEntry latest = secretsGroup.getLatestActiveVersion(secretIdentifier).get();
+        assertThat(latest.version, is(2L));
+        assertThat(latest.secretValue.asString(), is("value2"));
+    }
+
+    @Test
+    public void bulk_lookups_only_decrypt_what_is_not_cached() {
+        SecretIdentifier other = new SecretIdentifier("MyOtherSecret");
+        secretsGroup.create(new NewSecretEntry(other, new SecretValue("other1", SecretType.OPAQUE), State.ENABLED));
+        secretsGroup.getLatestActiveVersion(secretIdentifier);
+
+        Map<SecretIdentifier, SecretEntry> latest = secretsGroup.getLatestActiveVersions(Arrays.asList(secretIdentifier, other, new SecretIdentifier("Unknown")));
+
+        assertThat(latest.size(), is(2));
+        assertThat(latest.get(secretIdentifier).secretValue.asString(), is("value1"));
+        assertThat(latest.get(other).secretValue.asString(), is("other1"));
+        assertThat(encryptor.decryptions.get(), is(2));
+
+        secretsGroup.getLatestActiveVersions(Arrays.asList(secretIdentifier, other));
+        assertThat(encryptor.decryptions.get(), is(2));
+    }
+
+    @Test
+    public void returned_entries_survive_eviction() {
+        SecretEntry entry = secretsGroup.getLatestActiveVersion(secretIdentifier).get();
+        secretsGroup.invalidateAll();
+
+        assertThat(entry.secretValue.asString(), is("value1"));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.schibsted.security.strongbox.sdk.internal.encryption.DummyEncryptor;
+import com.schibsted.security.strongbox.sdk.internal.impl.DefaultSecretsGroup;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.Region;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretType;
+import com.schibsted.security.strongbox.sdk.types.SecretValue;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.schibsted.security.strongbox.sdk.internal.encryption.SecretsGroupTestHelpers.newFileSecretsGroup;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class DefaultAsyncSecretsGroupTest {
+    SecretsGroupIdentifier group = new SecretsGroupIdentifier(Region.EU_WEST_1, "my.group");
+    SecretIdentifier secretIdentifier = new SecretIdentifier("MySecret");
+
+    ExecutorService executor;
+    AtomicInteger submitted;
+    DefaultSecretsGroup defaultSecretsGroup;
+    DefaultAsyncSecretsGroup secretsGroup;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        defaultSecretsGroup = newFileSecretsGroup(group, new DummyEncryptor());
+        defaultSecretsGroup.create(new NewSecretEntry(secretIdentifier, new SecretValue("value1", SecretType.OPAQUE), State.ENABLED));
+
+        executor = Executors.newSingleThreadExecutor();
+        submitted = new AtomicInteger();
+        secretsGroup = new DefaultAsyncSecretsGroup(defaultSecretsGroup, command -> {
+            submitted.incrementAndGet();
+            executor.execute(command);
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void lookups_run_on_the_executor() throws Exception {
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().get().secretValue.asString(), is("value1"));
+        assertThat(secretsGroup.getActive(secretIdentifier, 1).get().isPresent(), is(true));
+        assertThat(secretsGroup.getActive(secretIdentifier, 2).get().isPresent(), is(false));
+        assertThat(secretsGroup.identifiers().get().contains(secretIdentifier), is(true));
+
+        assertThat(submitted.get(), is(4));
+    }
+
+    @Test
+    public void close_leaves_the_executor_of_the_caller_running() {
+        secretsGroup.close();
+
+        assertThat(executor.isShutdown(), is(false));
+    }
+
+    @Test
+    public void close_waits_for_running_lookups() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        CompletableFuture<List<SecretEntry>> lookup = secretsGroup.getAllActiveVersions(secretIdentifier);
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        }).start();
+        secretsGroup.close();
+
+        assertThat(lookup.isDone(), is(true));
+        assertThat(lookup.get().size(), is(1));
+    }
+
+    @Test
+    public void lookups_rejected_by_the_executor_fail_the_future() throws Exception {
+        DefaultAsyncSecretsGroup rejecting = new DefaultAsyncSecretsGroup(defaultSecretsGroup, command -> {
+            throw new RejectedExecutionException("queue is full");
+        });
+
+        CompletableFuture<Set<SecretIdentifier>> lookup = rejecting.identifiers();
+
+        assertThat(lookup.isCompletedExceptionally(), is(true));
+        try {
+            lookup.get();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof RejectedExecutionException, is(true));
+        }
+        rejecting.close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void lookups_are_rejected_after_close() {
+        secretsGroup.close();
+        secretsGroup.identifiers();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.schibsted.security.strongbox.sdk.types.FanOutConfiguration;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class FanOutTest {
+    @Test
+    public void results_are_returned() throws Exception {
+        try (FanOut fanOut = new FanOut(new FanOutConfiguration())) {
+            Future<String> first = fanOut.submit(() -> "first");
+            Future<String> second = fanOut.submit(() -> "second");
+
+            assertThat(fanOut.get(first), is("first"));
+            assertThat(fanOut.get(second), is("second"));
+        }
+    }
+
+    @Test
+    public void calls_still_running_at_the_deadline_are_interrupted() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        FanOut fanOut = new FanOut(new FanOutConfiguration(1));
+        Future<Void> call = fanOut.submit(() -> {
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+
+        try {
+            fanOut.get(call);
+            throw new AssertionError("Expected the call to time out");
+        } catch (TimeoutException e) {
+            // expected
+        } finally {
+            fanOut.close();
+        }
+
+        assertThat(call.isCancelled(), is(true));
+        assertThat(interrupted.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void all_failures_are_collected() throws Exception {
+        try (FanOut fanOut = new FanOut(new FanOutConfiguration(Runnable::run, 10))) {
+            fanOut.submit(() -> {
+                throw new IllegalStateException("first");
+            });
+            fanOut.submit(() -> "ok");
+            fanOut.submit(() -> {
+                throw new IllegalArgumentException("second");
+            });
+
+            List<ExecutionException> failures = fanOut.awaitAll();
+            assertThat(failures.size(), is(2));
+            assertThat(failures.get(0).getCause(), instanceOf(IllegalStateException.class));
+            assertThat(failures.get(1).getCause(), instanceOf(IllegalArgumentException.class));
+        }
+    }
+
+    @Test
+    public void time_spent_queued_does_not_count() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (FanOut fanOut = new FanOut(new FanOutConfiguration(executor, 1))) {
+            Future<String> first = fanOut.submit(() -> {
+                Thread.sleep(700);
+                return "first";
+            });
+            Future<String> second = fanOut.submit(() -> {
+                Thread.sleep(700);
+                return "second";
+            });
+
+            assertThat(fanOut.get(first), is("first"));
+            assertThat(fanOut.get(second), is("second"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void changes_have_no_timeout_by_default() throws Exception {
+        FanOutConfiguration configuration = new FanOutConfiguration(1);
+        assertThat(configuration.changeTimeoutInSeconds.isPresent(), is(false));
+
+        try (FanOut fanOut = FanOut.forChanges(configuration)) {
+            Future<String> call = fanOut.submit(() -> {
+                Thread.sleep(1500);
+                return "done";
+            });
+
+            assertThat(fanOut.get(call), is("done"));
+        }
+    }
+
+    @Test
+    public void changes_use_their_own_timeout() throws Exception {
+        try (FanOut fanOut = FanOut.forChanges(new FanOutConfiguration(Optional.empty(), 60, Optional.of(1L)))) {
+            Future<Void> call = fanOut.submit(() -> {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                return null;
+            });
+
+            fanOut.get(call);
+            throw new AssertionError("Expected the call to time out");
+        } catch (TimeoutException e) {
+            // expected
+        }
+    }
+}
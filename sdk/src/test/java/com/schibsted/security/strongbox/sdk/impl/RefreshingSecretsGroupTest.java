@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.google.common.base.Ticker;
+import com.schibsted.security.strongbox.sdk.internal.encryption.DummyEncryptor;
+import com.schibsted.security.strongbox.sdk.internal.encryption.EncryptionContext;
+import com.schibsted.security.strongbox.sdk.internal.impl.DefaultSecretsGroup;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.Region;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretRefreshConfiguration;
+import com.schibsted.security.strongbox.sdk.types.SecretType;
+import com.schibsted.security.strongbox.sdk.types.SecretValue;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.schibsted.security.strongbox.sdk.internal.encryption.SecretsGroupTestHelpers.newFileSecretsGroup;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class RefreshingSecretsGroupTest {
+    private static class FlakyEncryptor extends DummyEncryptor {
+        AtomicBoolean failing = new AtomicBoolean();
+
+        @Override
+        public byte[] decrypt(byte[] data, EncryptionContext context) {
+            if (failing.get()) {
+                throw new IllegalStateException("KMS is unavailable");
+            }
+            return super.decrypt(data, context);
+        }
+    }
+
+    private static class FakeTicker extends Ticker {
+        AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    }
+
+    SecretsGroupIdentifier group = new SecretsGroupIdentifier(Region.EU_WEST_1, "my.group");
+    SecretIdentifier secretIdentifier = new SecretIdentifier("MySecret");
+
+    FlakyEncryptor encryptor;
+    FakeTicker ticker;
+    DefaultSecretsGroup defaultSecretsGroup;
+    RefreshingSecretsGroup secretsGroup;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        encryptor = new FlakyEncryptor();
+        ticker = new FakeTicker();
+        defaultSecretsGroup = newFileSecretsGroup(group, encryptor);
+        defaultSecretsGroup.create(new NewSecretEntry(secretIdentifier, new SecretValue("value1", SecretType.OPAQUE), State.ENABLED));
+
+        secretsGroup = new RefreshingSecretsGroup(defaultSecretsGroup, new SecretRefreshConfiguration(60, 300), ticker, false);
+    }
+
+    @Test
+    public void reads_are_served_from_memory() {
+        int loaded = encryptor.decryptions.get();
+
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value1"));
+        assertThat(secretsGroup.getActive(secretIdentifier, 1).get().secretValue.asString(), is("value1"));
+        assertThat(secretsGroup.getLatestActiveVersionOfAllSecrets().size(), is(1));
+
+        assertThat(encryptor.decryptions.get(), is(loaded));
+    }
+
+    @Test
+    public void changes_made_elsewhere_are_visible_after_a_refresh() {
+        defaultSecretsGroup.addVersion(new NewSecretEntry(secretIdentifier, new SecretValue("value2", SecretType.OPAQUE), State.ENABLED));
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value1"));
+
+        assertThat(secretsGroup.refresh(), is(true));
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value2"));
+    }
+
+    @Test
+    public void changes_made_through_the_group_only_reload_the_changed_secret() {
+        SecretIdentifier other = new SecretIdentifier("OtherSecret");
+        secretsGroup.create(new NewSecretEntry(other, new SecretValue("other1", SecretType.OPAQUE), State.ENABLED));
+        int loaded = encryptor.decryptions.get();
+
+        secretsGroup.addVersion(new NewSecretEntry(secretIdentifier, new SecretValue("value2", SecretType.OPAQUE), State.ENABLED));
+
+        assertThat(encryptor.decryptions.get(), is(loaded + 2));
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value2"));
+        assertThat(secretsGroup.getLatestActiveVersion(other).get().secretValue.asString(), is("other1"));
+    }
+
+    @Test
+    public void deleted_secrets_are_removed() {
+        secretsGroup.delete(secretIdentifier);
+
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).isPresent(), is(false));
+        assertThat(secretsGroup.getLatestActiveVersionOfAllSecrets().size(), is(0));
+    }
+
+    @Test
+    public void closed_group_is_not_refreshed() {
+        secretsGroup.close();
+
+        assertThat(secretsGroup.refresh(), is(false));
+    }
+
+    @Test
+    public void last_known_values_are_served_during_the_grace_period() {
+        encryptor.failing.set(true);
+        ticker.nanos.addAndGet(TimeUnit.SECONDS.toNanos(60));
+
+        assertThat(secretsGroup.refresh(), is(false));
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value1"));
+
+        ticker.nanos.addAndGet(TimeUnit.SECONDS.toNanos(300));
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value1"));
+    }
+
+    @Test
+    public void reads_go_to_the_store_after_the_grace_period() {
+        ticker.nanos.addAndGet(TimeUnit.SECONDS.toNanos(361));
+        int loaded = encryptor.decryptions.get();
+
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value1"));
+        assertThat(encryptor.decryptions.get(), is(loaded + 1));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.schibsted.security.strongbox.sdk.SecretsGroup;
+import com.schibsted.security.strongbox.sdk.internal.encryption.DummyEncryptor;
+import com.schibsted.security.strongbox.sdk.internal.encryption.Encryptor;
+import com.schibsted.security.strongbox.sdk.internal.encryption.FileEncryptionContext;
+import com.schibsted.security.strongbox.sdk.internal.impl.DefaultSecretsGroup;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.File;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.Region;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretType;
+import com.schibsted.security.strongbox.sdk.types.SecretValue;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupCacheConfiguration;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.schibsted.security.strongbox.sdk.internal.encryption.SecretsGroupTestHelpers.newStorePath;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SecretsGroupCacheTest {
+    SecretsGroupIdentifier group = new SecretsGroupIdentifier(Region.EU_WEST_1, "my.group");
+    SecretIdentifier secretIdentifier = new SecretIdentifier("MySecret");
+
+    java.io.File path;
+    AtomicInteger loaded;
+    AtomicInteger closed;
+    CountDownLatch listing;
+    CountDownLatch listed;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        path = newStorePath("cache");
+        loaded = new AtomicInteger();
+        closed = new AtomicInteger();
+        listing = new CountDownLatch(1);
+        listed = new CountDownLatch(0);
+    }
+
+    private SecretsGroup load(SecretsGroupIdentifier group) {
+        loaded.incrementAndGet();
+        Encryptor encryptor = new DummyEncryptor();
+        ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+        File store = new File(path, encryptor, new FileEncryptionContext(group), readWriteLock);
+        return new DefaultSecretsGroup("1234", group, store, encryptor, readWriteLock) {
+            @Override
+            public Set<SecretIdentifier> identifiers() {
+                listing.countDown();
+                try {
+                    listed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.identifiers();
+            }
+
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+                super.close();
+            }
+        };
+    }
+
+    private SecretsGroupCache cache(long idleTimeoutInSeconds) {
+        return new SecretsGroupCache(this::load, new SecretsGroupCacheConfiguration(idleTimeoutInSeconds));
+    }
+
+    @Test
+    public void handles_share_one_instance() {
+        SecretsGroupCache cache = cache(300);
+        SecretsGroup first = cache.acquire(group);
+        SecretsGroup second = cache.acquire(group);
+
+        first.create(new NewSecretEntry(secretIdentifier, new SecretValue("value", SecretType.OPAQUE), State.ENABLED));
+        assertThat(second.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value"));
+
+        first.close();
+        second.close();
+        assertThat(loaded.get(), is(1));
+        assertThat(closed.get(), is(0));
+    }
+
+    @Test
+    public void idle_instances_are_evicted() {
+        SecretsGroupCache cache = cache(0);
+        SecretsGroup handle = cache.acquire(group);
+        cache.evictIdle();
+        assertThat(cache.size(), is(1));
+
+        handle.close();
+        cache.evictIdle();
+        assertThat(cache.size(), is(0));
+        assertThat(closed.get(), is(1));
+
+        cache.acquire(group).close();
+        assertThat(loaded.get(), is(2));
+    }
+
+    @Test
+    public void releasing_handles_keeps_one_eviction_pending() {
+        SecretsGroupCache cache = cache(300);
+        int pending = SecretsGroupCache.scheduler.getQueue().size();
+
+        for (int i = 0; i < 100; i++) {
+            cache.acquire(group).close();
+        }
+
+        assertThat(SecretsGroupCache.scheduler.getQueue().size(), is(pending + 1));
+        assertThat(loaded.get(), is(1));
+    }
+
+    @Test
+    public void invalidated_instances_are_replaced_and_closed_when_idle() {
+        SecretsGroupCache cache = cache(0);
+        SecretsGroup handle = cache.acquire(group);
+        handle.identifiers();
+
+        cache.invalidate(group);
+        cache.evictIdle();
+        assertThat(closed.get(), is(0));
+
+        handle.identifiers();
+        assertThat(loaded.get(), is(2));
+
+        cache.evictIdle();
+        assertThat(closed.get(), is(1));
+
+        handle.close();
+    }
+
+    @Test
+    public void invalidated_instances_are_not_closed_while_a_call_is_running() throws Exception {
+        SecretsGroupCache cache = cache(0);
+        SecretsGroup handle = cache.acquire(group);
+        listed = new CountDownLatch(1);
+        Thread caller = new Thread(handle::identifiers);
+        caller.start();
+        listing.await();
+
+        cache.invalidate(group);
+        handle.srn(secretIdentifier);
+        cache.evictIdle();
+        assertThat(closed.get(), is(0));
+
+        listed.countDown();
+        caller.join();
+        cache.evictIdle();
+        assertThat(closed.get(), is(1));
+
+        handle.close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void closed_handles_cannot_be_used() {
+        SecretsGroup handle = cache(300).acquire(group);
+        handle.close();
+
+        handle.identifiers();
+    }
+}
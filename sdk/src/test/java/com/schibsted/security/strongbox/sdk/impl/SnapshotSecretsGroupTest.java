@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.impl;
+
+import com.schibsted.security.strongbox.sdk.internal.encryption.DummyEncryptor;
+import com.schibsted.security.strongbox.sdk.internal.impl.DefaultSecretsGroup;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.Region;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretSnapshotConfiguration;
+import com.schibsted.security.strongbox.sdk.types.SecretType;
+import com.schibsted.security.strongbox.sdk.types.SecretValue;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static com.schibsted.security.strongbox.sdk.internal.encryption.SecretsGroupTestHelpers.newFileSecretsGroup;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SnapshotSecretsGroupTest {
+    SecretsGroupIdentifier group = new SecretsGroupIdentifier(Region.EU_WEST_1, "my.group");
+    SecretIdentifier secretIdentifier = new SecretIdentifier("MySecret");
+
+    DummyEncryptor encryptor = new DummyEncryptor();
+    DefaultSecretsGroup store;
+    Path snapshotPath;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        Path directory = Files.createTempDirectory("snapshot");
+        directory.toFile().deleteOnExit();
+        snapshotPath = directory.resolve("my.group.sbx");
+
+        store = newFileSecretsGroup(group, directory.resolve("store.sbx").toFile(), encryptor);
+        store.create(new NewSecretEntry(secretIdentifier, new SecretValue("value1", SecretType.OPAQUE), State.ENABLED));
+    }
+
+    private SnapshotSecretsGroup start(long maximumAgeInSeconds) {
+        return new SnapshotSecretsGroup(store, group, encryptor, new SecretSnapshotConfiguration(snapshotPath.toFile(), maximumAgeInSeconds, 30), false);
+    }
+
+    @Test
+    public void first_start_reads_the_store_and_writes_a_snapshot() {
+        SnapshotSecretsGroup secretsGroup = start(60);
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value1"));
+
+        assertThat(secretsGroup.revalidate(), is(true));
+        assertThat(Files.exists(snapshotPath), is(true));
+    }
+
+    @Test
+    public void snapshot_is_encrypted_once() {
+        for (int i = 2; i <= 10; i++) {
+            store.addVersion(new NewSecretEntry(secretIdentifier, new SecretValue("value" + i, SecretType.OPAQUE), State.ENABLED));
+        }
+        SnapshotSecretsGroup secretsGroup = start(60);
+        int encrypted = encryptor.encryptions.get();
+
+        assertThat(secretsGroup.revalidate(), is(true));
+        assertThat(encryptor.encryptions.get(), is(encrypted + 1));
+
+        SnapshotSecretsGroup restarted = start(60);
+        assertThat(restarted.getActive(secretIdentifier, 1).get().secretValue.asString(), is("value1"));
+        assertThat(restarted.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value10"));
+    }
+
+    @Test
+    public void later_starts_read_the_snapshot_until_it_is_revalidated() {
+        start(60).revalidate();
+        store.addVersion(new NewSecretEntry(secretIdentifier, new SecretValue("value2", SecretType.OPAQUE), State.ENABLED));
+
+        SnapshotSecretsGroup secretsGroup = start(60);
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value1"));
+
+        assertThat(secretsGroup.revalidate(), is(true));
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value2"));
+
+        SnapshotSecretsGroup restarted = start(60);
+        assertThat(restarted.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value2"));
+    }
+
+    @Test
+    public void old_snapshots_are_not_used() throws IOException {
+        start(60).revalidate();
+        store.addVersion(new NewSecretEntry(secretIdentifier, new SecretValue("value2", SecretType.OPAQUE), State.ENABLED));
+        Path marker = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".marker");
+        Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis() - 120_000));
+
+        SnapshotSecretsGroup secretsGroup = start(60);
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value2"));
+    }
+
+    @Test
+    public void writes_invalidate_the_snapshot_without_rewriting_it() throws IOException {
+        start(60).revalidate();
+        Path marker = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".marker");
+        FileTime written = Files.getLastModifiedTime(snapshotPath);
+
+        SnapshotSecretsGroup secretsGroup = start(60);
+        secretsGroup.addVersion(new NewSecretEntry(secretIdentifier, new SecretValue("value2", SecretType.OPAQUE), State.ENABLED));
+
+        assertThat(secretsGroup.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value2"));
+        assertThat(Files.exists(marker), is(false));
+        assertThat(Files.getLastModifiedTime(snapshotPath), is(written));
+
+        SnapshotSecretsGroup restarted = start(60);
+        assertThat(restarted.getLatestActiveVersion(secretIdentifier).get().secretValue.asString(), is("value2"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.schibsted.security.strongbox.sdk.types.ClientConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class ClientRegistryTest {
+    AWSCredentialsProvider awsCredentials = new AWSStaticCredentialsProvider(new BasicAWSCredentials("access", "secret"));
+    ClientRegistry clientRegistry;
+
+    @BeforeMethod
+    public void setUp() {
+        clientRegistry = new ClientRegistry();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        clientRegistry.close();
+    }
+
+    @Test
+    public void clients_are_shared_for_the_same_credentials_region_and_configuration() {
+        AmazonDynamoDB client = clientRegistry.dynamoDB(awsCredentials, "eu-west-1", new ClientConfiguration());
+
+        assertThat(clientRegistry.dynamoDB(awsCredentials, "eu-west-1", new ClientConfiguration()), is(sameInstance(client)));
+        assertThat(clientRegistry.dynamoDB(awsCredentials, "us-west-1", new ClientConfiguration()), is(not(sameInstance(client))));
+        assertThat(clientRegistry.dynamoDB(new AWSStaticCredentialsProvider(new BasicAWSCredentials("access", "secret")), "eu-west-1", new ClientConfiguration()), is(not(sameInstance(client))));
+    }
+
+    @Test
+    public void clients_are_not_shared_across_configurations() {
+        ClientConfiguration proxied = new ClientConfiguration(new ClientConfiguration.Proxy(Optional.empty(), Optional.empty(), Collections.emptyList(), "proxy.example.com", 3128));
+        AmazonDynamoDB client = clientRegistry.dynamoDB(awsCredentials, "eu-west-1", proxied);
+
+        assertThat(clientRegistry.dynamoDB(awsCredentials, "eu-west-1", new ClientConfiguration()), is(not(sameInstance(client))));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void a_closed_registry_cannot_be_used() {
+        clientRegistry.kms(awsCredentials, "eu-west-1", new ClientConfiguration());
+        clientRegistry.close();
+
+        clientRegistry.kms(awsCredentials, "eu-west-1", new ClientConfiguration());
+    }
+
+    @Test
+    public void a_closed_default_registry_is_replaced() {
+        ClientRegistry defaultRegistry = ClientRegistry.defaultRegistry();
+        assertThat(ClientRegistry.defaultRegistry(), is(sameInstance(defaultRegistry)));
+
+        defaultRegistry.close();
+
+        ClientRegistry replacement = ClientRegistry.defaultRegistry();
+        assertThat(replacement, is(not(sameInstance(defaultRegistry))));
+        replacement.kms(awsCredentials, "eu-west-1", new ClientConfiguration());
+    }
+
+    @Test
+    public void assumed_roles_are_shared() {
+        String role = "arn:aws:iam::1234:role/my-role";
+        AWSCredentialsProvider roleCredentials = clientRegistry.assumeRole(role, "session");
+
+        assertThat(clientRegistry.assumeRole(role, "other-session"), is(sameInstance(roleCredentials)));
+        assertThat(clientRegistry.assumeRole("arn:aws:iam::1234:role/other-role", "session"), is(not(sameInstance(roleCredentials))));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void a_closed_registry_cannot_assume_roles() {
+        clientRegistry.close();
+
+        clientRegistry.assumeRole("arn:aws:iam::1234:role/my-role", "session");
+    }
+
+    @Test
+    public void closing_twice_is_allowed() {
+        clientRegistry.sts(awsCredentials, "eu-west-1", new ClientConfiguration());
+        clientRegistry.close();
+        clientRegistry.close();
+    }
+}
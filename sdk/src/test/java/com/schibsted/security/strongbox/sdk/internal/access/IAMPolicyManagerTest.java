@@ -28,6 +28,8 @@ import com.amazonaws.services.kms.AWSKMSClient;
 import com.amazonaws.services.kms.model.DescribeKeyRequest;
 import com.amazonaws.services.kms.model.DescribeKeyResult;
 import com.amazonaws.services.kms.model.KeyMetadata;
+import com.google.common.base.Ticker;
+import com.schibsted.security.strongbox.sdk.internal.ClientRegistry;
 import com.schibsted.security.strongbox.sdk.internal.encryption.KMSEncryptor;
 import com.schibsted.security.strongbox.sdk.internal.encryption.KMSManager;
 import com.schibsted.security.strongbox.sdk.internal.RegionLocalResourceName;
@@ -44,7 +46,10 @@ import org.testng.annotations.Test;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static org.testng.Assert.*;
@@ -55,6 +60,15 @@ import static org.mockito.Mockito.*;
  * @author stiankri
  */
 public class IAMPolicyManagerTest {
+    private static class FakeTicker extends Ticker {
+        AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    }
+
     private static final String ACCOUNT="1234";
     private static final String ADMIN_POLICY_ARN="arn:aws:iam::1234:policy/strongbox/strongbox_us-west-1_test-group_admin";
     private static final String READONLY_POLICY_ARN="arn:aws:iam::1234:policy/strongbox/strongbox_us-west-1_test-group_readonly";
@@ -72,6 +86,7 @@ public class IAMPolicyManagerTest {
     private AmazonDynamoDBClient mockDynamoDBClient;
     private AWSKMSClient mockKMSClient;
 
+    private FakeTicker ticker;
     private IAMPolicyManager partiallyMockedPolicyManager;
     private KMSEncryptor kmsEncryptor;
     private DynamoDB partiallyMockedStore;
@@ -81,7 +96,8 @@ public class IAMPolicyManagerTest {
         mockCredentials = mock(AWSCredentialsProvider.class);
         mockClient = mock(AmazonIdentityManagementClient.class);
         ClientConfiguration mockConfig = mock(ClientConfiguration.class);
-        IAMPolicyManager policyManager = new IAMPolicyManager(mockClient, mockCredentials, mockConfig);
+        ticker = new FakeTicker();
+        IAMPolicyManager policyManager = new IAMPolicyManager(mockClient, mockCredentials, mockConfig, ClientRegistry.defaultRegistry(), ticker);
 
         // The mockito spy acts like original object but mocks out the getAccount() method. As the getAccount() calls
         // directly rather than via a client that we can pass in we need to mock this out using a spy.
@@ -225,6 +241,26 @@ public class IAMPolicyManagerTest {
         assertEquals(list.get(2), new Principal(PrincipalType.ROLE, "awesome-service"));
     }
 
+    @Test
+    public void testListAttachedAdminFollowsAllPages() throws Exception {
+        ListEntitiesForPolicyRequest firstRequest = new ListEntitiesForPolicyRequest()
+                .withPolicyArn(ADMIN_POLICY_ARN);
+        ListEntitiesForPolicyRequest secondRequest = new ListEntitiesForPolicyRequest()
+                .withPolicyArn(ADMIN_POLICY_ARN)
+                .withMarker("page2");
+        when(mockClient.listEntitiesForPolicy(firstRequest)).thenReturn(new ListEntitiesForPolicyResult()
+                .withPolicyRoles(new PolicyRole().withRoleName("awesome-service"))
+                .withIsTruncated(true)
+                .withMarker("page2"));
+        when(mockClient.listEntitiesForPolicy(secondRequest)).thenReturn(new ListEntitiesForPolicyResult()
+                .withPolicyUsers(new PolicyUser().withUserName("bob")));
+
+        List<Principal> list = partiallyMockedPolicyManager.listAttachedAdmin(group);
+        assertEquals(list.size(), 2);
+        assertEquals(list.get(0), new Principal(PrincipalType.USER, "bob"));
+        assertEquals(list.get(1), new Principal(PrincipalType.ROLE, "awesome-service"));
+    }
+
     @Test
     public void testListAttachedReadOnly() throws Exception {
         ListEntitiesForPolicyRequest request = new ListEntitiesForPolicyRequest()
@@ -275,6 +311,66 @@ public class IAMPolicyManagerTest {
         verify(mockClient, times(1)).listPolicies(request);
     }
 
+    @Test
+    public void testGetSecretsGroupIdentifiersFollowsAllPages() throws Exception {
+        ListPoliciesRequest firstRequest = new ListPoliciesRequest().withMaxItems(1000).withPathPrefix("/strongbox/");
+        ListPoliciesRequest secondRequest = new ListPoliciesRequest().withMaxItems(1000).withPathPrefix("/strongbox/").withMarker("page2");
+        when(mockClient.listPolicies(firstRequest)).thenReturn(new ListPoliciesResult()
+                .withPolicies(new Policy().withPolicyName("strongbox_us-west-1_test-group1_admin"))
+                .withIsTruncated(true)
+                .withMarker("page2"));
+        when(mockClient.listPolicies(secondRequest)).thenReturn(new ListPoliciesResult()
+                .withPolicies(new Policy().withPolicyName("strongbox_eu-west-1_test-group2_admin")));
+
+        Set<SecretsGroupIdentifier> identifiers = partiallyMockedPolicyManager.getSecretsGroupIdentifiers();
+        assertEquals(identifiers.size(), 2);
+        assertTrue(identifiers.contains(new SecretsGroupIdentifier(Region.US_WEST_1, "test.group1")));
+        assertTrue(identifiers.contains(new SecretsGroupIdentifier(Region.EU_WEST_1, "test.group2")));
+    }
+
+    @Test
+    public void testGetSecretsGroupIdentifiersIsCachedUntilAPolicyIsDeleted() throws Exception {
+        ListPoliciesRequest request = new ListPoliciesRequest().withMaxItems(1000).withPathPrefix("/strongbox/");
+        when(mockClient.listPolicies(request)).thenReturn(new ListPoliciesResult()
+                .withPolicies(new Policy().withPolicyName("strongbox_us-west-1_test-group_admin")));
+
+        partiallyMockedPolicyManager.getSecretsGroupIdentifiers();
+        partiallyMockedPolicyManager.getSecretsGroupIdentifiers();
+        verify(mockClient, times(1)).listPolicies(request);
+
+        partiallyMockedPolicyManager.deleteAdminPolicy(group);
+        partiallyMockedPolicyManager.getSecretsGroupIdentifiers();
+        verify(mockClient, times(2)).listPolicies(request);
+    }
+
+    @Test
+    public void testGetSecretsGroupIdentifiersIsCachedUntilItExpires() throws Exception {
+        ListPoliciesRequest request = new ListPoliciesRequest().withMaxItems(1000).withPathPrefix("/strongbox/");
+        when(mockClient.listPolicies(request)).thenReturn(new ListPoliciesResult()
+                .withPolicies(new Policy().withPolicyName("strongbox_us-west-1_test-group_admin")));
+
+        partiallyMockedPolicyManager.getSecretsGroupIdentifiers();
+        ticker.nanos.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        partiallyMockedPolicyManager.getSecretsGroupIdentifiers();
+        verify(mockClient, times(1)).listPolicies(request);
+
+        ticker.nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        partiallyMockedPolicyManager.getSecretsGroupIdentifiers();
+        verify(mockClient, times(2)).listPolicies(request);
+    }
+
+    @Test
+    public void testGetPolicyArns() throws Exception {
+        ListPoliciesRequest request = new ListPoliciesRequest().withMaxItems(1000).withPathPrefix("/strongbox/");
+        when(mockClient.listPolicies(request)).thenReturn(new ListPoliciesResult()
+                .withPolicies(new Policy().withPolicyName("strongbox_us-west-1_test-group_admin").withArn(ADMIN_POLICY_ARN),
+                        new Policy().withPolicyName("strongbox_us-west-1_test-group_readonly").withArn(READONLY_POLICY_ARN)));
+
+        Map<String, String> policyArns = partiallyMockedPolicyManager.getPolicyArns();
+        assertEquals(policyArns.get(partiallyMockedPolicyManager.getPolicyName(group, AccessLevel.ADMIN)), ADMIN_POLICY_ARN);
+        assertEquals(policyArns.get(partiallyMockedPolicyManager.getPolicyName(group, AccessLevel.READONLY)), READONLY_POLICY_ARN);
+    }
+
     private CreatePolicyRequest constructCreatePolicyRequest(String accessType, String policyDocument) {
         return new CreatePolicyRequest()
                 .withPolicyName(String.format("strongbox_us-west-1_test-group_%s", accessType))
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.encryption;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes the data through unencrypted, and counts the calls
+ */
+public class DummyEncryptor implements Encryptor {
+    public final AtomicInteger encryptions = new AtomicInteger();
+    public final AtomicInteger decryptions = new AtomicInteger();
+
+    @Override
+    public String encrypt(String data, EncryptionContext context) {
+        return null;
+    }
+
+    @Override
+    public String decrypt(String data, EncryptionContext context) {
+        return null;
+    }
+
+    @Override
+    public byte[] encrypt(byte[] data, EncryptionContext context) {
+        encryptions.incrementAndGet();
+        return Arrays.copyOf(data, data.length);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] data, EncryptionContext context) {
+        decryptions.incrementAndGet();
+        return Arrays.copyOf(data, data.length);
+    }
+}
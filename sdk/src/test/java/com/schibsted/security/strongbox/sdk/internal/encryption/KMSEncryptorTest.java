@@ -7,9 +7,11 @@ package com.schibsted.security.strongbox.sdk.internal.encryption;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.encryptionsdk.AwsCrypto;
 import com.amazonaws.encryptionsdk.CryptoAlgorithm;
+import com.amazonaws.encryptionsdk.CryptoMaterialsManager;
 import com.amazonaws.encryptionsdk.CryptoResult;
 import com.amazonaws.encryptionsdk.kms.KmsMasterKeyProvider;
 import com.schibsted.security.strongbox.sdk.types.ClientConfiguration;
+import com.schibsted.security.strongbox.sdk.types.DataKeyCacheConfiguration;
 import com.schibsted.security.strongbox.sdk.types.EncryptionStrength;
 import com.schibsted.security.strongbox.sdk.types.Region;
 import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
@@ -75,6 +77,46 @@ public class KMSEncryptorTest {
         assertEquals(kmsEncryptor.encrypt(plaintext, mockContext), encryptedPayload);
     }
 
+    @Test
+    public void testEncryptWithDataKeyCaching() throws Exception {
+        String plaintext = "jsonblob";
+        EncryptionContext mockContext = mock(EncryptionContext.class);
+        CryptoResult mockCryptoResult = mock(CryptoResult.class);
+        Map<String, String> contextMap = new HashMap<>();
+
+        KMSEncryptor cachingEncryptor = spy(new KMSEncryptor(mockKmsManager, mock(AWSCredentialsProvider.class), mock(ClientConfiguration.class),
+                new SecretsGroupIdentifier(Region.US_WEST_1, "test.group"), mockAwsCrypto, EncryptionStrength.AES_256,
+                Optional.of(new DataKeyCacheConfiguration())));
+        CryptoMaterialsManager mockMaterialsManager = mock(CryptoMaterialsManager.class);
+        doReturn(mockMaterialsManager).when(cachingEncryptor).getMaterialsManager();
+
+        when(mockContext.toMap()).thenReturn(contextMap);
+        when(mockCryptoResult.getResult()).thenReturn(encryptedPayload);
+        when(mockAwsCrypto.encryptString(mockMaterialsManager, plaintext, contextMap)).thenReturn(
+                mockCryptoResult);
+        assertEquals(cachingEncryptor.encrypt(plaintext, mockContext), encryptedPayload);
+        assertEquals(cachingEncryptor.getDataKeyCacheHits(), 0L);
+    }
+
+    @Test
+    public void testCloseDropsTheCachedDataKeys() throws Exception {
+        KMSEncryptor cachingEncryptor = spy(new KMSEncryptor(mockKmsManager, mock(AWSCredentialsProvider.class), mock(ClientConfiguration.class),
+                new SecretsGroupIdentifier(Region.US_WEST_1, "test.group"), mockAwsCrypto, EncryptionStrength.AES_256,
+                Optional.of(new DataKeyCacheConfiguration())));
+        doReturn(mockProvider).when(cachingEncryptor).getProvider();
+
+        CryptoMaterialsManager materialsManager = cachingEncryptor.getMaterialsManager();
+        assertSame(cachingEncryptor.getMaterialsManager(), materialsManager);
+
+        cachingEncryptor.close();
+        assertNotSame(cachingEncryptor.getMaterialsManager(), materialsManager);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidDataKeyCacheConfiguration() throws Exception {
+        new DataKeyCacheConfiguration(0, 300, 100, 1024);
+    }
+
     // TODO: test the decrypt method with:
     //   (1) valid Ciphertext
     //   (2) invalid key
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.encryption;
+
+import com.schibsted.security.strongbox.sdk.internal.impl.DefaultSecretsGroup;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.File;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sets up file backed secrets groups for the tests of the wrappers around {@code DefaultSecretsGroup}
+ */
+public class SecretsGroupTestHelpers {
+
+    /**
+     * A path for a file store that does not exist yet, and is deleted when the tests exit
+     */
+    public static java.io.File newStorePath(String prefix) throws IOException {
+        java.io.File path = java.io.File.createTempFile(prefix, ".sbx");
+        path.delete();
+        path.deleteOnExit();
+        return path;
+    }
+
+    public static DefaultSecretsGroup newFileSecretsGroup(SecretsGroupIdentifier group, Encryptor encryptor) throws IOException {
+        return newFileSecretsGroup(group, newStorePath("secrets"), encryptor);
+    }
+
+    public static DefaultSecretsGroup newFileSecretsGroup(SecretsGroupIdentifier group, java.io.File path, Encryptor encryptor) {
+        ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+        File store = new File(path, encryptor, new FileEncryptionContext(group), readWriteLock);
+        return new DefaultSecretsGroup("1234", group, store, encryptor, readWriteLock);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.impl;
+
+import com.google.common.util.concurrent.Striped;
+import com.schibsted.security.strongbox.sdk.internal.encryption.DefaultEncryptionContext;
+import com.schibsted.security.strongbox.sdk.internal.encryption.DummyEncryptor;
+import com.schibsted.security.strongbox.sdk.internal.encryption.EncryptionContext;
+import com.schibsted.security.strongbox.sdk.internal.encryption.FileEncryptionContext;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.File;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.Region;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretType;
+import com.schibsted.security.strongbox.sdk.types.SecretValue;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.schibsted.security.strongbox.sdk.internal.encryption.SecretsGroupTestHelpers.newStorePath;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class DefaultSecretsGroupTest {
+    /**
+     * Holds back the encryption of the secret named 'Blocked' until it is released
+     */
+    private static class BlockingEncryptor extends DummyEncryptor {
+        CountDownLatch encrypting = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public byte[] encrypt(byte[] data, EncryptionContext context) {
+            if (context instanceof DefaultEncryptionContext
+                    && ((DefaultEncryptionContext) context).secretIdentifier.name.equals("Blocked")) {
+                encrypting.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return super.encrypt(data, context);
+        }
+    }
+
+    SecretsGroupIdentifier group = new SecretsGroupIdentifier(Region.EU_WEST_1, "my.group");
+
+    BlockingEncryptor encryptor;
+    Striped<Lock> secretLocks;
+    DefaultSecretsGroup secretsGroup;
+    ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        encryptor = new BlockingEncryptor();
+        ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+        File store = new File(newStorePath("default"), encryptor, new FileEncryptionContext(group), readWriteLock);
+        secretLocks = DefaultSecretsGroup.newSecretLocks();
+        secretsGroup = new DefaultSecretsGroup("1234", group, store, encryptor, readWriteLock, secretLocks);
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        encryptor.released.countDown();
+        executor.shutdownNow();
+    }
+
+    private static NewSecretEntry newSecretEntry(String name, String value) {
+        return new NewSecretEntry(new SecretIdentifier(name), new SecretValue(value, SecretType.OPAQUE), State.ENABLED);
+    }
+
+    @Test
+    public void encryption_does_not_block_changes_to_other_secrets() throws Exception {
+        Future<RawSecretEntry> blocked = executor.submit(() -> secretsGroup.create(newSecretEntry("Blocked", "value")));
+        assertThat(encryptor.encrypting.await(10, TimeUnit.SECONDS), is(true));
+
+        secretsGroup.create(newSecretEntry("Other", "value1"));
+        secretsGroup.addVersion(newSecretEntry("Other", "value2"));
+        assertThat(blocked.isDone(), is(false));
+
+        encryptor.released.countDown();
+        assertThat(blocked.get(10, TimeUnit.SECONDS).version, is(1L));
+    }
+
+    @Test
+    public void adding_a_version_keeps_the_previous_version_readable() {
+        SecretIdentifier secretIdentifier = new SecretIdentifier("Rotated");
+        secretsGroup.create(newSecretEntry("Rotated", "value1"));
+        secretsGroup.addVersion(newSecretEntry("Rotated", "value2"));
+
+        assertThat(secretsGroup.getActive(secretIdentifier, 1).get().secretValue.asString(), is("value1"));
+        assertThat(secretsGroup.getActive(secretIdentifier, 2).get().secretValue.asString(), is("value2"));
+    }
+
+    @Test
+    public void concurrent_versions_of_the_same_secret_get_distinct_versions() throws Exception {
+        secretsGroup.create(newSecretEntry("Rotated", "value0"));
+
+        List<Future<RawSecretEntry>> versions = new ArrayList<>();
+        for (int i = 1; i <= 16; i++) {
+            String value = "value" + i;
+            versions.add(executor.submit(() -> secretsGroup.addVersion(newSecretEntry("Rotated", value))));
+        }
+
+        Set<Long> added = new TreeSet<>();
+        for (Future<RawSecretEntry> version : versions) {
+            added.add(version.get(10, TimeUnit.SECONDS).version);
+        }
+
+        assertThat(added.size(), is(16));
+        assertThat(secretsGroup.getLatestActiveVersion(new SecretIdentifier("Rotated")).get().version, is(17L));
+    }
+
+    @Test
+    public void delete_waits_for_changes_to_the_same_secret() throws Exception {
+        SecretIdentifier deleted = new SecretIdentifier("Deleted");
+        secretsGroup.create(newSecretEntry("Deleted", "value"));
+
+        Lock lock = secretLocks.get(deleted);
+        lock.lock();
+        Future<?> delete;
+        try {
+            delete = executor.submit(() -> secretsGroup.delete(deleted));
+            Thread.sleep(100);
+            assertThat(delete.isDone(), is(false));
+        } finally {
+            lock.unlock();
+        }
+
+        delete.get(10, TimeUnit.SECONDS);
+        assertThat(secretsGroup.identifiers().contains(deleted), is(false));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.impl;
+
+import com.schibsted.security.strongbox.sdk.exceptions.PotentiallyMaliciousDataException;
+import com.schibsted.security.strongbox.sdk.internal.converter.FormattedTimestamp;
+import com.schibsted.security.strongbox.sdk.internal.encryption.EncryptionPayload;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretType;
+import com.schibsted.security.strongbox.sdk.types.SecretValue;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ParallelDecryptionTest {
+    private static List<RawSecretEntry> entries(int count) {
+        List<RawSecretEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new RawSecretEntry(new SecretIdentifier("secret" + i), 1, State.ENABLED, Optional.empty(), Optional.empty(), new byte[]{}));
+        }
+        return entries;
+    }
+
+    private static SecretEntry decrypt(RawSecretEntry rawSecretEntry) {
+        ZonedDateTime now = FormattedTimestamp.now();
+        EncryptionPayload payload = new EncryptionPayload(new SecretValue(rawSecretEntry.secretIdentifier.name, SecretType.OPAQUE),
+                Optional.empty(), now, Optional.empty(), now, Optional.empty(), Optional.empty());
+        return new SecretEntry(payload, rawSecretEntry);
+    }
+
+    @Test
+    public void order_is_kept() {
+        List<SecretEntry> decrypted = ParallelDecryption.decrypt(entries(50), ParallelDecryptionTest::decrypt);
+
+        List<String> values = decrypted.stream()
+                .map(e -> e.secretValue.asString())
+                .collect(Collectors.toList());
+        List<String> expected = entries(50).stream()
+                .map(e -> e.secretIdentifier.name)
+                .collect(Collectors.toList());
+        assertThat(values, is(expected));
+    }
+
+    @Test(expectedExceptions = PotentiallyMaliciousDataException.class)
+    public void original_exception_is_thrown() {
+        ParallelDecryption.decrypt(entries(10), e -> {
+            if (e.secretIdentifier.name.equals("secret7")) {
+                throw new PotentiallyMaliciousDataException("tampered");
+            }
+            return decrypt(e);
+        });
+    }
+
+    @Test
+    public void entries_decrypted_after_a_failure_are_shredded() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        ConcurrentLinkedQueue<SecretEntry> decrypted = new ConcurrentLinkedQueue<>();
+        try {
+            ParallelDecryption.decrypt(entries(ParallelDecryption.MAX_CONCURRENT_DECRYPTIONS), e -> {
+                if (e.secretIdentifier.name.equals("secret0")) {
+                    throw new PotentiallyMaliciousDataException("tampered");
+                }
+                try {
+                    failed.await();
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                SecretEntry entry = decrypt(e);
+                decrypted.add(entry);
+                return entry;
+            });
+        } catch (PotentiallyMaliciousDataException e) {
+            failed.countDown();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (decrypted.size() < ParallelDecryption.MAX_CONCURRENT_DECRYPTIONS - 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        assertThat(decrypted.size(), is(ParallelDecryption.MAX_CONCURRENT_DECRYPTIONS - 1));
+        for (SecretEntry entry : decrypted) {
+            assertThat(isShredded(entry.secretValue.asByteArray()), is(true));
+        }
+    }
+
+    private static boolean isShredded(byte[] value) {
+        for (byte b : value) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
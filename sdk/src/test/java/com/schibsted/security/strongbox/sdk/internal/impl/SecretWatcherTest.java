@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.impl;
+
+import com.schibsted.security.strongbox.sdk.SecretSubscription;
+import com.schibsted.security.strongbox.sdk.SecretsGroup;
+import com.schibsted.security.strongbox.sdk.internal.encryption.DummyEncryptor;
+import com.schibsted.security.strongbox.sdk.internal.encryption.FileEncryptionContext;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.File;
+import com.schibsted.security.strongbox.sdk.types.NewSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.Region;
+import com.schibsted.security.strongbox.sdk.types.SecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.SecretMetadata;
+import com.schibsted.security.strongbox.sdk.types.SecretType;
+import com.schibsted.security.strongbox.sdk.types.SecretValue;
+import com.schibsted.security.strongbox.sdk.types.SecretWatchConfiguration;
+import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.schibsted.security.strongbox.sdk.internal.encryption.SecretsGroupTestHelpers.newStorePath;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SecretWatcherTest {
+    SecretsGroupIdentifier group = new SecretsGroupIdentifier(Region.EU_WEST_1, "my.group");
+    SecretIdentifier secretIdentifier = new SecretIdentifier("MySecret");
+
+    DummyEncryptor encryptor;
+    ReentrantReadWriteLock readWriteLock;
+    File store;
+    DefaultSecretsGroup secretsGroup;
+    List<Optional<SecretEntry>> changes;
+    SecretWatcher.Watch watch;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        encryptor = new DummyEncryptor();
+        readWriteLock = new ReentrantReadWriteLock();
+        store = new File(newStorePath("watch"), encryptor, new FileEncryptionContext(group), readWriteLock);
+        secretsGroup = new DefaultSecretsGroup("1234", group, store, encryptor, readWriteLock);
+        secretsGroup.create(new NewSecretEntry(secretIdentifier, new SecretValue("value1", SecretType.OPAQUE), State.ENABLED));
+
+        changes = new ArrayList<>();
+        watch = new SecretWatcher.Watch(secretsGroup, secretIdentifier, (id, latest) -> changes.add(latest), Runnable::run);
+    }
+
+    @Test
+    public void unchanged_secret_is_not_decrypted_again() {
+        watch.poll();
+        int decrypted = encryptor.decryptions.get();
+
+        watch.poll();
+        watch.poll();
+
+        assertThat(changes.size(), is(1));
+        assertThat(changes.get(0).get().secretValue.asString(), is("value1"));
+        assertThat(encryptor.decryptions.get(), is(decrypted));
+    }
+
+    @Test
+    public void new_version_is_delivered() {
+        watch.poll();
+        secretsGroup.addVersion(new NewSecretEntry(secretIdentifier, new SecretValue("value2", SecretType.OPAQUE), State.ENABLED));
+        watch.poll();
+
+        assertThat(changes.size(), is(2));
+        assertThat(changes.get(1).get().version, is(2L));
+        assertThat(changes.get(1).get().secretValue.asString(), is("value2"));
+    }
+
+    @Test
+    public void disabling_the_secret_is_delivered() {
+        watch.poll();
+        secretsGroup.update(new SecretMetadata(secretIdentifier, 1, Optional.of(State.DISABLED), Optional.empty(), Optional.empty(), Optional.empty()));
+        watch.poll();
+
+        assertThat(changes.size(), is(2));
+        assertThat(changes.get(1).isPresent(), is(false));
+    }
+
+    @Test
+    public void missing_secret_is_delivered_once() {
+        SecretIdentifier missing = new SecretIdentifier("MissingSecret");
+        watch = new SecretWatcher.Watch(secretsGroup, missing, (id, latest) -> changes.add(latest), Runnable::run);
+
+        watch.poll();
+        watch.poll();
+
+        assertThat(changes.size(), is(1));
+        assertThat(changes.get(0).isPresent(), is(false));
+    }
+
+    @Test
+    public void failing_listener_does_not_stop_later_changes() {
+        watch = new SecretWatcher.Watch(secretsGroup, secretIdentifier, (id, latest) -> {
+            changes.add(latest);
+            throw new IllegalStateException("listener failed");
+        }, Runnable::run);
+
+        watch.poll();
+        secretsGroup.addVersion(new NewSecretEntry(secretIdentifier, new SecretValue("value2", SecretType.OPAQUE), State.ENABLED));
+        watch.poll();
+
+        assertThat(changes.size(), is(2));
+        assertThat(changes.get(1).get().version, is(2L));
+    }
+
+    @Test
+    public void version_that_stops_being_active_while_polling_is_retried() {
+        AtomicInteger raced = new AtomicInteger(1);
+        SecretsGroup racingGroup = new DefaultSecretsGroup("1234", group, store, encryptor, readWriteLock) {
+            @Override
+            public Optional<SecretEntry> getActive(SecretIdentifier secretIdentifier, long version) {
+                return (raced.getAndDecrement() > 0) ? Optional.empty() : super.getActive(secretIdentifier, version);
+            }
+        };
+        watch = new SecretWatcher.Watch(racingGroup, secretIdentifier, (id, latest) -> changes.add(latest), Runnable::run);
+
+        watch.poll();
+        watch.poll();
+
+        assertThat(changes.size(), is(1));
+        assertThat(changes.get(0).get().secretValue.asString(), is("value1"));
+    }
+
+    @Test
+    public void closing_the_group_cancels_its_watches() {
+        SecretSubscription subscription = SecretWatcher.watch(secretsGroup, secretIdentifier, (id, latest) -> {}, new SecretWatchConfiguration(60, Runnable::run));
+        assertThat(SecretWatcher.isWatched(secretsGroup), is(true));
+
+        secretsGroup.close();
+
+        assertThat(SecretWatcher.isWatched(secretsGroup), is(false));
+        subscription.close();
+    }
+
+    @Test
+    public void closed_subscriptions_are_forgotten() {
+        SecretSubscription subscription = SecretWatcher.watch(secretsGroup, secretIdentifier, (id, latest) -> {}, new SecretWatchConfiguration(60, Runnable::run));
+
+        subscription.close();
+
+        assertThat(SecretWatcher.isWatched(secretsGroup), is(false));
+    }
+
+    @Test
+    public void cancelled_watch_is_not_delivered() {
+        watch.cancel();
+        watch.poll();
+
+        assertThat(changes.size(), is(0));
+    }
+}
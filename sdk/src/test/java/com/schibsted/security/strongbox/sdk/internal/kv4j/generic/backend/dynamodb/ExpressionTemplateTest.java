@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.Parser;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.QueryShape;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend.RSEF;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.name;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.notAfter;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.state;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.version;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class ExpressionTemplateTest {
+
+    private RSEF.KeyCondition keyCondition(String secretName, long maxVersion) {
+        return name.eq(new SecretIdentifier(secretName)).AND(version.le(maxVersion));
+    }
+
+    private RSEF.AttributeCondition attributeCondition(State expectedState) {
+        return state.eq(expectedState).AND(notAfter.isNotPresent()).OR(state.eq(State.COMPROMISED));
+    }
+
+    @Test
+    public void same_condition_can_be_parsed_more_than_once() {
+        RSEF.AttributeCondition condition = attributeCondition(State.ENABLED);
+
+        String first = new FilterGenerator().process(Parser.<RawSecretEntry>createAST(condition), Config.converters).filterExpression;
+        String second = new FilterGenerator().process(Parser.<RawSecretEntry>createAST(condition), Config.converters).filterExpression;
+
+        assertThat(second, is(first));
+    }
+
+    @Test
+    public void queries_with_the_same_shape_share_the_template() {
+        QueryShape first = QueryShape.of(Parser.<RawSecretEntry>createAST(attributeCondition(State.ENABLED)));
+        QueryShape second = QueryShape.of(Parser.<RawSecretEntry>createAST(attributeCondition(State.DISABLED)));
+        QueryShape other = QueryShape.of(Parser.<RawSecretEntry>createAST(state.eq(State.ENABLED).OR(notAfter.isNotPresent())));
+
+        assertThat(second.key, is(first.key));
+        assertThat(other.key, is(not(first.key)));
+        assertThat(second.literals.get(0), is(State.DISABLED));
+    }
+
+    @Test
+    public void bound_template_matches_the_generated_expressions() {
+        RSEF.ParsedKeyCondition<RawSecretEntry> parsedKeyCondition = Parser.createAST(keyCondition("MySecret", 3L));
+        RSEF.ParsedAttributeCondition<RawSecretEntry> parsedAttributeCondition = Parser.createAST(attributeCondition(State.DISABLED));
+
+        ExpressionTemplate template = ExpressionTemplate.forQuery(
+                Parser.createAST(keyCondition("OtherSecret", 1L)),
+                Optional.of(Parser.createAST(attributeCondition(State.ENABLED))),
+                Config.converters);
+        Map<String, AttributeValue> values = template.bind(QueryShape.of(parsedKeyCondition).literals,
+                QueryShape.of(parsedAttributeCondition).literals, Config.converters);
+
+        KeyExpressionGenerator.KeyCondition keyExpression = new KeyExpressionGenerator().process(parsedKeyCondition, Config.converters);
+        FilterGenerator.Filter filter = new FilterGenerator(keyExpression.expressionAttributeValues.size() + 1)
+                .process(parsedAttributeCondition, Config.converters);
+
+        assertThat(template.keyConditionExpression.get(), is(keyExpression.keyConditionExpression));
+        assertThat(template.filterExpression.get(), is(filter.filterExpression));
+        assertThat(values, is(FilterGenerator.merge(keyExpression.expressionAttributeValues, filter.expressionAttributeValues)));
+        assertThat(template.expressionAttributeNames, is(FilterGenerator.merge(keyExpression.expressionAttributeNames, filter.expressionAttributeNames)));
+    }
+}
@@ -6,14 +6,20 @@ package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.dynam
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.AmazonDynamoDBException;
 import com.amazonaws.services.dynamodbv2.model.AttributeAction;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
 import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
 import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
@@ -22,6 +28,7 @@ import com.amazonaws.services.dynamodbv2.model.ScanResult;
 import com.amazonaws.services.dynamodbv2.model.TableDescription;
 import com.amazonaws.services.dynamodbv2.model.TableStatus;
 import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 import com.schibsted.security.strongbox.sdk.exceptions.AlreadyExistsException;
 import com.schibsted.security.strongbox.sdk.exceptions.DoesNotExistException;
 import com.schibsted.security.strongbox.sdk.exceptions.PotentiallyMaliciousDataException;
@@ -35,20 +42,30 @@ import com.schibsted.security.strongbox.sdk.types.Region;
 import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
 import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
 import com.schibsted.security.strongbox.sdk.types.State;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.*;
 import static org.mockito.Mockito.*;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.active;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.metadata;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.name;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.version;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 /**
  * @author kvlees
@@ -221,6 +238,18 @@ public class GenericDynamoDBTest {
         return request;
     }
 
+    private static ScanRequest constructKeySetScanRequest() {
+        Map<String, String> expressionAttributeNames = new HashMap<>();
+        expressionAttributeNames.put("#p1", KEY_ATTRIBUTE_NAME.toString());
+        expressionAttributeNames.put("#p2", VERSION_ATTRIBUTE_NAME.toString());
+
+        return new ScanRequest()
+                .withConsistentRead(true)
+                .withTableName(tableName)
+                .withExpressionAttributeNames(expressionAttributeNames)
+                .withProjectionExpression("#p1, #p2");
+    }
+
     @Test
     public void testCreateTableWithWait() throws Exception {
         // Create fake responses from AWS. First response is still creating the table, second response the table
@@ -322,7 +351,7 @@ public class GenericDynamoDBTest {
 
     @Test
     public void testKeySet() throws Exception {
-        ScanRequest request = new ScanRequest().withConsistentRead(true).withTableName(tableName);
+        ScanRequest request = constructKeySetScanRequest();
         ScanResult result = constructScanResult();
         when(mockDynamoDBClient.scan(request)).thenReturn(result);
 
@@ -337,7 +366,7 @@ public class GenericDynamoDBTest {
 
     @Test
     public void testKeySetEmpty() throws Exception {
-        ScanRequest request = new ScanRequest().withConsistentRead(true).withTableName(tableName);
+        ScanRequest request = constructKeySetScanRequest();
         ScanResult result = new ScanResult().withCount(0).withItems(new ArrayList<>());
         when(mockDynamoDBClient.scan(request)).thenReturn(result);
 
@@ -400,4 +429,197 @@ public class GenericDynamoDBTest {
         verify(mockDynamoDBClient, times(1)).query(request);
         verify(mockDynamoDBClient, never()).deleteItem(tableName, constructKey(SECRET_NAME, 1));
     }
+
+    @Test
+    public void testFindFirstOnlyFetchesFirstPage() {
+        QueryResult firstPage = constructQueryResult(false).withLastEvaluatedKey(constructKey(SECRET_NAME, 2));
+        when(mockDynamoDBClient.query(any(QueryRequest.class))).thenReturn(firstPage);
+
+        Optional<RawSecretEntry> first = dynamoDB.stream().filter(name.eq(new SecretIdentifier(SECRET_NAME))).findFirst();
+        assertEquals(first.get().version, Long.valueOf(1));
+
+        verify(mockDynamoDBClient, times(1)).query(any(QueryRequest.class));
+    }
+
+    @Test
+    public void testToListFetchesAllPages() {
+        QueryResult firstPage = constructQueryResult(false).withLastEvaluatedKey(constructKey(SECRET_NAME, 2));
+        QueryResult secondPage = constructQueryResult(false);
+        when(mockDynamoDBClient.query(any(QueryRequest.class))).thenReturn(firstPage, secondPage);
+
+        List<RawSecretEntry> entries = dynamoDB.stream().filter(name.eq(new SecretIdentifier(SECRET_NAME))).toList();
+        assertEquals(entries.size(), 4);
+
+        verify(mockDynamoDBClient, times(2)).query(any(QueryRequest.class));
+    }
+
+    @Test
+    public void testKeySetWithParallelScan() throws Exception {
+        ScanRequest segment0 = constructKeySetScanRequest().withSegment(0).withTotalSegments(2);
+        ScanRequest segment1 = constructKeySetScanRequest().withSegment(1).withTotalSegments(2);
+        when(mockDynamoDBClient.scan(segment0)).thenReturn(constructScanResult());
+        when(mockDynamoDBClient.scan(segment1)).thenReturn(new ScanResult().withCount(0).withItems(new ArrayList<>()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            dynamoDB.enableParallelScan(2, executor);
+
+            Set<SecretIdentifier> keys = dynamoDB.keySet();
+            assertEquals(keys.size(), 2);
+            assertTrue(keys.contains(new SecretIdentifier(SECRET_NAME)));
+            assertTrue(keys.contains(new SecretIdentifier(SECRET2_NAME)));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(mockDynamoDBClient, times(1)).scan(segment0);
+        verify(mockDynamoDBClient, times(1)).scan(segment1);
+    }
+
+    @Test
+    public void testMetadataProjectionSkipsEncryptedPayload() {
+        QueryRequest request = constructQueryRequest(SECRET_NAME);
+        Map<String, String> expressionAttributeNames = new HashMap<>(request.getExpressionAttributeNames());
+        expressionAttributeNames.put("#p1", KEY_ATTRIBUTE_NAME.toString());
+        expressionAttributeNames.put("#p2", VERSION_ATTRIBUTE_NAME.toString());
+        expressionAttributeNames.put("#p3", STATE_ATTRIBUTE_NAME.toString());
+        expressionAttributeNames.put("#p4", NOT_BEFORE_ATTRIBUTE_NAME.toString());
+        expressionAttributeNames.put("#p5", "5");
+        request.withExpressionAttributeNames(expressionAttributeNames).withProjectionExpression("#p1, #p2, #p3, #p4, #p5");
+
+        // The server leaves out the encrypted payload and the optimistic lock
+        ArrayList<Map<String, AttributeValue>> items = constructItems(false);
+        items.forEach(item -> {
+            item.remove(VALUE_ATTRIBUTE_NAME.toString());
+            item.remove(OPTIMISTIC_LOCKING_ATTRIBUTE_NAME);
+        });
+        when(mockDynamoDBClient.query(request)).thenReturn(new QueryResult().withItems(items).withCount(items.size()));
+
+        List<RawSecretEntry> entries = dynamoDB.stream()
+                .filter(name.eq(new SecretIdentifier(SECRET_NAME)))
+                .project(metadata())
+                .toList();
+
+        assertEquals(entries.size(), 2);
+        assertEquals(entries.get(0).state, State.ENABLED);
+        assertNull(entries.get(0).encryptedPayload);
+        verify(mockDynamoDBClient, times(1)).query(request);
+    }
+
+    @Test
+    public void testExactKeyUsesGetItem() {
+        GetItemRequest request = new GetItemRequest()
+                .withTableName(tableName)
+                .withConsistentRead(true)
+                .withKey(constructKey(SECRET_NAME, 2));
+        when(mockDynamoDBClient.getItem(request)).thenReturn(new GetItemResult().withItem(constructItems(false).get(1)));
+
+        Optional<RawSecretEntry> entry = dynamoDB.stream()
+                .filter(name.eq(new SecretIdentifier(SECRET_NAME)).AND(version.eq(2L)))
+                .findFirst();
+        assertEquals(entry.get().version, Long.valueOf(2));
+
+        verify(mockDynamoDBClient, times(1)).getItem(request);
+        verify(mockDynamoDBClient, never()).query(any(QueryRequest.class));
+    }
+
+    @Test(expectedExceptions = PotentiallyMaliciousDataException.class)
+    public void testExactKeyWithWrongItem() {
+        when(mockDynamoDBClient.getItem(any(GetItemRequest.class))).thenReturn(new GetItemResult().withItem(constructItems(false).get(0)));
+
+        dynamoDB.stream()
+                .filter(name.eq(new SecretIdentifier(SECRET_NAME)).AND(version.eq(2L)))
+                .findFirst();
+    }
+
+    @Test
+    public void testExactKeyFallsBackToQueryWithoutGetItemPermission() {
+        AmazonDynamoDBException accessDenied = new AmazonDynamoDBException("Access denied");
+        accessDenied.setErrorCode("AccessDeniedException");
+        when(mockDynamoDBClient.getItem(any(GetItemRequest.class))).thenThrow(accessDenied);
+        QueryResult result = new QueryResult().withItems(Collections.singletonList(constructItems(false).get(1))).withCount(1);
+        when(mockDynamoDBClient.query(any(QueryRequest.class))).thenReturn(result);
+
+        for (int i = 0; i < 2; i++) {
+            Optional<RawSecretEntry> entry = dynamoDB.stream()
+                    .filter(name.eq(new SecretIdentifier(SECRET_NAME)).AND(version.eq(2L)))
+                    .findFirst();
+            assertEquals(entry.get().version, Long.valueOf(2));
+        }
+
+        // GetItem is not retried once it has been denied
+        verify(mockDynamoDBClient, times(1)).getItem(any(GetItemRequest.class));
+        verify(mockDynamoDBClient, times(2)).query(any(QueryRequest.class));
+    }
+
+    @Test
+    public void testLatestVersionReadsOneItem() {
+        QueryRequest request = constructQueryRequest(SECRET_NAME).withScanIndexForward(false).withLimit(1);
+        QueryResult result = new QueryResult()
+                .withItems(Collections.singletonList(constructItems(false).get(1)))
+                .withCount(1)
+                .withLastEvaluatedKey(constructKey(SECRET_NAME, 2));
+        when(mockDynamoDBClient.query(request)).thenReturn(result);
+
+        Optional<RawSecretEntry> latest = dynamoDB.stream()
+                .filter(name.eq(new SecretIdentifier(SECRET_NAME)))
+                .reverse()
+                .findFirst();
+        assertEquals(latest.get().version, Long.valueOf(2));
+
+        verify(mockDynamoDBClient, times(1)).query(request);
+    }
+
+    @Test
+    public void testLimitIsPushedDownWithFilterExpression() {
+        QueryResult filteredPage = new QueryResult()
+                .withItems(Collections.emptyList())
+                .withCount(0)
+                .withLastEvaluatedKey(constructKey(SECRET_NAME, 2));
+        QueryResult matchingPage = new QueryResult()
+                .withItems(Collections.singletonList(constructItems(false).get(0)))
+                .withCount(1);
+        when(mockDynamoDBClient.query(any(QueryRequest.class))).thenReturn(filteredPage, matchingPage);
+
+        Optional<RawSecretEntry> latest = dynamoDB.stream()
+                .filter(name.eq(new SecretIdentifier(SECRET_NAME)))
+                .filter(active())
+                .reverse()
+                .findFirst();
+        assertEquals(latest.get().version, Long.valueOf(1));
+
+        // A page without matching entries is followed by the next one
+        ArgumentCaptor<QueryRequest> request = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(mockDynamoDBClient, times(2)).query(request.capture());
+        assertEquals(request.getValue().getLimit(), Integer.valueOf(1));
+        assertFalse(request.getValue().getScanIndexForward());
+    }
+
+    @Test
+    public void testCreateAllWritesInBatches() throws Exception {
+        when(mockDynamoDBClient.batchWriteItem(any(BatchWriteItemRequest.class))).thenReturn(
+                new BatchWriteItemResult().withUnprocessedItems(new HashMap<>()));
+
+        List<RawSecretEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            entries.add(constructRawEntry("secret" + i));
+        }
+        dynamoDB.createAll(entries.stream());
+
+        verify(mockDynamoDBClient, times(2)).batchWriteItem(any(BatchWriteItemRequest.class));
+        verify(mockDynamoDBClient, never()).updateItem(any(UpdateItemRequest.class));
+    }
+
+    @Test
+    public void testCreateAllRetriesUnprocessedItems() throws Exception {
+        Map<String, List<WriteRequest>> unprocessed = new HashMap<>();
+        unprocessed.put(tableName, Collections.singletonList(new WriteRequest().withPutRequest(new PutRequest())));
+        when(mockDynamoDBClient.batchWriteItem(any(BatchWriteItemRequest.class))).thenReturn(
+                new BatchWriteItemResult().withUnprocessedItems(unprocessed),
+                new BatchWriteItemResult().withUnprocessedItems(new HashMap<>()));
+
+        dynamoDB.createAll(Stream.of(constructRawEntry(SECRET_NAME)));
+
+        verify(mockDynamoDBClient, times(2)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ParallelScanSpliteratorTest {
+    ExecutorService executor;
+    ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A segment of {@code pages} pages with two items each, named after the segment, page and item
+     */
+    private Function<Map<String, AttributeValue>, PageSpliterator.Page<String>> segment(String name, int pages, AtomicInteger fetches) {
+        return exclusiveStartKey -> {
+            fetches.incrementAndGet();
+            int page = (exclusiveStartKey == null) ? 0 : Integer.parseInt(exclusiveStartKey.get("page").getN());
+            Map<String, AttributeValue> lastEvaluatedKey = (page + 1 < pages)
+                    ? Collections.singletonMap("page", new AttributeValue().withN(String.valueOf(page + 1)))
+                    : null;
+            return new PageSpliterator.Page<>(Arrays.asList(name + page + "a", name + page + "b"), lastEvaluatedKey);
+        };
+    }
+
+    @Test
+    public void segments_are_returned_in_order() {
+        AtomicInteger fetches = new AtomicInteger();
+        List<Function<Map<String, AttributeValue>, PageSpliterator.Page<String>>> segments = Arrays.asList(
+                segment("x", 3, fetches), segment("y", 1, fetches), segment("z", 2, fetches));
+
+        try (Stream<String> items = ParallelScanSpliterator.stream(segments, executor, readWriteLock.readLock())) {
+            assertThat(items.collect(Collectors.toList()), is(Arrays.asList(
+                    "x0a", "x0b", "x1a", "x1b", "x2a", "x2b", "y0a", "y0b", "z0a", "z0b", "z1a", "z1b")));
+        }
+        assertThat(fetches.get(), is(6));
+    }
+
+    @Test
+    public void segments_only_read_a_few_pages_ahead() throws Exception {
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger second = new AtomicInteger();
+        List<Function<Map<String, AttributeValue>, PageSpliterator.Page<String>>> segments = Arrays.asList(
+                segment("x", 100, first), segment("y", 100, second));
+
+        Iterator<String> items = ParallelScanSpliterator.stream(segments, executor, readWriteLock.readLock()).iterator();
+        assertThat(items.next(), is("x0a"));
+        Thread.sleep(200);
+
+        // The consumed page, and the pages read ahead of the consumer
+        assertThat(first.get(), is(1 + ParallelScanSpliterator.PAGES_AHEAD));
+        assertThat(second.get(), is(ParallelScanSpliterator.PAGES_AHEAD));
+    }
+
+    @Test
+    public void closing_the_stream_stops_the_segments() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        List<Function<Map<String, AttributeValue>, PageSpliterator.Page<String>>> segments = Collections.singletonList(
+                exclusiveStartKey -> {
+                    fetches.incrementAndGet();
+                    return new PageSpliterator.Page<>(new ArrayList<>(Collections.singletonList("item")),
+                            Collections.singletonMap("page", new AttributeValue().withN("1")));
+                });
+
+        Stream<String> stream = ParallelScanSpliterator.stream(segments, executor, readWriteLock.readLock());
+        Iterator<String> items = stream.iterator();
+        for (int i = 0; i < 10; i++) {
+            items.next();
+        }
+        stream.close();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        int fetched = fetches.get();
+
+        assertThat(items.hasNext(), is(false));
+        assertThat(fetched <= 10 + ParallelScanSpliterator.PAGES_AHEAD + 1, is(true));
+        assertThat(fetches.get(), is(fetched));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void failures_are_rethrown_to_the_consumer() {
+        AtomicInteger fetches = new AtomicInteger();
+        List<Function<Map<String, AttributeValue>, PageSpliterator.Page<String>>> segments = Arrays.asList(
+                segment("x", 1, fetches),
+                exclusiveStartKey -> {
+                    throw new IllegalStateException("Throttled");
+                });
+
+        try (Stream<String> items = ParallelScanSpliterator.stream(segments, executor, readWriteLock.readLock())) {
+            items.collect(Collectors.toList());
+        }
+    }
+}
@@ -5,12 +5,12 @@
 package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.file;
 
 import com.schibsted.security.strongbox.sdk.internal.converter.FormattedTimestamp;
-import com.schibsted.security.strongbox.sdk.internal.encryption.EncryptionContext;
-import com.schibsted.security.strongbox.sdk.internal.encryption.Encryptor;
 import com.schibsted.security.strongbox.sdk.internal.encryption.FileEncryptionContext;
 import com.schibsted.security.strongbox.sdk.internal.converter.Encoder;
+import com.schibsted.security.strongbox.sdk.internal.encryption.DummyEncryptor;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.File;
-import com.schibsted.security.strongbox.sdk.types.Encoding;
+import com.schibsted.security.strongbox.sdk.types.FileStoreFormat;
 import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
 import com.schibsted.security.strongbox.sdk.types.Region;
 import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
@@ -18,19 +18,26 @@ import com.schibsted.security.strongbox.sdk.types.SecretsGroupIdentifier;
 import com.schibsted.security.strongbox.sdk.types.State;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.schibsted.security.strongbox.sdk.internal.encryption.BinaryTestHelpers.assertByteArray;
 import static com.schibsted.security.strongbox.sdk.internal.encryption.BinaryTestHelpers.assertInt;
 import static com.schibsted.security.strongbox.sdk.internal.encryption.BinaryTestHelpers.assertLong;
 import static com.schibsted.security.strongbox.sdk.internal.encryption.BinaryTestHelpers.assertString;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.metadata;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.name;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 import static com.schibsted.security.strongbox.sdk.internal.encryption.BinaryTestHelpers.assertByte;
@@ -40,32 +47,7 @@ import static com.schibsted.security.strongbox.sdk.internal.encryption.BinaryTes
  */
 public class GenericFileTest {
 
-    private static class DummyEncryptor implements Encryptor {
-
-        @Override
-        public String encrypt(String data, EncryptionContext context) {
-            return null;
-        }
-
-        @Override
-        public String decrypt(String data, EncryptionContext context) {
-            return null;
-        }
-
-        @Override
-        public byte[] encrypt(byte[] data, EncryptionContext context) {
-            return Arrays.copyOf(data, data.length);
-        }
-
-        @Override
-        public byte[] decrypt(byte[] data, EncryptionContext context) {
-            return Arrays.copyOf(data, data.length);
-        }
-    }
-
-    java.io.File path = new java.io.File("test.sbx");
     SecretsGroupIdentifier group = new SecretsGroupIdentifier(Region.EU_WEST_1, "my.group");
-    File file = new File(path, new DummyEncryptor(), new FileEncryptionContext(group), new ReentrantReadWriteLock());
 
     SecretIdentifier secretIdentifier = new SecretIdentifier("MySecret");
     long version = 1;
@@ -76,10 +58,8 @@ public class GenericFileTest {
     RawSecretEntry rawSecretEntry = new RawSecretEntry(secretIdentifier, version, state, Optional.of(timestamp), Optional.empty(), payload);
 
     @Test
-    public void test() {
-        if (path.exists()) {
-            path.delete();
-        }
+    public void test() throws Exception {
+        File file = open(tempPath("test"));
 
         file.create(rawSecretEntry);
         byte[] serialized = file.toByteArray();
@@ -96,6 +76,225 @@ public class GenericFileTest {
         assertThat(list.get(0), is(rawSecretEntry));
     }
 
+    @Test
+    public void projection() throws Exception {
+        File projectionFile = open(tempPath("projection"));
+        projectionFile.create(rawSecretEntry);
+
+        RawSecretEntry projected = projectionFile.stream()
+                .filter(name.eq(secretIdentifier))
+                .project(metadata())
+                .findFirst().get();
+
+        assertThat(projected.secretIdentifier, is(secretIdentifier));
+        assertThat(projected.version, is(version));
+        assertThat(projected.state, is(state));
+        assertThat(projected.notBefore, is(Optional.of(timestamp)));
+        assertThat(projected.encryptedPayload, is(nullValue()));
+
+        // The stored entry is left untouched
+        assertThat(projectionFile.stream().filter(name.eq(secretIdentifier)).findFirst().get(), is(rawSecretEntry));
+    }
+
+    @Test
+    public void versions_are_ordered() throws Exception {
+        File orderedFile = open(tempPath("ordered"));
+
+        SecretIdentifier otherSecretIdentifier = new SecretIdentifier("MyOtherSecret");
+        for (long v : new long[]{3, 1, 5, 2, 4}) {
+            orderedFile.create(new RawSecretEntry(secretIdentifier, v, state, Optional.empty(), Optional.empty(), payload));
+        }
+        orderedFile.create(new RawSecretEntry(otherSecretIdentifier, 7, state, Optional.empty(), Optional.empty(), payload));
+
+        assertThat(versions(orderedFile.stream().filter(name.eq(secretIdentifier)).toList()), is(Arrays.asList(1L, 2L, 3L, 4L, 5L)));
+        assertThat(orderedFile.stream().filter(name.eq(secretIdentifier)).reverse().findFirst().get().version, is(5L));
+        assertThat(versions(orderedFile.stream().filter(name.eq(secretIdentifier).AND(Config.version.ge(3L))).reverse().toList()), is(Arrays.asList(5L, 4L, 3L)));
+        assertThat(versions(orderedFile.stream().filter(name.eq(secretIdentifier).AND(Config.version.lt(3L))).toList()), is(Arrays.asList(1L, 2L)));
+
+        List<RawSecretEntry> latest = orderedFile.stream().reverse().uniquePrimaryKey().toList();
+        assertThat(latest.size(), is(2));
+        assertThat(latest.stream().filter(e -> e.secretIdentifier.equals(secretIdentifier)).findFirst().get().version, is(5L));
+    }
+
+    @Test
+    public void changes_are_persisted_without_close() throws Exception {
+        java.io.File path = tempPath("append");
+        File file = open(path, FileStoreFormat.INDEXED_LOG);
+        RawSecretEntry disabled = new RawSecretEntry(secretIdentifier, version, State.DISABLED, Optional.of(timestamp), Optional.empty(), payload);
+        SecretIdentifier otherSecretIdentifier = new SecretIdentifier("MyOtherSecret");
+
+        file.create(rawSecretEntry);
+        file.create(new RawSecretEntry(otherSecretIdentifier, 1, state, Optional.empty(), Optional.empty(), payload));
+        file.update(disabled, rawSecretEntry);
+        file.delete(otherSecretIdentifier);
+
+        File reopened = open(path);
+        assertThat(reopened.stream().toList(), is(Arrays.asList(disabled)));
+        assertThat(Files.readAllBytes(path.toPath())[0], is((byte) 3));
+    }
+
+    @Test
+    public void log_is_compacted() throws Exception {
+        java.io.File path = tempPath("compaction");
+        File file = open(path, FileStoreFormat.INDEXED_LOG);
+        file.create(rawSecretEntry);
+        long snapshotLength = path.length();
+
+        RawSecretEntry current = rawSecretEntry;
+        for (int i = 0; i < 200; i++) {
+            RawSecretEntry updated = new RawSecretEntry(secretIdentifier, version, i % 2 == 0 ? State.DISABLED : State.ENABLED, Optional.of(timestamp), Optional.empty(), payload);
+            file.update(updated, current);
+            current = updated;
+        }
+
+        assertThat(path.length() < 100 * snapshotLength, is(true));
+        assertThat(open(path).stream().toList().get(0).state, is(State.ENABLED));
+    }
+
+    @Test
+    public void log_is_not_compacted_while_it_is_smaller_than_the_entries() throws Exception {
+        java.io.File path = tempPath("versions");
+        DummyEncryptor encryptor = new DummyEncryptor();
+        File file = new File(path, encryptor, new FileEncryptionContext(group), new ReentrantReadWriteLock(), Optional.of(FileStoreFormat.INDEXED_LOG));
+        file.create(rawSecretEntry);
+        int snapshotEncryptions = encryptor.encryptions.get();
+
+        // Many versions of a single secret, each appended as one record
+        for (long v = 2; v <= 200; v++) {
+            file.create(new RawSecretEntry(secretIdentifier, v, state, Optional.empty(), Optional.empty(), payload));
+        }
+
+        assertThat(encryptor.encryptions.get(), is(snapshotEncryptions + 199));
+        assertThat(open(path).stream().toList().size(), is(200));
+    }
+
+    @Test
+    public void incomplete_record_is_ignored() throws Exception {
+        java.io.File path = tempPath("torn");
+        File file = open(path, FileStoreFormat.INDEXED_LOG);
+        file.create(rawSecretEntry);
+        file.create(new RawSecretEntry(secretIdentifier, 2, state, Optional.empty(), Optional.empty(), payload));
+
+        byte[] content = Files.readAllBytes(path.toPath());
+        Files.write(path.toPath(), Arrays.copyOf(content, content.length - 3));
+
+        File reopened = open(path);
+        assertThat(reopened.stream().toList(), is(Arrays.asList(rawSecretEntry)));
+
+        reopened.create(new RawSecretEntry(secretIdentifier, 3, state, Optional.empty(), Optional.empty(), payload));
+        assertThat(versions(open(path).stream().toList()), is(Arrays.asList(1L, 3L)));
+    }
+
+    @Test
+    public void version_1_files_are_converted() throws Exception {
+        java.io.File path = tempPath("legacy");
+        File file = open(path);
+        file.create(rawSecretEntry);
+        Files.write(path.toPath(), file.prependVersion(file.toByteArray()));
+
+        File reopened = open(path, FileStoreFormat.INDEXED_LOG);
+        assertThat(reopened.stream().toList(), is(Arrays.asList(rawSecretEntry)));
+
+        reopened.create(new RawSecretEntry(secretIdentifier, 2, state, Optional.empty(), Optional.empty(), payload));
+        assertThat(Files.readAllBytes(path.toPath())[0], is((byte) 3));
+        assertThat(versions(open(path).stream().toList()), is(Arrays.asList(1L, 2L)));
+    }
+
+    @Test
+    public void files_keep_their_format_by_default() throws Exception {
+        java.io.File path = tempPath("default");
+        File file = open(path);
+        file.create(rawSecretEntry);
+        file.close();
+        assertThat(Files.readAllBytes(path.toPath())[0], is((byte) 1));
+
+        File reopened = open(path);
+        reopened.create(new RawSecretEntry(secretIdentifier, 2, state, Optional.empty(), Optional.empty(), payload));
+        reopened.close();
+        assertThat(Files.readAllBytes(path.toPath())[0], is((byte) 1));
+        assertThat(versions(open(path).stream().toList()), is(Arrays.asList(1L, 2L)));
+
+        java.io.File indexedPath = tempPath("indexed");
+        open(indexedPath, FileStoreFormat.INDEXED_LOG).create(rawSecretEntry);
+        open(indexedPath).create(new RawSecretEntry(secretIdentifier, 2, state, Optional.empty(), Optional.empty(), payload));
+        assertThat(Files.readAllBytes(indexedPath.toPath())[0], is((byte) 3));
+        assertThat(versions(open(indexedPath).stream().toList()), is(Arrays.asList(1L, 2L)));
+    }
+
+    @Test
+    public void version_1_changes_are_written_on_close() throws Exception {
+        java.io.File path = tempPath("deferred");
+        DummyEncryptor encryptor = new DummyEncryptor();
+        File file = new File(path, encryptor, new FileEncryptionContext(group), new ReentrantReadWriteLock());
+        RawSecretEntry disabled = new RawSecretEntry(secretIdentifier, version, State.DISABLED, Optional.of(timestamp), Optional.empty(), payload);
+
+        file.create(rawSecretEntry);
+        file.create(new RawSecretEntry(secretIdentifier, 2, state, Optional.empty(), Optional.empty(), payload));
+        file.update(disabled, rawSecretEntry);
+        assertThat(path.exists(), is(false));
+        assertThat(encryptor.encryptions.get(), is(0));
+
+        file.close();
+        assertThat(encryptor.encryptions.get(), is(1));
+        assertThat(versions(open(path).stream().toList()), is(Arrays.asList(1L, 2L)));
+
+        // Nothing is written if nothing has changed
+        file.close();
+        assertThat(encryptor.encryptions.get(), is(1));
+    }
+
+    @Test
+    public void append_log_is_written_when_requested() throws Exception {
+        java.io.File path = tempPath("log");
+        File file = open(path, FileStoreFormat.APPEND_LOG);
+        file.createAll(Stream.of(rawSecretEntry));
+        long snapshotLength = path.length();
+
+        file.create(new RawSecretEntry(secretIdentifier, 2, state, Optional.empty(), Optional.empty(), payload));
+        assertThat(Files.readAllBytes(path.toPath())[0], is((byte) 2));
+        assertThat(path.length() > snapshotLength, is(true));
+        assertThat(versions(open(path).stream().toList()), is(Arrays.asList(1L, 2L)));
+    }
+
+    @Test
+    public void entries_are_decrypted_when_needed() throws Exception {
+        java.io.File path = tempPath("lazy");
+        File file = open(path, FileStoreFormat.INDEXED_LOG);
+        SecretIdentifier otherSecretIdentifier = new SecretIdentifier("MyOtherSecret");
+        RawSecretEntry otherEntry = new RawSecretEntry(otherSecretIdentifier, 1, state, Optional.empty(), Optional.empty(), payload);
+        file.createAll(Stream.of(rawSecretEntry, otherEntry));
+
+        DummyEncryptor encryptor = new DummyEncryptor();
+        File reopened = new File(path, encryptor, new FileEncryptionContext(group), new ReentrantReadWriteLock());
+        assertThat(encryptor.decryptions.get(), is(1));
+
+        assertThat(reopened.stream().uniquePrimaryKey().project().toList().size(), is(2));
+        assertThat(encryptor.decryptions.get(), is(1));
+
+        assertThat(reopened.stream().filter(name.eq(otherSecretIdentifier)).findFirst().get(), is(otherEntry));
+        assertThat(reopened.stream().filter(name.eq(otherSecretIdentifier)).findFirst().get(), is(otherEntry));
+        assertThat(encryptor.decryptions.get(), is(2));
+    }
+
+    private java.io.File tempPath(String prefix) throws IOException {
+        java.io.File path = java.io.File.createTempFile(prefix, ".sbx");
+        path.delete();
+        path.deleteOnExit();
+        return path;
+    }
+
+    private File open(java.io.File path) {
+        return new File(path, new DummyEncryptor(), new FileEncryptionContext(group), new ReentrantReadWriteLock());
+    }
+
+    private File open(java.io.File path, FileStoreFormat format) {
+        return new File(path, new DummyEncryptor(), new FileEncryptionContext(group), new ReentrantReadWriteLock(), Optional.of(format));
+    }
+
+    private List<Long> versions(List<RawSecretEntry> entries) {
+        return entries.stream().map(e -> e.version).collect(Collectors.toList());
+    }
+
     void verifyFileFormat(ByteBuffer byteBuffer) {
         assertByte("version", (byte)1, byteBuffer);
     }
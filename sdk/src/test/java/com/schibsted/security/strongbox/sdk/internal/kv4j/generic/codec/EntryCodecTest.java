@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec;
+
+import com.schibsted.security.strongbox.sdk.internal.converter.ByteArrayConverter;
+import com.schibsted.security.strongbox.sdk.internal.converter.Converters;
+import com.schibsted.security.strongbox.sdk.internal.converter.Encoder;
+import com.schibsted.security.strongbox.sdk.internal.converter.LongConverter;
+import com.schibsted.security.strongbox.sdk.internal.converter.SecretIdentifierConverter;
+import com.schibsted.security.strongbox.sdk.internal.converter.StateConverter;
+import com.schibsted.security.strongbox.sdk.internal.converter.ZonedDateTimeConverter;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class EntryCodecTest {
+    EntryCodec<RawSecretEntry> codec = EntryCodec.forClass(RawSecretEntry.class, Config.converters);
+
+    SecretIdentifier secretIdentifier = new SecretIdentifier("MySecret");
+    ZonedDateTime timestamp = ZonedDateTime.of(2016, 6, 1, 13, 37, 42, 0, ZoneId.of("UTC"));
+    RawSecretEntry rawSecretEntry = new RawSecretEntry(secretIdentifier, 1L, State.ENABLED, Optional.of(timestamp), Optional.empty(), Encoder.asUTF8("payload"));
+
+    @Test
+    public void fields_are_read_from_the_annotations() {
+        List<String> names = codec.fields.stream().map(field -> field.name).collect(Collectors.toList());
+        assertThat(names, is(Arrays.asList("secretIdentifier", "version", "state", "notBefore", "notAfter", "encryptedPayload")));
+
+        assertThat(codec.partitionKey.name, is("secretIdentifier"));
+        assertThat(codec.partitionKey.padding, is(128));
+        assertThat(codec.sortKey.name, is("version"));
+        assertThat(codec.attributes.get(Config.STATE).name, is("state"));
+        assertThat(codec.attributes.get(Config.NOT_BEFORE).optional, is(true));
+        assertThat(codec.attributes.get(Config.NOT_BEFORE).type, is(ZonedDateTime.class));
+    }
+
+    @Test
+    public void codecs_are_built_once_per_class() {
+        assertThat(EntryCodec.forClass(RawSecretEntry.class, Config.converters), is(sameInstance(codec)));
+    }
+
+    @Test
+    public void codecs_are_built_once_per_converters() {
+        Converters converters = new Converters(
+                new SecretIdentifierConverter(),
+                new LongConverter(),
+                new StateConverter(),
+                new ByteArrayConverter(),
+                new ZonedDateTimeConverter());
+        EntryCodec<RawSecretEntry> other = EntryCodec.forClass(RawSecretEntry.class, converters);
+
+        assertThat(other, is(not(sameInstance(codec))));
+        assertThat(EntryCodec.forClass(RawSecretEntry.class, converters), is(sameInstance(other)));
+        assertThat(EntryCodec.forClass(RawSecretEntry.class, Config.converters), is(sameInstance(codec)));
+    }
+
+    @Test
+    public void copy_through_converted_values() {
+        RawSecretEntry copy = codec.newInstance();
+        for (FieldCodec<RawSecretEntry> field : codec.fields) {
+            field.setConverted(copy, field.getConverted(rawSecretEntry));
+        }
+
+        assertThat(copy, is(rawSecretEntry));
+        assertThat(codec.partitionKey.getConverted(rawSecretEntry), is("MySecret"));
+        assertThat(codec.attributes.get(Config.NOT_AFTER).getConverted(rawSecretEntry), is(nullValue()));
+        assertThat(codec.attributes.get(Config.NOT_AFTER).fromConverted(null), is(Optional.empty()));
+    }
+}
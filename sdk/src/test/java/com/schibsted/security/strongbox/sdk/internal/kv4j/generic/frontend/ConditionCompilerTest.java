@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 Schibsted Products & Technology AS. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+ */
+
+package com.schibsted.security.strongbox.sdk.internal.kv4j.generic.frontend;
+
+import com.schibsted.security.strongbox.sdk.internal.converter.Encoder;
+import com.schibsted.security.strongbox.sdk.internal.converter.FormattedTimestamp;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config;
+import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.codec.EntryCodec;
+import com.schibsted.security.strongbox.sdk.types.RawSecretEntry;
+import com.schibsted.security.strongbox.sdk.types.SecretIdentifier;
+import com.schibsted.security.strongbox.sdk.types.State;
+import org.testng.annotations.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.name;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.notAfter;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.notBefore;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.state;
+import static com.schibsted.security.strongbox.sdk.internal.kv4j.generated.Config.version;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ConditionCompilerTest {
+    EntryCodec<RawSecretEntry> codec = EntryCodec.forClass(RawSecretEntry.class, Config.converters);
+
+    private List<RawSecretEntry> entries() {
+        ZonedDateTime now = FormattedTimestamp.now();
+        List<Optional<ZonedDateTime>> timestamps = new ArrayList<>();
+        timestamps.add(Optional.empty());
+        timestamps.add(Optional.of(now.minusDays(1)));
+        timestamps.add(Optional.of(now.plusDays(1)));
+
+        List<RawSecretEntry> entries = new ArrayList<>();
+        long version = 1;
+        for (State state : State.values()) {
+            for (Optional<ZonedDateTime> notBefore : timestamps) {
+                for (Optional<ZonedDateTime> notAfter : timestamps) {
+                    entries.add(new RawSecretEntry(new SecretIdentifier(version % 2 == 0 ? "even" : "odd"), version++,
+                            state, notBefore, notAfter, Encoder.asUTF8("value")));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void assertSameAsInterpreter(RSEF.AttributeCondition condition) {
+        RSEF.ParsedAttributeCondition<RawSecretEntry> parsed = Parser.createAST(condition);
+        Predicate<RawSecretEntry> compiled = ConditionCompiler.compile(parsed, codec);
+
+        for (RawSecretEntry entry : entries()) {
+            assertThat(compiled.test(entry), is(parsed.evaluate(entry)));
+        }
+    }
+
+    @Test
+    public void active() {
+        assertSameAsInterpreter(Config.active());
+    }
+
+    @Test
+    public void disabled() {
+        assertSameAsInterpreter(Config.disabled());
+    }
+
+    @Test
+    public void negation_and_comparisons_between_attributes() {
+        assertSameAsInterpreter(RSEF.NOT(state.eq(State.ENABLED)));
+        assertSameAsInterpreter(notBefore.get().lt(notAfter.get()).OR(notAfter.isPresent().AND(notBefore.isNotPresent())));
+    }
+
+    /**
+     * A rough comparison rather than a benchmark: after a warm-up, evaluating active() over the entries with the
+     * compiled predicate must not take longer than with the interpreter
+     */
+    @Test
+    public void compiled_condition_is_not_slower_than_the_interpreter() {
+        RSEF.ParsedAttributeCondition<RawSecretEntry> parsed = Parser.createAST(Config.active());
+        Predicate<RawSecretEntry> compiled = ConditionCompiler.compile(parsed, codec);
+        List<RawSecretEntry> entries = entries();
+
+        long interpreted = Long.MAX_VALUE;
+        long compiledTime = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            interpreted = Math.min(interpreted, time(entries, parsed::evaluate));
+            compiledTime = Math.min(compiledTime, time(entries, compiled));
+        }
+
+        assertThat(String.format("interpreter %d ns, compiled %d ns", interpreted, compiledTime), compiledTime <= interpreted, is(true));
+    }
+
+    private static long time(List<RawSecretEntry> entries, Predicate<RawSecretEntry> condition) {
+        long start = System.nanoTime();
+        int matches = 0;
+        for (int i = 0; i < 1000; i++) {
+            for (RawSecretEntry entry : entries) {
+                if (condition.test(entry)) {
+                    matches++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertThat(matches > 0, is(true));
+        return elapsed;
+    }
+
+    @Test
+    public void key_condition() {
+        RSEF.ParsedKeyCondition<RawSecretEntry> parsed = Parser.createAST(name.eq(new SecretIdentifier("even")).AND(version.gt(10L)));
+        Predicate<RawSecretEntry> compiled = ConditionCompiler.compile(parsed, codec);
+
+        for (RawSecretEntry entry : entries()) {
+            assertThat(compiled.test(entry), is(parsed.evaluate(entry)));
+        }
+    }
+
+    @Test
+    public void filter() {
+        RSEF.KeyCondition keyCondition = name.eq(new SecretIdentifier("even"));
+        RSEF.ParsedKeyCondition<RawSecretEntry> parsed = Parser.createAST(keyCondition);
+        SecretEventStream.Filter<RawSecretEntry> filter = new SecretEventStream.Filter<>(Optional.of(keyCondition), Optional.of(parsed), Optional.empty(), Optional.empty(), false, false);
+
+        ConditionCompiler.CompiledFilter<RawSecretEntry> compiled = ConditionCompiler.compile(filter, codec);
+        assertThat(compiled.attributeCondition.isPresent(), is(false));
+        for (RawSecretEntry entry : entries()) {
+            assertThat(compiled.keyCondition.get().test(entry), is(parsed.evaluate(entry)));
+        }
+    }
+}
@@ -6,8 +6,7 @@ package com.schibsted.security.strongbox.sdk.internal.stream.file;
 
 import com.schibsted.security.strongbox.sdk.exceptions.UnexpectedStateException;
 import com.schibsted.security.strongbox.sdk.internal.converter.Encoder;
-import com.schibsted.security.strongbox.sdk.internal.encryption.EncryptionContext;
-import com.schibsted.security.strongbox.sdk.internal.encryption.Encryptor;
+import com.schibsted.security.strongbox.sdk.internal.encryption.DummyEncryptor;
 import com.schibsted.security.strongbox.sdk.internal.encryption.FileEncryptionContext;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generated.File;
 import com.schibsted.security.strongbox.sdk.internal.kv4j.generic.backend.file.GenericFile;
@@ -21,7 +20,6 @@ import org.testng.annotations.Test;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -38,29 +36,6 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
  */
 public class FileTest {
 
-    private static class DummyEncryptor implements Encryptor {
-
-        @Override
-        public String encrypt(String data, EncryptionContext context) {
-            return null;
-        }
-
-        @Override
-        public String decrypt(String data, EncryptionContext context) {
-            return null;
-        }
-
-        @Override
-        public byte[] encrypt(byte[] data, EncryptionContext context) {
-            return Arrays.copyOf(data, data.length);
-        }
-
-        @Override
-        public byte[] decrypt(byte[] data, EncryptionContext context) {
-            return Arrays.copyOf(data, data.length);
-        }
-    }
-
     SecretsGroupIdentifier group = new SecretsGroupIdentifier(Region.EU_WEST_1, "my.group");
 
     @Test